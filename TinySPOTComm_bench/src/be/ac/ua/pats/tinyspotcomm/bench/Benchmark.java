@@ -0,0 +1,62 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+package be.ac.ua.pats.tinyspotcomm.bench;
+
+/**
+ * A single micro benchmark: one operation that is timed by the {@link BenchmarkRunner}.
+ *
+ * Subclasses prepare their fixtures in {@link #setUp()} and perform exactly one
+ * operation per call of {@link #op()}. The value returned by {@link #op()} is
+ * accumulated by the runner so that the JIT cannot discard the work.
+ */
+public abstract class Benchmark
+{
+	private final String name;
+
+	/**
+	 * @param name the name under which the results are reported
+	 */
+	protected Benchmark(String name)
+	{
+		this.name = name;
+	}
+
+	/**
+	 * @return the name under which the results are reported
+	 */
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * Prepare the fixtures used by {@link #op()}. Called once before warm up.
+	 *
+	 * @throws Exception when the fixtures cannot be created
+	 */
+	public void setUp() throws Exception
+	{
+	}
+
+	/**
+	 * Perform the measured operation once.
+	 *
+	 * @return a value derived from the result of the operation
+	 * @throws Exception when the operation fails
+	 */
+	public abstract int op() throws Exception;
+}
@@ -0,0 +1,178 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+package be.ac.ua.pats.tinyspotcomm.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Vector;
+
+/**
+ * Runs {@link Benchmark}s on a desktop JVM and reports the average time and the
+ * number of bytes allocated per operation.
+ *
+ * Each benchmark is warmed up for a fixed time, which is also used to size the
+ * batches so that every measured round takes roughly the requested time. The
+ * mean, minimum and maximum over all rounds are reported, one line per
+ * benchmark, so that the output can be kept as a baseline and compared later.
+ *
+ * Usage: <code>BenchmarkRunner [-w warmupMillis] [-r rounds] [-t roundMillis] [name-filter ...]</code>
+ */
+public class BenchmarkRunner
+{
+	private static final long NANOS_PER_MILLI = 1000000L;
+
+	private long warmupMillis = 1000;
+	private int rounds = 10;
+	private long roundMillis = 200;
+	private final Vector filters = new Vector();
+	private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+	private int sink;
+
+	/**
+	 * @param args the command line arguments
+	 * @throws Exception when a benchmark fails
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		BenchmarkRunner runner = new BenchmarkRunner();
+		for (int i = 0; i < args.length; i++)
+		{
+			if (args[i].equals("-w"))
+				runner.warmupMillis = Long.parseLong(args[++i]);
+			else if (args[i].equals("-r"))
+				runner.rounds = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-t"))
+				runner.roundMillis = Long.parseLong(args[++i]);
+			else
+				runner.filters.addElement(args[i]);
+		}
+		Benchmark[] codecs = CodecBenchmarks.all();
+		Benchmark[] linkCosts = LinkCostBenchmarks.all();
+		Benchmark[] benchmarks = new Benchmark[codecs.length + linkCosts.length];
+		System.arraycopy(codecs, 0, benchmarks, 0, codecs.length);
+		System.arraycopy(linkCosts, 0, benchmarks, codecs.length, linkCosts.length);
+		runner.run(benchmarks);
+	}
+
+	/**
+	 * Run all benchmarks that match the name filters.
+	 *
+	 * @param benchmarks the benchmarks to run
+	 * @throws Exception when a benchmark fails
+	 */
+	public void run(Benchmark[] benchmarks) throws Exception
+	{
+		System.out.println("# warmup " + warmupMillis + " ms, " + rounds + " rounds of " + roundMillis + " ms, " + System.getProperty("java.vm.name") + " "
+				+ System.getProperty("java.version"));
+		System.out.println(pad("benchmark", 40) + pad("ns/op", 12) + pad("min", 12) + pad("max", 12) + "bytes/op");
+		for (int i = 0; i < benchmarks.length; i++)
+		{
+			if (matches(benchmarks[i].getName()))
+			{
+				run(benchmarks[i]);
+			}
+		}
+		// keep the accumulated results alive
+		if (sink == 42)
+			System.out.println("#");
+	}
+
+	private void run(Benchmark b) throws Exception
+	{
+		b.setUp();
+
+		// warm up, counting how many operations fit in a round
+		long ops = 0;
+		long start = System.nanoTime();
+		long warmupEnd = start + warmupMillis * NANOS_PER_MILLI;
+		long now;
+		do
+		{
+			for (int i = 0; i < 1000; i++)
+			{
+				sink += b.op();
+			}
+			ops += 1000;
+			now = System.nanoTime();
+		}
+		while (now < warmupEnd);
+		long batch = Math.max(1, ops * roundMillis / Math.max(1, (now - start) / NANOS_PER_MILLI));
+
+		double total = 0;
+		double min = Double.MAX_VALUE;
+		double max = 0;
+		long allocated = 0;
+		for (int r = 0; r < rounds; r++)
+		{
+			long bytesBefore = allocatedBytes();
+			long t0 = System.nanoTime();
+			for (long i = 0; i < batch; i++)
+			{
+				sink += b.op();
+			}
+			long t1 = System.nanoTime();
+			allocated += allocatedBytes() - bytesBefore;
+			double nsPerOp = (double) (t1 - t0) / batch;
+			total += nsPerOp;
+			min = Math.min(min, nsPerOp);
+			max = Math.max(max, nsPerOp);
+		}
+		String bytesPerOp = allocatedBytes() < 0 ? "n/a" : format((double) allocated / (batch * rounds));
+		System.out.println(pad(b.getName(), 40) + pad(format(total / rounds), 12) + pad(format(min), 12) + pad(format(max), 12) + bytesPerOp);
+	}
+
+	/**
+	 * @return the number of bytes allocated by the current thread so far, or -1
+	 *         if the JVM cannot tell
+	 */
+	private long allocatedBytes()
+	{
+		if (threadBean instanceof com.sun.management.ThreadMXBean)
+		{
+			return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	private boolean matches(String name)
+	{
+		if (filters.isEmpty())
+			return true;
+		for (int i = 0; i < filters.size(); i++)
+		{
+			if (name.indexOf((String) filters.elementAt(i)) >= 0)
+				return true;
+		}
+		return false;
+	}
+
+	private static String format(double value)
+	{
+		return Double.toString(Math.round(value * 10) / 10.0);
+	}
+
+	private static String pad(String s, int width)
+	{
+		StringBuffer sb = new StringBuffer(s);
+		do
+		{
+			sb.append(' ');
+		}
+		while (sb.length() < width);
+		return sb.toString();
+	}
+}
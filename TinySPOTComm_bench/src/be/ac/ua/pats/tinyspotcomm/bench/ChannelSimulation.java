@@ -0,0 +1,223 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+package be.ac.ua.pats.tinyspotcomm.bench;
+
+import com.sun.spot.peripheral.radio.I802_15_4_MAC;
+import com.sun.spot.peripheral.radio.RadioPacket;
+import com.sun.spot.peripheral.radio.SimulatedChannel;
+import com.sun.spot.peripheral.radio.SimulatedMAC;
+
+/**
+ * Runs a number of simulated radios on one {@link SimulatedChannel} and reports
+ * how the MAC layer copes with the contention.
+ *
+ * Every node sends acknowledged unicast frames with a full payload to the next
+ * node in a ring, as fast as the MAC accepts them, while a receiver thread per
+ * node drains its incoming frames. The senders hold the virtual clock of the
+ * channel between their requests and the clock is only started once all of
+ * them are ready, so elapsed time, throughput and latency only depend on the
+ * parameters and the seed and not on the speed of the host.<br><br>
+ *
+ * Only the MAC layer is exercised: LowPan and the layers above it are
+ * singletons and cannot be run once per simulated node.
+ *
+ * Usage: <code>ChannelSimulation [-n nodes] [-f framesPerNode] [-l lossPercent] [-s seed]</code>
+ */
+public class ChannelSimulation
+{
+	private static final short PAN_ID = 3;
+	private static final int RADIO_CHANNEL = 26;
+	private static final long FIRST_ADDRESS = 0x00144F0100000001L;
+
+	private int nodeCount = 4;
+	private int framesPerNode = 100;
+	private int lossPercent = 0;
+	private long seed = 1;
+
+	private int ready;
+	private boolean started;
+	private int succeeded;
+	private int noAck;
+	private int channelAccessFailure;
+	private long totalLatencyMicros;
+	private long maxLatencyMicros;
+	private long endMicros;
+
+	/**
+	 * @param args the command line arguments
+	 * @throws InterruptedException when interrupted while waiting for the senders
+	 */
+	public static void main(String[] args) throws InterruptedException
+	{
+		ChannelSimulation simulation = new ChannelSimulation();
+		for (int i = 0; i < args.length; i++)
+		{
+			if (args[i].equals("-n"))
+				simulation.nodeCount = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-f"))
+				simulation.framesPerNode = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-l"))
+				simulation.lossPercent = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-s"))
+				simulation.seed = Long.parseLong(args[++i]);
+			else
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+		}
+		simulation.run();
+		System.exit(0); // the receiver threads block forever
+	}
+
+	/**
+	 * Build the channel, let every node send its frames and print the results.
+	 *
+	 * @throws InterruptedException when interrupted while waiting for the senders
+	 */
+	public void run() throws InterruptedException
+	{
+		final SimulatedChannel channel = new SimulatedChannel(nodeCount, seed);
+		channel.setAllLinks(lossPercent, 60, 110);
+		final SimulatedMAC[] macs = new SimulatedMAC[nodeCount];
+		for (int i = 0; i < nodeCount; i++)
+		{
+			macs[i] = new SimulatedMAC(channel.addNode(FIRST_ADDRESS + i));
+			macs[i].mlmeReset(true);
+			macs[i].mlmeStart(PAN_ID, RADIO_CHANNEL);
+			macs[i].mlmeSet(I802_15_4_MAC.MAC_RX_ON_WHEN_IDLE, I802_15_4_MAC.TRUE);
+		}
+		for (int i = 0; i < nodeCount; i++)
+		{
+			final SimulatedMAC mac = macs[i];
+			Thread receiver = new Thread("receiver " + i)
+			{
+				public void run()
+				{
+					RadioPacket rp = RadioPacket.getDataPacket();
+					while (true)
+						mac.mcpsDataIndication(rp);
+				}
+			};
+			receiver.setDaemon(true);
+			receiver.start();
+		}
+
+		Thread[] senders = new Thread[nodeCount];
+		for (int i = 0; i < nodeCount; i++)
+		{
+			final SimulatedMAC mac = macs[i];
+			final long source = FIRST_ADDRESS + i;
+			final long destination = FIRST_ADDRESS + (i + 1) % nodeCount;
+			senders[i] = new Thread("sender " + i)
+			{
+				public void run()
+				{
+					channel.enter();
+					try
+					{
+						awaitStart();
+						for (int k = 0; k < framesPerNode; k++)
+							send(channel, mac, source, destination);
+					}
+					finally
+					{
+						// read while this sender still holds the clock
+						senderDone(channel.getTimeMicros());
+						channel.leave();
+					}
+				}
+			};
+			senders[i].start();
+		}
+		synchronized (this)
+		{
+			while (ready < nodeCount)
+				wait();
+			channel.start();
+			started = true;
+			notifyAll();
+		}
+		for (int i = 0; i < nodeCount; i++)
+			senders[i].join();
+		channel.stop();
+		long elapsed = endMicros;
+
+		int attempted = nodeCount * framesPerNode;
+		int macNoAck = 0;
+		int macAccessFailures = 0;
+		for (int i = 0; i < nodeCount; i++)
+		{
+			macNoAck += macs[i].getNoAck();
+			macAccessFailures += macs[i].getChannelAccessFailure();
+		}
+		System.out.println("# " + nodeCount + " nodes, " + framesPerNode + " frames per node, " + lossPercent + "% link loss, seed " + seed);
+		System.out.println("virtual time        " + elapsed / 1000 + " ms");
+		System.out.println("delivered           " + succeeded + " of " + attempted + " frames ("
+				+ (elapsed == 0 ? 0 : succeeded * 1000000L / elapsed) + " frames/s)");
+		System.out.println("latency             " + (succeeded == 0 ? 0 : totalLatencyMicros / succeeded) + " us mean, "
+				+ maxLatencyMicros + " us max");
+		System.out.println("failed              " + noAck + " no ack, " + channelAccessFailure + " channel access failure");
+		System.out.println("retries             " + macNoAck + " unacknowledged attempts, " + macAccessFailures + " busy CCAs");
+		System.out.println("channel             " + channel.getFramesSent() + " frames sent, " + channel.getCollisions()
+				+ " collisions, " + channel.getFramesLost() + " frames lost");
+	}
+
+	private synchronized void senderDone(long now)
+	{
+		endMicros = Math.max(endMicros, now);
+	}
+
+	private synchronized void awaitStart()
+	{
+		ready++;
+		notifyAll();
+		while (!started)
+		{
+			try
+			{
+				wait();
+			}
+			catch (InterruptedException e)
+			{
+				// keep waiting for the start
+			}
+		}
+	}
+
+	private void send(SimulatedChannel channel, SimulatedMAC mac, long source, long destination)
+	{
+		RadioPacket rp = RadioPacket.getDataPacket();
+		rp.setDestinationAddress(destination);
+		rp.setSourceAddress(source);
+		rp.setDestinationPanID(PAN_ID);
+		rp.setMACPayloadLength(rp.getMaxMacPayloadSize());
+		long queued = channel.getTimeMicros();
+		int result = mac.mcpsDataRequest(rp);
+		long latency = channel.getTimeMicros() - queued;
+		synchronized (this)
+		{
+			if (result == I802_15_4_MAC.SUCCESS)
+			{
+				succeeded++;
+				totalLatencyMicros += latency;
+				maxLatencyMicros = Math.max(maxLatencyMicros, latency);
+			}
+			else if (result == I802_15_4_MAC.NO_ACK)
+				noAck++;
+			else
+				channelAccessFailure++;
+		}
+	}
+}
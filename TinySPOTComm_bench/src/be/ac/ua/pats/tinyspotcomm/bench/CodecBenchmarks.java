@@ -0,0 +1,408 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+package be.ac.ua.pats.tinyspotcomm.bench;
+
+import be.ac.ua.pats.tinyspotcomm.IEEEAddressHash;
+
+import com.sun.spot.io.j2me.tinyos.TinyOSPacket;
+import com.sun.spot.io.j2me.tinyos.TinyOSRadioConnImpl;
+import com.sun.spot.peripheral.radio.LowPanHeader;
+import com.sun.spot.peripheral.radio.LowPanPacket;
+import com.sun.spot.peripheral.radio.RadioPacket;
+import com.sun.spot.util.CRC;
+
+/**
+ * The benchmarks for the encoding and decoding of packets: the 802.15.4 frame
+ * header in {@link RadioPacket}, the FCS, the LowPan headers, the TinyOSPacket
+ * streams and the 16/64 bit address translation.
+ */
+public class CodecBenchmarks
+{
+	private static final long DEST_ADDRESS = 0x00144F0100001234L;
+	private static final long SOURCE_ADDRESS = 0x00144F0100005678L;
+
+	// values of LowPanHeader.UNFRAGMENTED and LowPanHeader.FIRST_FRAGMENT
+	private static final int UNFRAGMENTED = 0;
+	private static final int FIRST_FRAGMENT = 2;
+
+	private static final int PROTOCOL_NUMBER = 63;
+
+	/**
+	 * @return all codec benchmarks
+	 */
+	public static Benchmark[] all()
+	{
+		return new Benchmark[] {
+				new NewDataPacket(RadioPacket.ADDR_16),
+				new NewDataPacket(RadioPacket.ADDR_64),
+				new DecodeFrameControl(RadioPacket.ADDR_16),
+				new DecodeFrameControl(RadioPacket.ADDR_64),
+				new GetDestinationAddress(RadioPacket.ADDR_16),
+				new GetDestinationAddress(RadioPacket.ADDR_64),
+				new SetSourceAddress(RadioPacket.ADDR_16),
+				new SetSourceAddress(RadioPacket.ADDR_64),
+				new CalculateFCS(),
+				new CRCFullFrame(),
+				new WriteLowPanHeader("lowpan.write.single", false, UNFRAGMENTED),
+				new WriteLowPanHeader("lowpan.write.mesh+frag", true, FIRST_FRAGMENT),
+				new ParseLowPanPacket("lowpan.parse.single", false, UNFRAGMENTED),
+				new ParseLowPanPacket("lowpan.parse.mesh+frag", true, FIRST_FRAGMENT),
+				new TinyOSPacketWrite(),
+				new TinyOSPacketRead(),
+				new AddressTo16Bit(),
+				new AddressTo64Bit() };
+	}
+
+	private static String modeName(int addressMode)
+	{
+		return addressMode == RadioPacket.ADDR_16 ? "16" : "64";
+	}
+
+	private static byte[] payload(int length)
+	{
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++)
+		{
+			data[i] = (byte) i;
+		}
+		return data;
+	}
+
+	private static RadioPacket fullPacket(int addressMode)
+	{
+		RadioPacket rp = RadioPacket.getDataPacket(addressMode);
+		rp.setDestinationAddress(DEST_ADDRESS);
+		rp.setSourceAddress(SOURCE_ADDRESS);
+		rp.setDestinationPanID(3);
+		rp.setMACPayloadLength(rp.getMaxMacPayloadSize());
+		return rp;
+	}
+
+	private static LowPanHeader lowPanHeader(boolean meshed, int fragType)
+	{
+		LowPanHeader lph = new LowPanHeader();
+		lph.setProtocolInfo(LowPanHeader.DISPATCH_SPOT, (byte) PROTOCOL_NUMBER);
+		if (meshed)
+		{
+			lph.setMeshed(true);
+			lph.setOutgoingHops(3);
+			lph.setOutgoingOriginatorAddress(SOURCE_ADDRESS);
+			lph.setOutgoingDestinationAddress(DEST_ADDRESS);
+		}
+		if (fragType != UNFRAGMENTED)
+		{
+			lph.setFragged(true);
+			lph.setOutgoingFragType(fragType);
+			lph.setOutgoingFragTag(0x1234);
+			lph.setOutgoingFragSize(300);
+			lph.setOutgoingFragOffset(0);
+		}
+		return lph;
+	}
+
+	private static class NewDataPacket extends Benchmark
+	{
+		private final int addressMode;
+
+		NewDataPacket(int addressMode)
+		{
+			super("radiopacket.new." + modeName(addressMode));
+			this.addressMode = addressMode;
+		}
+
+		public int op()
+		{
+			return RadioPacket.getDataPacket(addressMode).getMACPayloadLength();
+		}
+	}
+
+	private static class DecodeFrameControl extends Benchmark
+	{
+		private final int addressMode;
+		private RadioPacket rp;
+
+		DecodeFrameControl(int addressMode)
+		{
+			super("radiopacket.decode." + modeName(addressMode));
+			this.addressMode = addressMode;
+		}
+
+		public void setUp()
+		{
+			rp = fullPacket(addressMode);
+		}
+
+		public int op()
+		{
+			rp.decodeFrameControl();
+			return rp.getMACPayloadLength();
+		}
+	}
+
+	private static class GetDestinationAddress extends Benchmark
+	{
+		private final int addressMode;
+		private RadioPacket rp;
+
+		GetDestinationAddress(int addressMode)
+		{
+			super("radiopacket.getDestinationAddress." + modeName(addressMode));
+			this.addressMode = addressMode;
+		}
+
+		public void setUp()
+		{
+			rp = fullPacket(addressMode);
+		}
+
+		public int op()
+		{
+			return (int) rp.getDestinationAddress();
+		}
+	}
+
+	private static class SetSourceAddress extends Benchmark
+	{
+		private final int addressMode;
+		private RadioPacket rp;
+		private long address = SOURCE_ADDRESS;
+
+		SetSourceAddress(int addressMode)
+		{
+			super("radiopacket.setSourceAddress." + modeName(addressMode));
+			this.addressMode = addressMode;
+		}
+
+		public void setUp()
+		{
+			rp = fullPacket(addressMode);
+		}
+
+		public int op()
+		{
+			rp.setSourceAddress(address++);
+			return (int) address;
+		}
+	}
+
+	private static class CalculateFCS extends Benchmark
+	{
+		private RadioPacket rp;
+
+		CalculateFCS()
+		{
+			super("radiopacket.calculateAndSetFCS");
+		}
+
+		public void setUp()
+		{
+			rp = fullPacket(RadioPacket.ADDR_64);
+		}
+
+		public int op()
+		{
+			rp.calculateAndSetFCS();
+			return rp.isFCSValid() ? 1 : 0;
+		}
+	}
+
+	private static class CRCFullFrame extends Benchmark
+	{
+		private final byte[] frame = payload(RadioPacket.MAX_DATA_LENGTH + 1);
+
+		CRCFullFrame()
+		{
+			super("crc." + RadioPacket.MAX_DATA_LENGTH);
+		}
+
+		public int op()
+		{
+			return CRC.crc(frame, 1, RadioPacket.MAX_DATA_LENGTH);
+		}
+	}
+
+	private static class WriteLowPanHeader extends Benchmark
+	{
+		private final boolean meshed;
+		private final int fragType;
+		private final byte[] data = payload(64);
+		private LowPanHeader lph;
+		private LowPanPacket lpp;
+
+		WriteLowPanHeader(String name, boolean meshed, int fragType)
+		{
+			super(name);
+			this.meshed = meshed;
+			this.fragType = fragType;
+		}
+
+		public void setUp()
+		{
+			lph = lowPanHeader(meshed, fragType);
+			lpp = new LowPanPacket(RadioPacket.getDataPacket());
+		}
+
+		public int op()
+		{
+			lpp.writeHeaderAndPayload(lph, data, 0, data.length);
+			return lpp.getRadioPacket().getMACPayloadLength();
+		}
+	}
+
+	private static class ParseLowPanPacket extends Benchmark
+	{
+		private final boolean meshed;
+		private final int fragType;
+		private RadioPacket rp;
+
+		ParseLowPanPacket(String name, boolean meshed, int fragType)
+		{
+			super(name);
+			this.meshed = meshed;
+			this.fragType = fragType;
+		}
+
+		public void setUp()
+		{
+			byte[] data = payload(64);
+			LowPanPacket lpp = new LowPanPacket(RadioPacket.getDataPacket());
+			lpp.writeHeaderAndPayload(lowPanHeader(meshed, fragType), data, 0, data.length);
+			rp = lpp.getRadioPacket();
+		}
+
+		public int op()
+		{
+			return new LowPanPacket(rp).getLppPayloadOffset();
+		}
+	}
+
+	/**
+	 * A server connection that is not registered with the protocol manager, so
+	 * that TinyOSPackets can be created without a radio.
+	 */
+	private static class UnboundConnection extends TinyOSRadioConnImpl
+	{
+		public boolean isBroadcast()
+		{
+			return false;
+		}
+
+		public boolean isPointToPoint()
+		{
+			return false;
+		}
+
+		public boolean isServer()
+		{
+			return true;
+		}
+	}
+
+	private static class TinyOSPacketWrite extends Benchmark
+	{
+		private final byte[] data = payload(20);
+		private TinyOSPacket packet;
+
+		TinyOSPacketWrite()
+		{
+			super("tinyospacket.write");
+		}
+
+		public void setUp()
+		{
+			packet = new TinyOSPacket(TinyOSPacket.MAX_LENGTH, new UnboundConnection());
+		}
+
+		public int op() throws Exception
+		{
+			packet.reset();
+			packet.writeShort(0x1234);
+			packet.writeInt(0x12345678);
+			packet.write(data);
+			return packet.getLength();
+		}
+	}
+
+	private static class TinyOSPacketRead extends Benchmark
+	{
+		private final byte[] data = new byte[20];
+		private TinyOSPacket packet;
+
+		TinyOSPacketRead()
+		{
+			super("tinyospacket.read");
+		}
+
+		public void setUp() throws Exception
+		{
+			packet = new TinyOSPacket(TinyOSPacket.MAX_LENGTH, new UnboundConnection());
+			packet.writeShort(0x1234);
+			packet.writeInt(0x12345678);
+			packet.write(payload(data.length));
+		}
+
+		public int op() throws Exception
+		{
+			packet.resetRead();
+			int result = packet.readShort() + packet.readInt();
+			packet.readFully(data);
+			return result + data[data.length - 1];
+		}
+	}
+
+	private static class AddressTo16Bit extends Benchmark
+	{
+		private IEEEAddressHash hash;
+		private long address = SOURCE_ADDRESS;
+
+		AddressTo16Bit()
+		{
+			super("addresshash.to16bit");
+		}
+
+		public void setUp()
+		{
+			hash = IEEEAddressHash.getInstance();
+		}
+
+		public int op()
+		{
+			return hash.To16Bit(address++);
+		}
+	}
+
+	private static class AddressTo64Bit extends Benchmark
+	{
+		private IEEEAddressHash hash;
+		private short address;
+
+		AddressTo64Bit()
+		{
+			super("addresshash.to64bit");
+		}
+
+		public void setUp()
+		{
+			hash = IEEEAddressHash.getInstance();
+		}
+
+		public int op()
+		{
+			return (int) (hash.To64Bit(address++) >> 16);
+		}
+	}
+}
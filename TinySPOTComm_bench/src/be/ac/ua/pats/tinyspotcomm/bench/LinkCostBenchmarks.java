@@ -0,0 +1,116 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+package be.ac.ua.pats.tinyspotcomm.bench;
+
+import com.sun.spot.peripheral.radio.mhrp.lqrp.linkParams.FixedNbrLinkInfo;
+import com.sun.spot.peripheral.radio.mhrp.lqrp.linkParams.NbrLinkInfo;
+
+/**
+ * The benchmarks for the LQRP link cost model, once computed in double and once
+ * in Q16.16 fixed point. A desktop JVM has a floating point unit, so these
+ * understate the difference on a SPOT, where every double operation is a
+ * library call.
+ */
+public class LinkCostBenchmarks
+{
+	/**
+	 * @return all link cost benchmarks
+	 */
+	public static Benchmark[] all()
+	{
+		return new Benchmark[] {
+				new UpdateLinkInfo(false),
+				new UpdateLinkInfo(true),
+				new MissedReply(false),
+				new MissedReply(true) };
+	}
+
+	private static String modelName(boolean fixed)
+	{
+		return fixed ? "fixed" : "double";
+	}
+
+	private static NbrLinkInfo linkInfo(boolean fixed)
+	{
+		// the monitor is not used by the calculations
+		NbrLinkInfo info = fixed ? new FixedNbrLinkInfo(null, 1) : new NbrLinkInfo(null, 1);
+		info.setInitialLQI(230);
+		return info;
+	}
+
+	/**
+	 * A received frame that ends a slot: its LQI is added, the slot average is
+	 * folded into the history and the link cost is read.
+	 */
+	private static class UpdateLinkInfo extends Benchmark
+	{
+		private final boolean fixed;
+		private NbrLinkInfo info;
+		private int lq;
+
+		UpdateLinkInfo(boolean fixed)
+		{
+			super("lqrp.linkinfo.update." + modelName(fixed));
+			this.fixed = fixed;
+		}
+
+		public void setUp()
+		{
+			info = linkInfo(fixed);
+		}
+
+		public int op()
+		{
+			lq = (lq + 37) & 0xFF;
+			info.incSumLQ(lq);
+			info.incNumOfPktsInSlot();
+			info.updateSlotAvgLQ();
+			info.calcTimeWeightedLQ();
+			return fixed ? info.getCurrentLinkCostFixed() : (int) (info.getCurrentLinkCost() * 1000);
+		}
+	}
+
+	/**
+	 * A neighbor that failed to answer an LQREQ.
+	 */
+	private static class MissedReply extends Benchmark
+	{
+		private final boolean fixed;
+		private NbrLinkInfo info;
+
+		MissedReply(boolean fixed)
+		{
+			super("lqrp.linkinfo.missed." + modelName(fixed));
+			this.fixed = fixed;
+		}
+
+		public void setUp()
+		{
+			info = linkInfo(fixed);
+		}
+
+		public int op()
+		{
+			int result = info.hasLQChanged() ? 1 : 0;
+			if (info.lqrepMissed())
+			{
+				info.setNbrLQ(0.9);
+			}
+			return result;
+		}
+	}
+}
@@ -38,9 +38,11 @@ import com.sun.spot.peripheral.NoAckException;
 import com.sun.spot.peripheral.NoRouteException;
 import com.sun.spot.peripheral.TimeoutException;
 import com.sun.spot.peripheral.radio.IRadiogramProtocolManager;
+import com.sun.spot.peripheral.radio.ISendListener;
 import com.sun.spot.peripheral.radio.IncomingData;
 import com.sun.spot.peripheral.radio.LowPanHeaderInfo;
 import com.sun.spot.peripheral.radio.NoMeshLayerAckException;
+import com.sun.spot.peripheral.radio.SendRequest;
 import com.sun.spot.util.IEEEAddress;
 
 /**
@@ -426,6 +428,10 @@ public class Radiogram implements Datagram {
 		timestamp = connection.send(payload, address, endOfDataIndex);
 	}
 
+	SendRequest sendAsync(long timeout, ISendListener listener) {
+		return connection.sendAsync(payload, address, endOfDataIndex, timeout, listener);
+	}
+
 	void receive() throws IOException {
 		reset();
         long timeout = connection.getTimeout();
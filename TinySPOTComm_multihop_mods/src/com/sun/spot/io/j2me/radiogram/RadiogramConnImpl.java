@@ -39,12 +39,15 @@ import com.sun.spot.peripheral.SpotFatalException;
 import com.sun.spot.peripheral.radio.ConnectionID;
 import com.sun.spot.peripheral.radio.IRadioPolicyManager;
 import com.sun.spot.peripheral.radio.IRadiogramProtocolManager;
+import com.sun.spot.peripheral.radio.ISendListener;
 import com.sun.spot.peripheral.radio.IncomingData;
 import com.sun.spot.peripheral.radio.NoMeshLayerAckException;
 import com.sun.spot.peripheral.radio.RadioPolicy;
 import com.sun.spot.peripheral.radio.RadiogramProtocolManager;
 import com.sun.spot.peripheral.radio.ILowPan;
 import com.sun.spot.peripheral.radio.RadioFactory;
+import com.sun.spot.peripheral.radio.SendRequest;
+import com.sun.spot.peripheral.radio.TransmitScheduler;
 import com.sun.spot.util.IEEEAddress;
 
 
@@ -150,6 +153,15 @@ public class RadiogramConnImpl extends RadioConnectionBase implements RadiogramC
 		}
 	}
 
+	public SendRequest sendAsync(Datagram dgram, long timeout, ISendListener listener) {
+		Radiogram rg = (Radiogram)dgram;
+		if (rg.getConnection() == this) {
+			return rg.sendAsync(timeout, listener);
+		} else {
+			throw new IllegalArgumentException("Attempt to send radiogram on unassociated connection");
+		}
+	}
+
 	public void receive(Datagram dgram) throws IOException {
 		if (isBroadcast()) {
 			throw new IllegalStateException("Can't receive on broadcast connection");
@@ -210,6 +222,10 @@ public class RadiogramConnImpl extends RadioConnectionBase implements RadiogramC
 		return getProtocolManager().send(sendConnectionID, toAddress, payload, length);
 	}
 
+	SendRequest sendAsync(byte[] payload, long toAddress, int length, long timeout, ISendListener listener) {
+		return TransmitScheduler.getInstance().submit(getProtocolManager(), sendConnectionID, toAddress, payload, length, !sendConnectionID.isBroadcast(), timeout, listener);
+	}
+
 	IncomingData receivePacket(long timeout) {
 		return getProtocolManager().receivePacket(receiveConnectionID, timeout);
 	}
@@ -225,6 +241,20 @@ public class RadiogramConnImpl extends RadioConnectionBase implements RadiogramC
 	public boolean packetsAvailable() {
 		return getProtocolManager().packetsAvailable(receiveConnectionID);
 	}
+
+	public void setReceiveQueueLimit(int capacity, int overflowPolicy, long blockTimeout) {
+		if (receiveConnectionID == null) {
+			throw new IllegalStateException("Can't limit the receive queue of a broadcast connection");
+		}
+		getProtocolManager().setReceiveQueueLimit(receiveConnectionID, capacity, overflowPolicy, blockTimeout);
+	}
+
+	public int getDroppedPacketCount() {
+		if (receiveConnectionID == null) {
+			return 0;
+		}
+		return getProtocolManager().getDroppedPacketCount(receiveConnectionID);
+	}
         
         public void setMaxBroadcastHops(int hops) {
             if (hops > 255) hops = 255;
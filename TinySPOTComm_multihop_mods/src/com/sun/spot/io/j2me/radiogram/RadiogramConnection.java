@@ -24,11 +24,14 @@
 
 package com.sun.spot.io.j2me.radiogram;
 
+import javax.microedition.io.Datagram;
 import javax.microedition.io.DatagramConnection;
 
 import com.sun.spot.peripheral.IRadioControl;
 import com.sun.spot.peripheral.ITimeoutableConnection;
 import com.sun.spot.peripheral.IMultipleHopConnection;
+import com.sun.spot.peripheral.radio.ISendListener;
+import com.sun.spot.peripheral.radio.SendRequest;
 
 /**
  * This interface defines the "radiogram" protocol - the radiogram protocol is a datagram-based
@@ -75,6 +78,13 @@ import com.sun.spot.peripheral.IMultipleHopConnection;
  * String answer = dg.readUTF();<br>
  * </code><br>
  * <br>
+ * Received radiograms are queued until they are read. To stop a slow reader from using up
+ * all memory the queue can be limited, either with {@link #setReceiveQueueLimit(int, int, long)}
+ * or with URL parameters: "radiogram://:10?queue=64&amp;overflow=oldest" keeps at most 64
+ * radiograms and discards the oldest one when another arrives. The overflow policy can be
+ * newest, oldest or block, and "blocktimeout" sets the time in milliseconds a blocking
+ * queue may hold up the radio. {@link #getDroppedPacketCount()} answers how many were discarded.
+ * <br>
  */
 public interface RadiogramConnection extends ITimeoutableConnection, DatagramConnection, IRadioControl, IMultipleHopConnection {
     /**
@@ -82,5 +92,32 @@ public interface RadiogramConnection extends ITimeoutableConnection, DatagramCon
      * @return true if there are packets that can be read from the connection
      */
 	public boolean packetsAvailable();
+
+    /**
+     * Limit the number of received packets queued for this connection. By default the queue
+     * is not limited. See {@link com.sun.spot.peripheral.RadioConnectionBase#setReceiveQueueLimit(int, int, long)}.
+     * @param capacity the maximum number of queued packets, or 0 for no limit
+     * @param overflowPolicy one of the RadioConnectionBase.OVERFLOW_ constants
+     * @param blockTimeout the maximum time in milliseconds to wait for room with RadioConnectionBase.OVERFLOW_BLOCK
+     */
+	public void setReceiveQueueLimit(int capacity, int overflowPolicy, long blockTimeout);
+
+    /**
+     * @return the number of received packets discarded because the receive queue was full
+     */
+	public int getDroppedPacketCount();
+
+    /**
+     * Queue a datagram to be sent by the {@link com.sun.spot.peripheral.radio.TransmitScheduler}
+     * and return without waiting for the radio. The contents are copied, so the datagram may be
+     * reused straight away. If there is no route to the destination yet the datagram is held
+     * while one is discovered, without holding up datagrams to other destinations.
+     * @param dgram a datagram created by this connection
+     * @param timeout the maximum time in milliseconds the datagram may wait to be sent, or 0 for no limit
+     * @param listener told on the scheduler thread when the send completes, or null
+     * @return a request that reports the outcome
+     * @throws IllegalStateException if too many datagrams are waiting to be sent
+     */
+	public SendRequest sendAsync(Datagram dgram, long timeout, ISendListener listener);
     
 }
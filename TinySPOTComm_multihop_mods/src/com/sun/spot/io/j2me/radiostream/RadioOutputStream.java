@@ -156,6 +156,20 @@ public class RadioOutputStream extends OutputStream implements IRadioControl {
 		}
 	}
 
+	/**
+	 * Switch congestion control on or off for this stream. With congestion control the
+	 * retransmit timeout follows the measured round trip time, the number of packets
+	 * awaiting acknowledgement shrinks when packets are lost and grows again while they
+	 * are not, and packets reported missing by the remote Spot are resent at once.
+	 * It only affects streams to Spots more than one hop away. Off by default.
+	 * @param enabled true to switch congestion control on
+	 */
+	public void setCongestionControl(boolean enabled) {
+		if (!closed) {
+			protMgr.setCongestionControl(connectionID, enabled);
+		}
+	}
+
 	public void setRadioPolicy(RadioPolicy selection) {
 		if (!closed) {
 			radioPolicyManager.policyHasChanged(connectionID, selection);
@@ -32,11 +32,13 @@ import com.sun.spot.peripheral.ChannelBusyException;
 import com.sun.spot.peripheral.NoAckException;
 import com.sun.spot.peripheral.NoRouteException;
 import com.sun.spot.peripheral.TimeoutException;
+import com.sun.spot.peripheral.radio.ISendListener;
 import com.sun.spot.peripheral.radio.ITinyOSRadioProtocolManager;
 import com.sun.spot.peripheral.radio.IncomingData;
 import com.sun.spot.peripheral.radio.LowPanHeaderInfo;
 import com.sun.spot.peripheral.radio.NoMeshLayerAckException;
 import com.sun.spot.peripheral.radio.RadioPacket;
+import com.sun.spot.peripheral.radio.SendRequest;
 import com.sun.spot.util.IEEEAddress;
 
 /**
@@ -57,6 +59,12 @@ public class TinyOSPacket implements Datagram
 	// -9: account for 16-bit addressed MAC header, -2 account for lowpan + multiplexing byte
 	public static final int MAX_LENGTH = RadioPacket.MAX_DATA_LENGTH - 9 - 1 - ITinyOSRadioProtocolManager.DATA_OFFSET;
 	private byte[] payload;
+	// the buffer read from: payload, or in direct receive mode the buffer of the radio packet received
+	private byte[] data;
+	// index of the start of this packet in data
+	private int dataStart;
+	// the received data while it is read in place, released on the next reset
+	private IncomingData borrowed;
 	private int payloadIndex;
 	private int endOfDataIndex;
 	private DataInputStream dis;
@@ -129,7 +137,7 @@ public class TinyOSPacket implements Datagram
 	public byte[] getData()
 	{
 		byte[] buffer = new byte[getLength()];
-		System.arraycopy(payload, ITinyOSRadioProtocolManager.DATA_OFFSET, buffer, 0, buffer.length);
+		System.arraycopy(data, dataStart + ITinyOSRadioProtocolManager.DATA_OFFSET, buffer, 0, buffer.length);
 		return buffer;
 	}
 
@@ -140,7 +148,7 @@ public class TinyOSPacket implements Datagram
 	 */
 	public int getLength()
 	{
-		return endOfDataIndex - ITinyOSRadioProtocolManager.DATA_OFFSET;
+		return endOfDataIndex - dataStart - ITinyOSRadioProtocolManager.DATA_OFFSET;
 	}
 
 	/**
@@ -203,6 +211,13 @@ public class TinyOSPacket implements Datagram
 	 */
 	public void reset()
 	{
+		if (borrowed != null)
+		{
+			borrowed.release();
+			borrowed = null;
+		}
+		data = payload;
+		dataStart = 0;
 		payloadIndex = endOfDataIndex = ITinyOSRadioProtocolManager.DATA_OFFSET;
 	}
 
@@ -494,9 +509,16 @@ public class TinyOSPacket implements Datagram
 
 	void send() throws NoAckException, ChannelBusyException, NoRouteException, NoMeshLayerAckException
 	{
+		unborrow();
 		timestamp = connection.send(payload, address, endOfDataIndex);
 	}
 
+	SendRequest sendAsync(long timeout, ISendListener listener)
+	{
+		unborrow();
+		return connection.sendAsync(payload, address, endOfDataIndex, timeout, listener);
+	}
+
 	void receive() throws IOException
 	{
 		reset();
@@ -518,8 +540,36 @@ public class TinyOSPacket implements Datagram
 				throw new InterruptedIOException("Connection was closed");
 			}
 		}
-		System.arraycopy(receivedData.payload, 0, payload, 0, receivedData.payload.length);
-		endOfDataIndex = receivedData.payload.length;
+		setReceivedData(receivedData);
+	}
+
+	/**
+	 * Fill this TinyOSPacket with received data
+	 * 
+	 * @param receivedData the data taken from the connection's queue
+	 */
+	void setReceivedData(IncomingData receivedData)
+	{
+		reset();
+		if (receivedData.isBorrowed())
+		{
+			// direct receive mode: read the radio packet in place until the next reset
+			borrowed = receivedData;
+			data = receivedData.payload;
+			dataStart = receivedData.offset;
+			payloadIndex = dataStart + ITinyOSRadioProtocolManager.DATA_OFFSET;
+			endOfDataIndex = dataStart + receivedData.length;
+		}
+		else
+		{
+			if (receivedData.length > payload.length)
+			{
+				// a reassembled packet may be larger than this one was made for
+				payload = data = new byte[receivedData.length];
+			}
+			endOfDataIndex = receivedData.length;
+			System.arraycopy(receivedData.payload, receivedData.offset, payload, 0, endOfDataIndex);
+		}
 		headerInfo = receivedData.headerInfo;
 		// rps -- changed to orginator address (BugID 572)
 		address = headerInfo.originator;
@@ -566,7 +616,31 @@ public class TinyOSPacket implements Datagram
 
 	private void setRadioPacket(int size)
 	{
-		payload = new byte[size + ITinyOSRadioProtocolManager.DATA_OFFSET];
+		payload = data = new byte[size + ITinyOSRadioProtocolManager.DATA_OFFSET];
+	}
+
+	/**
+	 * Copy data read in place into this packet's own buffer and release the radio packet, so
+	 * that it can be written to or sent.
+	 */
+	private void unborrow()
+	{
+		if (borrowed != null)
+		{
+			int length = endOfDataIndex - dataStart;
+			if (length > payload.length)
+			{
+				// the packet read in place may be larger than this one was made for
+				payload = new byte[length];
+			}
+			System.arraycopy(data, dataStart, payload, 0, length);
+			payloadIndex -= dataStart;
+			endOfDataIndex -= dataStart;
+			data = payload;
+			dataStart = 0;
+			borrowed.release();
+			borrowed = null;
+		}
 	}
 
 	private class TinyOSInputStream extends InputStream
@@ -579,7 +653,7 @@ public class TinyOSPacket implements Datagram
 			}
 			else
 			{
-				return payload[payloadIndex++] & 0xFF;
+				return data[payloadIndex++] & 0xFF;
 			}
 		}
 
@@ -596,7 +670,7 @@ public class TinyOSPacket implements Datagram
 
 		public void reset()
 		{
-			payloadIndex = ITinyOSRadioProtocolManager.DATA_OFFSET;
+			payloadIndex = dataStart + ITinyOSRadioProtocolManager.DATA_OFFSET;
 		}
 	}
 
@@ -604,6 +678,7 @@ public class TinyOSPacket implements Datagram
 	{
 		public void write(int b)
 		{
+			unborrow();
 			if (endOfDataIndex >= payload.length)
 			{
 				throw new IndexOutOfBoundsException("TinyOSData packet is full");
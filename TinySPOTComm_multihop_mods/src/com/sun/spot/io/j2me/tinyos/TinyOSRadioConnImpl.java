@@ -20,6 +20,7 @@
 package com.sun.spot.io.j2me.tinyos;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 
 import javax.microedition.io.Connection;
 import javax.microedition.io.Datagram;
@@ -32,12 +33,16 @@ import com.sun.spot.peripheral.RadioConnectionBase;
 import com.sun.spot.peripheral.SpotFatalException;
 import com.sun.spot.peripheral.radio.ConnectionID;
 import com.sun.spot.peripheral.radio.IRadioPolicyManager;
+import com.sun.spot.peripheral.radio.IRetryPolicy;
+import com.sun.spot.peripheral.radio.ISendListener;
 import com.sun.spot.peripheral.radio.ITinyOSRadioProtocolManager;
 import com.sun.spot.peripheral.radio.IncomingData;
 import com.sun.spot.peripheral.radio.NoMeshLayerAckException;
 import com.sun.spot.peripheral.radio.RadioFactory;
 import com.sun.spot.peripheral.radio.RadioPolicy;
+import com.sun.spot.peripheral.radio.SendRequest;
 import com.sun.spot.peripheral.radio.TinyOSRadioProtocolManager;
+import com.sun.spot.peripheral.radio.TransmitScheduler;
 import com.sun.spot.util.IEEEAddress;
 
 /**
@@ -56,6 +61,9 @@ public class TinyOSRadioConnImpl extends RadioConnectionBase implements TinyOSRa
 	private static ITinyOSRadioProtocolManager protocolManager;
 	private static IRadioPolicyManager radioPolicyManager;
 
+	private IncomingData[] batchBuffer;
+	private boolean fragmented = false;
+
 	private static synchronized ITinyOSRadioProtocolManager getProtocolManager()
 	{
 		if (protocolManager == null)
@@ -166,7 +174,7 @@ public class TinyOSRadioConnImpl extends RadioConnectionBase implements TinyOSRa
 
 	public int getMaximumLength()
 	{
-		return TinyOSPacket.MAX_LENGTH;
+		return fragmented ? ITinyOSRadioProtocolManager.MAX_FRAGMENTED_LENGTH : TinyOSPacket.MAX_LENGTH;
 	}
 
 	public int getNominalLength()
@@ -187,6 +195,19 @@ public class TinyOSRadioConnImpl extends RadioConnectionBase implements TinyOSRa
 		}
 	}
 
+	public SendRequest sendAsync(Datagram dgram, long timeout, ISendListener listener)
+	{
+		TinyOSPacket rg = (TinyOSPacket) dgram;
+		if (rg.getConnection() == this)
+		{
+			return rg.sendAsync(timeout, listener);
+		}
+		else
+		{
+			throw new IllegalArgumentException("Attempt to send radiogram on unassociated connection");
+		}
+	}
+
 	public void receive(Datagram dgram) throws IOException
 	{
 		if (isBroadcast())
@@ -278,13 +299,19 @@ public class TinyOSRadioConnImpl extends RadioConnectionBase implements TinyOSRa
 		return getProtocolManager().send(sendConnectionID, toAddress, payload, length);
 	}
 
+	SendRequest sendAsync(byte[] payload, long toAddress, int length, long timeout, ISendListener listener)
+	{
+		return TransmitScheduler.getInstance().submit(getProtocolManager(), sendConnectionID, toAddress, payload, length, false, timeout, listener);
+	}
+
 	IncomingData receivePacket(long timeout)
 	{
 		return getProtocolManager().receivePacket(receiveConnectionID, timeout);
 	}
 
 	/**
-	 * @return retrieves a packet from the radio 
+	 * @return retrieves a packet from the radio. If the connection is in direct receive mode
+	 * the caller must release it with {@link IncomingData#release()} once it has read it.
 	 */
 	public IncomingData receivePacket()
 	{
@@ -296,11 +323,108 @@ public class TinyOSRadioConnImpl extends RadioConnectionBase implements TinyOSRa
 		return sendConnectionID.getPortNo();
 	}
 
+	public int receiveBatch(Datagram[] into, int max, long timeout) throws IOException
+	{
+		if (isBroadcast())
+		{
+			throw new IllegalStateException("Can't receive on broadcast connection");
+		}
+		ConnectionID cid = receiveConnectionID;
+		if (cid == null)
+		{
+			throw new InterruptedIOException("Connection was closed");
+		}
+		if (max > into.length)
+		{
+			max = into.length;
+		}
+		for (int i = 0; i < max; i++)
+		{
+			if (((TinyOSPacket) into[i]).getConnection() != this)
+			{
+				throw new IllegalArgumentException("Attempt to receive radiogram on unassociated connection");
+			}
+		}
+		IncomingData[] received;
+		synchronized (this)
+		{
+			if (batchBuffer == null || batchBuffer.length < max)
+			{
+				batchBuffer = new IncomingData[max];
+			}
+			received = batchBuffer;
+			batchBuffer = null; // another receiveBatch on this connection uses its own buffer meanwhile
+		}
+		try
+		{
+			int n = getProtocolManager().receivePackets(cid, received, max, timeout);
+			for (int i = 0; i < n; i++)
+			{
+				((TinyOSPacket) into[i]).setReceivedData(received[i]);
+				received[i] = null;
+			}
+			if (n == 0 && (timeout < 0 || receiveConnectionID == null))
+			{
+				throw new InterruptedIOException("Connection was closed");
+			}
+			return n;
+		}
+		finally
+		{
+			synchronized (this)
+			{
+				batchBuffer = received;
+			}
+		}
+	}
+
 	public boolean packetsAvailable()
 	{
 		return getProtocolManager().packetsAvailable(receiveConnectionID);
 	}
 
+	public void setReceiveQueueLimit(int capacity, int overflowPolicy, long blockTimeout)
+	{
+		if (receiveConnectionID == null)
+		{
+			throw new IllegalStateException("Can't limit the receive queue of a broadcast connection");
+		}
+		getProtocolManager().setReceiveQueueLimit(receiveConnectionID, capacity, overflowPolicy, blockTimeout);
+	}
+
+	public void setDirectReceive(boolean direct)
+	{
+		if (receiveConnectionID == null)
+		{
+			throw new IllegalStateException("Can't receive on broadcast connection");
+		}
+		getProtocolManager().setDirectReceive(receiveConnectionID, direct);
+	}
+
+	public void setRetryPolicy(IRetryPolicy policy)
+	{
+		if (isBroadcast())
+		{
+			throw new IllegalStateException("Broadcasts are not retried");
+		}
+		getProtocolManager().setRetryPolicy(sendConnectionID, policy);
+	}
+
+	public void setFragmentation(int maxPayloadLength)
+	{
+		getProtocolManager().setFragmentation(sendConnectionID, maxPayloadLength);
+		fragmented = maxPayloadLength > 0;
+	}
+
+	public int getDroppedPacketCount()
+	{
+		if (receiveConnectionID == null)
+		{
+			return 0;
+		}
+		return getProtocolManager().getDroppedPacketCount(receiveConnectionID);
+	}
+
 	public void setMaxBroadcastHops(int hops)
 	{
 		throw new IllegalStateException("Broadcasts across multiple hops are not supported");
@@ -19,11 +19,17 @@
 */
 package com.sun.spot.io.j2me.tinyos;
 
+import java.io.IOException;
+
+import javax.microedition.io.Datagram;
 import javax.microedition.io.DatagramConnection;
 
 import com.sun.spot.peripheral.IRadioControl;
 import com.sun.spot.peripheral.ITimeoutableConnection;
 import com.sun.spot.peripheral.IMultipleHopConnection;
+import com.sun.spot.peripheral.radio.IRetryPolicy;
+import com.sun.spot.peripheral.radio.ISendListener;
+import com.sun.spot.peripheral.radio.SendRequest;
 
 /**
  * @author Daniel van den Akker
@@ -34,13 +40,16 @@ import com.sun.spot.peripheral.IMultipleHopConnection;
  * 	<li>Data that was sent on a TinyOS mote using the AMSenderC  component is presented to SunSPOT as a TinyOSPacket. TinyOSPackets sent
  *      to a TinyOS-mote may be received with the AMReceiverC component. Please bear in mind that, depending on the mote-archtecture byte-conversions may be necessary.</li>
  * 	<li>The AMId required for the AMSenderC and AMReceiverC components translates to the port number used for TinyOSRadioConnections</li>
- * 	<li>The 'tinyos://' protocol currently does NOT support routing or fragmentation. This means that packets are always sent single-hop and that the maximum nuber of bytes in a 
- * 		TinyOSPacket is limited by the maximum allowed bytes in a IEEE 802.15.4 MAC frame.</li>
+ * 	<li>The 'tinyos://' protocol currently does NOT support routing. This means that packets are always sent single-hop. By default the maximum nuber of bytes in a 
+ * 		TinyOSPacket is limited by the maximum allowed bytes in a IEEE 802.15.4 MAC frame; see {@link #setFragmentation(int)} to send larger packets.</li>
  * </ul>
  * 
  * IMPORTANT The 'tinyos://'-protocol was NOT designed to be used as the basis for the implementation of higher-level protocols.
  * In that case, the {@link com.sun.spot.peripheral.radio.TinyOSRadioProtocolManager} should be accessed directly,
- * creating new GCF-handlers for each protocol.
+ * creating new GCF-handlers for each protocol.<br><br>
+ * 
+ * The receive queue of a connection can be limited in the same way as for radiogram connections,
+ * e.g. "tinyos://:10?queue=64&amp;overflow=oldest".
  */
 public interface TinyOSRadioConnection extends ITimeoutableConnection, DatagramConnection, IRadioControl, IMultipleHopConnection {
     /**
@@ -48,5 +57,72 @@ public interface TinyOSRadioConnection extends ITimeoutableConnection, DatagramC
      * @return true if there are packets that can be read from the connection
      */
 	public boolean packetsAvailable();
+
+    /**
+     * Receive up to max TinyOSPackets at once, taking all packets that are queued in a single
+     * step. If none is queued, wait until one arrives or for timeout milliseconds.
+     * @param into TinyOSPackets created by this connection, filled from index 0
+     * @param max the maximum number of packets to receive
+     * @param timeout the maximum time to wait in milliseconds, 0 not to wait or a negative value to wait indefinitely
+     * @return the number of packets received, 0 after a timeout
+     * @throws IOException if the connection is closed while waiting indefinitely
+     */
+	public int receiveBatch(Datagram[] into, int max, long timeout) throws IOException;
+
+    /**
+     * Limit the number of received packets queued for this connection. By default the queue
+     * is not limited. See {@link com.sun.spot.peripheral.RadioConnectionBase#setReceiveQueueLimit(int, int, long)}.
+     * @param capacity the maximum number of queued packets, or 0 for no limit
+     * @param overflowPolicy one of the RadioConnectionBase.OVERFLOW_ constants
+     * @param blockTimeout the maximum time in milliseconds to wait for room with RadioConnectionBase.OVERFLOW_BLOCK
+     */
+	public void setReceiveQueueLimit(int capacity, int overflowPolicy, long blockTimeout);
+
+    /**
+     * @return the number of received packets discarded because the receive queue was full
+     */
+	public int getDroppedPacketCount();
+
+    /**
+     * Select whether received packets are read directly from the buffer of the radio packet they
+     * arrived in instead of from a copy. In direct mode a TinyOSPacket holds on to that radio
+     * packet until the next receive into it, a reset, or the first write to it, so applications
+     * should reuse their TinyOSPackets rather than keep many of them filled. Off by default.
+     * @param direct true to receive without copying
+     */
+	public void setDirectReceive(boolean direct);
+
+    /**
+     * Set how unicast packets sent over this connection are retried when they are not acknowledged.
+     * By default a packet is sent up to three times in quick succession; a
+     * {@link com.sun.spot.peripheral.radio.BackoffRetryPolicy} spaces the attempts out, which suits
+     * motes that only turn their radio on from time to time. Broadcasts are never retried.
+     * @param policy the retry policy, or null for the default
+     */
+	public void setRetryPolicy(IRetryPolicy policy);
+
+    /**
+     * Send TinyOSPackets that do not fit into a single packet of the peer as a series of fragments,
+     * each of which is acknowledged and retried on its own. The peer reassembles them; a TinyOS mote
+     * needs the TinySPOTFragC component from the TinyOS demo for that. Packets of up to
+     * maxPayloadLength bytes are still sent whole, and packets can hold up to
+     * {@link com.sun.spot.peripheral.radio.ITinyOSRadioProtocolManager#MAX_FRAGMENTED_LENGTH} bytes.
+     * Fragmented packets sent to this connection are always reassembled, and a TinyOSPacket received
+     * into grows to hold the whole packet. Off by default.
+     * @param maxPayloadLength the largest payload the peer accepts, e.g. the TOSH_DATA_LENGTH of the mote, or 0 not to fragment
+     */
+	public void setFragmentation(int maxPayloadLength);
+
+    /**
+     * Queue a datagram to be sent by the {@link com.sun.spot.peripheral.radio.TransmitScheduler}
+     * and return without waiting for the radio. The contents are copied, so the datagram may be
+     * reused straight away.
+     * @param dgram a datagram created by this connection
+     * @param timeout the maximum time in milliseconds the datagram may wait to be sent, or 0 for no limit
+     * @param listener told on the scheduler thread when the send completes, or null
+     * @return a request that reports the outcome
+     * @throws IllegalStateException if too many datagrams are waiting to be sent
+     */
+	public SendRequest sendAsync(Datagram dgram, long timeout, ISendListener listener);
     
 }
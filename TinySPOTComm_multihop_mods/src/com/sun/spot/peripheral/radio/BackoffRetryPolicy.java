@@ -0,0 +1,157 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+
+package com.sun.spot.peripheral.radio;
+
+import java.util.Random;
+
+import com.sun.spot.util.LongIntHashtable;
+
+/**
+ * An {@link IRetryPolicy} with exponential backoff, suited to destinations that
+ * only listen part of the time, such as motes with duty-cycled radios.<br><br>
+ *
+ * The wait before the n-th retry is chosen at random between half and all of
+ * baseDelay * 2^(n-1), but never more than maxDelay. The number of attempts per
+ * packet lies between minAttempts and maxAttempts depending on the share of
+ * recent attempts to the same destination that were acknowledged, so that
+ * unreachable destinations do not use up airtime. A packet is given up once the
+ * next retry would start after the time budget has run out.
+ */
+public class BackoffRetryPolicy implements IRetryPolicy {
+
+	/**
+	 * The default minimum number of attempts per packet.
+	 */
+	public static final int DEFAULT_MIN_ATTEMPTS = 2;
+
+	/**
+	 * The default maximum number of attempts per packet.
+	 */
+	public static final int DEFAULT_MAX_ATTEMPTS = 8;
+
+	/**
+	 * The default wait before the first retry in milliseconds.
+	 */
+	public static final long DEFAULT_BASE_DELAY = 10;
+
+	/**
+	 * The default longest wait between two attempts in milliseconds.
+	 */
+	public static final long DEFAULT_MAX_DELAY = 320;
+
+	/**
+	 * The default time budget per packet in milliseconds.
+	 */
+	public static final long DEFAULT_TIME_BUDGET = 1000;
+
+	// ack ratios are kept in fixed point, ACK_RATIO_ONE meaning every attempt was acknowledged
+	private static final int ACK_RATIO_ONE = 256;
+	// each attempt moves the ratio by 1/2^ACK_RATIO_SHIFT towards its outcome
+	private static final int ACK_RATIO_SHIFT = 3;
+	private static final int MAX_DESTINATIONS = 64;
+
+	private final int minAttempts;
+	private final int maxAttempts;
+	private final long baseDelay;
+	private final long maxDelay;
+	private final long timeBudget;
+	private final LongIntHashtable ackRatios = new LongIntHashtable(MAX_DESTINATIONS);
+	private final Random random = new Random();
+
+	/**
+	 * Create a policy with the default settings.
+	 */
+	public BackoffRetryPolicy() {
+		this(DEFAULT_MIN_ATTEMPTS, DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY, DEFAULT_TIME_BUDGET);
+	}
+
+	/**
+	 * @param minAttempts the number of attempts per packet to a destination that has stopped acknowledging
+	 * @param maxAttempts the number of attempts per packet to a destination that acknowledges reliably
+	 * @param baseDelay the wait before the first retry in milliseconds
+	 * @param maxDelay the longest wait between two attempts in milliseconds
+	 * @param timeBudget the time in milliseconds after which no further attempt is started, or 0 for no limit
+	 */
+	public BackoffRetryPolicy(int minAttempts, int maxAttempts, long baseDelay, long maxDelay, long timeBudget) {
+		if (minAttempts < 1 || maxAttempts < minAttempts) {
+			throw new IllegalArgumentException("Invalid number of attempts " + minAttempts + ".." + maxAttempts);
+		}
+		if (baseDelay < 0 || maxDelay < baseDelay || timeBudget < 0) {
+			throw new IllegalArgumentException("Invalid delays");
+		}
+		this.minAttempts = minAttempts;
+		this.maxAttempts = maxAttempts;
+		this.baseDelay = baseDelay;
+		this.maxDelay = maxDelay;
+		this.timeBudget = timeBudget;
+	}
+
+	public long nextRetryDelay(long destination, int failedAttempts, long elapsed) {
+		if (failedAttempts >= getAttemptLimit(destination)) {
+			return -1;
+		}
+		long delay = maxDelay;
+		if (failedAttempts <= 16) {
+			delay = Math.min(baseDelay << (failedAttempts - 1), maxDelay);
+		}
+		if (delay > 1) {
+			synchronized (random) {
+				delay = delay / 2 + random.nextInt((int) (delay - delay / 2) + 1);
+			}
+		}
+		if (timeBudget > 0 && elapsed + delay > timeBudget) {
+			return -1;
+		}
+		return delay;
+	}
+
+	public void sendCompleted(long destination, int attempts, boolean acked) {
+		synchronized (ackRatios) {
+			int ratio = ackRatios.get(destination, ACK_RATIO_ONE);
+			int failures = acked ? attempts - 1 : attempts;
+			for (int i = 0; i < failures && ratio > 0; i++) {
+				ratio -= (ratio >> ACK_RATIO_SHIFT) + 1;
+			}
+			if (ratio < 0) {
+				ratio = 0;
+			}
+			if (acked) {
+				ratio += (ACK_RATIO_ONE - ratio + (1 << ACK_RATIO_SHIFT) - 1) >> ACK_RATIO_SHIFT;
+			}
+			if (!ackRatios.containsKey(destination) && ackRatios.size() >= MAX_DESTINATIONS) {
+				// forget old destinations rather than grow without bound
+				ackRatios.clear();
+			}
+			ackRatios.put(destination, ratio);
+		}
+	}
+
+	/**
+	 * Answer how many times a packet to a destination is sent before giving up.
+	 *
+	 * @param destination the address of the destination
+	 * @return -- the number of attempts, between minAttempts and maxAttempts
+	 */
+	public int getAttemptLimit(long destination) {
+		int ratio;
+		synchronized (ackRatios) {
+			ratio = ackRatios.get(destination, ACK_RATIO_ONE);
+		}
+		return minAttempts + ((maxAttempts - minAttempts) * ratio + ACK_RATIO_ONE / 2) / ACK_RATIO_ONE;
+	}
+}
@@ -27,6 +27,7 @@ package com.sun.spot.peripheral.radio;
 import com.sun.spot.peripheral.ChannelBusyException;
 import com.sun.spot.peripheral.NoAckException;
 import com.sun.spot.peripheral.NoRouteException;
+import com.sun.spot.peripheral.RadioConnectionBase;
 import com.sun.spot.peripheral.SpotFatalException;
 import com.sun.spot.util.Queue;
 import com.sun.squawk.util.IntHashtable;
@@ -56,6 +57,44 @@ class ConnectionState {
 	 */
 	private Queue queue;
 
+	/**
+	 * The maximum number of packets in the queue, or RadioConnectionBase.UNLIMITED_QUEUE
+	 */
+	private int queueCapacity = RadioConnectionBase.UNLIMITED_QUEUE;
+
+	/**
+	 * What to do with a packet that arrives while the queue is full
+	 */
+	private int overflowPolicy = RadioConnectionBase.OVERFLOW_DROP_NEWEST;
+
+	private long blockTimeout = RadioConnectionBase.DEFAULT_BLOCK_TIMEOUT;
+
+	/**
+	 * The number of packets discarded because the queue was full
+	 */
+	private int droppedPackets = 0;
+
+	/**
+	 * Notified when a packet is taken from the queue, for OVERFLOW_BLOCK
+	 */
+	private final Object spaceLock = new Object();
+
+	/**
+	 * Whether incoming packets are queued without copying them out of the radio packet
+	 */
+	private boolean directReceive = false;
+
+	/**
+	 * How unacknowledged packets are retried, or null for the protocol manager's default
+	 */
+	private IRetryPolicy retryPolicy;
+
+	/**
+	 * The largest packet the peer accepts, above which datagrams are sent in fragments,
+	 * or 0 not to fragment
+	 */
+	private int fragmentationThreshold = 0;
+
 	/**
 	 * The public ID of this connection state.  
 	 */
@@ -66,6 +105,18 @@ class ConnectionState {
 	 */
 	int lastIncomingSeq = -1;
 
+	/**
+	 * The number of incoming packets whose ACK is held back, the last of them
+	 * being pendingAckSeq
+	 */
+	int unackedPackets = 0;
+	byte pendingAckSeq;
+
+	/**
+	 * Sends a held back ACK when it has waited long enough, or null
+	 */
+	DelayedAckTimer delayedAck;
+
 	/**
 	 * helper field for PortBasedProtocolManager - not for public use.
 	 */
@@ -76,6 +127,12 @@ class ConnectionState {
 	 */
 	int nextACKSeq = -1;
 
+    /**
+     * Congestion control state if it is switched on for this outgoing reliable
+     * connection, or null
+     */
+    StreamCongestionControl congestion;
+
     /**
      * Table of buffers that might need to be retransmitted if the connection is 
      * reliable
@@ -138,14 +195,25 @@ class ConnectionState {
 		if (! canReceive())
 			throw new IllegalArgumentException(id.toString()+" cannot be used for receiving");
 		if (status == CLOSED) return null;
-		return (IncomingData) queue.get();
+		return (IncomingData) packetRemoved(queue.get());
 	}
 
 	IncomingData getQueuedPacket(long timeout) {
 		if (! canReceive())
 			throw new IllegalArgumentException(id.toString()+" cannot be used for receiving");
 		if (status == CLOSED) return null;
-		return (IncomingData) queue.get(timeout);
+		return (IncomingData) packetRemoved(queue.get(timeout));
+	}
+
+	int getQueuedPackets(IncomingData[] into, int max, long timeout) {
+		if (! canReceive())
+			throw new IllegalArgumentException(id.toString()+" cannot be used for receiving");
+		if (status == CLOSED) return 0;
+		int n = queue.drainTo(into, max, timeout);
+		if (n > 0) {
+			packetRemoved(into[0]);
+		}
+		return n;
 	}
 
 	boolean packetsAvailable() {
@@ -217,13 +285,14 @@ class ConnectionState {
         }
     }
 
-	void removeRetransBuffer(byte seqNum) {
+	RetransmitBuffer removeRetransBuffer(byte seqNum) {
         synchronized (retransBuffers) {
         	RetransmitBuffer rb = (RetransmitBuffer)retransBuffers.remove(seqNum);
         	if (rb != null && rb.retransmitTimer != null) {
         		rb.retransmitTimer.cancel();
         	}
         	retransBuffers.notifyAll();
+        	return rb;
         }
 	}
 
@@ -241,12 +310,121 @@ class ConnectionState {
 		status = CLOSED;
 		if (queue != null) {
 			queue.stop();
+			synchronized (spaceLock) {
+				spaceLock.notifyAll();
+			}
 		}
 		return true;
 	}
 
-	void addToQueue(IncomingData data) {
-		queue.put(data);
+	void setQueueLimit(int capacity, int policy, long timeout) {
+		if (! canReceive())
+			throw new IllegalArgumentException(id.toString()+" does not have a received packet queue");
+		if (capacity < 0)
+			throw new IllegalArgumentException("Invalid queue capacity " + capacity);
+		if (policy != RadioConnectionBase.OVERFLOW_DROP_NEWEST && policy != RadioConnectionBase.OVERFLOW_DROP_OLDEST
+				&& policy != RadioConnectionBase.OVERFLOW_BLOCK)
+			throw new IllegalArgumentException("Invalid overflow policy " + policy);
+		queueCapacity = capacity;
+		overflowPolicy = policy;
+		blockTimeout = timeout;
+	}
+
+	int getDroppedPacketCount() {
+		return droppedPackets;
+	}
+
+	void setDirectReceive(boolean direct) {
+		if (! canReceive())
+			throw new IllegalArgumentException(id.toString()+" does not have a received packet queue");
+		directReceive = direct;
+	}
+
+	boolean isDirectReceive() {
+		return directReceive;
+	}
+
+	void setRetryPolicy(IRetryPolicy policy) {
+		retryPolicy = policy;
+	}
+
+	IRetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	void setFragmentationThreshold(int threshold) {
+		fragmentationThreshold = threshold;
+	}
+
+	int getFragmentationThreshold() {
+		return fragmentationThreshold;
+	}
+
+	/**
+	 * Queue an incoming packet, applying the overflow policy if the queue is full.
+	 * May be called by more than one delivering thread; making room and adding the
+	 * packet is done under one monitor (the queue's, or for OVERFLOW_BLOCK the one
+	 * producers wait on) so that producers cannot both drop or both overfill.
+	 * 
+	 * @return whether the packet was queued
+	 */
+	boolean addToQueue(IncomingData data) {
+		if (queueCapacity != RadioConnectionBase.UNLIMITED_QUEUE && overflowPolicy == RadioConnectionBase.OVERFLOW_BLOCK) {
+			synchronized (spaceLock) {
+				if (!waitForSpace()) {
+					droppedPackets++;
+					return false;
+				}
+				queue.put(data);
+				return true;
+			}
+		}
+		synchronized (queue) {
+			if (queueCapacity != RadioConnectionBase.UNLIMITED_QUEUE) {
+				while (queue.size() >= queueCapacity) {
+					if (overflowPolicy != RadioConnectionBase.OVERFLOW_DROP_OLDEST) {
+						droppedPackets++;
+						return false;
+					}
+					IncomingData oldest = (IncomingData) queue.get(0);
+					if (oldest != null) {
+						oldest.release();
+						droppedPackets++;
+					}
+				}
+			}
+			queue.put(data);
+			return true;
+		}
+	}
+
+	/*
+	 * Must be called with spaceLock held, so that no other producer can fill the
+	 * room found before the caller has added its packet.
+	 */
+	private boolean waitForSpace() {
+		long deadline = System.currentTimeMillis() + blockTimeout;
+		while (queue.size() >= queueCapacity && status != CLOSED) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				return false;
+			}
+			try {
+				spaceLock.wait(remaining);
+			} catch (InterruptedException e) {
+				return false;
+			}
+		}
+		return status != CLOSED;
+	}
+
+	private Object packetRemoved(Object packet) {
+		if (packet != null && overflowPolicy == RadioConnectionBase.OVERFLOW_BLOCK) {
+			synchronized (spaceLock) {
+				spaceLock.notifyAll();
+			}
+		}
+		return packet;
 	}
 
 	int queueSize() {
@@ -0,0 +1,50 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+
+
+package com.sun.spot.peripheral.radio;
+
+import com.sun.spot.service.TimerWheelTask;
+
+/**
+ * Sends the ACK a radiostream receiver has held back, when no further packet
+ * arrived in time to be acknowledged together with the held back ones.
+ */
+class DelayedAckTimer extends TimerWheelTask {
+
+    private final ConnectionState cs;
+    private final RadiostreamProtocolManager spm;
+
+    DelayedAckTimer(ConnectionState cs, RadiostreamProtocolManager spm) {
+        this.cs = cs;
+        this.spm = spm;
+    }
+
+    /**
+     * Called by the timer wheel. Sending is left to the ProtocolManager's thread
+     */
+    public void run() {
+        spm.delayedAckTimerExpired(this);
+    }
+
+    /**
+     * Called on the ProtocolManager's thread to send the held back ACK
+     */
+    void expired() {
+        spm.sendDelayedAck(cs);
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+
+package com.sun.spot.peripheral.radio;
+
+/**
+ * An {@link IRetryPolicy} that sends a packet up to a fixed number of times
+ * without waiting in between.
+ */
+public class FixedRetryPolicy implements IRetryPolicy {
+
+	private final int maxAttempts;
+
+	/**
+	 * @param maxAttempts the number of times a packet is sent before giving up
+	 */
+	public FixedRetryPolicy(int maxAttempts) {
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException("maxAttempts must be at least 1");
+		}
+		this.maxAttempts = maxAttempts;
+	}
+
+	public long nextRetryDelay(long destination, int failedAttempts, long elapsed) {
+		return failedAttempts < maxAttempts ? 0 : -1;
+	}
+
+	public void sendCompleted(long destination, int attempts, boolean acked) {
+	}
+}
@@ -29,6 +29,7 @@ import com.sun.spot.peripheral.NoAckException;
 import com.sun.spot.peripheral.NoRouteException;
 import com.sun.spot.peripheral.radio.mhrp.interfaces.IMHEventListener;
 import com.sun.spot.peripheral.radio.routing.interfaces.IRoutingManager;
+import com.sun.spot.peripheral.radio.routing.interfaces.RouteEventClient;
 import com.sun.spot.service.IService;
 
 /**
@@ -263,7 +264,10 @@ public interface ILowPan extends IService {
             int endOffset, int hops) throws ChannelBusyException;
     
     /**
-     * Method called by INewpacketDispatcher when a packet is received
+     * Method called by INewpacketDispatcher when a packet is received.
+     * The packet still belongs to the dispatcher, so implementations must not
+     * keep a reference to it after returning: packets that have to be kept are
+     * copied into a packet taken from the {@link RadioPacketPool}.
      * @param packet packet received over the radio
      * @throws ChannelBusyException channel was busy when access was attempted
      * @throws NoRouteException No route could be found to the destination
@@ -291,4 +295,17 @@ public interface ILowPan extends IService {
      */
     public IRoutingManager setRoutingManager(IRoutingManager newRoutingManager);
     
+    /**
+     * Find a route to a destination without blocking. If the routing manager
+     * already knows a route the client is called back straight away, otherwise
+     * when a route discovery completes. A discovery already running for the
+     * destination is joined rather than started again.
+     * @param destinationAddress address for which we want a route
+     * @param client the object to call back with the route
+     * @param uniqueKey passed back to the client to identify the request
+     * @throws NoRouteException if a route discovery could not be started
+     */
+    public void requestRoute(long destinationAddress, RouteEventClient client, Object uniqueKey)
+            throws NoRouteException;
+    
 }
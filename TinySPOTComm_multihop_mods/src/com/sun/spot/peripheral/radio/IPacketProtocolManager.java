@@ -0,0 +1,45 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+
+package com.sun.spot.peripheral.radio;
+
+/**
+ * An {@link IProtocolManager} that can take unfragmented packets straight from
+ * the received {@link RadioPacket}, so that {@link LowPan} does not have to copy
+ * the payload into a new array first.<br><br>
+ *
+ * The packet is only valid during the call. A protocol manager that keeps it
+ * must {@link RadioPacketPool#retain(RadioPacket) retain} it before returning and
+ * release it once it is done, and must not modify it. Reassembled packets are
+ * still delivered through {@link IProtocolManager#processIncomingData(byte[], LowPanHeaderInfo)}.
+ */
+public interface IPacketProtocolManager extends IProtocolManager {
+
+    /**
+     * Called whenever an unfragmented packet is received that is addressed to
+     * this protocol manager.
+     *
+     * @param packet the received packet
+     * @param offset index of the first payload byte in packet.buffer
+     * @param length number of payload bytes
+     * @param headerInfo header information of the packet
+     * @return true if the packet was dealt with, false if LowPan should copy the
+     * payload and pass it to processIncomingData instead
+     */
+    boolean processIncomingPacket(RadioPacket packet, int offset, int length,
+            LowPanHeaderInfo headerInfo);
+}
@@ -129,5 +129,24 @@ public interface IRadioProtocolManager {
 	 * @return whether packets are available.
 	 */
 	boolean packetsAvailable(ConnectionID connectionID);
+
+	/**
+	 * Limit the number of received packets queued for a Connection ID. It is an error to call
+	 * this method for a Connection ID that cannot receive.
+	 * 
+	 * @param cid the ConnectionID whose queue to limit
+	 * @param capacity the maximum number of queued packets, or RadioConnectionBase.UNLIMITED_QUEUE
+	 * @param overflowPolicy one of the RadioConnectionBase.OVERFLOW_ constants
+	 * @param blockTimeout the maximum time in milliseconds to wait for room with RadioConnectionBase.OVERFLOW_BLOCK
+	 */
+	void setReceiveQueueLimit(ConnectionID cid, int capacity, int overflowPolicy, long blockTimeout);
+
+	/**
+	 * Answer the number of received packets discarded because the queue of a Connection ID was full.
+	 * 
+	 * @param cid the ConnectionID
+	 * @return the number of discarded packets
+	 */
+	int getDroppedPacketCount(ConnectionID cid);
 	
 }
@@ -47,4 +47,16 @@ public interface IRadiostreamProtocolManager extends IRadioProtocolManager {
 	
 	void waitForAllAcks(ConnectionID outConnectionId) throws NoAckException, ChannelBusyException, NoMeshLayerAckException, NoRouteException;
 
+	/**
+	 * Switch congestion control on or off for an outgoing connection. With congestion
+	 * control the retransmit timeout follows the measured round trip time, the number of
+	 * unacknowledged packets adapts to losses, and a packet the receiver reports missing
+	 * is retransmitted without waiting for its timeout. It only affects packets sent over
+	 * more than one hop. Off by default.
+	 * 
+	 * @param outConnectionId the ConnectionID to configure
+	 * @param enabled true to switch congestion control on
+	 */
+	void setCongestionControl(ConnectionID outConnectionId, boolean enabled);
+
 }
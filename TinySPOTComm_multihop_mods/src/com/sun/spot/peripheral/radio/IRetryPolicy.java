@@ -0,0 +1,53 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+
+package com.sun.spot.peripheral.radio;
+
+/**
+ * Decides whether and when a unicast packet that was not acknowledged is sent
+ * again. Protocol managers that bypass LowPan, such as the
+ * {@link TinyOSRadioProtocolManager}, retry through a retry policy that can be
+ * chosen per connection.<br><br>
+ *
+ * A policy may be shared by several connections and called from several threads
+ * at once.
+ *
+ * @see FixedRetryPolicy
+ * @see BackoffRetryPolicy
+ */
+public interface IRetryPolicy {
+
+	/**
+	 * Called each time an attempt to send a packet was not acknowledged.
+	 *
+	 * @param destination the address the packet is sent to
+	 * @param failedAttempts the number of attempts made so far, at least 1
+	 * @param elapsed milliseconds since the first attempt
+	 * @return the number of milliseconds to wait before the next attempt, or a
+	 * negative value to give up
+	 */
+	long nextRetryDelay(long destination, int failedAttempts, long elapsed);
+
+	/**
+	 * Called once sending a packet has finished.
+	 *
+	 * @param destination the address the packet was sent to
+	 * @param attempts the number of attempts made
+	 * @param acked whether the last attempt was acknowledged
+	 */
+	void sendCompleted(long destination, int attempts, boolean acked);
+}
@@ -0,0 +1,35 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+
+package com.sun.spot.peripheral.radio;
+
+/**
+ * Implementors are told when a packet submitted to the {@link TransmitScheduler}
+ * has been sent, was not acknowledged, could not be sent, or timed out while
+ * waiting to be sent.
+ */
+public interface ISendListener {
+
+	/**
+	 * Called by a transmit scheduler thread once a request has completed. The
+	 * listener should return quickly, as no other packet to the same destination
+	 * is sent in the meantime.
+	 *
+	 * @param request the completed request
+	 */
+	void sendCompleted(SendRequest request);
+}
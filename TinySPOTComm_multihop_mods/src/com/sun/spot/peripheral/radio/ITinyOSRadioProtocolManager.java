@@ -10,6 +10,21 @@ public interface ITinyOSRadioProtocolManager extends IRadioProtocolManager
 	 * The offset into data buffers at which data starts
 	 */
 	final int DATA_OFFSET = PORT_OFFSET + 1;
+	/**
+	 * The AM type reserved for the fragments of datagrams that do not fit into a single packet.
+	 * A fragment carries, after the AM type, the port of the datagram, a datagram tag, the datagram
+	 * size as two bytes in network byte order, the offset of the fragment in units of 8 bytes and
+	 * the fragment's data.
+	 */
+	final byte FRAGMENT_AM_TYPE = (byte) 0xF4;
+	/**
+	 * The number of bytes of a fragment's AM payload taken by the fragment header
+	 */
+	final int FRAGMENT_HEADER_LENGTH = 5;
+	/**
+	 * The maximum number of bytes of data in a datagram that is sent in fragments
+	 */
+	final int MAX_FRAGMENTED_LENGTH = 1024;
 	/**
 	 * identifies server connections
 	 */
@@ -34,4 +49,48 @@ public interface ITinyOSRadioProtocolManager extends IRadioProtocolManager
 	 * @return resultant ConnectionID
 	 */
 	ConnectionID addBroadcastConnection(byte portNo);
+
+	/**
+	 * Receive up to max packets queued for a Connection ID at once. If no packet is queued,
+	 * block until one is received or until a timeout expires.
+	 * 
+	 * @param cid the ConnectionID over which to receive data
+	 * @param into the array to fill from index 0
+	 * @param max the maximum number of packets to receive
+	 * @param timeout the maximum time to block in milliseconds, 0 not to block or a negative value to block indefinitely
+	 * @return the number of packets received, 0 if a timeout occurs or the connection is closed
+	 */
+	int receivePackets(ConnectionID cid, IncomingData[] into, int max, long timeout);
+
+	/**
+	 * Select whether packets for a Connection ID are queued as copies or read directly from the
+	 * received radio packets. In direct mode each {@link IncomingData} returned by a receive holds
+	 * on to a pooled radio packet and must be given back with {@link IncomingData#release()}.
+	 * 
+	 * @param cid the ConnectionID to configure
+	 * @param direct true to receive without copying, false to receive copies
+	 */
+	void setDirectReceive(ConnectionID cid, boolean direct);
+
+	/**
+	 * Set how unicast packets sent over a Connection ID are retried when they are not acknowledged.
+	 * 
+	 * @param cid the ConnectionID to configure
+	 * @param policy the retry policy, or null to use the default of sending a packet up to
+	 * {@link TinyOSRadioProtocolManager#DEFAULT_MAX_ATTEMPTS} times
+	 */
+	void setRetryPolicy(ConnectionID cid, IRetryPolicy policy);
+
+	/**
+	 * Set whether datagrams sent over a Connection ID that do not fit into a single packet of the
+	 * peer are sent as a series of fragments, which the peer reassembles. Fragments use the AM
+	 * type {@link #FRAGMENT_AM_TYPE}, so a TinyOS mote needs the companion fragmentation component
+	 * to receive them. Datagrams of at most maxPayloadLength bytes are still sent as a single packet.
+	 * Fragmented datagrams sent by other nodes are always reassembled.
+	 * 
+	 * @param cid the ConnectionID to configure
+	 * @param maxPayloadLength the largest AM payload the peer accepts, e.g. TOSH_DATA_LENGTH
+	 * of the mote, or 0 not to fragment
+	 */
+	void setFragmentation(ConnectionID cid, int maxPayloadLength);
 }
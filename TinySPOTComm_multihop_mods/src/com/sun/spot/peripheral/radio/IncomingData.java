@@ -36,15 +36,73 @@ public class IncomingData {
 	public IncomingData(byte[] payload, LowPanHeaderInfo headerInfo) {
 		this.payload = payload;
 		this.headerInfo = headerInfo;
+		this.offset = 0;
+		this.length = payload.length;
+		this.packet = null;
 	}
 
 	/**
-     * Reassembled data payload
+	 * Create an IncomingData that reads its payload directly from the buffer of a
+	 * received {@link RadioPacket} instead of from a copy. The caller must already
+	 * have retained the packet from the {@link RadioPacketPool}; it is given back
+	 * by {@link #release()}.
+	 *
+	 * @param packet the retained packet holding the payload
+	 * @param offset index of the first payload byte in the packet's buffer
+	 * @param length number of payload bytes
+	 * @param headerInfo header information of the packet
+	 */
+	public IncomingData(RadioPacket packet, int offset, int length, LowPanHeaderInfo headerInfo) {
+		this.payload = packet.buffer;
+		this.headerInfo = headerInfo;
+		this.offset = offset;
+		this.length = length;
+		this.packet = packet;
+	}
+
+	/**
+	 * Give the radio packet backing this data back to the pool. Afterwards the
+	 * payload must not be read any more. Does nothing if the data was copied out
+	 * of the packet when it was received.
+	 */
+	public void release() {
+		RadioPacket rp;
+		synchronized (this) {
+			rp = packet;
+			packet = null;
+		}
+		if (rp != null) {
+			RadioPacketPool.getInstance().release(rp);
+		}
+	}
+
+	/**
+	 * @return true if the payload is read from a radio packet that must be released
+	 */
+	public synchronized boolean isBorrowed() {
+		return packet != null;
+	}
+
+	/**
+     * Reassembled data payload. If the data was received in direct mode this
+     * is the buffer of the radio packet, and the data starts at {@link #offset}.
      */
     public final byte[] payload;
     
+    /**
+     * Index of the first data byte in {@link #payload}.
+     */
+    public final int offset;
+    
+    /**
+     * Number of data bytes in {@link #payload}.
+     */
+    public final int length;
+    
     /**
      * Fields of the MACHeader that could be of interest for applications.
      */
     public final LowPanHeaderInfo headerInfo;
+    
+    private RadioPacket packet;
 }
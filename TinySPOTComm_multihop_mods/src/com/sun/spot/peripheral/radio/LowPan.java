@@ -24,8 +24,6 @@
 package com.sun.spot.peripheral.radio;
 
 import java.util.Enumeration;
-import java.util.Hashtable;
-import java.util.Timer;
 import java.util.Vector;
 import java.util.Random;
 
@@ -43,7 +41,9 @@ import com.sun.spot.service.IService;
 import com.sun.spot.util.IEEEAddress;
 import com.sun.squawk.util.IntHashtable;
 import com.sun.spot.util.Debug;
-import com.sun.spot.util.Queue;
+import com.sun.spot.util.LongHashtable;
+import com.sun.spot.util.LongIntHashtable;
+import com.sun.spot.util.SingleProducerQueue;
 import com.sun.spot.peripheral.radio.routing.RoutingPolicyManager;
 import com.sun.spot.peripheral.radio.routing.interfaces.IRoutingPolicyManager;
 import com.sun.spot.resources.Resources;
@@ -59,30 +59,39 @@ import java.util.Date;
  */
 public class LowPan extends BasicService implements ILowPan, RouteEventClient {
 
-    private final Object routeLock = new Integer(0);
     private static final int MAX_BROADCAST_DELTA = 30; // used for sequence checking
+    private static final int NO_SEQUENCE_NUMBER = Integer.MIN_VALUE;
     private long ourAddress;
     private Vector dataListener;
     private Vector routeListener;
     private int datagramTag;
     private int broadcastSeqNo;
     private Random randomGen;
-    private Queue bCastQueue;
+    private SingleProducerQueue bCastQueue;  // filled by the receive thread, drained by the BroadcastDispatcherThread
     private BroadcastDispatcherThread bCastDispatcher;
+    private SingleProducerQueue forwardQueue;  // filled by the receive thread, drained by the ForwardingThread
+    private ForwardingThread forwarder;
+    private int localSendsInProgress;  // guarded by localSendLock
+    private final Object localSendLock = new Object();
+    private PacingScheduler pacer;
     private IntHashtable protocolTable;
     private IntHashtable protocolFamilyTable;
-    private Hashtable availRoutes;
+    private final LongHashtable pendingRoutes = new LongHashtable();  // PendingRoute per destination
+    // Compressed mesh headers can only be read by nodes that know DISPATCH_MESH_HC, so every
+    // node of the mesh must be running this version before they are switched on
+    private final boolean compressHeaders = Utils.isOptionSelected("spot.mesh.header.compression", false);
     private IRoutingManager routingManager;
+    private final RouteCache routeCache = new RouteCache();   // next hops for forwarding
     private IRadioPacketDispatcher packetDispatcher;
-    private Hashtable reassemblyBuffers;
-    private Hashtable bCastSeqNos;
-    private Timer reassemblyTimer;
+    private ReassemblyTable reassemblyBuffers;
+    private LongIntHashtable bCastSeqNos;  // last broadcast sequence number per originator
     private IService netmgr;
     private IRoutingPolicyManager rpm;
     private static ILowPan lowPan;
     // For managment
     private LowPanStats lpStats;
     private static final long REASSEMBLY_EXPIRATION_TIME = 15000;
+    private static final int MAX_REASSEMBLIES = 8;
     /**
      * Limit the number of packets on this queue to avoid out of memory errors when there's
      * lots of broadcast traffic.
@@ -92,9 +101,16 @@ public class LowPan extends BasicService implements ILowPan, RouteEventClient {
      * get broadcasted more than ten seconds late anyway and would be of doubtful value.
      */
     private static final int MAX_BROADCAST_QUEUE_LENGTH = 200;
-    private static final int DEFAULT_PACKET_DELAY = 10;
-    private static final int DEFAULT_FORWARDING_DELAY = 5;
-    private static final int DEFAULT_PER_HOP_DELAY = 10;
+    /**
+     * Limit the number of transit packets waiting to be forwarded. Packets arriving while the
+     * queue is full are dropped, as the originator's retries are of more use than a stale copy.
+     */
+    private static final int MAX_FORWARD_QUEUE_LENGTH = 32;
+    /**
+     * The longest time in milliseconds a transit packet waits for local sends to finish
+     * before it is forwarded anyway.
+     */
+    private static final int MAX_TRANSIT_DEFERRAL = 50;
 
     /**
      * Get the instance of this singleton.
@@ -128,6 +144,7 @@ public class LowPan extends BasicService implements ILowPan, RouteEventClient {
         packetDispatcher = radioPacketDispatcher;
         lpStats = new LowPanStats();
         randomGen = new Random();
+        pacer = new PacingScheduler();
 
         // Protocol dispatching functionality
         protocolTable = new IntHashtable();
@@ -135,23 +152,27 @@ public class LowPan extends BasicService implements ILowPan, RouteEventClient {
 
         // 6lowpan reassembly support
         datagramTag = 0;
-        reassemblyBuffers = new Hashtable();
-        reassemblyTimer = new Timer();
+        reassemblyBuffers = new ReassemblyTable(MAX_REASSEMBLIES, lpStats);
 
         // Broadcast support
-        bCastSeqNos = new Hashtable();
+        bCastSeqNos = new LongIntHashtable();
         broadcastSeqNo = randomGen.nextInt(256); // Initialize with random start value
-        bCastQueue = new Queue();
+        bCastQueue = new SingleProducerQueue(MAX_BROADCAST_QUEUE_LENGTH);
         bCastDispatcher = new BroadcastDispatcherThread(this);
         bCastDispatcher.start();
 
+        // Mesh forwarding support
+        forwardQueue = new SingleProducerQueue(MAX_FORWARD_QUEUE_LENGTH);
+        forwarder = new ForwardingThread();
+        RadioFactory.setAsDaemonThread(forwarder);
+        forwarder.start();
+
         // initialize routing policy manager
         rpm = RoutingPolicyManager.getInstance();
 
         // initialize routing manager
         routeListener = new Vector();
         dataListener = new Vector();
-        availRoutes = new Hashtable();
         setRoutingManager(routingManager);
 
         // Must be the last thing we do
@@ -173,6 +194,7 @@ public class LowPan extends BasicService implements ILowPan, RouteEventClient {
             newRoutingManager.initialize(ourAddress, this);
             newRoutingManager.start();
             this.routingManager = newRoutingManager;
+            routeCache.setRoutingManager(newRoutingManager);
         }
         return rm;
     }
@@ -359,18 +381,35 @@ public class LowPan extends BasicService implements ILowPan, RouteEventClient {
      * @param uniqueKey a key that uniquely identifies the route
      */
     public void routeFound(RouteInfo info, Object uniqueKey) {
-        synchronized (routeLock) {
-            availRoutes.put(uniqueKey, info);
-            //the corresponding wait() is called in findNextHop()
-            routeLock.notifyAll();
+        if (!(uniqueKey instanceof PendingRoute)) {
+            return;
+        }
+        PendingRoute pending = (PendingRoute) uniqueKey;
+        synchronized (pendingRoutes) {
+            if (pendingRoutes.get(pending.destination) == pending) {
+                pendingRoutes.remove(pending.destination);
+            }
+        }
+        if (!pending.complete(info)) {
+            return;
+        }
+        if (!routeListener.isEmpty()) {
+            boolean found = (info.nextHop - Constants.INVALID_NEXT_HOP) != 0;
+            Enumeration en = routeListener.elements();
+            while (en.hasMoreElements()) {
+                ((IRouteEventListener) en.nextElement()).routeResponseReceived(info.destination,
+                        found ? info.hopCount : -1, found);
+            }
         }
     }
 
     /**
      * This method is called by the packet dispatcher this low pan layer is
      * registered with. It decides which instance this packet should be passed
-     * to: forwardMeshPacket() for packets that are addressed to another node,
+     * to: the forwarding queue for packets that are addressed to another node,
      * reassembly() for fragmented packets or readPacket() for non fragmented packets.
+     * Transit packets are sent on by a separate thread, so that receiving never
+     * waits for the radio to transmit.
      * @param packet packet that was received by the underlying radio
      * @throws com.sun.spot.peripheral.ChannelBusyException the radio was busy/in-use
      * @throws com.sun.spot.peripheral.NoRouteException a mesh route could not be found to the next hop for the received packet
@@ -400,7 +439,7 @@ public class LowPan extends BasicService implements ILowPan, RouteEventClient {
                 if (!lpp.isBCast() && !rpm.isEndNode()) {
 
                     // Not a broadcast, send it along
-                    forwardMeshPacket(lpp);
+                    queueForwardPacket(lpp);
                 } else { // is a meshed broadcast
                     if ((lpp.getOriginatorAddress() != ourAddress) && (validateBroadcastForForwarding(lpp))) {  // if we won't forward it, we don't process either
                         //                       System.out.println("[lowpan] Recived Meshed Broadcast from " +
@@ -454,12 +493,11 @@ public class LowPan extends BasicService implements ILowPan, RouteEventClient {
     }
 
     private boolean validateBroadcastForForwarding(LowPanPacket lpp) throws ChannelBusyException, NoRouteException {
-        Integer lastSeqNo = (Integer) bCastSeqNos.get(new Long(lpp.getOriginatorAddress()));
-        if (lastSeqNo == null) { // never seen a Bcast from this address
-            bCastSeqNos.put(new Long(lpp.getOriginatorAddress()), new Integer((int) (lpp.getBCastSeqNo() & 0xff)));
+        int limit = bCastSeqNos.get(lpp.getOriginatorAddress(), NO_SEQUENCE_NUMBER);
+        if (limit == NO_SEQUENCE_NUMBER) { // never seen a Bcast from this address
+            bCastSeqNos.put(lpp.getOriginatorAddress(), (int) (lpp.getBCastSeqNo() & 0xff));
             return true;
         }
-        int limit = lastSeqNo.intValue();
         int current = lpp.getBCastSeqNo();
         // We either increased or decreased
         if (current <= limit) { // new packet has lower value
@@ -476,7 +514,7 @@ public class LowPan extends BasicService implements ILowPan, RouteEventClient {
             }
         }
         // far enough out of window it may be a new broadcast
-        bCastSeqNos.put(new Long(lpp.getOriginatorAddress()), new Integer((int) (lpp.getBCastSeqNo() & 0xff)));
+        bCastSeqNos.put(lpp.getOriginatorAddress(), (int) (lpp.getBCastSeqNo() & 0xff));
         return true;
     }
 
@@ -508,16 +546,62 @@ public class LowPan extends BasicService implements ILowPan, RouteEventClient {
             int startOffset, int endOffset)
             throws ChannelBusyException, NoRouteException {
         LowPanPacket lpp = new LowPanPacket(LowPanPacket.DATA_PACKET);
-        sendPrim(protocolFamily, protocolNum, toAddress, buffer, startOffset, endOffset, false,
-                lpp);
-        return lpp.getRadioPacket().getTimestamp();
+        try {
+            sendPrim(protocolFamily, protocolNum, toAddress, buffer, startOffset, endOffset, false,
+                    lpp);
+            return lpp.getRadioPacket().getTimestamp();
+        } finally {
+            lpp.release();
+        }
     }
 
     public boolean send(byte protocolFamily, byte protocolNum, long toAddress, byte[] buffer,
             int startOffset, int endOffset, boolean failIfNotSingleHop)
             throws ChannelBusyException, NoRouteException {
-        return sendPrim(protocolFamily, protocolNum, toAddress, buffer, startOffset, endOffset,
-                failIfNotSingleHop, new LowPanPacket(LowPanPacket.DATA_PACKET));
+        LowPanPacket lpp = new LowPanPacket(LowPanPacket.DATA_PACKET);
+        try {
+            return sendPrim(protocolFamily, protocolNum, toAddress, buffer, startOffset, endOffset,
+                    failIfNotSingleHop, lpp);
+        } finally {
+            lpp.release();
+        }
+    }
+
+    /*
+     * Local frames take priority over transit traffic: the forwarding thread
+     * holds back while any are being transmitted, for at most MAX_TRANSIT_DEFERRAL.
+     * Only the transmission itself is counted, not route discovery or pacing,
+     * so that a local sender waiting for a route does not stall forwarding.
+     */
+    private void localSendStarted() {
+        synchronized (localSendLock) {
+            localSendsInProgress++;
+        }
+    }
+
+    private void localSendFinished() {
+        synchronized (localSendLock) {
+            if (--localSendsInProgress == 0) {
+                localSendLock.notifyAll();
+            }
+        }
+    }
+
+    private void deferToLocalSends() {
+        synchronized (localSendLock) {
+            long end = System.currentTimeMillis() + MAX_TRANSIT_DEFERRAL;
+            while (localSendsInProgress > 0) {
+                long remaining = end - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                try {
+                    localSendLock.wait(remaining);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
     }
 
     /**
@@ -559,7 +643,8 @@ public class LowPan extends BasicService implements ILowPan, RouteEventClient {
         byte freeSpace = RadioPacket.MIN_PAYLOAD_LENGTH - ILowPan.MAC_PAYLOAD_OFFSET;
         freeSpace -= LowPanHeader.MAX_PROTOCOL_HEADER_LENGTH;
         if (info.hopCount > 1) {
-            freeSpace -= LowPanHeader.MAX_MESH_HEADER_LENGTH;
+            setMeshHeader(lph, info.destination, info.hopCount);
+            freeSpace -= lph.getMeshHeaderLength();
         }
         for (int i = 0; i < 3; i++) {
             try {
@@ -577,7 +662,7 @@ public class LowPan extends BasicService implements ILowPan, RouteEventClient {
                     if (failIfNotSingleHop) {
                         throw new RuntimeException("The failIfNotSingleHop facility is not compatible with payloads that need fragmentation");
                     }
-                    freeSpace -= LowPanHeader.MAX_FRAGMENTATION_HEADER_LENGTH;
+                    freeSpace -= lph.getMaxFragmentationHeaderLength();
                     sendInFragments(info, protocolNum, buffer, startOffset,
                             endOffset, lpp, lph, freeSpace);
                     lpStats.unicastsSent++;
@@ -633,9 +718,11 @@ public class LowPan extends BasicService implements ILowPan, RouteEventClient {
         }
         lpStats.nonMeshPacketsSent++;
         lpStats.packetsSent++;
-        packetDispatcher.sendPacket(lpp.getRadioPacket());
-        Utils.sleep(DEFAULT_PACKET_DELAY);  // Delay between packets to allow receivers to keep up
-        // & to prevent collision with forwarding of fragment
+        try {
+            sendPaced(lpp.getRadioPacket(), 1, true);
+        } finally {
+            lpp.release();
+        }
     }
 
     /**
@@ -677,15 +764,11 @@ public class LowPan extends BasicService implements ILowPan, RouteEventClient {
                 LowPanHeader.MAX_PROTOCOL_HEADER_LENGTH;
         long dest = 0xffff;
         if (hops > 1) {
-            lph.setMeshed(true);
-            lph.setOutgoingHops(hops);
-            // set other mesh params
-            lph.setOutgoingOriginatorAddress(ourAddress);
-            lph.setOutgoingDestinationAddress(dest);
+            setMeshHeader(lph, dest, hops);
             lph.setBCast(true);
 
             // Free space gets smaller
-            freeSpace -= (LowPanHeader.MAX_MESH_HEADER_LENGTH + LowPanHeader.BROADCAST_HEADER_LENGTH);
+            freeSpace -= (lph.getMeshHeaderLength() + LowPanHeader.BROADCAST_HEADER_LENGTH);
         } else {
             lph.setMeshed(false);
         }
@@ -700,18 +783,34 @@ public class LowPan extends BasicService implements ILowPan, RouteEventClient {
                         endOffset, lpp, lph);
                 lpStats.broadcastsSent++;
             } else {
-                freeSpace -= LowPanHeader.MAX_FRAGMENTATION_HEADER_LENGTH;
+                freeSpace -= lph.getMaxFragmentationHeaderLength();
                 sendInFragments(null, protocolNum, buffer, startOffset,
                         endOffset, lpp, lph, freeSpace);
                 lpStats.broadcastsSent++;
                 lpStats.broadcastsFragmented++;
             }
+            return lpp.getRadioPacket().getTimestamp();
         } catch (NoAckException e) {
             throw new SpotFatalException("Should never get a NoAck when broadcasting");
         } catch (NoRouteException e) {
             throw new SpotFatalException("Should never get a NoRoute when broadcasting");
+        } finally {
+            lpp.release();
         }
-        return lpp.getRadioPacket().getTimestamp();
+    }
+
+    /*
+     * Fill in the mesh header of a packet we originate. The compressed format is used
+     * if it is switched on and at least one address has a 16 bit form, as two 64 bit
+     * addresses make the compressed header a byte longer.
+     */
+    private void setMeshHeader(LowPanHeader lph, long destination, int hops) {
+        lph.setMeshed(true);
+        lph.setOutgoingHops(hops);
+        lph.setOutgoingOriginatorAddress(ourAddress);
+        lph.setOutgoingDestinationAddress(destination);
+        lph.setCompressed(compressHeaders &&
+                (LowPanHeader.hasShortAddress(ourAddress) || LowPanHeader.hasShortAddress(destination)));
     }
 
     private void setSequenceNumber(LowPanHeader lph) {
@@ -719,7 +818,7 @@ public class LowPan extends BasicService implements ILowPan, RouteEventClient {
             lph.setOutgoingBCastSeqNo(broadcastSeqNo++);
             broadcastSeqNo %= 256;
             // update table with our info so we don't repeat our packet when we see it
-            bCastSeqNos.put(new Long(ourAddress), new Integer(broadcastSeqNo - 1));
+            bCastSeqNos.put(ourAddress, broadcastSeqNo - 1);
         }
     }
 
@@ -733,27 +832,20 @@ public class LowPan extends BasicService implements ILowPan, RouteEventClient {
             throws ChannelBusyException, NoRouteException, NoAckException {
 //            System.out.println("[lowpan] Sending as one packet, proto: " +protocolNum);
 
-        int delay = DEFAULT_PACKET_DELAY;
+        int hops = 1;
         boolean isMeshing = (routeInfoOrNull != null) && (routeInfoOrNull.hopCount > 1);
 
         lph.setOutgoingFragType(LowPanHeader.UNFRAGMENTED);
 
         // mesh header may already be set if this is a broadcast > 1 hop
         if (isMeshing) {
-            lph.setMeshed(true);
-            lph.setOutgoingHops(routeInfoOrNull.hopCount);
-            lph.setOutgoingOriginatorAddress(ourAddress);
-            lph.setOutgoingDestinationAddress(routeInfoOrNull.destination);
-            delay += DEFAULT_FORWARDING_DELAY + (Math.min(3, routeInfoOrNull.hopCount) - 1) * DEFAULT_PER_HOP_DELAY;
+            setMeshHeader(lph, routeInfoOrNull.destination, routeInfoOrNull.hopCount);
+            hops = routeInfoOrNull.hopCount;
         }
 
         if (lph.isBCast()) {
             lpStats.meshBroadcastsSent++;
             setSequenceNumber(lph);
-            delay += DEFAULT_FORWARDING_DELAY;
-        } else if (lpp.getRadioPacket().getDestinationAddress() == 0xffff) {
-            delay += DEFAULT_FORWARDING_DELAY;
-            ;
         }
 //            System.out.println("[send1] Buf start: " + startOffset + " end: " + endOffset +
 //                   " size " + (endOffset - startOffset+1));
@@ -765,9 +857,7 @@ public class LowPan extends BasicService implements ILowPan, RouteEventClient {
             lpStats.nonMeshPacketsSent++;
         }
         lpStats.packetsSent++;
-        packetDispatcher.sendPacket(lpp.getRadioPacket());
-        Utils.sleep(delay); // Delay between packets to allow receivers to keep up
-        // & to prevent collision with forwarding of fragment
+        sendPaced(lpp.getRadioPacket(), hops, true);
     }
 
     // Note below:  For broadcast packets we must increment the sequence number in each packet
@@ -777,17 +867,12 @@ public class LowPan extends BasicService implements ILowPan, RouteEventClient {
             int startOffset, int endOffset,
             LowPanPacket lpp, LowPanHeader lph, byte freeSpace) throws NoAckException, ChannelBusyException {
 
-        int delay = DEFAULT_PACKET_DELAY;
+        int hops = 1;
         datagramTag++;
         boolean isMeshing = (routeInfoOrNull != null) && (routeInfoOrNull.hopCount > 1);
         if (isMeshing) {
-            lph.setMeshed(true);
-            lph.setOutgoingHops(routeInfoOrNull.hopCount);
-            lph.setOutgoingOriginatorAddress(ourAddress);
-            lph.setOutgoingDestinationAddress(routeInfoOrNull.destination);
-            delay += DEFAULT_FORWARDING_DELAY + (Math.min(3, routeInfoOrNull.hopCount) - 1) * DEFAULT_PER_HOP_DELAY;
-        } else if (lpp.getRadioPacket().getDestinationAddress() == 0xffff) {
-            delay += DEFAULT_FORWARDING_DELAY;
+            setMeshHeader(lph, routeInfoOrNull.destination, routeInfoOrNull.hopCount);
+            hops = routeInfoOrNull.hopCount;
         }
 
         lph.setFragged(true);
@@ -822,9 +907,7 @@ public class LowPan extends BasicService implements ILowPan, RouteEventClient {
                 lpStats.nonMeshPacketsSent++;
             }
             lpStats.packetsSent++;
-            packetDispatcher.sendPacket(lpp.getRadioPacket());
-            Utils.sleep(delay); // Delay between packets to allow receivers to keep up
-            // & to prevent collision with forwarding of fragment
+            sendPaced(lpp.getRadioPacket(), hops, true);
         }
 
         //sending the last fragment
@@ -847,23 +930,86 @@ public class LowPan extends BasicService implements ILowPan, RouteEventClient {
             lpStats.nonMeshPacketsSent++;
         }
         lpStats.packetsSent++;
-        packetDispatcher.sendPacket(lpp.getRadioPacket());
-        Utils.sleep(delay); // still need to prevent collision with forwarding of fragment
+        sendPaced(lpp.getRadioPacket(), hops, true);
+    }
+
+    /**
+     * Send a frame once the pacing scheduler allows it, so that the neighbour
+     * can keep up and consecutive frames don't collide with their own forwarding.
+     * @param rp the frame to send
+     * @param hops the number of hops to the final destination
+     * @param local true if we originate the frame, false if we forward it
+     */
+    private void sendPaced(RadioPacket rp, int hops, boolean local) throws NoAckException, ChannelBusyException {
+        pacer.awaitSlot(rp.getDestinationAddress());
+        if (local) {
+            localSendStarted();
+        }
+        try {
+            packetDispatcher.sendPacket(rp);
+        } catch (NoAckException e) {
+            pacer.frameSent(rp, hops, false, false);
+            throw e;
+        } catch (ChannelBusyException e) {
+            pacer.frameSent(rp, hops, false, true);
+            throw e;
+        } finally {
+            if (local) {
+                localSendFinished();
+            }
+        }
+        pacer.frameSent(rp, hops, true, false);
     }
 
     /**
      * This method is called when the routing manager cannot provide a routing
-     * info with a valid next hop for a certain destination address. It makes
-     * the routing manager start a new route discovery and waits for a result
+     * info with a valid next hop for a certain destination address. It joins
+     * the route discovery for that address, starting one if none is running,
+     * and waits for its result
      * @param destinationAddress address for which we want a next hop
      * @return RouteInfo route info that we need to send a packet to the final
      * destination
      */
     private RouteInfo findNextHop(long destinationAddress)
             throws NoRouteException {
+        PendingRoute pending = discoverRoute(destinationAddress);
+        RouteInfo info;
+        try {
+            info = pending.await();
+        } catch (InterruptedException e) {
+            throw new NoRouteException("Interrupted while finding a route to " +
+                    IEEEAddress.toDottedHex(destinationAddress));
+        }
+        if ((info.nextHop - Constants.INVALID_NEXT_HOP) == 0) {
+            throw new NoRouteException("No route found");
+        }
+        return info;
+    }
+
+    public void requestRoute(long destinationAddress, RouteEventClient client, Object uniqueKey)
+            throws NoRouteException {
+        RouteInfo info = routingManager.getRouteInfo(destinationAddress);
+        if (info.nextHop != Constants.INVALID_NEXT_HOP) {
+            client.routeFound(info, uniqueKey);
+        } else {
+            discoverRoute(destinationAddress).addClient(client, uniqueKey);
+        }
+    }
 
-        RouteInfo info = null;
-        Object uniqueKey = new Object();
+    /**
+     * Answer the running route discovery for an address, starting one if there is none,
+     * so that concurrent senders to the same destination share one route request.
+     */
+    private PendingRoute discoverRoute(long destinationAddress) throws NoRouteException {
+        PendingRoute pending;
+        synchronized (pendingRoutes) {
+            pending = (PendingRoute) pendingRoutes.get(destinationAddress);
+            if (pending != null) {
+                return pending;
+            }
+            pending = new PendingRoute(destinationAddress);
+            pendingRoutes.put(destinationAddress, pending);
+        }
 
         //notify all registered listeners, that a route request is made
         if (!routeListener.isEmpty()) {
@@ -874,40 +1020,13 @@ public class LowPan extends BasicService implements ILowPan, RouteEventClient {
         }
 
         try {
-            synchronized (routeLock) {
-                routingManager.findRoute(destinationAddress, this, uniqueKey);
-                while (!availRoutes.containsKey(uniqueKey)) {
-                    //corresponding notify is called in routeFound()
-                    routeLock.wait();
-                }
-
-                info = (RouteInfo) availRoutes.remove(uniqueKey);
-                if ((info.nextHop - Constants.INVALID_NEXT_HOP) == 0) {
-                    //Debug.print("findNextHop: no next hop", 4);
-
-                    if (!routeListener.isEmpty()) {
-                        Enumeration en = routeListener.elements();
-                        while (en.hasMoreElements()) {
-                            ((IRouteEventListener) en.nextElement()).routeResponseReceived(info.destination,
-                                    -1, false);
-                        }
-                    }
-                    throw new NoRouteException("No route found");
-                } else {
-                    //Debug.print("findNextHop: found next hop",4);
-                    if (!routeListener.isEmpty()) {
-                        Enumeration en = routeListener.elements();
-                        while (en.hasMoreElements()) {
-                            ((IRouteEventListener) en.nextElement()).routeResponseReceived(
-                                    info.getDestination(), info.hopCount, true);
-                        }
-                    }
-                }
-            }
-        } catch (InterruptedException e) {
-            System.err.println("findNextHop: interrupted during find route");
+            routingManager.findRoute(destinationAddress, this, pending);
+        } catch (NoRouteException e) {
+            // release anyone who joined in the meantime
+            routeFound(new RouteInfo(destinationAddress, Constants.INVALID_NEXT_HOP, 0), pending);
+            throw e;
         }
-        return info;
+        return pending;
     }
 
     /**
@@ -940,9 +1059,6 @@ public class LowPan extends BasicService implements ILowPan, RouteEventClient {
 //                    " protocol family: " + protocolFamily +" protocol number: "+protocolNum);
         } else {
 
-            byte[] rpPayload = new byte[length];
-            System.arraycopy(lpp.getRadioPacket().buffer, startPos, rpPayload, 0, length);
-
             // create a headerInfo to provide applications with fields of
             // the radio header and if given the mesh header note that hopcount
             // does not provide the number of taken hops but should be zero all
@@ -977,19 +1093,51 @@ public class LowPan extends BasicService implements ILowPan, RouteEventClient {
             }
 //            date = new Date(System.currentTimeMillis());
 //            System.out.println("[LowPan]" + date + ": About to call processIncomingData()");
+            // protocol managers that can read the radio packet in place
+            // save copying the payload
+            if (protocolManager instanceof IPacketProtocolManager &&
+                    ((IPacketProtocolManager) protocolManager).processIncomingPacket(
+                    packet, startPos, length, lpHeaderInfo)) {
+                return;
+            }
+            byte[] rpPayload = new byte[length];
+            System.arraycopy(packet.buffer, startPos, rpPayload, 0, length);
             protocolManager.processIncomingData(rpPayload, lpHeaderInfo);
         }
     }
 
     private void queueBroadcastPacket(LowPanPacket lpp) {
         if (bCastQueue.size() < MAX_BROADCAST_QUEUE_LENGTH) {
-            bCastQueue.put(lpp);
+            // the received packet belongs to the dispatcher, so queue a copy
+            RadioPacket copy = RadioPacketPool.getInstance().acquireCopy(lpp.getRadioPacket());
+            bCastQueue.put(new LowPanPacket(copy));
         } else {
             lpStats.broadcastsQueueFull++;
             // Drop packet
         }
     }
 
+    private void queueForwardPacket(LowPanPacket lpp) {
+        int depth = forwardQueue.size();
+        if (depth < MAX_FORWARD_QUEUE_LENGTH) {
+            // the received packet belongs to the dispatcher, so queue a copy
+            RadioPacket copy = RadioPacketPool.getInstance().acquireCopy(lpp.getRadioPacket());
+            LowPanPacket queued = new LowPanPacket(copy);
+            queued.queueTime = System.currentTimeMillis();
+            forwardQueue.put(queued);
+            synchronized (lpStats) {
+                if (depth + 1 > lpStats.maxForwardQueueDepth) {
+                    lpStats.maxForwardQueueDepth = depth + 1;
+                }
+            }
+        } else {
+            synchronized (lpStats) {
+                lpStats.forwardQueueFull++;
+            }
+            // Drop packet
+        }
+    }
+
     /**
      * This method is called whenever low pan has to process a packet that
      * is addressed to another node. It writes the new values in into the
@@ -1003,26 +1151,29 @@ public class LowPan extends BasicService implements ILowPan, RouteEventClient {
             throws ChannelBusyException {
         long lastHop = 0;
         long nextHop = 0;
-        int delay = DEFAULT_PACKET_DELAY;
+        int hops = 1;
 
         lpp.setHopsLeft(lpp.getHopsLeft() - 1);
         if (lpp.getHopsLeft() <= 0) {
-            lpStats.ttlExpired++;
+            synchronized (lpStats) {
+                lpStats.ttlExpired++;
+            }
             return; // time for this packet to vaporize itself
         }
 
         if (lpp.isBCast()) {
-            lpStats.meshBroadcastsForwarded++;
+            synchronized (lpStats) {
+                lpStats.meshBroadcastsForwarded++;
+            }
             lastHop = 0xffff; // tell forwarder it was a broadcast
             nextHop = 0xffff;
-            delay += DEFAULT_FORWARDING_DELAY;
         } else {  // go lookup address
-            RouteInfo info = routingManager.getRouteInfo(lpp.getFDestinationAddress());
+            RouteInfo info = routeCache.getRouteInfo(lpp.getFDestinationAddress());
             //Debug.print("forwardMeshPacket: " +
             //"next hop is " + IEEEAddress.toDottedHex(info.nextHop), 1);
             // Debug.print("" + System.currentTimeMillis() + " forwardMeshPacket: " + lpp, 0);
-            // FIXME Needed because otherwise the sender route times out...
-            routingManager.getRouteInfo(lpp.getOriginatorAddress());
+            // Needed because otherwise the sender route times out; the cache freshens it in bulk
+            routeCache.getRouteInfo(lpp.getOriginatorAddress());
 
             if (info.nextHop != Constants.INVALID_NEXT_HOP) {
 
@@ -1031,7 +1182,7 @@ public class LowPan extends BasicService implements ILowPan, RouteEventClient {
                 //save data for notifyForward
                 lastHop = lpp.getRPSourceAddress();
                 nextHop = info.nextHop;
-                delay += DEFAULT_FORWARDING_DELAY + (Math.min(3, info.hopCount) - 1) * DEFAULT_PER_HOP_DELAY;
+                hops = info.hopCount;
             } else { // no valid route -- don't send or notify, invalidate route and return
                 routingManager.invalidateRoute(lpp.getOriginatorAddress(), lpp.getFDestinationAddress());
                 return;
@@ -1041,8 +1192,10 @@ public class LowPan extends BasicService implements ILowPan, RouteEventClient {
         try {
             for (int i = 0; i < 3; i++) {
                 try {
-                    lpStats.packetsForwarded++;
-                    packetDispatcher.sendPacket(lpp.getRadioPacket());
+                    synchronized (lpStats) {
+                        lpStats.packetsForwarded++;
+                    }
+                    sendPaced(lpp.getRadioPacket(), hops, false);
                     break;
                 } catch (NoAckException e) {
                     if (i >= 2) {
@@ -1050,8 +1203,6 @@ public class LowPan extends BasicService implements ILowPan, RouteEventClient {
                     }
                 }
             }
-            Utils.sleep(delay); // Delay between packets to allow receivers to keep up
-            // & to prevent collision with forwarding of fragment
         } catch (NoAckException e) {
             Debug.print("forwardMeshPacket: can't forward packet from " +
                     IEEEAddress.toDottedHex(lpp.getOriginatorAddress()) + " to " +
@@ -1092,7 +1243,6 @@ public class LowPan extends BasicService implements ILowPan, RouteEventClient {
      */
     private void reassembly(LowPanPacket lpp) {
         long originator;
-        long destination;
         short datagramTag;
         short datagramSize;
         int datagramOffset;
@@ -1105,16 +1255,15 @@ public class LowPan extends BasicService implements ILowPan, RouteEventClient {
             originator = lpp.getRPSourceAddress();
         }
 
-        // ATTENTION: according to the low pan spec the following line should
-        // actually be destination = packet.getDestinationAddress();
+        // ATTENTION: according to the low pan spec the destination address
+        // packet.getDestinationAddress() identifies the datagram as well;
         // here we are assuming that every packet that we are processing in the
         // low pan layer has our IEEE address as destination address. So we are
         // neglecting broadcast packets. We do this to deal with the "base
         // station hack": when the basestation is forwarding a packet to the
         // hostApplication  it replaces the destination address with a bitcode
-        // representing the rssi and corr.
-        destination = ourAddress;
-        //destination = packet.getDestinationAddress();
+        // representing the rssi and corr. So the destination is always
+        // ourAddress and is left out when matching fragments to a datagram.
 
         datagramTag = lpp.getFragTag();
         datagramSize = lpp.getFragSize();
@@ -1128,37 +1277,40 @@ public class LowPan extends BasicService implements ILowPan, RouteEventClient {
 //        +" datagramSize="+datagramSize
 //                +" datagramOffset="+datagramOffset
 //                +" datagramTag="+datagramTag);
-        //is there already a reassembly buffer?
-        String key = Long.toString(originator) + Long.toString(destination) + Integer.toString(datagramTag) + Integer.toString(datagramSize);
-        ReassemblyBuffer rb = (ReassemblyBuffer) reassemblyBuffers.get(key);
-        //if not, create one
-        if (rb == null) {
-            //Debug.print("reassembly: no reassemblyBuffer - creating new one", 3);
-            rb = new ReassemblyBuffer(datagramSize);
-            reassemblyBuffers.put(key, rb);
-            //if the buffer is not completed after 15 seconds, discard buffer
-            ReassemblyExpiration ex = new ReassemblyExpiration(key, reassemblyBuffers, lpStats);
-            reassemblyTimer.schedule(ex, REASSEMBLY_EXPIRATION_TIME);
-        }
-
-        if (lpp.isFirstFrag()) {
-            //Debug.print("reassembly: first fragment received, setting protNum " +
-            //"of rb to "+getProtocolNumber(packet), 3);
-            rb.protocolNumber = lpp.getProtocol();
-            rb.protocolFamily = lpp.getProtocolFamily();
-        }
+        byte[] datagram = null;
+        byte protocolFamily = 0;
+        byte protocolNumber = 0;
+        synchronized (reassemblyBuffers) {
+            //find the reassembly buffer, or create one that is discarded if it
+            //is not completed after 15 seconds. Holding the table keeps it from
+            //being expired and reused while the fragment is copied in.
+            ReassemblyBuffer rb = reassemblyBuffers.get(originator, datagramTag, datagramSize,
+                    System.currentTimeMillis() + REASSEMBLY_EXPIRATION_TIME);
+
+            if (lpp.isFirstFrag()) {
+                //Debug.print("reassembly: first fragment received, setting protNum " +
+                //"of rb to "+getProtocolNumber(packet), 3);
+                rb.protocolNumber = lpp.getProtocol();
+                rb.protocolFamily = lpp.getProtocolFamily();
+            }
 
-        //The firstByte of our fragment
-        int firstByte = lpp.getLppPayloadOffset();
-        int fragmentLength = lpp.getPayloadSize();
+            //The firstByte of our fragment
+            int firstByte = lpp.getLppPayloadOffset();
+            int fragmentLength = lpp.getPayloadSize();
 
-        boolean success = rb.write(datagramOffset, lpp.getRadioPacket(),
-                firstByte, fragmentLength);
-        if (!success) {
-            reassemblyBuffers.remove(key);
-            return;
+            boolean success = rb.write(datagramOffset, lpp.getRadioPacket(),
+                    firstByte, fragmentLength);
+            if (!success) {
+                reassemblyBuffers.discard(rb);
+                return;
+            }
+            if (rb.isComplete()) {
+                protocolFamily = rb.protocolFamily;
+                protocolNumber = rb.protocolNumber;
+                datagram = reassemblyBuffers.complete(rb);
+            }
         }
-        if (rb.isComplete()) {
+        if (datagram != null) {
             // create a headerInfo to provide applications with fields of
             // radioHeader and if given meshHeader note that hopcount does not
             // provide the number of taken hops but should be zero all the time
@@ -1197,18 +1349,16 @@ public class LowPan extends BasicService implements ILowPan, RouteEventClient {
                     lpStats.unicastsReceived++;
                 }
             }
-            // clean up the reassembly buffer
             lpStats.datagramsReassembled++;
-            reassemblyBuffers.remove(key);
             IProtocolManager pm;
 
-            if (rb.protocolFamily == LowPanHeader.DISPATCH_SPOT) {
-                pm = getProtocolFor(rb.protocolNumber);
+            if (protocolFamily == LowPanHeader.DISPATCH_SPOT) {
+                pm = getProtocolFor(protocolNumber);
             } else {
-                pm = getProtocolFamilyFor(rb.protocolFamily);
+                pm = getProtocolFamilyFor(protocolFamily);
             }
             if (pm != null) {
-                pm.processIncomingData(rb.buffer, lpHeaderInfo);
+                pm.processIncomingData(datagram, lpHeaderInfo);
             } else {
                 lpStats.protocolHandlerMissing++;
             }
@@ -1227,7 +1377,13 @@ public class LowPan extends BasicService implements ILowPan, RouteEventClient {
      * return a copy of the lowpan statistics object
      */
     public LowPanStats getStatistics() {
-        return lpStats.clone();
+        LowPanStats stats;
+        synchronized (lpStats) {
+            // the forwarding counters are updated by several threads under this lock
+            stats = lpStats.clone();
+        }
+        stats.forwardQueueDepth = forwardQueue.size();
+        return stats;
     }
 
     /**
@@ -1265,6 +1421,8 @@ public class LowPan extends BasicService implements ILowPan, RouteEventClient {
                 } catch (ChannelBusyException e) {
                     lpStats.droppedBroadcasts++;
                     Debug.print("[lowpan] Channel Busy: Broadcast discarded", 2);
+                } finally {
+                    lpp.release();
                 }
             }
         }
@@ -1273,6 +1431,46 @@ public class LowPan extends BasicService implements ILowPan, RouteEventClient {
             monitorQueue();
         }
     }
+
+    /**
+     * This private class implements a thread to forward unicast packets addressed
+     * to other nodes, so that the receive thread does not wait while they are
+     * sent. Packets are forwarded in the order they arrived, after any local
+     * sends in progress.
+     **/
+    private class ForwardingThread extends Thread {
+
+        ForwardingThread() {
+            super("MeshForwarder");
+        }
+
+        public void run() {
+            while (true) {
+                LowPanPacket lpp = (LowPanPacket) forwardQueue.get();
+                if (lpp == null) {
+                    continue;
+                }
+                deferToLocalSends();
+                int latency = (int) (System.currentTimeMillis() - lpp.queueTime);
+                synchronized (lpStats) {
+                    lpStats.forwardLatencyTotal += latency;
+                    lpStats.forwardLatencySamples++;
+                    if (latency > lpStats.maxForwardLatency) {
+                        lpStats.maxForwardLatency = latency;
+                    }
+                }
+                try {
+                    forwardMeshPacket(lpp);
+                } catch (ChannelBusyException e) {
+                    Debug.print("[lowpan] Channel Busy: forwarded packet discarded", 2);
+                } catch (RuntimeException e) {
+                    System.out.println("[LowPan] Exception forwarding packet: " + e);
+                } finally {
+                    lpp.release();
+                }
+            }
+        }
+    }
 }
 
 
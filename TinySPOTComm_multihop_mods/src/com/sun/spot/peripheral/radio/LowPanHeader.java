@@ -24,6 +24,8 @@
 
 package com.sun.spot.peripheral.radio;
 
+import be.ac.ua.pats.tinyspotcomm.IEEEAddressHash;
+
 /**
  * LowPanHeader.java
  *
@@ -40,6 +42,7 @@ public class LowPanHeader {
     private boolean meshed;
     private boolean fragged;
     private boolean bCast;
+    private boolean compressed;
     private int hops;
     private int bCastSeqNo;
     private int fragType;
@@ -87,6 +90,22 @@ public class LowPanHeader {
      * Denotes this packet is a LowPan Mesh Broadcast packet
      */
     public static final byte DISPATCH_LOWPAN_BC0 = (byte)0x50;  
+    /**
+     * Denotes a compressed mesh header, a value the LowPan spec leaves reserved. The
+     * dispatch byte is followed by a byte holding the address flags below and the hops
+     * left, and then the originator and final destination addresses, each either 16 or
+     * 64 bits long. A fragmentation header following a compressed mesh header uses a one
+     * byte datagram tag.
+     */
+    public static final byte DISPATCH_MESH_HC = (byte)0x58;
+    /**
+     * Flag in a compressed mesh header: the originator address is 16 bits long
+     */
+    protected static final byte MESH_HC_SHORT_ORIGINATOR = (byte)0x80;
+    /**
+     * Flag in a compressed mesh header: the final destination address is 16 bits long
+     */
+    protected static final byte MESH_HC_SHORT_DESTINATION = 0x40;
     /**
      * Denotes the following header field is not in the scope of the LowPan spec
      * We use this next byte for our SPOT protocol number
@@ -129,6 +148,11 @@ public class LowPanHeader {
      * Maximum size of a Mesh Header 
      */
     protected static final byte MAX_MESH_HEADER_LENGTH = 17;
+    /**
+     * Maximum size of a fragmentation header following a compressed mesh header.
+     * May be only 3 for a First Fragment
+     */
+    protected static final byte MAX_COMPRESSED_FRAGMENTATION_HEADER_LENGTH = 4;
     
     /**
      * Unfragmented header is 17B Mesh, 2B Broadcast, 2B protocol
@@ -152,11 +176,11 @@ public class LowPanHeader {
         int len = 0;  // Protocol Family & Number
 
 
-        if (isMeshed()) len += (1 + destLen + origLen);
-        len += (isExtendedHops()) ? 1 : 0;
+        if (isMeshed()) len += (isCompressed()) ? getMeshHeaderLength() : (1 + destLen + origLen);
+        len += (isExtendedHops() && !isCompressed()) ? 1 : 0;
         if (isBCast()) len += 2;
         if (isFragged()) {
-            len += MAX_FRAGMENTATION_HEADER_LENGTH;
+            len += getMaxFragmentationHeaderLength();
             
             if (isFirstFrag()) len -=1;  // first fragments are 1 byte less (no offset byte)
         }
@@ -165,6 +189,47 @@ public class LowPanHeader {
         return len;
     }
     
+    /**
+     * Calculates the number of bytes the mesh header of this LowPanHeader will take
+     * @return the length of the mesh header, MAX_MESH_HEADER_LENGTH if it is not compressed
+     */
+    public int getMeshHeaderLength() {
+        if (!isCompressed()) {
+            return MAX_MESH_HEADER_LENGTH;
+        }
+        return 2 + getAddressLength(outgoingOriginatorAddress) + getAddressLength(outgoingDestinationAddress) +
+                ((isExtendedHops()) ? 1 : 0);
+    }
+
+    /**
+     * Calculates the number of bytes the fragmentation header of fragments other than the
+     * first will take
+     * @return the length of the fragmentation header
+     */
+    public int getMaxFragmentationHeaderLength() {
+        return (isCompressed()) ? MAX_COMPRESSED_FRAGMENTATION_HEADER_LENGTH : MAX_FRAGMENTATION_HEADER_LENGTH;
+    }
+
+    /**
+     * Checks whether an address can be carried as a 16 bit address in a compressed mesh header,
+     * which is the case if the {@link IEEEAddressHash} translates it back to itself
+     * @param address the 64 bit address
+     * @return true if the address has a 16 bit form
+     */
+    public static boolean hasShortAddress(long address) {
+        IEEEAddressHash hash = IEEEAddressHash.getInstance();
+        return hash.To64Bit(hash.To16Bit(address)) == address;
+    }
+
+    /**
+     * Returns the number of bytes an address takes in the mesh header of this LowPanHeader
+     * @param address the address
+     * @return 2 or 8
+     */
+    int getAddressLength(long address) {
+        return (isCompressed() && hasShortAddress(address)) ? 2 : 8;
+    }
+
     /**
      * Checks the header to see if this header belongs to a packet that is the 
      * first fragment of a series.
@@ -362,6 +427,23 @@ public class LowPanHeader {
         return bCast;
     }
 
+    /**
+     * check whether the mesh header and the fragmentation header that follows it are compressed
+     * @return true if the compressed header format is used
+     */
+    public boolean isCompressed() {
+        return compressed && meshed;
+    }
+
+    /**
+     * set the flag indicating the mesh header and any fragmentation header are to be
+     * written in the compressed format, which only receivers that know DISPATCH_MESH_HC can read
+     * @param compressed true to compress the headers
+     */
+    public void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+
     /**
      * sets this packet to contain mesh broadcast information
      * @param bCast true if this packet is to contain mesh broadcast header information
@@ -23,6 +23,7 @@
  */
 
 package com.sun.spot.peripheral.radio;
+import be.ac.ua.pats.tinyspotcomm.IEEEAddressHash;
 import com.sun.spot.util.IEEEAddress;
 
 /**
@@ -41,7 +42,8 @@ import com.sun.spot.util.IEEEAddress;
  *    a broadcast header
  *    a fragmentation header
  * The draft says they must be in this order, but we want to be flexible if possible.  Not all
- * headers are required.
+ * headers are required. The mesh header may also be in the compressed format introduced by
+ * {@link LowPanHeader#DISPATCH_MESH_HC}, with 16 bit addresses and a one byte datagram tag.
  */
 public class LowPanPacket {
     /**
@@ -71,6 +73,7 @@ public class LowPanPacket {
     // Interesting items about the packet when we are reading it
     private RadioPacket rp;   // a reference to the full radio packet
     private boolean meshed; // True if there is a mesh header
+    private boolean compressed; // True if the mesh header, and so any fragmentation header, is compressed
     private int meshIndex; // Index of start of Mesh header
     private boolean extendedHops; // 0xf hops means byte that follows is the hop count byte
     private int hopsLeftIndex; // place in packet of hopsLeft
@@ -94,15 +97,18 @@ public class LowPanPacket {
     // House keeping variables
     
     private int parseIndex;  // current point within the packet where we are parsing;
+    long queueTime;  // when LowPan queued the packet for forwarding
     
     /**
-     * Create a LowPanPacket of either DATA_PACKET or BROADCAST_PACKET
+     * Create a LowPanPacket of either DATA_PACKET or BROADCAST_PACKET.
+     * The underlying RadioPacket is taken from the {@link RadioPacketPool};
+     * call {@link #release()} when the packet has been sent.
      * @param type the type of underlying RadioPacket to use either a
      * DATA_PACKET or BROADCAST_PACKET
      */
     public LowPanPacket(int type) {
         
-        meshed = false; meshIndex = hopsLeftIndex = 0; extendedHops = false;
+        meshed = compressed = false; meshIndex = hopsLeftIndex = 0; extendedHops = false;
         destLen = origLen = 8; origAddrIndex = destAddrIndex = 0;
         bCast = false; bCastIndex = 0;
         fragged = false; fragTagIndex = fragSizeIndex = fragOffsetIndex = 0;
@@ -111,10 +117,10 @@ public class LowPanPacket {
         parseIndex=0;
         switch (type) {
             case DATA_PACKET:
-                rp = RadioPacket.getDataPacket();
+                rp = RadioPacketPool.getInstance().acquireDataPacket(RadioPacket.ADDR_64);
                 break;
             case BROADCAST_PACKET:
-                rp =  RadioPacket.getBroadcastPacket();
+                rp = RadioPacketPool.getInstance().acquireBroadcastPacket(RadioPacket.ADDR_64);
                 break;
             default:
         }
@@ -133,7 +139,7 @@ public class LowPanPacket {
         rp = packet;
         //System.out.println("MACPayloadOffset: " + rp.getPayloadOffset());
         //System.out.println("MACPayloadLen: " + rp.getMACPayloadLength());
-        meshed = false; meshIndex = hopsLeftIndex = 0;
+        meshed = compressed = false; meshIndex = hopsLeftIndex = 0;
         destLen = origLen = 8; origAddrIndex = destAddrIndex = 0;
         bCast = false; bCastIndex = 0;
         fragged = false; fragTagIndex = fragSizeIndex = fragOffsetIndex = 0;
@@ -148,7 +154,9 @@ public class LowPanPacket {
         fragIndex = fragSizeIndex = (short)(parseIndex - 1);  // Size starts in dispatch byte
         parseIndex++; // Skip the next byte (lower part of FragSize)
         fragTagIndex = parseIndex++;  // two bytes of tag start here
-        parseIndex++; // Skip the next byte (lower part of FragTag)
+        if (!compressed) {
+            parseIndex++; // Skip the next byte (lower part of FragTag)
+        }
         
         if ((dispatch & FRAG_INTERIOR) == FRAG_INTERIOR) {
             fragOffsetIndex = parseIndex++;
@@ -181,6 +189,24 @@ public class LowPanPacket {
         parse();
     }
     
+    private void parse_compressed_mesh(byte dispatch) {
+        meshed = true;
+        compressed = true;
+        byte flags = rp.getMACPayloadAt(parseIndex);
+        origLen = ((flags & LowPanHeader.MESH_HC_SHORT_ORIGINATOR) != 0) ? 2 : 8;
+        destLen = ((flags & LowPanHeader.MESH_HC_SHORT_DESTINATION) != 0) ? 2 : 8;
+        hopsLeftIndex = parseIndex++;
+        if ((flags & HOPSLEFT_BITS) == 0xf) { // 0xf means the next byte is the hop count
+            extendedHops = true;
+            parseIndex++;
+        }
+        origAddrIndex = parseIndex;
+        parseIndex += origLen;
+        destAddrIndex = parseIndex;
+        parseIndex += destLen;
+        parse();
+    }
+    
     private void parse_broadcast(byte dispatch) {
         bCast = true;
         bCastIndex = parseIndex++;
@@ -214,6 +240,8 @@ public class LowPanPacket {
             parse_fragment(dispatch);
         } else if ((dispatch & LowPanHeader.DISPATCH_MESH) == LowPanHeader.DISPATCH_MESH) {
             parse_mesh(dispatch);
+        } else if  (dispatch == LowPanHeader.DISPATCH_MESH_HC) {
+            parse_compressed_mesh(dispatch);
         } else if  (dispatch == LowPanHeader.DISPATCH_LOWPAN_BC0) {
             parse_broadcast(dispatch);
         } else if(dispatch  == LowPanHeader.DISPATCH_ESC) {
@@ -228,6 +256,10 @@ public class LowPanPacket {
     }
     
     private void writeMeshHeader(LowPanHeader lph) {
+        if (lph.isCompressed()) {
+            writeCompressedMeshHeader(lph);
+            return;
+        }
         byte meshByte;
         if (lph.getOutgoingHops() > 14) {
             meshByte = (byte)((LowPanHeader.DISPATCH_MESH & 0xf0) | 0x0f);  // init with two 64 bit addresses
@@ -258,6 +290,31 @@ public class LowPanPacket {
         
     }
     
+    private void writeCompressedMeshHeader(LowPanHeader lph) {
+        rp.setMACPayloadAt(parseIndex++, LowPanHeader.DISPATCH_MESH_HC);
+        meshed = true;
+        compressed = true;  // so the fragmentation header and header length follow this layout
+        origLen = lph.getAddressLength(lph.getOutgoingOriginatorAddress());
+        destLen = lph.getAddressLength(lph.getOutgoingDestinationAddress());
+        byte flags = 0;
+        if (origLen == 2) flags |= LowPanHeader.MESH_HC_SHORT_ORIGINATOR;
+        if (destLen == 2) flags |= LowPanHeader.MESH_HC_SHORT_DESTINATION;
+        hopsLeftIndex = parseIndex;
+        extendedHops = lph.getOutgoingHops() > 14;
+        if (extendedHops) {
+            rp.setMACPayloadAt(parseIndex++, (byte)(flags | 0x0f));  // hops follow
+            rp.setMACPayloadAt(parseIndex++, (byte)(lph.getOutgoingHops() & 0xff));
+        } else {
+            rp.setMACPayloadAt(parseIndex++, (byte)(flags | (lph.getOutgoingHops() & 0x0f)));
+        }
+        origAddrIndex = parseIndex;
+        setOriginatorAddress(lph.getOutgoingOriginatorAddress());
+        parseIndex += origLen;
+        destAddrIndex = parseIndex;
+        setFDestinationAddress(lph.getOutgoingDestinationAddress());
+        parseIndex += destLen;
+    }
+    
     private void writeBroadcastHeader(LowPanHeader lph) {
         
         rp.setMACPayloadAt(parseIndex++, LowPanHeader.DISPATCH_LOWPAN_BC0);
@@ -298,10 +355,14 @@ public class LowPanPacket {
         // last 8 bytes of Size fit in 1 byte
         rp.setMACPayloadAt(parseIndex++, (byte)(lph.getOutgoingFragSize() & 0xff));
         
-        // Now two bytes of tag info
+        // Now two bytes of tag info, or one after a compressed mesh header
         fragTagIndex = parseIndex;
-        rp.setMACPayloadBigEndShortAt(parseIndex++, (short)(lph.getOutgoingFragTag() & 0xffff));
-        parseIndex++; // skip lower byte we just wrote
+        if (lph.isCompressed()) {
+            rp.setMACPayloadAt(parseIndex++, (byte)(lph.getOutgoingFragTag() & 0xff));
+        } else {
+            rp.setMACPayloadBigEndShortAt(parseIndex++, (short)(lph.getOutgoingFragTag() & 0xffff));
+            parseIndex++; // skip lower byte we just wrote
+        }
         if (lph.getOutgoingFragType() != LowPanHeader.FIRST_FRAGMENT){
             fragOffsetIndex = parseIndex;
             rp.setMACPayloadAt(parseIndex++, lph.getOutgoingFragOffset());
@@ -442,11 +503,16 @@ public class LowPanPacket {
     }
     
     /**
-     * return the address of the originator field of the mesh header
+     * return the address of the originator field of the mesh header. A 16 bit
+     * address in a compressed mesh header is mapped back to the 64 bit address
+     * it stands for; in the uncompressed format it is returned as is.
      * @return the originator address of this packet
      */
     public long getOriginatorAddress() {
         if (origLen == 2) {
+            if (compressed) {
+                return IEEEAddressHash.getInstance().To64Bit(rp.getMACPayloadBigEndShortAt(origAddrIndex));
+            }
             return rp.getMACPayloadBigEndShortAt(origAddrIndex);
         } else {
             return rp.getMACPayloadBigEndLongAt(origAddrIndex);
@@ -460,18 +526,23 @@ public class LowPanPacket {
      */
     public void setOriginatorAddress(long origAddr) {
         if (origLen == 2) {
-            rp.setMACPayloadBigEndShortAt(origAddrIndex, (short)(origAddr & 0xffff));
+            rp.setMACPayloadBigEndShortAt(origAddrIndex, compressed ?
+                    IEEEAddressHash.getInstance().To16Bit(origAddr) : (short)(origAddr & 0xffff));
         } else {
             rp.setMACPayloadBigEndLongAt(origAddrIndex, origAddr);
         }
     }
     
     /**
-     * return the final destination address of this packet
+     * return the final destination address of this packet, mapping a 16 bit
+     * address as {@link #getOriginatorAddress()} does
      * @return the final destination of this mesh packet
      */
     public long getFDestinationAddress() {
         if (destLen == 2) {
+            if (compressed) {
+                return IEEEAddressHash.getInstance().To64Bit(rp.getMACPayloadBigEndShortAt(destAddrIndex));
+            }
             return rp.getMACPayloadBigEndShortAt(destAddrIndex);
         } else {
             return rp.getMACPayloadBigEndLongAt(destAddrIndex);
@@ -484,7 +555,8 @@ public class LowPanPacket {
      */
     public void setFDestinationAddress(long destAddr) {
         if (destLen == 2) {
-            rp.setMACPayloadBigEndShortAt(destAddrIndex, (short)(destAddr & 0xffff));
+            rp.setMACPayloadBigEndShortAt(destAddrIndex, compressed ?
+                    IEEEAddressHash.getInstance().To16Bit(destAddr) : (short)(destAddr & 0xffff));
         } else {
             rp.setMACPayloadBigEndLongAt(destAddrIndex, destAddr);
         }
@@ -534,7 +606,11 @@ public class LowPanPacket {
      * @param tag the datagram tag to which this fragment belongs
      */
     public void setFragTag(short tag) {
-        rp.setMACPayloadBigEndShortAt(fragTagIndex, tag);
+        if (compressed) {
+            rp.setMACPayloadAt(fragTagIndex, (byte)(tag & 0xff));
+        } else {
+            rp.setMACPayloadBigEndShortAt(fragTagIndex, tag);
+        }
     }
     
     /**
@@ -542,6 +618,9 @@ public class LowPanPacket {
      * @return the datagram tag
      */
     public short getFragTag() {
+        if (compressed) {
+            return (short)(rp.getMACPayloadAt(fragTagIndex) & 0xff);
+        }
         return (short)(rp.getMACPayloadBigEndShortAt(fragTagIndex) & 0xffff);
     }
     
@@ -695,6 +774,14 @@ public class LowPanPacket {
         return rp.getSourceAddress();
     }
     
+    /**
+     * determine whether the mesh header, and so any fragmentation header, is compressed
+     * @return true if the mesh header was found or written in the compressed format
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+    
     /**
      * return a representation of this LowPanPacket in an actual RadioPacket
      * @return a RadioPacket suitable for sending via the RadioPacketDispatcher
@@ -702,6 +789,16 @@ public class LowPanPacket {
     public RadioPacket getRadioPacket() {
         return rp;
     }
+
+    /**
+     * Give the underlying RadioPacket back to the {@link RadioPacketPool}.
+     * Only the owner of the RadioPacket may call this, and the LowPanPacket
+     * must not be used afterwards.
+     */
+    public void release() {
+        RadioPacketPool.getInstance().release(rp);
+        rp = null;
+    }
     
     /**
      * set the destination of the underlying radio packet
@@ -743,10 +840,10 @@ public class LowPanPacket {
     public int getHeaderLength() {
         int len=0;
         
-        if (isMeshed()) len += 1 + destLen + origLen;
+        if (isMeshed()) len += ((compressed) ? 2 : 1) + destLen + origLen + ((extendedHops) ? 1 : 0);
         if (isBCast()) len += 2;
         if (isFragged()) {
-            len += LowPanHeader.MAX_FRAGMENTATION_HEADER_LENGTH;
+            len += (compressed) ? LowPanHeader.MAX_COMPRESSED_FRAGMENTATION_HEADER_LENGTH : LowPanHeader.MAX_FRAGMENTATION_HEADER_LENGTH;
             if (isFirstFrag()) len -=1;
         }
         len += (isExtendedProtocol()) ? 2 : 1;
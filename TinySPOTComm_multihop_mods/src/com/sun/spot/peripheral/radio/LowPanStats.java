@@ -131,6 +131,30 @@ public class LowPanStats {
      * full datagrams received
      */
     protected int unicastsReceived;
+    /**
+     * number of transit packets dropped because the forwarding queue was full
+     */
+    protected int forwardQueueFull;
+    /**
+     * number of transit packets waiting to be forwarded when the stats were snapshotted
+     */
+    protected int forwardQueueDepth;
+    /**
+     * largest number of transit packets that have waited to be forwarded at once
+     */
+    protected int maxForwardQueueDepth;
+    /**
+     * total milliseconds transit packets have waited to be forwarded
+     */
+    protected int forwardLatencyTotal;
+    /**
+     * number of transit packets whose wait was added to forwardLatencyTotal
+     */
+    protected int forwardLatencySamples;
+    /**
+     * longest time in milliseconds a transit packet has waited to be forwarded
+     */
+    protected int maxForwardLatency;
 
     /** Creates a new instance of LowPanStats */
     public LowPanStats() {
@@ -159,6 +183,12 @@ public class LowPanStats {
         protocolCount = 0;
         protocolFamilyCount = 0;
         protocolHandlerMissing = 0;
+        forwardQueueFull = 0;
+        forwardQueueDepth = 0;
+        maxForwardQueueDepth = 0;
+        forwardLatencyTotal = 0;
+        forwardLatencySamples = 0;
+        maxForwardLatency = 0;
     }
 
     /** Creates a new instance of LowPanStats */
@@ -214,6 +244,20 @@ public class LowPanStats {
         index += 4;
         unicastsReceived = Utils.readLittleEndInt(b, index);
         index += 4;
+        if (b.length >= index + 24) { // nodes running older versions don't send these
+            forwardQueueFull = Utils.readLittleEndInt(b, index);
+            index += 4;
+            forwardQueueDepth = Utils.readLittleEndInt(b, index);
+            index += 4;
+            maxForwardQueueDepth = Utils.readLittleEndInt(b, index);
+            index += 4;
+            forwardLatencyTotal = Utils.readLittleEndInt(b, index);
+            index += 4;
+            forwardLatencySamples = Utils.readLittleEndInt(b, index);
+            index += 4;
+            maxForwardLatency = Utils.readLittleEndInt(b, index);
+            index += 4;
+        }
     }
 
     /**
@@ -441,6 +485,51 @@ public class LowPanStats {
         return broadcastsQueueFull;
     }
 
+    /**
+     * Returns the number of transit packets dropped because too many were already waiting to be forwarded.
+     * 
+     * @return  the number of transit packets dropped due to a full forwarding queue
+     */
+    public int getDroppedForwards() {
+        return forwardQueueFull;
+    }
+
+    /**
+     * Returns the number of transit packets that were waiting to be forwarded when these statistics were taken.
+     * 
+     * @return  the depth of the forwarding queue
+     */
+    public int getForwardQueueDepth() {
+        return forwardQueueDepth;
+    }
+
+    /**
+     * Returns the largest number of transit packets that have been waiting to be forwarded at the same time.
+     * 
+     * @return  the maximum depth of the forwarding queue
+     */
+    public int getMaxForwardQueueDepth() {
+        return maxForwardQueueDepth;
+    }
+
+    /**
+     * Returns the average time transit packets waited between being received and being forwarded.
+     * 
+     * @return  the average forwarding latency in milliseconds, or 0 if nothing was forwarded
+     */
+    public int getAverageForwardLatency() {
+        return forwardLatencySamples == 0 ? 0 : forwardLatencyTotal / forwardLatencySamples;
+    }
+
+    /**
+     * Returns the longest time a transit packet waited between being received and being forwarded.
+     * 
+     * @return  the maximum forwarding latency in milliseconds
+     */
+    public int getMaxForwardLatency() {
+        return maxForwardLatency;
+    }
+
     public LowPanStats clone() {
         LowPanStats newObj = new LowPanStats();
         newObj.timestamp = System.currentTimeMillis();
@@ -468,12 +557,18 @@ public class LowPanStats {
         newObj.protocolCount = this.protocolCount;
         newObj.protocolFamilyCount = this.protocolFamilyCount;
         newObj.protocolHandlerMissing = this.protocolHandlerMissing;
+        newObj.forwardQueueFull = this.forwardQueueFull;
+        newObj.forwardQueueDepth = this.forwardQueueDepth;
+        newObj.maxForwardQueueDepth = this.maxForwardQueueDepth;
+        newObj.forwardLatencyTotal = this.forwardLatencyTotal;
+        newObj.forwardLatencySamples = this.forwardLatencySamples;
+        newObj.maxForwardLatency = this.maxForwardLatency;
 
         return newObj;
     }
 
     public byte[] toByteArray() {
-        byte b[] = new byte[104];
+        byte b[] = new byte[128];
         int index = 0;
         Utils.writeLittleEndLong(b, index, timestamp);
         index += 8;
@@ -525,6 +620,18 @@ public class LowPanStats {
         index += 4;
         Utils.writeLittleEndInt(b, index, unicastsReceived);
         index += 4;
+        Utils.writeLittleEndInt(b, index, forwardQueueFull);
+        index += 4;
+        Utils.writeLittleEndInt(b, index, forwardQueueDepth);
+        index += 4;
+        Utils.writeLittleEndInt(b, index, maxForwardQueueDepth);
+        index += 4;
+        Utils.writeLittleEndInt(b, index, forwardLatencyTotal);
+        index += 4;
+        Utils.writeLittleEndInt(b, index, forwardLatencySamples);
+        index += 4;
+        Utils.writeLittleEndInt(b, index, maxForwardLatency);
+        index += 4;
 
         return b;
     }
@@ -560,6 +667,12 @@ public class LowPanStats {
         s += "broadcastQueueFull: " + broadcastsQueueFull + "\n";
         s += "droppedBroadcasts: " + droppedBroadcasts + "\n";
 
+        s += "forwardQueueFull: " + forwardQueueFull + "\n";
+        s += "forwardQueueDepth: " + forwardQueueDepth + "\n";
+        s += "maxForwardQueueDepth: " + maxForwardQueueDepth + "\n";
+        s += "averageForwardLatency: " + getAverageForwardLatency() + "\n";
+        s += "maxForwardLatency: " + maxForwardLatency + "\n";
+
         s += "protocolCount: " + protocolCount + "\n";
         s += "protocolfamilyCount: " + protocolFamilyCount + "\n";
         s += "protocolHandlerMissing: " + protocolHandlerMissing + "\n";
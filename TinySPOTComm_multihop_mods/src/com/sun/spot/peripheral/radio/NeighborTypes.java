@@ -0,0 +1,165 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+package com.sun.spot.peripheral.radio;
+
+import com.sun.spot.util.LongIntHashtable;
+
+/**
+ * Remembers which neighbours run the SPOT radio stack and which are foreign
+ * nodes, such as TinyOS motes reached through the tinyos: protocol.<br><br>
+ *
+ * Foreign nodes do not speak LQRP, so they never answer a link quality request
+ * and cannot forward mesh traffic. Routing managers use this registry to track
+ * them passively instead of probing them.<br><br>
+ *
+ * A node counts as foreign when it sends a frame with a 16 bit source address,
+ * which the SPOT stack only does for the tinyos: protocol, or sends tinyos:
+ * traffic. A node counts as a SPOT once it sends a frame with a 64 bit source
+ * address or an LQRP message. A SPOT also running the tinyos: protocol stays a
+ * SPOT, because that evidence always wins. Nodes that have not been seen are
+ * unknown and are treated as SPOTs, as before the registry existed.<br><br>
+ *
+ * When the registry is full the node heard from least recently is forgotten to
+ * make room for a new one, so that nodes that have moved away or died do not
+ * keep newcomers out. The link monitor also forgets a node when it drops it
+ * from its neighbour table.
+ */
+public class NeighborTypes {
+
+    public static final int UNKNOWN = 0;
+    public static final int SPOT = 1;
+    public static final int FOREIGN = 2;
+
+    /**
+     * The number of neighbours the registry keeps track of.
+     */
+    public static final int MAX_NEIGHBORS = 256;
+
+    private static NeighborTypes theInstance;
+
+    private final LongIntHashtable types = new LongIntHashtable(MAX_NEIGHBORS);
+    private final LongIntHashtable lastSeen = new LongIntHashtable(MAX_NEIGHBORS);  // value of clock when last heard
+    private int clock = 0;
+
+    /**
+     * @return the registry shared by the layers of the radio stack
+     */
+    public static synchronized NeighborTypes getInstance() {
+        if (theInstance == null) {
+            theInstance = new NeighborTypes();
+        }
+        return theInstance;
+    }
+
+    /**
+     * Classify the sender of a received frame by its source addressing mode.
+     *
+     * @param rp the received frame
+     */
+    public void frameReceived(RadioPacket rp) {
+        if (rp.isSourceAddress16()) {
+            markForeign(rp.getSourceAddress());
+        } else {
+            markSpot(rp.getSourceAddress());
+        }
+    }
+
+    /**
+     * Record that a node was heard speaking a foreign protocol. Has no effect on
+     * a node already known to be a SPOT.
+     *
+     * @param address the address of the node
+     */
+    public synchronized void markForeign(long address) {
+        int type = types.get(address, UNKNOWN);
+        if (type == UNKNOWN) {
+            makeRoom();
+            types.put(address, FOREIGN);
+        }
+        lastSeen.put(address, ++clock);
+    }
+
+    /**
+     * Record that a node runs the SPOT radio stack.
+     *
+     * @param address the address of the node
+     */
+    public synchronized void markSpot(long address) {
+        int type = types.get(address, UNKNOWN);
+        if (type == UNKNOWN) {
+            makeRoom();
+        }
+        if (type != SPOT) {
+            types.put(address, SPOT);
+        }
+        lastSeen.put(address, ++clock);
+    }
+
+    /**
+     * @param address the address of the node
+     * @return one of UNKNOWN, SPOT or FOREIGN
+     */
+    public int getType(long address) {
+        return types.get(address, UNKNOWN);
+    }
+
+    /**
+     * @param address the address of the node
+     * @return true if the node is known not to run the SPOT radio stack
+     */
+    public boolean isForeign(long address) {
+        return types.get(address, UNKNOWN) == FOREIGN;
+    }
+
+    /**
+     * Forget a node, for example when it has left the neighbourhood.
+     *
+     * @param address the address of the node
+     */
+    public synchronized void remove(long address) {
+        types.remove(address);
+        lastSeen.remove(address);
+    }
+
+    /**
+     * @return the number of nodes the registry currently knows
+     */
+    public int size() {
+        return types.size();
+    }
+
+    /*
+     * Forget the node heard from least recently if the registry is full.
+     */
+    private void makeRoom() {
+        if (types.size() < MAX_NEIGHBORS) {
+            return;
+        }
+        long[] addresses = lastSeen.keys();
+        long oldest = 0;
+        int oldestSeen = Integer.MAX_VALUE;
+        for (int i = 0; i < addresses.length; i++) {
+            // compared as differences, so that the clock may wrap around
+            int seen = lastSeen.get(addresses[i], clock) - clock;
+            if (seen < oldestSeen) {
+                oldestSeen = seen;
+                oldest = addresses[i];
+            }
+        }
+        remove(oldest);
+    }
+}
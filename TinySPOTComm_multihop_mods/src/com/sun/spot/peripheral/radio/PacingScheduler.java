@@ -0,0 +1,141 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+
+package com.sun.spot.peripheral.radio;
+
+import com.sun.spot.util.LongHashtable;
+import com.sun.spot.util.Utils;
+
+/**
+ * Spaces out the frames LowPan sends, replacing fixed sleeps after every packet.
+ * <br><br>
+ * After a frame has been sent to a neighbour, the next frame to the same
+ * neighbour waits for a gap. The gap covers the time the neighbour needs to
+ * process the frame. For mesh traffic it also covers the time the next hops
+ * need to pass the frame on, so that consecutive frames do not collide with
+ * their own forwarding. The gap is derived from the airtime of the frame at
+ * 250 kbit/s rather than fixed, and frames to different neighbours do not wait
+ * for each other.<br><br>
+ *
+ * The gap adapts to feedback. A neighbour that misses an acknowledgement is
+ * usually still busy with earlier frames, so the gap for it doubles, and it
+ * shrinks again as frames are acknowledged. Clear channel assessment failures
+ * likewise make all frames keep a growing distance from each other, which
+ * leaves the channel to other nodes when it is busy.
+ */
+public class PacingScheduler {
+
+    // 802.15.4 at 2.4 GHz sends one byte every 32 microseconds
+    private static final int MICROS_PER_BYTE = 32;
+    // preamble, start of frame delimiter and length byte
+    private static final int PHY_OVERHEAD_BYTES = 6;
+    // turnaround plus the acknowledgement frame that follows a unicast
+    private static final int ACK_MICROS = 192 + (PHY_OVERHEAD_BYTES + 5) * MICROS_PER_BYTE;
+    // time a neighbour needs to take a frame off the radio and process it
+    private static final int RECEIVER_MICROS = 3000;
+    // backoff factors are fixed point with BACKOFF_ONE meaning no backoff
+    private static final int BACKOFF_ONE = 8;
+    private static final int MAX_BACKOFF = 16 * BACKOFF_ONE;
+    private static final int MAX_NEIGHBOURS = 64;
+    private static final int MAX_PIPELINE_HOPS = 3;
+
+    private final LongHashtable neighbours = new LongHashtable(MAX_NEIGHBOURS);
+    private int channelBackoff = BACKOFF_ONE;
+    private long channelFreeTime = 0;
+
+    private static class Pace {
+        long nextSendTime;
+        int backoff = BACKOFF_ONE;
+    }
+
+    /**
+     * Answer the time a frame occupies the channel.
+     *
+     * @param frameLength number of bytes in the MAC frame
+     * @param acked whether the frame is acknowledged
+     * @return -- the airtime in microseconds
+     */
+    public static int airtime(int frameLength, boolean acked) {
+        int micros = (frameLength + PHY_OVERHEAD_BYTES) * MICROS_PER_BYTE;
+        return acked ? micros + ACK_MICROS : micros;
+    }
+
+    /**
+     * Wait until a frame may be sent to a neighbour.
+     *
+     * @param nextHop the address of the neighbour, or 0xFFFF for a broadcast
+     */
+    public void awaitSlot(long nextHop) {
+        long wait;
+        synchronized (this) {
+            long start = channelFreeTime;
+            Pace pace = (Pace) neighbours.get(nextHop);
+            if (pace != null && pace.nextSendTime > start) {
+                start = pace.nextSendTime;
+            }
+            wait = start - System.currentTimeMillis();
+        }
+        if (wait > 0) {
+            Utils.sleep(wait);
+        }
+    }
+
+    /**
+     * Record the outcome of sending a frame, which schedules the next frame to the same neighbour.
+     *
+     * @param packet the frame that was sent
+     * @param hops the number of hops to the final destination, or 1
+     * @param acked false if the neighbour did not acknowledge the frame
+     * @param channelBusy true if the frame could not be sent because the channel was busy
+     */
+    public synchronized void frameSent(RadioPacket packet, int hops, boolean acked, boolean channelBusy) {
+        long nextHop = packet.getDestinationAddress();
+        boolean broadcast = nextHop == 0xFFFF;
+        int airtime = airtime(packet.getPayloadOffset() + packet.getMACPayloadLength() + 1, !broadcast);
+        long now = System.currentTimeMillis();
+
+        if (channelBusy) {
+            channelBackoff = Math.min(channelBackoff * 2, MAX_BACKOFF);
+        } else {
+            channelBackoff -= (channelBackoff - BACKOFF_ONE + 1) / 2;
+        }
+        // keep other senders' share of a busy channel free
+        channelFreeTime = now + toMillis(airtime * (channelBackoff - BACKOFF_ONE) / BACKOFF_ONE);
+
+        Pace pace = (Pace) neighbours.get(nextHop);
+        if (pace == null) {
+            if (neighbours.size() >= MAX_NEIGHBOURS) {
+                neighbours.clear();
+            }
+            pace = new Pace();
+            neighbours.put(nextHop, pace);
+        }
+        if (!acked && !channelBusy) {
+            pace.backoff = Math.min(pace.backoff * 2, MAX_BACKOFF);
+        } else if (acked) {
+            pace.backoff -= (pace.backoff - BACKOFF_ONE + 3) / 4;
+        }
+        // a broadcast is passed on by the neighbours that hear it
+        int pipeline = Math.min(MAX_PIPELINE_HOPS, broadcast ? 2 : Math.max(1, hops)) - 1;
+        int gap = RECEIVER_MICROS + pipeline * (airtime + RECEIVER_MICROS);
+        pace.nextSendTime = now + toMillis(gap * pace.backoff / BACKOFF_ONE);
+    }
+
+    private static long toMillis(int micros) {
+        return (micros + 999) / 1000;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+
+package com.sun.spot.peripheral.radio;
+
+import java.util.Vector;
+
+import com.sun.spot.peripheral.radio.routing.RouteInfo;
+import com.sun.spot.peripheral.radio.routing.interfaces.RouteEventClient;
+
+/**
+ * A route discovery LowPan has started for one destination. Every sender that
+ * needs a route to the destination while the discovery runs shares this record
+ * instead of starting a discovery of its own, and only those senders are woken
+ * when it completes.
+ */
+class PendingRoute {
+
+    final long destination;
+    private RouteInfo result;
+    private Vector clients;  // RouteEventClients waiting without blocking
+    private Vector keys;     // the uniqueKey of each of those clients
+
+    PendingRoute(long destination) {
+        this.destination = destination;
+    }
+
+    /**
+     * Block until the discovery completes.
+     * @return the route found, with a nextHop of Constants.INVALID_NEXT_HOP if there is none
+     */
+    synchronized RouteInfo await() throws InterruptedException {
+        while (result == null) {
+            wait();
+        }
+        return result;
+    }
+
+    /**
+     * Call back a client when the discovery completes, straight away if it already has.
+     */
+    void addClient(RouteEventClient client, Object uniqueKey) {
+        RouteInfo info;
+        synchronized (this) {
+            info = result;
+            if (info == null) {
+                if (clients == null) {
+                    clients = new Vector();
+                    keys = new Vector();
+                }
+                clients.addElement(client);
+                keys.addElement(uniqueKey);
+                return;
+            }
+        }
+        client.routeFound(info, uniqueKey);
+    }
+
+    /**
+     * Record the outcome and wake everyone waiting for it. Only the first outcome counts.
+     * @return false if the discovery had already completed
+     */
+    boolean complete(RouteInfo info) {
+        Vector waitingClients;
+        Vector waitingKeys;
+        synchronized (this) {
+            if (result != null) {
+                return false;
+            }
+            result = info;
+            notifyAll();
+            waitingClients = clients;
+            waitingKeys = keys;
+            clients = null;
+            keys = null;
+        }
+        if (waitingClients != null) {
+            for (int i = 0; i < waitingClients.size(); i++) {
+                ((RouteEventClient) waitingClients.elementAt(i)).routeFound(info, waitingKeys.elementAt(i));
+            }
+        }
+        return true;
+    }
+}
@@ -31,9 +31,9 @@ import com.sun.spot.peripheral.ChannelBusyException;
 import com.sun.spot.peripheral.NoAckException;
 import com.sun.spot.resources.Resources;
 import com.sun.spot.service.BasicService;
-import java.util.Hashtable;
+import com.sun.spot.util.LongHashtable;
 import com.sun.spot.util.IEEEAddress;
-import com.sun.spot.util.Queue;
+import com.sun.spot.util.MultiProducerQueue;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.Vector;
@@ -53,10 +53,12 @@ public class RadioPacketDispatcher extends BasicService implements IRadioPacketD
     private static IRadioPacketDispatcher theRPD;
     private IRadioPolicyManager rpm;
     private MACDescriptor[] macList;   // List of MACs we handle
-    private Hashtable macTable;        // destination to MAC mapping
+    private LongHashtable macTable;       // destination to MAC mapping
     private PacketQualityForwarderThread packetFwdThread;
     private Vector packetListener;
-    private Queue packetQueue;
+    private MultiProducerQueue packetQueue; // packets owned by the PacketQualityForwarderThread
+    private RadioPacketPool packetPool;
+    private NeighborTypes neighborTypes;
 
     /**
      * Return the singleton instance of RadioPacketDispatcher.
@@ -81,10 +83,12 @@ public class RadioPacketDispatcher extends BasicService implements IRadioPacketD
     }
 
     private RadioPacketDispatcher(I802_15_4_MAC[] macs, IRadioPolicyManager radioPolicyManager) {
-        macTable = new Hashtable();
+        macTable = new LongHashtable();
         macList = new MACDescriptor[macs.length];
         packetListener = new Vector();
-        packetQueue = new Queue();
+        packetQueue = new MultiProducerQueue(MAX_PACKETS_QUEUED);
+        packetPool = RadioPacketPool.getInstance();
+        neighborTypes = NeighborTypes.getInstance();
         this.rpm = radioPolicyManager;
 
         for (int i = 0; i < macs.length; i++) {
@@ -173,14 +177,15 @@ public class RadioPacketDispatcher extends BasicService implements IRadioPacketD
     }
 
     /**
-     * Send a packet. Is called by the low pan layer
+     * Send a packet. Is called by the low pan layer. The caller keeps ownership
+     * of the packet: it is not referenced after this method returns.
      * @param rp
      * @throws NoAckException
      * @throws ChannelBusyException
      */
     public void sendPacket(RadioPacket rp) throws NoAckException, ChannelBusyException {
         //   System.out.println("[RPD] Sending packet to: " + IEEEAddress.toDottedHex(rp.getDestinationAddress()));
-        MACDescriptor macDesc = (MACDescriptor) macTable.get(new Long(rp.getDestinationAddress()));
+        MACDescriptor macDesc = (MACDescriptor) macTable.get(rp.getDestinationAddress());
         if (macDesc == null) {
             //       System.out.println("[RPD] Sending a broadcast");
             sendBroadcast(rp);
@@ -205,7 +210,10 @@ public class RadioPacketDispatcher extends BasicService implements IRadioPacketD
         }
         if (!packetListener.isEmpty()) {
             if (packetQueue.size() < MAX_PACKETS_QUEUED) {
-                packetQueue.put(rp); // If anyone is listening, queue the packet
+                RadioPacket copy = packetPool.acquireCopy(rp); // If anyone is listening, queue a copy of the packet
+                if (!packetQueue.offer(copy)) {
+                    packetPool.release(copy);
+                }
             }
         }
     }
@@ -217,7 +225,7 @@ public class RadioPacketDispatcher extends BasicService implements IRadioPacketD
      * @return the I802_15_4_MAC associated with the address
      */
     public I802_15_4_MAC getMAC(long address) {
-        MACDescriptor macDesc = (MACDescriptor) macTable.get(new Long(address));
+        MACDescriptor macDesc = (MACDescriptor) macTable.get(address);
         if (macDesc != null) {
             return macDesc.macDevice;
         } else {
@@ -255,14 +263,19 @@ public class RadioPacketDispatcher extends BasicService implements IRadioPacketD
         public void run() {
             /**
              * Internally macLayer copies the contents of an internal radio packet
-             * into the one that's supplied by this class
+             * into the one that's supplied by this class. The packet is borrowed
+             * from the pool and given back once lowPan is done with it, unless it
+             * is handed over to the PacketQualityForwarderThread. A protocol
+             * manager reading it in place retains it, so it is only reused once
+             * that protocol manager has released it too.
              */
             while (true) {
+                RadioPacket rp = packetPool.acquireDataPacket(RadioPacket.ADDR_64);
                 try {
-                    RadioPacket rp = RadioPacket.getDataPacket();
                     macDesc.getMacDevice().mcpsDataIndication(rp);
 
-                    macTable.put(new Long(rp.getSourceAddress()), this.macDesc);
+                    macTable.put(rp.getSourceAddress(), this.macDesc);
+                    neighborTypes.frameReceived(rp);
 //                    Date date = new Date(System.currentTimeMillis());
 //                    System.out.println("[RPD] Called Lowpan at " + date);
 
@@ -271,8 +284,8 @@ public class RadioPacketDispatcher extends BasicService implements IRadioPacketD
 //                    date = new Date(System.currentTimeMillis());
 //                    System.out.println("[RPD] Lowpan completed receive at " + date);
                     if (!packetListener.isEmpty()) {
-                        if (packetQueue.size() < MAX_PACKETS_QUEUED) {
-                            packetQueue.put(rp); // If anyone is listening, queue the packet
+                        if (packetQueue.size() < MAX_PACKETS_QUEUED && packetQueue.offer(rp)) {
+                            rp = null; // If anyone is listening, queue the packet
                         }
                     }
                 } catch (Exception e) {
@@ -289,6 +302,7 @@ public class RadioPacketDispatcher extends BasicService implements IRadioPacketD
                     }
 
                 }
+                packetPool.release(rp);
             }
         }
     }
@@ -347,6 +361,7 @@ public class RadioPacketDispatcher extends BasicService implements IRadioPacketD
                                 rp.getLength());
                     }
                 }
+                packetPool.release(rp);
                 Thread.yield();
             }
         }
@@ -58,11 +58,30 @@ public abstract class RadioProtocolManager extends Resource implements IRadioPro
 		return cs.getQueuedPacket(timeout);
 	}
 
+	public int receivePackets(ConnectionID cid, IncomingData[] into, int max, long timeout) {
+		ConnectionState cs = (ConnectionState)connectionIDTable.get(cid);
+		if (cs == null) return 0;
+		return cs.getQueuedPackets(into, max, timeout);
+	}
+
 	public boolean packetsAvailable(ConnectionID connectionID) {
 		ConnectionState cs = (ConnectionState)connectionIDTable.get(connectionID);
 		return cs.packetsAvailable();
 	}
 
+	public void setReceiveQueueLimit(ConnectionID cid, int capacity, int overflowPolicy, long blockTimeout) {
+		ConnectionState cs = (ConnectionState)connectionIDTable.get(cid);
+		if (cs == null) {
+			throw new IllegalArgumentException("Attempt to limit queue of unknown connection " + cid.toString());
+		}
+		cs.setQueueLimit(capacity, overflowPolicy, blockTimeout);
+	}
+
+	public int getDroppedPacketCount(ConnectionID cid) {
+		ConnectionState cs = (ConnectionState)connectionIDTable.get(cid);
+		return cs == null ? 0 : cs.getDroppedPacketCount();
+	}
+
 	public synchronized void closeConnection(ConnectionID cidToClose) {
 		ConnectionState cs = (ConnectionState)connectionIDTable.get(cidToClose);
 		if (cs == null) {
@@ -25,7 +25,6 @@
 
 package com.sun.spot.peripheral.radio;
 
-import java.util.Timer;
 
 import com.sun.spot.peripheral.ChannelBusyException;
 import com.sun.spot.peripheral.NoAckException;
@@ -56,13 +55,35 @@ public class RadiostreamProtocolManager extends RadioProtocolManager implements
 	static final int NUMBER_OF_RETRIES = 5;  // was 3;
 	static final byte CTRL_ACK = 2;
 	static final byte CTRL_ACK_REQUIRED = 4;
+	static final byte CTRL_ACK_DELAY_ALLOWED = 8;  // the sender understands cumulative ACKs
 	static final int RETRANSMIT_BASE_TIMEOUT = 750;  // was 15000
 	static final int RETRANSMIT_PER_HOP_TIMEOUT = 250;
     private static final int WINDOW_SIZE = 50;
 
-	private Timer retransScheduler;
+    /*
+     * An ACK carries the receiver's cumulative ACK and a SACK bitmap after the control
+     * byte: the highest sequence number up to which it has every packet, and one bit for
+     * each of the SACK_BITS sequence numbers following the first missing one that it holds
+     * for reordering. Older senders only read the first three bytes.
+     */
+    static final int ACK_CUMULATIVE_OFFSET = CTRL_OFFSET + 1;
+    static final int ACK_SACK_OFFSET = ACK_CUMULATIVE_OFFSET + 1;
+    static final int SACK_BITS = 32;
+    static final int SACK_ACK_LENGTH = ACK_SACK_OFFSET + SACK_BITS / 8;
+
+    /*
+     * A receiver acknowledges in-order packets from senders that allow it with one
+     * cumulative ACK for every ACK_EVERY packets, or ACK_DELAY ms after the first
+     * unacknowledged one. Packets out of order, duplicates and packets filling a gap
+     * are acknowledged at once.
+     */
+    static final int ACK_EVERY = 2;
+    static final int ACK_DELAY = 100;
+
     private Queue inputQueue;
 	private InputHandler inputHandler;
+    private Queue outputQueue;      // retransmissions and held back ACKs, sent by the output handler
+	private OutputHandler outputHandler;
     private IRoutingManager routingManager;
     private final boolean loggingOn = Utils.isOptionSelected("spot.radiostream.logging", false) ||
                                       Utils.isOptionSelected("spot.mesh.route.logging", false);
@@ -87,12 +108,16 @@ public class RadiostreamProtocolManager extends RadioProtocolManager implements
 	RadiostreamProtocolManager(ILowPan lowpan, IRadioPolicyManager radioPolicyManager) {
 		super(lowpan, radioPolicyManager);
         routingManager = lowpan.getRoutingManager();
-		retransScheduler = new Timer();
 		inputQueue = new Queue();
 		inputHandler = new InputHandler();
         RadioFactory.setAsDaemonThread(inputHandler);
         inputHandler.setPriority(Thread.MAX_PRIORITY - 2);
 		inputHandler.start();
+		outputQueue = new Queue();
+		outputHandler = new OutputHandler();
+        RadioFactory.setAsDaemonThread(outputHandler);
+        outputHandler.setPriority(Thread.MAX_PRIORITY - 2);
+		outputHandler.start();
 	}
 
 	/**
@@ -127,11 +152,14 @@ public class RadiostreamProtocolManager extends RadioProtocolManager implements
 				payload[SEQ_OFFSET] = (byte)newSeq;
                 cs.lastOutgoingSeq = newSeq;
                 cs.nextACKSeq = newSeq;
+                if (cs.congestion != null) {
+                    cs.congestion.reset();
+                }
                 newSeq = (newSeq + 1) % 256;
 				sendData(cs, payload, DATA_OFFSET);
 				cs.waitUntilNoRetransBuffers();
 			}
-            while (!inWindow(cs.nextACKSeq, newSeq)) {
+            while (!inWindow(cs.nextACKSeq, newSeq, getWindowSize(cs))) {
                 try {
                     cs.wait();
                 } catch (InterruptedException ex) {
@@ -150,6 +178,28 @@ public class RadiostreamProtocolManager extends RadioProtocolManager implements
 		((ConnectionState)connectionIDTable.get(outConnectionId)).waitUntilNoRetransBuffers();
 	}
 
+	public void setCongestionControl(ConnectionID cid, boolean enabled) {
+		if (! cid.canSend())
+			throw new IllegalArgumentException(cid.toString()+" cannot be used for sending");
+		ConnectionState cs = (ConnectionState)connectionIDTable.get(cid);
+		if (cs == null) {
+			throw new IllegalArgumentException("Attempt to configure unknown connection " + cid.toString());
+		}
+		synchronized (cs) {
+			if (!enabled) {
+				cs.congestion = null;
+			} else if (cs.congestion == null) {
+				cs.congestion = new StreamCongestionControl(WINDOW_SIZE);
+			}
+			cs.notifyAll();
+		}
+	}
+
+	private int getWindowSize(ConnectionState cs) {
+		StreamCongestionControl congestion = cs.congestion;
+		return congestion == null ? WINDOW_SIZE : congestion.getWindow();
+	}
+
 	/* 
 	 * This is the method called by the lowpan when it receives a packet for us.
 	 * It just puts the message on the input queue to be pulled off and processed
@@ -159,6 +209,15 @@ public class RadiostreamProtocolManager extends RadioProtocolManager implements
 		inputQueue.put(new IncomingData(payload, headerInfo));
 	}
 	
+	/*
+	 * Called by the timer wheel when a retransmit timeout expires. The retransmission
+	 * is done by the output handler thread, so that a send that blocks, for instance
+	 * on a route discovery, does not hold up the ACKs that arrive meanwhile.
+	 */
+	void retransmitTimerExpired(RetransmitTimer timer) {
+		outputQueue.put(timer);
+	}
+
 	/*
 	 * This is the method called by the input handler thread to process packets that arrive for us.
 	 */
@@ -168,7 +227,15 @@ public class RadiostreamProtocolManager extends RadioProtocolManager implements
 		if (isAck(incoming.payload)) {
 			ConnectionState connectionState = getConnectionState(incoming.headerInfo.originator, OUTPUT, portNumber); 
 			if (connectionState != null) {
-                connectionState.removeRetransBuffer(incoming.payload[SEQ_OFFSET]);
+                RetransmitBuffer rb = connectionState.removeRetransBuffer(incoming.payload[SEQ_OFFSET]);
+                StreamCongestionControl congestion = connectionState.congestion;
+                long now = System.currentTimeMillis();
+                if (congestion != null && rb != null) {
+                    congestion.packetAcked(rb, true, now);
+                }
+                if (incoming.length >= SACK_ACK_LENGTH) {
+                    processSelectiveAck(connectionState, congestion, incoming.payload, now);
+                }
                 if (connectionState.nextACKSeq == (incoming.payload[SEQ_OFFSET] & 0xff)) {
                     synchronized (connectionState) {
                         connectionState.nextACKSeq = (connectionState.nextACKSeq + 1) % 256;
@@ -187,12 +254,21 @@ public class RadiostreamProtocolManager extends RadioProtocolManager implements
 		} else {
             ConnectionState connectionState = getConnectionState(incoming.headerInfo.originator, INPUT, portNumber);
 			if (connectionState != null) {
-				if (isAckRequested(incoming.payload)) {
-					sendAck(connectionState, incoming.payload[SEQ_OFFSET]);
-				}
+				byte[] ack = null;
                 synchronized (connectionState) {
-                    checkSequenceNumberAndEnqueue(connectionState, incoming);
+                    boolean inOrder = checkSequenceNumberAndEnqueue(connectionState, incoming);
+                    if (isAckRequested(incoming.payload)) {
+                        if (inOrder && isAckDelayAllowed(incoming.payload) && ++connectionState.unackedPackets < ACK_EVERY) {
+                            connectionState.pendingAckSeq = incoming.payload[SEQ_OFFSET];
+                            scheduleDelayedAck(connectionState);
+                        } else {
+                            ack = buildAck(connectionState, incoming.payload[SEQ_OFFSET]);
+                        }
+                    }
                 }
+				if (ack != null) {
+					sendAck(connectionState, ack);
+				}
 			}
 		}
 	}
@@ -205,15 +281,124 @@ public class RadiostreamProtocolManager extends RadioProtocolManager implements
 		return (payload[CTRL_OFFSET] & CTRL_ACK_REQUIRED) != 0;
 	}
 
+	private boolean isAckDelayAllowed(byte[] payload) {
+		return (payload[CTRL_OFFSET] & CTRL_ACK_DELAY_ALLOWED) != 0;
+	}
+
 	private boolean isNewConnection(byte[] payload) {
 		return (payload[CTRL_OFFSET] & CTRL_NEW_CONN) != 0;
 	}
 
+	/*
+	 * Drop the buffers of the packets the receiver reports having. With congestion
+	 * control, also retransmit the first missing packet at once if the receiver keeps
+	 * reporting it missing.
+	 */
+	private void processSelectiveAck(ConnectionState cs, StreamCongestionControl congestion, byte[] payload, long now) {
+		int cumulative = payload[ACK_CUMULATIVE_OFFSET] & 0xff;
+		int sack = ((payload[ACK_SACK_OFFSET] & 0xff) << 24) | ((payload[ACK_SACK_OFFSET + 1] & 0xff) << 16) |
+				((payload[ACK_SACK_OFFSET + 2] & 0xff) << 8) | (payload[ACK_SACK_OFFSET + 3] & 0xff);
+		RetransmitBuffer missing = null;
+		synchronized (cs) {
+			int lastAcked = (cs.nextACKSeq + 255) % 256;
+			if (cs.nextACKSeq < 0 || !inWindow(lastAcked, cumulative, WINDOW_SIZE + 1)) {
+				return;		// an ACK from before the connection was restarted
+			}
+			for (int seq = cs.nextACKSeq; seq != (cumulative + 1) % 256; seq = (seq + 1) % 256) {
+				RetransmitBuffer rb = cs.removeRetransBuffer((byte) seq);
+				if (rb != null && congestion != null) {
+					congestion.packetAcked(rb, false, now);
+				}
+			}
+			for (int i = 0; i < SACK_BITS; i++) {
+				int seq = (cumulative + 2 + i) % 256;
+				if ((sack & (1 << (SACK_BITS - 1 - i))) != 0 && inWindow(lastAcked, seq, WINDOW_SIZE + 1)) {
+					RetransmitBuffer rb = cs.removeRetransBuffer((byte) seq);
+					if (rb != null && congestion != null) {
+						congestion.packetAcked(rb, false, now);
+					}
+				}
+			}
+			cs.nextACKSeq = (cumulative + 1) % 256;
+			int lastOutgoingSeq = (cs.lastOutgoingSeq + 1) % 256;
+			while (cs.nextACKSeq != lastOutgoingSeq && cs.getRetransBuffer((byte) cs.nextACKSeq) == null) {
+				cs.nextACKSeq = (cs.nextACKSeq + 1) % 256;
+			}
+			RetransmitBuffer hole = cs.getRetransBuffer((byte) ((cumulative + 1) % 256));
+			if (congestion != null && congestion.cumulativeAck(cumulative, hole != null)) {
+				missing = hole;
+			}
+			cs.notifyAll();
+		}
+		if (missing != null) {
+			if (missing.retransmitTimer != null) {
+				missing.retransmitTimer.cancel();
+			}
+			log("[Radiostream] fast retransmit for " + cs + " seq=" + ((cumulative + 1) % 256));
+			outputQueue.put(new FastRetransmit(missing, cs));
+		}
+	}
+
+	/*
+	 * Build the ack for the packet whose seq num was seqNum, after it has been
+	 * put in sequence, so that it also reports which other packets have arrived.
+	 */
+	private byte[] buildAck(ConnectionState connectionState, byte seqNum) {
+		connectionState.unackedPackets = 0;
+		if (connectionState.delayedAck != null) {
+			connectionState.delayedAck.cancel();
+		}
+		int cumulative = connectionState.lastIncomingSeq;
+		int sack = 0;
+		if (!connectionState.reorderTable.isEmpty()) {
+			for (int i = 0; i < SACK_BITS; i++) {
+				if (connectionState.reorderTable.containsKey((cumulative + 2 + i) % 256)) {
+					sack |= 1 << (SACK_BITS - 1 - i);
+				}
+			}
+		}
+		return new byte[] {connectionState.id.getPortNo(), seqNum, CTRL_ACK, (byte) cumulative,
+				(byte) (sack >>> 24), (byte) (sack >>> 16), (byte) (sack >>> 8), (byte) sack};
+	}
+
+	private void scheduleDelayedAck(ConnectionState connectionState) {
+		if (connectionState.delayedAck == null) {
+			connectionState.delayedAck = new DelayedAckTimer(connectionState, this);
+		}
+		if (!connectionState.delayedAck.isScheduled()) {
+			connectionState.delayedAck.schedule(ACK_DELAY);
+		}
+	}
+
+	/*
+	 * Called by the timer wheel when an ACK has been held back for ACK_DELAY ms.
+	 * The ACK is sent by the output handler thread.
+	 */
+	void delayedAckTimerExpired(DelayedAckTimer timer) {
+		outputQueue.put(timer);
+	}
+
+	/*
+	 * Called on the output handler thread to send an ACK that was held back, unless
+	 * one has been sent meanwhile
+	 */
+	void sendDelayedAck(ConnectionState connectionState) {
+		byte[] ack = null;
+		synchronized (connectionState) {
+			if (connectionState.unackedPackets > 0) {
+				ack = buildAck(connectionState, connectionState.pendingAckSeq);
+			}
+		}
+		if (ack != null) {
+			sendAck(connectionState, ack);
+		}
+	}
+
 	/**
-	 * Send an ack for packet whose seq num was seqNum
+	 * Send an ack for a packet
 	 */
-	private void sendAck(ConnectionState connectionState, byte seqNum) {
-        byte[] controlBuffer = new byte[] {connectionState.id.getPortNo(), seqNum, CTRL_ACK};
+	private void sendAck(ConnectionState connectionState, byte[] controlBuffer) {
+        byte seqNum = controlBuffer[SEQ_OFFSET];
         for (int i = 1; i <= NUMBER_OF_RETRIES; i++) {
             try {
                 lowpan.send(LowPanHeader.DISPATCH_SPOT, PROTOCOL_NUMBER, connectionState.id.getMacAddress(), controlBuffer, 0, controlBuffer.length);
@@ -238,7 +423,12 @@ public class RadiostreamProtocolManager extends RadioProtocolManager implements
 		return PROTOCOL_NAME;
 	}
 
-	void checkSequenceNumberAndEnqueue(ConnectionState connectionState, IncomingData incomingData) {
+	/*
+	 * Answer whether the packet was the next one expected and did not fill a gap,
+	 * so that its ACK may be held back
+	 */
+	boolean checkSequenceNumberAndEnqueue(ConnectionState connectionState, IncomingData incomingData) {
+		boolean inOrder = false;
 		int expectedSeq;
 		int receivedSeq = incomingData.payload[SEQ_OFFSET] & 0xFF;
 		boolean newConnectionRequested = isNewConnection(incomingData.payload);
@@ -255,6 +445,7 @@ public class RadiostreamProtocolManager extends RadioProtocolManager implements
 		if (receivedSeq == previousSequenceNumber || newConnectionRequested) {
 			// throwing away a duplicate || this was a control packet
 		} else if (expectedSeq == receivedSeq) {
+            inOrder = connectionState.reorderTable.isEmpty();
             do {
                 connectionState.addToQueue(incomingData);
                 expectedSeq = (expectedSeq + 1) % 256;
@@ -262,15 +453,16 @@ public class RadiostreamProtocolManager extends RadioProtocolManager implements
             } while (incomingData != null);
             connectionState.lastIncomingSeq = (expectedSeq == 0) ? 255 : (expectedSeq - 1);
         } else {
-            if (inWindow(expectedSeq, receivedSeq)) {
+            if (inWindow(expectedSeq, receivedSeq, WINDOW_SIZE)) {
                 connectionState.reorderTable.put(receivedSeq, incomingData);
             }
         }
+        return inOrder;
 	}
 
-    private boolean inWindow(int windowStart, int seqNo) {
+    private boolean inWindow(int windowStart, int seqNo, int windowSize) {
         windowStart = (windowStart & 0xff);
-        int windowEnd = (windowStart + WINDOW_SIZE) % 256;
+        int windowEnd = (windowStart + windowSize) % 256;
         seqNo = (seqNo & 0xff);
         return windowStart < windowEnd ? (windowStart <= seqNo && seqNo < windowEnd) : (windowStart <= seqNo || seqNo < windowEnd);
     }
@@ -285,6 +477,17 @@ public class RadiostreamProtocolManager extends RadioProtocolManager implements
 		radioPolicyManager = manager;
 	}
 
+	/*
+	 * Called by a RetransmitTimer on the output handler thread when no ACK arrived in time
+	 */
+	void retransmitAfterTimeout(RetransmitBuffer rb, ConnectionState cs) {
+		StreamCongestionControl congestion = cs.congestion;
+		if (congestion != null) {
+			congestion.retransmitTimedOut();
+		}
+		retransmit(rb, cs, ConnectionState.NO_MESHLAYER_ACK);
+	}
+
 	void retransmit(RetransmitBuffer rb, ConnectionState cs, int conStat) {
 //		byte seqNum = rb.buffer[SEQ_OFFSET];
         if (cs.status != ConnectionState.INTACT) {
@@ -303,45 +506,30 @@ public class RadiostreamProtocolManager extends RadioProtocolManager implements
 	private void transmitWithRetries(RetransmitBuffer rb, ConnectionState cs) {
 		byte seqNum = rb.buffer[SEQ_OFFSET];
 		try {
+			rb.retransmitted = rb.retransCounter < NUMBER_OF_RETRIES;
+			rb.sentAt = System.currentTimeMillis();
 			boolean wasSent = lowpan.send(LowPanHeader.DISPATCH_SPOT, PROTOCOL_NUMBER,
                     cs.id.getMacAddress(), rb.buffer, 0, rb.buffer.length, !isAckRequested(rb.buffer));
 			if (!wasSent) {
 				// ok, so it wasn't a single hop, now ask for an ack
-				rb.buffer[CTRL_OFFSET] = (byte)(rb.buffer[CTRL_OFFSET] | CTRL_ACK_REQUIRED);
+				rb.buffer[CTRL_OFFSET] = (byte)(rb.buffer[CTRL_OFFSET] | CTRL_ACK_REQUIRED | CTRL_ACK_DELAY_ALLOWED);
 				cs.addRetransBuffer(seqNum, rb);
 				//log("[Radiostream] transmit: no single hop route available. Trying again with ACK request");
 				transmitWithRetries(rb, cs);
 			} else if (isAckRequested(rb.buffer)) {
-                rb.retransmitTimer = new RetransmitTimer(seqNum, cs, this);
+                if (rb.retransmitTimer == null) {
+                    rb.retransmitTimer = new RetransmitTimer(seqNum, cs, this);
+                }
 				if (!radioPolicyManager.isRadioReceiverOn()) {
 					throw new RadioOffException("Attempt to perform multihop send with radio receiver off");
 				}
-                int timeout = RETRANSMIT_BASE_TIMEOUT;
-                if (rb.retransCounter < 2) {
-                    timeout += RETRANSMIT_PER_HOP_TIMEOUT;
-                }
-                if (RadioFactory.isRunningOnHost()) {
-                    timeout += RETRANSMIT_BASE_TIMEOUT;
-                }
-                RouteInfo info = routingManager.getRouteInfo(cs.id.getMacAddress());
-                if (info.nextHop != Constants.INVALID_NEXT_HOP) {
-                    if (info.hopCount < 1) {
-                        System.err.println("[RadiostreamProtocolManager] bad route info: " + info.toString());
-                        info.hopCount = 1;
-                    }
-                    timeout += (info.hopCount - 1) * RETRANSMIT_PER_HOP_TIMEOUT;
-                } else {
-                    log("[Radiostream] sending to " + IEEEAddress.toDottedHex(cs.id.getMacAddress())+
-                        " but no current route info");
-                    timeout += 4 * RETRANSMIT_PER_HOP_TIMEOUT;  // guess it might be 4 hops
-                }
+                StreamCongestionControl congestion = cs.congestion;
+                int timeout = (congestion != null && congestion.hasRttEstimate()) ?
+                        congestion.getRetransmitTimeout() : estimateRetransmitTimeout(rb, cs);
                 if (cs.getRetransBuffer(seqNum) != null) {
-                    try {
-                        // make sure to schedule retransmit after sending as send takes time
-                        retransScheduler.schedule(rb.retransmitTimer, timeout);
-                    } catch (IllegalStateException ie) {
-                        // will get Task already scheduled or cancelled error if ACK already was received
-                    }
+                    // make sure to schedule retransmit after sending as send takes time.
+                    // If the ACK arrives meanwhile the timer finds no RetransmitBuffer
+                    rb.retransmitTimer.schedule(timeout);
                 }
 			} else {    // single hop
                 cs.nextACKSeq = ((rb.buffer[SEQ_OFFSET] & 0xff) + 1) % 256;
@@ -361,6 +549,32 @@ public class RadiostreamProtocolManager extends RadioProtocolManager implements
 		}
 	}
 
+    /*
+     * The retransmit timeout estimated from the number of hops to the destination
+     */
+    private int estimateRetransmitTimeout(RetransmitBuffer rb, ConnectionState cs) {
+        int timeout = RETRANSMIT_BASE_TIMEOUT;
+        if (rb.retransCounter < 2) {
+            timeout += RETRANSMIT_PER_HOP_TIMEOUT;
+        }
+        if (RadioFactory.isRunningOnHost()) {
+            timeout += RETRANSMIT_BASE_TIMEOUT;
+        }
+        RouteInfo info = routingManager.getRouteInfo(cs.id.getMacAddress());
+        if (info.nextHop != Constants.INVALID_NEXT_HOP) {
+            if (info.hopCount < 1) {
+                System.err.println("[RadiostreamProtocolManager] bad route info: " + info.toString());
+                info.hopCount = 1;
+            }
+            timeout += (info.hopCount - 1) * RETRANSMIT_PER_HOP_TIMEOUT;
+        } else {
+            log("[Radiostream] sending to " + IEEEAddress.toDottedHex(cs.id.getMacAddress())+
+                " but no current route info");
+            timeout += 4 * RETRANSMIT_PER_HOP_TIMEOUT;  // guess it might be 4 hops
+        }
+        return timeout;
+    }
+
 	private class InputHandler extends Thread {
 		public InputHandler() {
 			super("RadiostreamInputHandler");
@@ -376,4 +590,50 @@ public class RadiostreamProtocolManager extends RadioProtocolManager implements
            }
        }
    }
+
+	/*
+	 * Sends what the timers and the fast retransmit logic hand over, so that the
+	 * input handler only ever waits for incoming packets.
+	 */
+	private class OutputHandler extends Thread {
+		public OutputHandler() {
+			super("RadiostreamOutputHandler");
+		}
+		public void run() {
+           while (true) {
+        	   Object item = outputQueue.get();
+               try {
+                   if (item instanceof RetransmitTimer) {
+                       ((RetransmitTimer) item).expired();
+                   } else if (item instanceof DelayedAckTimer) {
+                       ((DelayedAckTimer) item).expired();
+                   } else {
+                       ((FastRetransmit) item).send();
+                   }
+               } catch (Throwable e) {
+                   e.printStackTrace();
+               }
+           }
+       }
+   }
+
+	/*
+	 * A packet the receiver keeps reporting missing, to be sent again at once
+	 */
+	private class FastRetransmit {
+		private final RetransmitBuffer rb;
+		private final ConnectionState cs;
+
+		FastRetransmit(RetransmitBuffer rb, ConnectionState cs) {
+			this.rb = rb;
+			this.cs = cs;
+		}
+
+		void send() {
+			// skip it if it has been acknowledged since
+			if (cs.getRetransBuffer(rb.buffer[SEQ_OFFSET]) == rb) {
+				retransmit(rb, cs, ConnectionState.NO_MESHLAYER_ACK);
+			}
+		}
+	}
 }
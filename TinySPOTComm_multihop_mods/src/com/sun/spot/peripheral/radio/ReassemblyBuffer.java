@@ -24,63 +24,112 @@
 
 package com.sun.spot.peripheral.radio;
 
-//import com.sun.spot.util.Debug;
-
 /**
  * Implements a data structure that is used by the LowPan class to reassemble
- * fragmented data entities.
+ * fragmented data entities.<br><br>
+ *
+ * Fragments are placed in units of 8 bytes, so which parts of the datagram have
+ * arrived is kept as a bitmap with one bit per 8-byte block, and a count of the
+ * blocks still missing answers whether the datagram is complete. Instances are
+ * recycled by the {@link ReassemblyTable}.
  *
  * @author Jochen Furthmueller
  */
 class ReassemblyBuffer {
-    private byte[] controlBuffer;
     byte[] buffer;
     byte protocolFamily;
     byte protocolNumber;
-    
-    /** Creates a new instance of ReassemblyBuffer */
-    public ReassemblyBuffer(int length) {
-        // NOTE: this is wasting memory because we need 2*n bytes for 
-        // reassembling n bytes it would be more space efficient to do it with 
-        // BitSets but this would be slower
-        this.buffer = new byte[length];
-        this.controlBuffer = new byte[length];
+    long originator;
+    short tag;
+    long deadline;
+    private int[] received = new int[0];  // one bit per 8-byte block of buffer
+    private int missingBlocks;
+
+    /**
+     * Prepare the receiver for a new datagram
+     *
+     * @param originator address of the node that fragmented the datagram
+     * @param tag datagram tag of the fragments
+     * @param buffer array of exactly the datagram size to reassemble into
+     * @param deadline time at which reassembly is abandoned
+     */
+    void init(long originator, short tag, byte[] buffer, long deadline) {
+        this.originator = originator;
+        this.tag = tag;
+        this.buffer = buffer;
+        this.deadline = deadline;
+        protocolFamily = 0;
+        protocolNumber = 0;
+        missingBlocks = (buffer.length + 7) >> 3;
+        int words = (missingBlocks + 31) >> 5;
+        if (received.length < words) {
+            received = new int[words];
+        } else {
+            for (int i = 0; i < words; i++) {
+                received[i] = 0;
+            }
+        }
     }
+
+    /**
+     * @return true if the receiver reassembles the datagram identified by these values
+     */
+    boolean matches(long originator, short tag, int size) {
+        return this.tag == tag && this.originator == originator && buffer.length == size;
+    }
+
     /**
      * writes fragment into reassembly buffer. Checks if this fragment overlaps
      * with one that has been written before, or if this fragment is to written 
      * outside the buffer
      * 
-     * @param offset indicates where this fragment belongs
+     * @param offset indicates where this fragment belongs, in units of 8 bytes
      * @param packet the packet that carries the fragment
      * @param firstByte index of the first byte of the fragment in the packet
-     * @param length length of the fragment
+     * @param fragmentLength length of the fragment
      * @return success is true if the fragment was written without overlapping
      * older fragments or hurting buffer borders 
      */
     public boolean write(int offset, RadioPacket packet, int firstByte, 
             int fragmentLength) {
-        //Debug.print("write: offset = "+offset*8+" bytes, " 
-                //+ "firstByte = "+firstByte+", fragLength = " +fragmentLength
-                //+ " packet.buffer.length = "+packet.buffer.length, 3);
-        // check if we try to write a fragment that already has been written
-        if (buffer.length < offset*8+fragmentLength) {
-            //Debug.print("write: trying to access bytes outside the array", 1);
+        return write(offset, packet.buffer, firstByte, fragmentLength);
+    }
+
+    /**
+     * writes a fragment held in an array into the reassembly buffer, as
+     * {@link #write(int, RadioPacket, int, int)}
+     *
+     * @param offset indicates where this fragment belongs, in units of 8 bytes
+     * @param data the array that holds the fragment
+     * @param firstByte index of the first byte of the fragment in data
+     * @param fragmentLength length of the fragment
+     * @return true if the fragment was written
+     */
+    public boolean write(int offset, byte[] data, int firstByte, int fragmentLength) {
+        int start = offset << 3;
+        int end = start + fragmentLength;
+        // only the last fragment may end part way through a block
+        if (fragmentLength < 0 || end > buffer.length
+                || ((fragmentLength & 7) != 0 && end != buffer.length)) {
             return false;
         }
-        for (int i = offset*8; i < offset*8+fragmentLength; i++){
-            if (controlBuffer[i] == 1) {
-                //Debug.print("write: trying to write byte "+ i +", that has " +
-                        //"already been written", 3);
+        int firstBlock = offset;
+        int endBlock = (end + 7) >> 3;
+        if (firstBlock == endBlock) {
+            return true;
+        }
+        int lastWord = (endBlock - 1) >> 5;
+        for (int w = firstBlock >> 5; w <= lastWord; w++) {
+            if ((received[w] & blockMask(w, firstBlock, endBlock)) != 0) {
                 return false;
-                
-            } else {
-                controlBuffer[i] = 1;
             }
         }
-        
-        // if we do not overwrite existing data then write it into the buffer
-        System.arraycopy(packet.buffer,firstByte,buffer,offset*8,fragmentLength);
+        for (int w = firstBlock >> 5; w <= lastWord; w++) {
+            received[w] |= blockMask(w, firstBlock, endBlock);
+        }
+        missingBlocks -= endBlock - firstBlock;
+
+        System.arraycopy(data, firstByte, buffer, start, fragmentLength);
         return true;
     }
     
@@ -89,11 +138,17 @@ class ReassemblyBuffer {
      * and written into the buffer properly
      */
     public boolean isComplete() {
-        for (int i = 0; i < controlBuffer.length; i++){
-            if (controlBuffer[i]==0) {
-                return false;
-            }
-        }
-        return true;
+        return missingBlocks == 0;
+    }
+
+    /*
+     * The bits of word w of the bitmap that stand for blocks firstBlock to endBlock - 1.
+     */
+    private static int blockMask(int w, int firstBlock, int endBlock) {
+        int base = w << 5;
+        int lo = Math.max(firstBlock, base) - base;
+        int hi = Math.min(endBlock, base + 32) - base;
+        int mask = hi == 32 ? -1 : (1 << hi) - 1;
+        return mask & (-1 << lo);
     }
 }
@@ -24,37 +24,34 @@
 
 package com.sun.spot.peripheral.radio;
 
-//import com.sun.spot.util.Debug;
-import java.util.Hashtable;
-import java.util.TimerTask;
+import com.sun.spot.service.TimerWheelTask;
 
-public class ReassemblyExpiration extends TimerTask {
+/**
+ * Discards the datagrams of a {@link ReassemblyTable} that have not been
+ * completed within the time the standard allows. A single instance serves all
+ * datagrams being reassembled; it is scheduled for the earliest deadline while
+ * the table holds any.
+ */
+public class ReassemblyExpiration extends TimerWheelTask {
     
-    private String key;
-    private Hashtable reassemblyBuffers;
-    private LowPanStats lpStats;
+    private ReassemblyTable table;
     
     /**
      * construct a new instance of ReassemblyExpiration
+     * @param table the reassembly table to check
      */
-    public ReassemblyExpiration(java.lang.String key,
-            java.util.Hashtable reassemblyBuffers,
-            LowPanStats lpStats){
-        this.key = key;
-        this.reassemblyBuffers = reassemblyBuffers;
-        this.lpStats = lpStats;
+    ReassemblyExpiration(ReassemblyTable table) {
+        this.table = table;
     }
     
     /**
-     * this method will be called after the 15 seconds have passed that the
-     * standard defines for discarding reassembly buffers. It tries to delete
-     * the according reassemblyBuffer (if still existing)
+     * discard the reassembly buffers whose 15 seconds have passed
      */    
     public void run(){
-        Object o = reassemblyBuffers.remove(key);
-        if (o != null) {
-            lpStats.reassemblyExpired++;
-            //Debug.print("15 sec expired - dumping reassembly buffer", 1);
+        long now = System.currentTimeMillis();
+        long next = table.expire(now);
+        if (next != 0) {
+            schedule(Math.max(0, next - now));
         }
     }
 }
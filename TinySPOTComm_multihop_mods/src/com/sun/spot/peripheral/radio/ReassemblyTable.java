@@ -0,0 +1,204 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+
+package com.sun.spot.peripheral.radio;
+
+/**
+ * The datagrams LowPan, or the {@link TinyOSRadioProtocolManager}, is reassembling,
+ * identified by originator, datagram tag and datagram size. The number of datagrams reassembled at once is bounded;
+ * when a fragment of a new datagram arrives and the table is full, the datagram
+ * closest to expiring is given up.<br><br>
+ *
+ * {@link ReassemblyBuffer}s are recycled. A completed datagram's array is handed
+ * to its protocol manager, but the array of a datagram that is given up is kept
+ * and reused for the next datagram of the same size, as datagrams of one
+ * protocol mostly share a size. One {@link ReassemblyExpiration} on the
+ * {@link com.sun.spot.service.TimerWheel} enforces the deadlines of all datagrams.<br><br>
+ *
+ * A caller holds the table's monitor from {@link #get} until it has written its
+ * fragment and, if that completed the datagram, called {@link #complete}, so
+ * that the datagram cannot be given up and its buffer reused in between.
+ */
+class ReassemblyTable {
+
+    private static final int MAX_FREE_BUFFERS = 4;
+
+    private final ReassemblyBuffer[] active;
+    private int activeCount;
+    private final ReassemblyBuffer[] free = new ReassemblyBuffer[MAX_FREE_BUFFERS];
+    private int freeCount;
+    private final LowPanStats lpStats;
+    private final ReassemblyExpiration expiration = new ReassemblyExpiration(this);
+
+    /**
+     * @param maxDatagrams the maximum number of datagrams reassembled at once
+     * @param lpStats statistics to count expired datagrams in, or null not to count them
+     */
+    ReassemblyTable(int maxDatagrams, LowPanStats lpStats) {
+        active = new ReassemblyBuffer[maxDatagrams];
+        this.lpStats = lpStats;
+    }
+
+    /**
+     * Answer the buffer reassembling a datagram, starting a new one if there is none
+     *
+     * @param originator address of the node that fragmented the datagram
+     * @param tag datagram tag of the fragment
+     * @param size datagram size of the fragment
+     * @param deadline time at which a new datagram is abandoned
+     * @return the buffer
+     */
+    synchronized ReassemblyBuffer get(long originator, short tag, int size, long deadline) {
+        for (int i = 0; i < activeCount; i++) {
+            if (active[i].matches(originator, tag, size)) {
+                return active[i];
+            }
+        }
+        if (activeCount == active.length) {
+            int oldest = 0;
+            for (int i = 1; i < activeCount; i++) {
+                if (active[i].deadline < active[oldest].deadline) {
+                    oldest = i;
+                }
+            }
+            countExpired();
+            discardAt(oldest);
+        }
+        ReassemblyBuffer rb = takeFree(size);
+        byte[] array = rb.buffer != null ? rb.buffer : new byte[size];
+        rb.init(originator, tag, array, deadline);
+        if (activeCount == 0) {
+            // all other deadlines are gone, so this one is the earliest
+            expiration.schedule(Math.max(0, deadline - System.currentTimeMillis()));
+        }
+        active[activeCount++] = rb;
+        return rb;
+    }
+
+    /**
+     * Remove a completed datagram and detach its array, which now belongs to the
+     * caller and is never reused by the table.
+     *
+     * @return the reassembled datagram
+     */
+    synchronized byte[] complete(ReassemblyBuffer rb) {
+        byte[] datagram = rb.buffer;
+        rb.buffer = null;
+        int i = indexOf(rb);
+        if (i >= 0) {
+            removeAt(i);
+            recycle(rb);
+        }
+        return datagram;
+    }
+
+    /**
+     * Give up reassembling a datagram.
+     */
+    synchronized void discard(ReassemblyBuffer rb) {
+        int i = indexOf(rb);
+        if (i >= 0) {
+            discardAt(i);
+        }
+    }
+
+    /**
+     * Give up the datagrams whose deadline has passed
+     * @param now the current time
+     * @return the earliest deadline of the datagrams left, or 0 if there are none
+     */
+    synchronized long expire(long now) {
+        long next = 0;
+        for (int i = activeCount - 1; i >= 0; i--) {
+            long deadline = active[i].deadline;
+            if (deadline <= now) {
+                countExpired();
+                discardAt(i);
+            } else if (next == 0 || deadline < next) {
+                next = deadline;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * @return the number of datagrams being reassembled
+     */
+    synchronized int size() {
+        return activeCount;
+    }
+
+    private void countExpired() {
+        if (lpStats != null) {
+            lpStats.reassemblyExpired++;
+        }
+    }
+
+    private int indexOf(ReassemblyBuffer rb) {
+        for (int i = 0; i < activeCount; i++) {
+            if (active[i] == rb) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void discardAt(int i) {
+        ReassemblyBuffer rb = active[i];
+        removeAt(i);
+        recycle(rb);
+    }
+
+    private void removeAt(int i) {
+        active[i] = active[--activeCount];
+        active[activeCount] = null;
+    }
+
+    private void recycle(ReassemblyBuffer rb) {
+        if (freeCount < free.length) {
+            free[freeCount++] = rb;
+        }
+    }
+
+    /*
+     * Prefer a free buffer whose array already has the right size, then any free
+     * buffer for its bitmap, then a new one.
+     */
+    private ReassemblyBuffer takeFree(int size) {
+        int match = -1;
+        for (int i = 0; i < freeCount; i++) {
+            byte[] array = free[i].buffer;
+            if (array != null && array.length == size) {
+                match = i;
+                break;
+            }
+        }
+        ReassemblyBuffer rb;
+        if (match >= 0) {
+            rb = free[match];
+        } else if (freeCount > 0) {
+            match = freeCount - 1;
+            rb = free[match];
+            rb.buffer = null;
+        } else {
+            return new ReassemblyBuffer();
+        }
+        free[match] = free[--freeCount];
+        free[freeCount] = null;
+        return rb;
+    }
+}
@@ -39,6 +39,8 @@ public class RetransmitBuffer {
     byte [] buffer;
     int retransCounter;
 	RetransmitTimer retransmitTimer;
+	long sentAt;            // when the packet was last sent
+	boolean retransmitted;  // whether it was sent more than once, so its ACK says nothing about the round trip time
     
     /** Creates a new instance of RetransmitBuffer */
     public RetransmitBuffer(byte [] buffer, int length, int retransCounter) {
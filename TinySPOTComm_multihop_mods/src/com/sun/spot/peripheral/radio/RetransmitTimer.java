@@ -24,11 +24,10 @@
 
 package com.sun.spot.peripheral.radio;
 
-import java.util.TimerTask;
-
+import com.sun.spot.service.TimerWheelTask;
 import com.sun.spot.util.Debug;
 
-public class RetransmitTimer extends TimerTask {
+public class RetransmitTimer extends TimerWheelTask {
     
     private byte seqNo;
     private RadiostreamProtocolManager spm;
@@ -43,14 +42,22 @@ public class RetransmitTimer extends TimerTask {
     }
     
     /**
-     * This method is called by a timer after the retransmit timeout expires.
-     * It calls the ProtocolManager's retransmit() method
+     * This method is called by the timer wheel after the retransmit timeout expires.
+     * Retransmitting can take a while, so it is left to the ProtocolManager's thread
      */
     public void run(){
+        spm.retransmitTimerExpired(this);
+    }
+    
+    /**
+     * Called on the ProtocolManager's thread after the retransmit timeout expired.
+     * It calls the ProtocolManager's retransmit() method
+     */
+    void expired(){
         RetransmitBuffer rb = cs.getRetransBuffer(seqNo);
         if (rb != null) {
         	spm.log("[Radiostream] RetransmitTimer expired for " + cs + " seq=" + (seqNo & 0xff) + " at " + System.currentTimeMillis());
-            spm.retransmit(rb, cs, ConnectionState.NO_MESHLAYER_ACK);
+            spm.retransmitAfterTimeout(rb, cs);
         } else if (showAllTimeouts) {
         	spm.log("[Radiostream] RetransmitTimer expired for " + cs + " seq=" + (seqNo & 0xff) + " with no RetransmitBuffer at " + System.currentTimeMillis());
         }
@@ -0,0 +1,175 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+package com.sun.spot.peripheral.radio;
+
+import com.sun.spot.peripheral.radio.mhrp.aodv.Constants;
+import com.sun.spot.peripheral.radio.routing.RouteInfo;
+import com.sun.spot.peripheral.radio.routing.interfaces.IRouteChangeListener;
+import com.sun.spot.peripheral.radio.routing.interfaces.IRouteChangeSource;
+import com.sun.spot.peripheral.radio.routing.interfaces.IRoutingManager;
+import com.sun.spot.service.TimerWheelTask;
+
+/**
+ * A small cache of the next hops LowPan forwards mesh packets to, so that
+ * forwarding a packet does not have to allocate a RouteInfo or lock the
+ * routing table.<br><br>
+ *
+ * The cache is direct mapped on the final destination. Looking up a cached
+ * route takes no lock; only filling and invalidating a slot do. A routing
+ * manager that implements IRouteChangeSource reports every change to its
+ * table, and the slot for that destination is cleared. A fill that raced with
+ * such a change is dropped, so the cache never holds a route the table has
+ * already replaced. The routes of a routing manager that does not report its
+ * changes are looked up again every POLL_INTERVAL instead.<br><br>
+ *
+ * Asking the routing manager for a route also keeps the route from timing out.
+ * Cached routes bypass the routing manager, so instead they are marked when
+ * they are used, and the marked routes are freshened in bulk from the timer
+ * wheel, well within the route timeout. A route that has not been used since the
+ * last refresh is dropped, so it can expire in the routing table as before.
+ */
+class RouteCache extends TimerWheelTask implements IRouteChangeListener {
+
+    private static final int SIZE = 32;                 // a power of two
+    private static final long REFRESH_INTERVAL = Constants.ACTIVE_ROUTE_TIMEOUT / 6;
+    private static final long POLL_INTERVAL = 1000;     // for routing managers that do not report changes
+
+    private final RouteInfo[] routes = new RouteInfo[SIZE];
+    private final boolean[] used = new boolean[SIZE];
+    private volatile int generation = 0;                // changed by every invalidation
+    private IRoutingManager routingManager;
+    private boolean notified;                           // routingManager reports its changes
+
+    /**
+     * Start caching the routes of a different routing manager.
+     *
+     * @param newRoutingManager the routing manager now used by LowPan
+     */
+    void setRoutingManager(IRoutingManager newRoutingManager) {
+        IRoutingManager old = routingManager;
+        if (old instanceof IRouteChangeSource) {
+            ((IRouteChangeSource) old).removeRouteChangeListener(this);
+        }
+        routingManager = newRoutingManager;
+        clear();
+        notified = newRoutingManager instanceof IRouteChangeSource;
+        if (notified) {
+            ((IRouteChangeSource) newRoutingManager).addRouteChangeListener(this);
+        }
+    }
+
+    /**
+     * Answer the route to a destination, from the cache if possible. Using a
+     * route keeps it fresh, as asking the routing manager for it would.
+     *
+     * @param destination the final destination
+     * @return the route; its nextHop is INVALID_NEXT_HOP if there is none. The
+     * caller must not modify it.
+     */
+    RouteInfo getRouteInfo(long destination) {
+        int i = indexOf(destination);
+        RouteInfo info = routes[i];
+        if (info != null && info.destination == destination) {
+            used[i] = true;
+            return info;
+        }
+        RouteInfo seen = info;
+        int gen = generation;
+        info = routingManager.getRouteInfo(destination);
+        if (info.nextHop != Constants.INVALID_NEXT_HOP && store(i, gen, seen, info)) {
+            used[i] = true;
+            startRefreshing();
+        }
+        return info;
+    }
+
+    /**
+     * Called by the routing manager when a route was added, replaced or removed.
+     */
+    public synchronized void routeChanged(long destination) {
+        generation++;
+        int i = indexOf(destination);
+        RouteInfo info = routes[i];
+        if (info != null && info.destination == destination) {
+            routes[i] = null;
+        }
+    }
+
+    /**
+     * Called by the timer wheel to freshen the routes used since the last
+     * refresh, and to drop the others.
+     */
+    public void run() {
+        IRoutingManager rm = routingManager;
+        boolean cached = false;
+        for (int i = 0; i < SIZE; i++) {
+            RouteInfo info = routes[i];
+            if (info == null) {
+                continue;
+            }
+            if (!used[i]) {
+                store(i, generation, info, null);
+                continue;
+            }
+            used[i] = false;
+            int gen = generation;
+            RouteInfo fresh = rm.getRouteInfo(info.destination);
+            if (fresh.nextHop == Constants.INVALID_NEXT_HOP) {
+                fresh = null;
+            }
+            if (store(i, gen, info, fresh) && fresh != null) {
+                cached = true;
+            }
+        }
+        if (cached) {
+            startRefreshing();
+        }
+    }
+
+    /**
+     * Forget all cached routes.
+     */
+    synchronized void clear() {
+        generation++;
+        for (int i = 0; i < SIZE; i++) {
+            routes[i] = null;
+        }
+    }
+
+    /*
+     * Replace the route in a slot, unless the routing table changed since the
+     * replacement was looked up, or the slot no longer holds what the caller saw.
+     * A route to another destination that shares the slot is simply replaced.
+     */
+    private synchronized boolean store(int i, int gen, RouteInfo expected, RouteInfo info) {
+        if (gen != generation || routes[i] != expected) {
+            return false;
+        }
+        routes[i] = info;
+        return true;
+    }
+
+    private synchronized void startRefreshing() {
+        if (!isScheduled()) {
+            schedule(notified ? REFRESH_INTERVAL : POLL_INTERVAL);
+        }
+    }
+
+    private static int indexOf(long destination) {
+        return (int) (destination ^ (destination >>> 16)) & (SIZE - 1);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+
+package com.sun.spot.peripheral.radio;
+
+/**
+ * A packet waiting to be sent by the {@link TransmitScheduler}, and the handle
+ * through which the application that submitted it learns the outcome. The
+ * application may either poll the request, wait for it to complete, or pass an
+ * {@link ISendListener} when submitting it.
+ */
+public class SendRequest {
+
+	/**
+	 * The packet has not been sent yet.
+	 */
+	public static final int PENDING = 0;
+
+	/**
+	 * The packet was sent, and acknowledged if it was a unicast.
+	 */
+	public static final int SENT = 1;
+
+	/**
+	 * Sending the packet failed; {@link #getException()} answers why.
+	 */
+	public static final int FAILED = 2;
+
+	/**
+	 * The packet was not sent because it waited in the queue, or for a route, for
+	 * longer than its timeout.
+	 */
+	public static final int TIMED_OUT = 3;
+
+	/**
+	 * The packet was sent, but the destination, or the next hop, did not
+	 * acknowledge it however often it was tried; {@link #getException()} answers
+	 * the NoAckException or NoMeshLayerAckException.
+	 */
+	public static final int NO_ACK = 4;
+
+	final IRadioProtocolManager protocolManager;
+	final ConnectionID cid;
+	final long toAddress;
+	final byte[] payload;
+	final long deadline;
+	final boolean routed;
+	private final ISendListener listener;
+
+	long routeDeadline;			// while held waiting for a route, when to give up
+	boolean routeAwaited;		// set once the request has waited for a route
+	Exception routeFailure;		// why no route was found, reported by the scheduler thread
+
+	private int status = PENDING;
+	private Exception exception;
+	private long timestamp;
+
+	SendRequest(IRadioProtocolManager protocolManager, ConnectionID cid, long toAddress, byte[] payload, long deadline, boolean routed, ISendListener listener) {
+		this.protocolManager = protocolManager;
+		this.cid = cid;
+		this.toAddress = toAddress;
+		this.payload = payload;
+		this.deadline = deadline;
+		this.routed = routed;
+		this.listener = listener;
+	}
+
+	/**
+	 * @return one of PENDING, SENT, FAILED, TIMED_OUT or NO_ACK
+	 */
+	public synchronized int getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return true once the request is no longer pending
+	 */
+	public synchronized boolean isDone() {
+		return status != PENDING;
+	}
+
+	/**
+	 * @return the exception that made sending fail, or null
+	 */
+	public synchronized Exception getException() {
+		return exception;
+	}
+
+	/**
+	 * @return the time at which the packet was sent, or 0 if it was not sent
+	 */
+	public synchronized long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return the address the packet is sent to
+	 */
+	public long getDestination() {
+		return toAddress;
+	}
+
+	/**
+	 * Wait until the request has completed.
+	 *
+	 * @param timeout the maximum time to wait in milliseconds, 0 not to wait or a negative value to wait indefinitely
+	 * @return -- true if the request has completed
+	 * @throws InterruptedException if the waiting thread is interrupted
+	 */
+	public synchronized boolean waitForCompletion(long timeout) throws InterruptedException {
+		long end = System.currentTimeMillis() + timeout;
+		while (status == PENDING) {
+			if (timeout < 0) {
+				wait();
+			} else {
+				long remaining = end - System.currentTimeMillis();
+				if (remaining <= 0) {
+					break;
+				}
+				wait(remaining);
+			}
+		}
+		return status != PENDING;
+	}
+
+	void complete(int status, long timestamp, Exception exception) {
+		synchronized (this) {
+			this.status = status;
+			this.timestamp = timestamp;
+			this.exception = exception;
+			notifyAll();
+		}
+		if (listener != null) {
+			listener.sendCompleted(this);
+		}
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+
+
+package com.sun.spot.peripheral.radio;
+
+/**
+ * The congestion control state of one outgoing radiostream connection, used by
+ * the {@link RadiostreamProtocolManager} when congestion control is switched on
+ * for the connection. It only applies to packets that are acknowledged by the
+ * remote end, which are those sent over more than one hop.<br><br>
+ *
+ * The retransmit timeout follows the round trip time measured for the
+ * connection (Jacobson/Karels): RTO = SRTT + 4 * RTTVAR. Packets that had to be
+ * retransmitted give no sample, and every timeout doubles the RTO until the next
+ * sample (Karn). The number of unacknowledged packets is limited by a window
+ * that grows by one packet per acknowledgement until it reaches the slow start
+ * threshold, and by one packet per window of acknowledgements afterwards. A
+ * timeout shrinks the window to one packet, three duplicate acknowledgements
+ * halve it and make the missing packet be sent again at once.
+ */
+class StreamCongestionControl {
+
+	/**
+	 * The number of duplicate acknowledgements after which the missing packet is retransmitted
+	 */
+	static final int DUPLICATE_ACK_THRESHOLD = 3;
+
+	private static final int INITIAL_WINDOW = 2;
+	private static final int MIN_SLOW_START_THRESHOLD = 2;
+	private static final int MIN_RTO = 200;
+	private static final int MAX_RTO = 6000;
+
+	private final int maxWindow;
+
+	// smoothed round trip time times 8 and its mean deviation times 4, both in ms
+	private int scaledRtt = 0;
+	private int scaledRttVar = 0;
+	private int rto = 0;
+
+	private int window;
+	private int windowCredit;
+	private int slowStartThreshold;
+
+	private int lastCumulativeAck = -1;
+	private int duplicateAcks;
+	private boolean recovering;
+
+	/**
+	 * @param maxWindow the largest window, the size of the receiver's reorder window
+	 */
+	StreamCongestionControl(int maxWindow) {
+		this.maxWindow = maxWindow;
+		slowStartThreshold = maxWindow;
+		reset();
+	}
+
+	/**
+	 * Start again with a small window for a new connection. The round trip time
+	 * estimate is kept, as the path has not changed.
+	 */
+	synchronized void reset() {
+		window = Math.min(INITIAL_WINDOW, maxWindow);
+		windowCredit = 0;
+		lastCumulativeAck = -1;
+		duplicateAcks = 0;
+		recovering = false;
+	}
+
+	/**
+	 * @return the number of packets that may be unacknowledged
+	 */
+	synchronized int getWindow() {
+		return window;
+	}
+
+	/**
+	 * @return whether a round trip time has been measured
+	 */
+	synchronized boolean hasRttEstimate() {
+		return rto != 0;
+	}
+
+	/**
+	 * @return the retransmit timeout in milliseconds, only valid if {@link #hasRttEstimate()}
+	 */
+	synchronized int getRetransmitTimeout() {
+		return rto;
+	}
+
+	/**
+	 * @return the smoothed round trip time in milliseconds, or 0 if none has been measured
+	 */
+	synchronized int getSmoothedRtt() {
+		return scaledRtt >> 3;
+	}
+
+	/**
+	 * Note that a packet was acknowledged for the first time.
+	 *
+	 * @param rb the buffer of the acknowledged packet
+	 * @param sampleRtt whether the acknowledgement was for this packet, rather
+	 * than a cumulative or selective one carried by another packet's acknowledgement
+	 * @param now the current time
+	 */
+	synchronized void packetAcked(RetransmitBuffer rb, boolean sampleRtt, long now) {
+		if (sampleRtt && !rb.retransmitted) {
+			addRttSample((int) (now - rb.sentAt));
+		}
+		if (window < slowStartThreshold) {
+			window++;
+		} else if (++windowCredit >= window) {
+			windowCredit = 0;
+			window++;
+		}
+		if (window > maxWindow) {
+			window = maxWindow;
+		}
+	}
+
+	/**
+	 * Note the cumulative acknowledgement carried by an incoming acknowledgement.
+	 *
+	 * @param cumulativeAck the highest sequence number up to which the receiver has all packets
+	 * @param holeOutstanding whether the packet after cumulativeAck is waiting for an acknowledgement
+	 * @return true if the packet after cumulativeAck should be retransmitted at once
+	 */
+	synchronized boolean cumulativeAck(int cumulativeAck, boolean holeOutstanding) {
+		if (cumulativeAck != lastCumulativeAck) {
+			lastCumulativeAck = cumulativeAck;
+			duplicateAcks = 0;
+			recovering = false;
+			return false;
+		}
+		if (!holeOutstanding || recovering || ++duplicateAcks < DUPLICATE_ACK_THRESHOLD) {
+			return false;
+		}
+		// halve the window once per loss, the packets acknowledged meanwhile left the network
+		recovering = true;
+		slowStartThreshold = Math.max(window / 2, MIN_SLOW_START_THRESHOLD);
+		window = slowStartThreshold;
+		windowCredit = 0;
+		return true;
+	}
+
+	/**
+	 * Note that the retransmit timeout expired for a packet.
+	 */
+	synchronized void retransmitTimedOut() {
+		if (window > 1) {
+			slowStartThreshold = Math.max(window / 2, MIN_SLOW_START_THRESHOLD);
+			window = 1;
+			windowCredit = 0;
+		}
+		if (rto != 0) {
+			rto = Math.min(rto * 2, MAX_RTO);
+		}
+	}
+
+	private void addRttSample(int rtt) {
+		if (rtt < 1) {
+			rtt = 1;
+		}
+		if (scaledRtt == 0) {
+			scaledRtt = rtt << 3;
+			scaledRttVar = rtt << 1;
+		} else {
+			int delta = rtt - (scaledRtt >> 3);
+			scaledRtt += delta;
+			if (delta < 0) {
+				delta = -delta;
+			}
+			scaledRttVar += delta - (scaledRttVar >> 2);
+		}
+		rto = Math.max(MIN_RTO, Math.min((scaledRtt >> 3) + scaledRttVar, MAX_RTO));
+	}
+}
@@ -23,13 +23,14 @@ import com.sun.spot.peripheral.ChannelBusyException;
 import com.sun.spot.peripheral.NoAckException;
 import com.sun.spot.peripheral.NoRouteException;
 import com.sun.spot.resources.Resources;
+import com.sun.spot.util.Utils;
 
 /**
  * @author Daniel van den Akker 
  * A RadioProtocolManager, based on the {@link RadiogramProtocolManager}, that adds support for communication with TinyOS nodes to
  * the SunSPOT stack 
  * */
-public class TinyOSRadioProtocolManager extends RadioProtocolManager implements IProtocolManager, ITinyOSRadioProtocolManager
+public class TinyOSRadioProtocolManager extends RadioProtocolManager implements IPacketProtocolManager, ITinyOSRadioProtocolManager
 {
 	/**
 	 * The number identifying the TinyOS Protocol family.
@@ -39,9 +40,23 @@ public class TinyOSRadioProtocolManager extends RadioProtocolManager implements
 	 * The name used by the GCF to identify tinyos connections
 	 */
 	public static final String PROTOCOL_NAME = "tinyos";
+	/**
+	 * The number of times a unicast packet is sent on a connection without a retry policy
+	 */
+	public static final int DEFAULT_MAX_ATTEMPTS = 3;
+	private static final IRetryPolicy DEFAULT_RETRY_POLICY = new FixedRetryPolicy(DEFAULT_MAX_ATTEMPTS);
+	// fragmented datagrams are given up when they are not complete after this many milliseconds
+	private static final long REASSEMBLY_EXPIRATION_TIME = 10000;
+	private static final int MAX_REASSEMBLIES = 4;
+	// the AM payload that fits into a 16-bit addressed packet after the protocol family and the AM type
+	private static final int MAX_AM_PAYLOAD_LENGTH = RadioPacket.MAX_DATA_LENGTH - 9 - 1 - DATA_OFFSET;
 	private static ITinyOSRadioProtocolManager theInstance;
 	//used to bypass the LowPAN layer when sending packets
 	private IRadioPacketDispatcher dispatch;
+	private final RadioPacketPool packetPool = RadioPacketPool.getInstance();
+	private final NeighborTypes neighborTypes = NeighborTypes.getInstance();
+	private final ReassemblyTable reassemblyBuffers = new ReassemblyTable(MAX_REASSEMBLIES, null);
+	private int nextFragmentTag = 0;
 
 	TinyOSRadioProtocolManager(ILowPan lowpan, IRadioPolicyManager radioPolicyManager, IRadioPacketDispatcher dispatch)
 	{
@@ -93,7 +108,8 @@ public class TinyOSRadioProtocolManager extends RadioProtocolManager implements
 	/**
 	 * This method creates and sends a TinyOS compatible {@link RadioPacket}.
 	 * unlike other SunSPOT protocols, such as the radiogram protocol, sent packets are not passed to the LowPan layer. They
-	 * are directly delivered to the RadioPacketDispatcher.
+	 * are directly delivered to the RadioPacketDispatcher. If fragmentation is enabled for the connection, a datagram
+	 * that does not fit into a single packet of the peer is sent as a series of fragments, each of which is retried on its own.
 	 */
 	public long send(ConnectionID cid, long toAddress, byte[] payload, int length) throws NoAckException, ChannelBusyException, NoRouteException
 	{
@@ -110,18 +126,35 @@ public class TinyOSRadioProtocolManager extends RadioProtocolManager implements
 		
 		//create the radiopacket. depending on the type of connection either a broadcast or a datapacket is created.
 		//Since packets are to be TinyOS compatible, 16bit addressing is used. 
+		//The packet is borrowed from the pool and given back once it has been sent.
 		RadioPacket packet;
 		if (cid.isBroadcast())
 		{
-			packet = RadioPacket.getBroadcastPacket(RadioPacket.ADDR_16);
+			packet = packetPool.acquireBroadcastPacket(RadioPacket.ADDR_16);
 			packet.setDestinationAddress(0xFFFF);
 		}
 		else
 		{
-			packet = RadioPacket.getDataPacket(RadioPacket.ADDR_16);
+			packet = packetPool.acquireDataPacket(RadioPacket.ADDR_16);
 			packet.setDestinationAddress(toAddress);
 		}
+		try
+		{
+			return fillAndSend(cid, packet, payload, length);
+		}
+		finally
+		{
+			packetPool.release(packet);
+		}
+	}
 
+	private long fillAndSend(ConnectionID cid, RadioPacket packet, byte[] payload, int length) throws NoAckException, ChannelBusyException
+	{
+		int threshold = getFragmentationThreshold(cid);
+		if (threshold > 0 && length - DATA_OFFSET > threshold)
+		{
+			return sendInFragments(cid, packet, payload, length, threshold);
+		}
 		// if too much information: cut packet short add '+1' for PROTOCOL_FAMILY_NUMBER
 		int payload_size = Math.min(length + 1, packet.getMaxMacPayloadSize()); 
 		//fill radiopacket
@@ -129,6 +162,46 @@ public class TinyOSRadioProtocolManager extends RadioProtocolManager implements
 		packet.setMACPayloadAt(0, PROTOCOL_NUMBER); // set protocol family
 		System.arraycopy(payload, 0, packet.buffer, packet.getPayloadOffset() + 1, payload_size - 1);
 
+		transmit(cid, packet);
+		return packet.getTimestamp();
+	}
+
+	/**
+	 * Send a datagram as fragments that each take at most maxPayloadLength bytes of AM payload. All fragments but the
+	 * last carry a multiple of 8 bytes of data, as their offset is counted in units of 8 bytes. The packet is reused
+	 * for every fragment.
+	 */
+	private long sendInFragments(ConnectionID cid, RadioPacket packet, byte[] payload, int length, int maxPayloadLength) throws NoAckException, ChannelBusyException
+	{
+		int size = length - DATA_OFFSET;
+		if (size > MAX_FRAGMENTED_LENGTH)
+		{
+			throw new IllegalArgumentException("Cannot send more than " + MAX_FRAGMENTED_LENGTH + " bytes in fragments");
+		}
+		int fragmentLength = (maxPayloadLength - FRAGMENT_HEADER_LENGTH) & ~7;
+		byte tag = nextFragmentTag();
+		// the fragment header follows the protocol family and the AM type
+		int header = packet.getPayloadOffset() + 2;
+		for (int offset = 0; offset < size; offset += fragmentLength)
+		{
+			int n = Math.min(fragmentLength, size - offset);
+			packet.setMACPayloadLength(2 + FRAGMENT_HEADER_LENGTH + n);
+			packet.setMACPayloadAt(0, PROTOCOL_NUMBER);
+			packet.setMACPayloadAt(1, FRAGMENT_AM_TYPE);
+			byte[] buffer = packet.buffer;
+			buffer[header] = payload[PORT_OFFSET];
+			buffer[header + 1] = tag;
+			buffer[header + 2] = (byte) (size >> 8);
+			buffer[header + 3] = (byte) size;
+			buffer[header + 4] = (byte) (offset >> 3);
+			System.arraycopy(payload, DATA_OFFSET + offset, buffer, header + FRAGMENT_HEADER_LENGTH, n);
+			transmit(cid, packet);
+		}
+		return packet.getTimestamp();
+	}
+
+	private void transmit(ConnectionID cid, RadioPacket packet) throws NoAckException, ChannelBusyException
+	{
 		if(cid.isBroadcast())
 		{
 			dispatch.sendPacket(packet); //send only once
@@ -136,36 +209,91 @@ public class TinyOSRadioProtocolManager extends RadioProtocolManager implements
 		else
 		{
 			//this is normally done in the LowPAN layer, since we're bypassing that, we're doing it here
-			NoAckException no_ack = null;
-			for (int i = 0; i < 3; i++) 
-			 {
-				try
+			sendWithRetries(getRetryPolicy(cid), packet);
+		}
+	}
+
+	private synchronized byte nextFragmentTag()
+	{
+		return (byte) nextFragmentTag++;
+	}
+
+	private void sendWithRetries(IRetryPolicy policy, RadioPacket packet) throws NoAckException, ChannelBusyException
+	{
+		long destination = packet.getDestinationAddress();
+		long start = System.currentTimeMillis();
+		int attempts = 0;
+		while (true)
+		{
+			attempts++;
+			try
+			{
+				dispatch.sendPacket(packet);
+				policy.sendCompleted(destination, attempts, true);
+				return;
+			}
+			catch (NoAckException e)
+			{
+				long delay = policy.nextRetryDelay(destination, attempts, System.currentTimeMillis() - start);
+				if (delay < 0)
 				{
-					dispatch.sendPacket(packet);
-					no_ack=null;
-					break;
+					policy.sendCompleted(destination, attempts, false);
+					throw e;
 				}
-				catch (NoAckException e)
+				if (delay > 0)
 				{
-					no_ack = e;
+					Utils.sleep(delay);
 				}
 			}
-			if(no_ack != null)
-				throw no_ack;
 		}
+	}
 
-		return packet.getTimestamp();
+	private IRetryPolicy getRetryPolicy(ConnectionID cid)
+	{
+		ConnectionState cs = (ConnectionState) connectionIDTable.get(cid);
+		IRetryPolicy policy = cs == null ? null : cs.getRetryPolicy();
+		return policy == null ? DEFAULT_RETRY_POLICY : policy;
+	}
+
+	public void setRetryPolicy(ConnectionID cid, IRetryPolicy policy)
+	{
+		ConnectionState cs = (ConnectionState) connectionIDTable.get(cid);
+		if (cs == null)
+		{
+			throw new IllegalArgumentException("Attempt to configure unknown connection " + cid.toString());
+		}
+		cs.setRetryPolicy(policy);
+	}
+
+	private int getFragmentationThreshold(ConnectionID cid)
+	{
+		ConnectionState cs = (ConnectionState) connectionIDTable.get(cid);
+		return cs == null ? 0 : cs.getFragmentationThreshold();
+	}
+
+	public void setFragmentation(ConnectionID cid, int maxPayloadLength)
+	{
+		if (maxPayloadLength != 0 && (maxPayloadLength < FRAGMENT_HEADER_LENGTH + 8 || maxPayloadLength > MAX_AM_PAYLOAD_LENGTH))
+		{
+			throw new IllegalArgumentException("Invalid maximum payload length " + maxPayloadLength);
+		}
+		ConnectionState cs = (ConnectionState) connectionIDTable.get(cid);
+		if (cs == null)
+		{
+			throw new IllegalArgumentException("Attempt to configure unknown connection " + cid.toString());
+		}
+		cs.setFragmentationThreshold(maxPayloadLength);
 	}
 
 	public synchronized void processIncomingData(byte[] payload, LowPanHeaderInfo headerInfo)
 	{
-		// First see if we have a matching server connection, because if we have, all input goes there
-		byte portNumber = payload[PORT_OFFSET];
-		ConnectionState destinationCS = getConnectionState(0, SERVER, portNumber);
-		if (destinationCS == null)
+		neighborTypes.markForeign(headerInfo.sourceAddress);
+		if (payload.length > PORT_OFFSET && payload[PORT_OFFSET] == FRAGMENT_AM_TYPE)
 		{
-			destinationCS = getConnectionState(headerInfo.originator, INPUT, portNumber);
+			reassemble(payload, headerInfo);
+			return;
 		}
+		ConnectionState destinationCS = findDestination(payload[PORT_OFFSET], headerInfo);
 		if (destinationCS == null)
 		{
 			// System.out.println("discarding packet with key " + needle);
@@ -176,6 +304,105 @@ public class TinyOSRadioProtocolManager extends RadioProtocolManager implements
 		}
 	}
 
+	/**
+	 * Packets for connections in direct receive mode are queued without copying them out of the
+	 * radio packet, which is retained until the application has read it. Packets for other
+	 * connections are left to LowPan to copy and pass to {@link #processIncomingData(byte[], LowPanHeaderInfo)}.
+	 */
+	public synchronized boolean processIncomingPacket(RadioPacket packet, int offset, int length, LowPanHeaderInfo headerInfo)
+	{
+		neighborTypes.markForeign(headerInfo.sourceAddress);
+		if (packet.buffer[offset + PORT_OFFSET] == FRAGMENT_AM_TYPE)
+		{
+			// fragments are reassembled from a copy
+			return false;
+		}
+		ConnectionState destinationCS = findDestination(packet.buffer[offset + PORT_OFFSET], headerInfo);
+		if (destinationCS == null)
+		{
+			// nobody to deliver to, so there is no point in copying it
+			return true;
+		}
+		if (!destinationCS.isDirectReceive())
+		{
+			return false;
+		}
+		packetPool.retain(packet);
+		IncomingData data = new IncomingData(packet, offset, length, headerInfo);
+		if (!destinationCS.addToQueue(data))
+		{
+			data.release();
+		}
+		return true;
+	}
+
+	/**
+	 * Add a fragment to the datagram it belongs to, and deliver the datagram once all of it has arrived. Datagrams are
+	 * told apart by originator, port, tag and size. A fragment that overlaps one received before, such as a fragment
+	 * sent again because its acknowledgement was lost, is ignored.
+	 */
+	private void reassemble(byte[] fragment, LowPanHeaderInfo headerInfo)
+	{
+		int header = PORT_OFFSET + 1;
+		if (fragment.length <= header + FRAGMENT_HEADER_LENGTH)
+		{
+			return;
+		}
+		byte portNumber = fragment[header];
+		int size = ((fragment[header + 2] & 0xFF) << 8) | (fragment[header + 3] & 0xFF);
+		if (size == 0 || size > MAX_FRAGMENTED_LENGTH || findDestination(portNumber, headerInfo) == null)
+		{
+			return;
+		}
+		short tag = (short) (((portNumber & 0xFF) << 8) | (fragment[header + 1] & 0xFF));
+		int offset = fragment[header + 4] & 0xFF;
+		int firstByte = header + FRAGMENT_HEADER_LENGTH;
+		byte[] datagram = null;
+		// fragments arrive on more than one thread, and expiry must not reuse the buffer while one is copied in
+		synchronized (reassemblyBuffers)
+		{
+			ReassemblyBuffer rb = reassemblyBuffers.get(headerInfo.originator, tag, size,
+					System.currentTimeMillis() + REASSEMBLY_EXPIRATION_TIME);
+			if (rb.write(offset, fragment, firstByte, fragment.length - firstByte) && rb.isComplete())
+			{
+				datagram = new byte[DATA_OFFSET + size];
+				datagram[PORT_OFFSET] = portNumber;
+				System.arraycopy(rb.buffer, 0, datagram, DATA_OFFSET, size);
+				// the datagram has been copied, so its buffer can be reused
+				reassemblyBuffers.discard(rb);
+			}
+		}
+		if (datagram != null)
+		{
+			ConnectionState destinationCS = findDestination(portNumber, headerInfo);
+			if (destinationCS != null)
+			{
+				destinationCS.addToQueue(new IncomingData(datagram, headerInfo));
+			}
+		}
+	}
+
+	private ConnectionState findDestination(byte portNumber, LowPanHeaderInfo headerInfo)
+	{
+		// First see if we have a matching server connection, because if we have, all input goes there
+		ConnectionState destinationCS = getConnectionState(0, SERVER, portNumber);
+		if (destinationCS == null)
+		{
+			destinationCS = getConnectionState(headerInfo.originator, INPUT, portNumber);
+		}
+		return destinationCS;
+	}
+
+	public void setDirectReceive(ConnectionID cid, boolean direct)
+	{
+		ConnectionState cs = (ConnectionState) connectionIDTable.get(cid);
+		if (cs == null)
+		{
+			throw new IllegalArgumentException("Attempt to configure unknown connection " + cid.toString());
+		}
+		cs.setDirectReceive(direct);
+	}
+
 	public String getName()
 	{
 		return PROTOCOL_NAME;
@@ -0,0 +1,395 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+
+package com.sun.spot.peripheral.radio;
+
+import java.util.Enumeration;
+import java.util.Vector;
+
+import com.sun.spot.peripheral.NoAckException;
+import com.sun.spot.peripheral.NoRouteException;
+import com.sun.spot.peripheral.radio.mhrp.aodv.Constants;
+import com.sun.spot.peripheral.radio.routing.RouteInfo;
+import com.sun.spot.peripheral.radio.routing.interfaces.RouteEventClient;
+import com.sun.spot.util.IEEEAddress;
+import com.sun.spot.util.LongHashtable;
+import com.sun.spot.util.MultiProducerQueue;
+import com.sun.spot.util.Queue;
+
+/**
+ * Sends packets on behalf of application threads, so that they can hand a packet
+ * over and carry on instead of waiting for the radio. Packets are queued, and a
+ * daemon thread hands them in order to SENDER_THREADS sender threads, which send
+ * them through the protocol manager of the connection they were submitted for;
+ * the {@link SendRequest} returned on submission reports the outcome.<br><br>
+ *
+ * Packets to one destination are sent one at a time and in order, by the sender
+ * thread that took the first of them. A destination that is slow to acknowledge,
+ * and so is retried with backoff, therefore only holds up its own packets, as
+ * long as fewer than SENDER_THREADS destinations are slow at once.<br><br>
+ *
+ * A mesh routed packet for a destination without a known route is not sent
+ * straight away, which would hold up every packet behind it while the route is
+ * discovered. It is put aside in a buffer for its destination, and a route
+ * discovery is started through {@link ILowPan#requestRoute}. When the route is
+ * found the buffered packets are queued again; if none is found, or a packet has
+ * waited for longer than MAX_ROUTE_WAIT, its request completes as failed or
+ * timed out. At most MAX_PACKETS_PER_DESTINATION packets are buffered for any
+ * one destination.<br><br>
+ *
+ * Applications normally use this through the sendAsync methods of radiogram and
+ * tinyos connections.
+ */
+public class TransmitScheduler {
+
+	/**
+	 * The maximum number of packets waiting to be sent.
+	 */
+	public static final int MAX_QUEUED_REQUESTS = 64;
+
+	/**
+	 * The number of threads sending packets, and so of destinations sent to at once.
+	 */
+	public static final int SENDER_THREADS = 3;
+
+	/**
+	 * The maximum number of packets buffered for one destination while a route to it is discovered.
+	 */
+	public static final int MAX_PACKETS_PER_DESTINATION = 8;
+
+	/**
+	 * The maximum time in milliseconds a packet is buffered waiting for a route.
+	 */
+	public static final long MAX_ROUTE_WAIT = 5000;
+
+	private static final long ROUTE_WAIT_CHECK_INTERVAL = 250;
+
+	private static TransmitScheduler theInstance;
+
+	private final MultiProducerQueue requests = new MultiProducerQueue(MAX_QUEUED_REQUESTS);
+	private final LongHashtable awaitingRoute = new LongHashtable();	// RouteWait per destination
+	private final Queue ready = new Queue();							// requests for the sender threads
+	private final LongHashtable sending = new LongHashtable();			// per destination being sent to, a Vector of the requests held back
+	private final RouteEventClient routeClient = new RouteEventClient() {
+		public void routeFound(RouteInfo info, Object uniqueKey) {
+			routeResolved(info, (RouteWait) uniqueKey);
+		}
+	};
+	private ILowPan lowpan;
+
+	/*
+	 * The packets buffered for one destination during one route discovery.
+	 */
+	private static class RouteWait {
+		final long destination;
+		final Vector requests = new Vector();
+
+		RouteWait(long destination) {
+			this.destination = destination;
+		}
+	}
+
+	/**
+	 * @return the scheduler shared by all connections
+	 */
+	public static synchronized TransmitScheduler getInstance() {
+		if (theInstance == null) {
+			theInstance = new TransmitScheduler();
+		}
+		return theInstance;
+	}
+
+	private TransmitScheduler() {
+		Thread thread = new Thread("TransmitScheduler") {
+			public void run() {
+				while (true) {
+					SendRequest request;
+					if (!hasRouteWaits()) {
+						request = (SendRequest) requests.get();
+					} else {
+						request = (SendRequest) requests.get(ROUTE_WAIT_CHECK_INTERVAL);
+						expireRouteWaits();
+					}
+					if (request != null) {
+						transmit(request);
+					}
+				}
+			}
+		};
+		RadioFactory.setAsDaemonThread(thread);
+		thread.start();
+		for (int i = 0; i < SENDER_THREADS; i++) {
+			Thread sender = new Thread("TransmitScheduler sender " + i) {
+				public void run() {
+					while (true) {
+						sendFromQueue();
+					}
+				}
+			};
+			RadioFactory.setAsDaemonThread(sender);
+			sender.start();
+		}
+	}
+
+	/**
+	 * Queue a packet for sending. The payload is copied, so the caller may reuse it straight away.
+	 *
+	 * @param protocolManager the protocol manager to send the packet with
+	 * @param cid the ConnectionID to send the packet over
+	 * @param toAddress the address to send the packet to
+	 * @param payload the packet, laid out as for {@link IRadioProtocolManager#send(ConnectionID, long, byte[], int)}
+	 * @param length number of bytes to send, starting with index 0
+	 * @param routed true if the packet is mesh routed to toAddress, so that it needs a route
+	 * @param timeout the maximum time in milliseconds the packet may wait to be sent, or 0 for no limit
+	 * @param listener told when the request completes, or null
+	 * @return -- the request
+	 * @throws IllegalStateException if too many packets are waiting to be sent
+	 */
+	public SendRequest submit(IRadioProtocolManager protocolManager, ConnectionID cid, long toAddress,
+			byte[] payload, int length, boolean routed, long timeout, ISendListener listener) {
+		byte[] copy = new byte[length];
+		System.arraycopy(payload, 0, copy, 0, length);
+		long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+		SendRequest request = new SendRequest(protocolManager, cid, toAddress, copy, deadline, routed, listener);
+		synchronized (requests) {
+			// submitters check and queue together, so that they cannot overfill the queue between them
+			if (getQueuedCount() >= MAX_QUEUED_REQUESTS || !requests.offer(request)) {
+				throw new IllegalStateException("Transmit queue full");
+			}
+		}
+		return request;
+	}
+
+	/**
+	 * @return the number of packets waiting to be sent
+	 */
+	public int getQueuedCount() {
+		int count = requests.size() + ready.size();
+		synchronized (sending) {
+			Enumeration en = sending.elements();
+			while (en.hasMoreElements()) {
+				count += ((Vector) en.nextElement()).size();
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return the number of packets buffered while routes are discovered
+	 */
+	public int getAwaitingRouteCount() {
+		int count = 0;
+		synchronized (awaitingRoute) {
+			Enumeration en = awaitingRoute.elements();
+			while (en.hasMoreElements()) {
+				count += ((RouteWait) en.nextElement()).requests.size();
+			}
+		}
+		return count;
+	}
+
+	private boolean hasRouteWaits() {
+		synchronized (awaitingRoute) {
+			return !awaitingRoute.isEmpty();
+		}
+	}
+
+	private void transmit(SendRequest request) {
+		try {
+			if (request.routeFailure != null) {
+				request.complete(SendRequest.FAILED, 0, request.routeFailure);
+				return;
+			}
+			if (System.currentTimeMillis() > request.deadline) {
+				request.complete(SendRequest.TIMED_OUT, 0, null);
+				return;
+			}
+			if (request.routed && !request.routeAwaited && !hasRoute(request.toAddress)) {
+				awaitRoute(request);
+				return;
+			}
+		} catch (RuntimeException e) {
+			// thrown by a listener; don't let it stop the scheduler
+			System.out.println("[TransmitScheduler] Exception in send listener: " + e);
+			return;
+		}
+		synchronized (sending) {
+			Vector held = (Vector) sending.get(request.toAddress);
+			if (held != null) {
+				// follows the packet being sent to the same destination
+				held.addElement(request);
+				return;
+			}
+			sending.put(request.toAddress, new Vector());
+		}
+		ready.put(request);
+	}
+
+	/*
+	 * Run by the sender threads: send a request taken from the ready queue, then
+	 * the requests for the same destination held back in the meantime.
+	 */
+	private void sendFromQueue() {
+		SendRequest request = (SendRequest) ready.get();
+		while (request != null) {
+			send(request);
+			synchronized (sending) {
+				Vector held = (Vector) sending.get(request.toAddress);
+				if (held.isEmpty()) {
+					sending.remove(request.toAddress);
+					request = null;
+				} else {
+					request = (SendRequest) held.firstElement();
+					held.removeElementAt(0);
+				}
+			}
+		}
+	}
+
+	private void send(SendRequest request) {
+		try {
+			if (System.currentTimeMillis() > request.deadline) {
+				request.complete(SendRequest.TIMED_OUT, 0, null);
+				return;
+			}
+			long timestamp;
+			try {
+				timestamp = request.protocolManager.send(request.cid, request.toAddress, request.payload, request.payload.length);
+			} catch (NoAckException e) {
+				request.complete(SendRequest.NO_ACK, 0, e);
+				return;
+			} catch (NoMeshLayerAckException e) {
+				request.complete(SendRequest.NO_ACK, 0, e);
+				return;
+			} catch (Exception e) {
+				request.complete(SendRequest.FAILED, 0, e);
+				return;
+			}
+			request.complete(SendRequest.SENT, timestamp, null);
+		} catch (RuntimeException e) {
+			// thrown by a listener; don't let it stop the sender thread
+			System.out.println("[TransmitScheduler] Exception in send listener: " + e);
+		}
+	}
+
+	private boolean hasRoute(long toAddress) {
+		return getLowPan().getRoutingManager().getRouteInfo(toAddress).nextHop != Constants.INVALID_NEXT_HOP;
+	}
+
+	/*
+	 * Put a request aside until a route to its destination is known, starting a
+	 * route discovery if this is the first request for the destination.
+	 */
+	private void awaitRoute(SendRequest request) {
+		request.routeAwaited = true;
+		request.routeDeadline = Math.min(request.deadline, System.currentTimeMillis() + MAX_ROUTE_WAIT);
+		RouteWait wait;
+		boolean first = false;
+		synchronized (awaitingRoute) {
+			wait = (RouteWait) awaitingRoute.get(request.toAddress);
+			if (wait == null) {
+				wait = new RouteWait(request.toAddress);
+				awaitingRoute.put(request.toAddress, wait);
+				first = true;
+			}
+			if (wait.requests.size() < MAX_PACKETS_PER_DESTINATION) {
+				wait.requests.addElement(request);
+				request = null;
+			}
+		}
+		if (request != null) {
+			request.complete(SendRequest.FAILED, 0, new NoRouteException("Too many packets waiting for a route to " +
+					IEEEAddress.toDottedHex(request.toAddress)));
+		}
+		if (first) {
+			try {
+				getLowPan().requestRoute(wait.destination, routeClient, wait);
+			} catch (NoRouteException e) {
+				routeResolved(new RouteInfo(wait.destination, Constants.INVALID_NEXT_HOP, 0), wait);
+			}
+		}
+	}
+
+	/*
+	 * Called by whichever thread completed the route discovery, so the buffered
+	 * requests are handed back to the scheduler thread rather than sent or
+	 * completed here.
+	 */
+	private void routeResolved(RouteInfo info, RouteWait wait) {
+		synchronized (awaitingRoute) {
+			if (awaitingRoute.get(wait.destination) == wait) {
+				awaitingRoute.remove(wait.destination);
+			}
+		}
+		NoRouteException failure = null;
+		if (info.nextHop == Constants.INVALID_NEXT_HOP) {
+			failure = new NoRouteException("No route found to " + IEEEAddress.toDottedHex(wait.destination));
+		}
+		for (int i = 0; i < wait.requests.size(); i++) {
+			SendRequest request = (SendRequest) wait.requests.elementAt(i);
+			request.routeFailure = failure;
+			if (!requests.offer(request)) {
+				request.complete(SendRequest.FAILED, 0, new IllegalStateException("Transmit queue full"));
+			}
+		}
+	}
+
+	/*
+	 * Time out buffered requests that have waited too long for their route. A
+	 * destination left without requests is forgotten, so that the next packet for
+	 * it starts a new discovery rather than joining this stale one.
+	 */
+	private void expireRouteWaits() {
+		long now = System.currentTimeMillis();
+		Vector expired = null;
+		synchronized (awaitingRoute) {
+			long[] destinations = awaitingRoute.keys();
+			for (int d = 0; d < destinations.length; d++) {
+				RouteWait wait = (RouteWait) awaitingRoute.get(destinations[d]);
+				for (int i = wait.requests.size() - 1; i >= 0; i--) {
+					SendRequest request = (SendRequest) wait.requests.elementAt(i);
+					if (now > request.routeDeadline) {
+						wait.requests.removeElementAt(i);
+						if (expired == null) {
+							expired = new Vector();
+						}
+						expired.addElement(request);
+					}
+				}
+				if (wait.requests.isEmpty()) {
+					awaitingRoute.remove(wait.destination);
+				}
+			}
+		}
+		if (expired != null) {
+			for (int i = 0; i < expired.size(); i++) {
+				try {
+					((SendRequest) expired.elementAt(i)).complete(SendRequest.TIMED_OUT, 0, null);
+				} catch (RuntimeException e) {
+					System.out.println("[TransmitScheduler] Exception in send listener: " + e);
+				}
+			}
+		}
+	}
+
+	private synchronized ILowPan getLowPan() {
+		if (lowpan == null) {
+			lowpan = LowPan.getInstance();
+		}
+		return lowpan;
+	}
+}
@@ -38,6 +38,8 @@ import com.sun.spot.peripheral.radio.mhrp.aodv.routing.RoutingTable;
 import com.sun.spot.peripheral.radio.mhrp.interfaces.IMHEventListener;
 import com.sun.spot.peripheral.radio.routing.RouteTable;
 import com.sun.spot.peripheral.radio.routing.RoutingPolicyManager;
+import com.sun.spot.peripheral.radio.routing.interfaces.IRouteChangeListener;
+import com.sun.spot.peripheral.radio.routing.interfaces.IRouteChangeSource;
 import com.sun.spot.peripheral.radio.routing.interfaces.IRoutingManager;
 import com.sun.spot.peripheral.radio.routing.interfaces.RouteEventClient;
 import com.sun.spot.resources.Resources;
@@ -54,7 +56,7 @@ import java.util.Enumeration;
  * @author Allen Ajit George
  * @version 0.1
  */
-public class AODVManager extends BasicService implements IRoutingManager {
+public class AODVManager extends BasicService implements IRoutingManager, IRouteChangeSource {
     
     private String name = "AODVManager";
     private Sender sender;
@@ -221,6 +223,25 @@ public class AODVManager extends BasicService implements IRoutingManager {
         this.mhRouteListeners.removeElement(listener);
     }
 
+    /**
+     * Registers a listener that is notified whenever a route is added,
+     * replaced or removed
+     *
+     * @param listener object that is notified when the routing table changes
+     */
+    public void addRouteChangeListener(IRouteChangeListener listener) {
+        routingTable.addRouteChangeListener(listener);
+    }
+
+    /**
+     * Remove the specified listener that was registered for routing table changes
+     *
+     * @param listener object that is notified when the routing table changes
+     */
+    public void removeRouteChangeListener(IRouteChangeListener listener) {
+        routingTable.removeRouteChangeListener(listener);
+    }
+
     /**
      * This method creates new sequence numbers.
      *
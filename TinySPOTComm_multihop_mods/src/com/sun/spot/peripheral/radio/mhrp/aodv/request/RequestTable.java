@@ -28,7 +28,6 @@ package com.sun.spot.peripheral.radio.mhrp.aodv.request;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Vector;
-import com.sun.spot.peripheral.radio.RadioFactory;
 import com.sun.spot.peripheral.radio.routing.RouteInfo;
 import com.sun.spot.peripheral.radio.routing.SortedList;
 import com.sun.spot.peripheral.radio.mhrp.aodv.Constants;
@@ -51,7 +50,6 @@ public class RequestTable extends Resource {
     private final Object RREQlock = new Integer(0);
     private int currentRREQID;
     private long ourAddress;
-    private Object cleanerMonitor;
     private static RequestTable instance;
     private RequestTableCleaner cleaner;
     
@@ -63,18 +61,18 @@ public class RequestTable extends Resource {
         timeoutList = new SortedList();
         table = new Hashtable();
         currentRREQID = rnd.nextInt(65535) + 1;  // start with a limited random seq number in [1,65535]
-        cleanerMonitor = new Object();
     }
 
     
     public void start() {
         cleaner = new RequestTableCleaner(this);
-        RadioFactory.setAsDaemonThread(cleaner);
-        cleaner.start();
+        if (needsCleaning()) {
+            cleaner.wakeUp();
+        }
     }
     
     public void stop() {
-        cleaner.stopThread();
+        cleaner.stop();
     }
     
 
@@ -342,8 +340,9 @@ public class RequestTable extends Resource {
     }
     
     private void notifyCleaner() {
-        synchronized (cleanerMonitor) {
-            cleanerMonitor.notifyAll();
+        RequestTableCleaner c = cleaner;
+        if (c != null) {
+            c.wakeUp();
         }
     }
     
@@ -371,18 +370,12 @@ public class RequestTable extends Resource {
         return result;
     }
     
-    void waitUntilTableNotEmpty() {
-        while (hasNoActiveRequest()) {
-            synchronized (cleanerMonitor) {
-                try {
-                    cleanerMonitor.wait();
-                } catch (InterruptedException e) {
-                    // ignore & continue
-                }
-            }
-            if (Thread.currentThread().getPriority() == Thread.MIN_PRIORITY) {
-                break;
-            }
+    /**
+     * @return true while the table holds an active request
+     */
+    boolean needsCleaning() {
+        synchronized (table) {
+            return !hasNoActiveRequest();
         }
     }
     
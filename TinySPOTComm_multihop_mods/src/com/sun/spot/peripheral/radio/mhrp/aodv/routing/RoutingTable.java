@@ -26,10 +26,9 @@
 package com.sun.spot.peripheral.radio.mhrp.aodv.routing;
 
 import java.util.Enumeration;
-import java.util.Hashtable;
 import java.util.Vector;
-import com.sun.spot.peripheral.radio.RadioFactory;
 import com.sun.spot.peripheral.radio.routing.RouteInfo;
+import com.sun.spot.peripheral.radio.routing.interfaces.IRouteChangeListener;
 import com.sun.spot.peripheral.radio.routing.SortedList;
 import com.sun.spot.peripheral.radio.mhrp.aodv.Constants;
 import com.sun.spot.peripheral.radio.mhrp.aodv.messages.RREP;
@@ -38,6 +37,7 @@ import com.sun.spot.resources.Resource;
 import com.sun.spot.resources.Resources;
 import com.sun.spot.util.Debug;
 import com.sun.spot.util.IEEEAddress;
+import com.sun.spot.util.LongHashtable;
 
 /**
  * An object that represents a routing table for the mesh
@@ -46,31 +46,28 @@ import com.sun.spot.util.IEEEAddress;
  */
 public class RoutingTable extends Resource {
     
-    private final Hashtable table;
+    private final LongHashtable table;
     private final SortedList timeoutList;
+    private final Vector changeListeners = new Vector();
     private Long ourAddress;
     private static RoutingTable instance;
     private RoutingTableCleaner cleaner;
-    private Object cleanerMonitor;
     
     /**
      * construct a new routing table
      */
     private RoutingTable() {
         timeoutList = new SortedList();
-        table = new Hashtable();
-
-        cleanerMonitor = new Object();
+        table = new LongHashtable();
     }
     
     public void start() {
         cleaner = new RoutingTableCleaner(this);
-        RadioFactory.setAsDaemonThread(cleaner);
-        cleaner.start();
+        cleaner.wakeUp();
     }
     
     public void stop() {
-        cleaner.stopThread();
+        cleaner.stop();
     }
     
     /**
@@ -97,7 +94,7 @@ public class RoutingTable extends Resource {
     public RouteInfo getNextHopInfo(long address) {
         RoutingEntry returnedEntry;
         synchronized (table) {
-            returnedEntry = (RoutingEntry) table.get(new Long(address));
+            returnedEntry = (RoutingEntry) table.get(address);
         }
         
         // FIXME - Is this necessarily correct?
@@ -209,9 +206,7 @@ public class RoutingTable extends Resource {
      * @return destinationSequenceNumber
      */
     public int getDestinationSequenceNumber(long address) {
-        Long wantedDestination = new Long(address);
-        
-        RoutingEntry entry = (RoutingEntry) table.get(wantedDestination);
+        RoutingEntry entry = (RoutingEntry) table.get(address);
         if (entry != null) {
             return entry.sequenceNumber;
         }
@@ -245,7 +240,8 @@ public class RoutingTable extends Resource {
                                 IEEEAddress.toDottedHex(entry.key.longValue()) +
                                 " through " + IEEEAddress.toDottedHex(entry.nextHopMACAddress.longValue()) +
                                 " at " + System.currentTimeMillis());
-                        table.remove(entry.key);
+                        table.remove(entry.key.longValue());
+                        notifyRouteChanged(entry.key.longValue());
                     }
                 } else {
                     break;
@@ -273,7 +269,7 @@ public class RoutingTable extends Resource {
         synchronized (table) {
             newEntry.expiryTime =
                     System.currentTimeMillis() + Constants.ACTIVE_ROUTE_TIMEOUT;
-            RoutingEntry existingEntry = (RoutingEntry) table.get(key);
+            RoutingEntry existingEntry = (RoutingEntry) table.get(key.longValue());
             if (existingEntry != null) {
                 if (existingEntry.activityFlag) {
 //                    Debug.print("doTableAddition: existing hop count: "
@@ -286,7 +282,8 @@ public class RoutingTable extends Resource {
                             // Copy the users from the old list to the new list
                             copyUserList(existingEntry.routeUsers, newEntry.routeUsers);
                         }
-                        table.put(key, newEntry);
+                        table.put(key.longValue(), newEntry);
+                        notifyRouteChanged(key.longValue());
                         timeoutList.removeElement(existingEntry);
 //                        Debug.print("doTableAddition: added route for "
 //                                + IEEEAddress.toDottedHex(key.longValue())
@@ -329,12 +326,14 @@ public class RoutingTable extends Resource {
                             copyUserList(existingEntry.routeUsers, newEntry.routeUsers);
                         }
                         timeoutList.insertElement(newEntry);
-                        table.put(key, newEntry);
+                        table.put(key.longValue(), newEntry);
+                        notifyRouteChanged(key.longValue());
                     }
                 }
             } else {
                 timeoutList.insertElement(newEntry);
-                table.put(key, newEntry);
+                table.put(key.longValue(), newEntry);
+                notifyRouteChanged(key.longValue());
 //                Debug.print("doTableAddition: new entry added route for "
 //                        + IEEEAddress.toDottedHex(key.longValue())
 //                        + " through "
@@ -369,11 +368,9 @@ public class RoutingTable extends Resource {
      * @return true when finished
      */
     public boolean freshenRoute(long address) {
-        Long wantedAddress = new Long(address);
-        
         RoutingEntry entry;
         synchronized (table) {
-            entry = (RoutingEntry) table.get(wantedAddress);
+            entry = (RoutingEntry) table.get(address);
             
             if (entry == null) {
                 Debug.print("[AODV] Attempt to freshen non-existant route to " + IEEEAddress.toDottedHex(address));
@@ -399,11 +396,9 @@ public class RoutingTable extends Resource {
      * @param destination destination address of route entry
      */
     public void deactivateRoute(long originator, long destination) {
-        Long wantedAddress = new Long(destination);
-        
         RoutingEntry entry;
         synchronized (table) {
-            entry = (RoutingEntry) table.get(wantedAddress);
+            entry = (RoutingEntry) table.get(destination);
             
             if (entry != null) {
                 Debug.print("[AODV] deactivatingRoute (remove entry): " + IEEEAddress.toDottedHex(entry.key.longValue()) +
@@ -411,7 +406,8 @@ public class RoutingTable extends Resource {
                         " user " + IEEEAddress.toDottedHex(originator) +
                         " at " + System.currentTimeMillis());
                 timeoutList.removeElement(entry);
-                table.remove(entry.key);
+                table.remove(entry.key.longValue());
+                notifyRouteChanged(entry.key.longValue());
                 // Set the destination's valid flag to false
 //                entry.activityFlag = false;
 //                entry.expiryTime = System.currentTimeMillis();
@@ -446,23 +442,9 @@ public class RoutingTable extends Resource {
     }
     
     private void notifyCleaner() {
-        synchronized (cleanerMonitor) {
-            cleanerMonitor.notifyAll();
-        }
-    }
-    
-    void waitUntilTableNotEmpty() {
-        while (timeoutList.getFirstElement() == null) {
-            synchronized (cleanerMonitor) {
-                try {
-                    cleanerMonitor.wait();
-                } catch (InterruptedException e) {
-                    // ignore & continue
-                }
-            }
-            if (Thread.currentThread().getPriority() == Thread.MIN_PRIORITY) {
-                break;
-            }
+        RoutingTableCleaner c = cleaner;
+        if (c != null) {
+            c.wakeUp();
         }
     }
     
@@ -482,6 +464,28 @@ public class RoutingTable extends Resource {
         }
         
     }
+    /**
+     * Registers a listener that is notified whenever a route is added, replaced or removed
+     * @param listener the listener to add
+     */
+    public void addRouteChangeListener(IRouteChangeListener listener) {
+        changeListeners.addElement(listener);
+    }
+
+    /**
+     * Remove a listener that was registered for routing table changes
+     * @param listener the listener to remove
+     */
+    public void removeRouteChangeListener(IRouteChangeListener listener) {
+        changeListeners.removeElement(listener);
+    }
+
+    private void notifyRouteChanged(long destination) {
+        for (int i = 0; i < changeListeners.size(); i++) {
+            ((IRouteChangeListener) changeListeners.elementAt(i)).routeChanged(destination);
+        }
+    }
+
     /**
      * sets our IEEE Address
      * @param ourAddress our IEEE Address as a long
@@ -24,13 +24,13 @@
 
 package com.sun.spot.peripheral.radio.mhrp.aodv.routing;
 
-import com.sun.spot.peripheral.radio.mhrp.aodv.Constants;
+import com.sun.spot.service.TimerWheelTask;
 
 /**
  * @author Allen Ajit George
  * @version 0.1
  */
-public class RoutingTableCleaner extends Thread {
+public class RoutingTableCleaner extends TimerWheelTask {
         
     private RoutingTable routingTable;
     private boolean keepRunning = true;
@@ -39,35 +39,34 @@ public class RoutingTableCleaner extends Thread {
      * constructs a new routing table cleaner
      */
     public RoutingTableCleaner(RoutingTable routingTable) {
-    	super("RoutingTableCleaner");
         this.routingTable = routingTable;
         
     }
     
     /**
-     * calls the routingTable.cleanTable() method every 
-     * Constants.ROUTING_TABLE_CLEANER_SLEEP_TIME. This is 8000 milisec in the
-     * current implementation
+     * calls the routingTable.cleanTable() method, and schedules itself on the
+     * shared timer wheel to run again when the next route expires
      */
     public void run() {
-        while (keepRunning) {
-            try {
-            	routingTable.waitUntilTableNotEmpty();
-                if (keepRunning) {
-                    long sleepTime = routingTable.cleanTable();
-                    if (keepRunning && sleepTime > 0) {
-                        Thread.sleep(sleepTime);
-                    }
-                }
-            } catch (InterruptedException e) {
-                // ignore & continue
+        if (keepRunning) {
+            long sleepTime = routingTable.cleanTable();
+            if (keepRunning && sleepTime > 0) {
+                schedule(sleepTime);
             }
         }
     }
     
-  public void stopThread() {
+    /**
+     * start cleaning the table, unless it is already being cleaned
+     */
+    public void wakeUp() {
+        if (keepRunning && !isScheduled()) {
+            schedule(0);
+        }
+    }
+    
+  public void stop() {
       keepRunning = false;
-      this.setPriority(Thread.MIN_PRIORITY);
-      this.interrupt();
+      cancel();
   }
 }
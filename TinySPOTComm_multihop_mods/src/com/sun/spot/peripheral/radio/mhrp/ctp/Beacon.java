@@ -0,0 +1,103 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+package com.sun.spot.peripheral.radio.mhrp.ctp;
+
+import com.sun.spot.util.Utils;
+
+/**
+ * A routing beacon, broadcast to the neighbors of a node to advertise its
+ * route to a sink.<br><br>
+ *
+ * Layout: type (1), options (1), hop count (1), reserved (1), sink (8),
+ * parent (8), path ETX in tenths (2).
+ */
+public class Beacon {
+
+    public static final int LENGTH = 22;
+
+    private byte options;
+    private int hopCount;
+    private long sink;
+    private long parent;
+    private int etx;
+
+    /**
+     * constructs a new beacon
+     *
+     * @param sink the root of the tree advertised
+     * @param parent our next hop toward the sink, or INVALID_NEXT_HOP
+     * @param etx our path ETX to the sink in tenths
+     * @param hopCount our distance to the sink
+     * @param pull true to ask neighbors to beacon soon
+     */
+    public Beacon(long sink, long parent, int etx, int hopCount, boolean pull) {
+        this.sink = sink;
+        this.parent = parent;
+        this.etx = etx;
+        this.hopCount = hopCount;
+        options = pull ? Constants.OPTION_PULL : 0;
+    }
+
+    /**
+     * constructs a beacon from a received message
+     *
+     * @param message the received bytes, at least LENGTH long
+     */
+    public Beacon(byte[] message) {
+        options = message[1];
+        hopCount = message[2] & 0xFF;
+        sink = Utils.readBigEndLong(message, 4);
+        parent = Utils.readBigEndLong(message, 12);
+        etx = Utils.readBigEndShort(message, 20) & 0xFFFF;
+    }
+
+    /**
+     * writes the properties into a new buffer
+     *
+     * @return message
+     */
+    public byte[] writeMessage() {
+        byte[] message = new byte[LENGTH];
+        message[0] = Constants.BEACON_TYPE;
+        message[1] = options;
+        message[2] = (byte) Math.min(hopCount, 0xFF);
+        Utils.writeBigEndLong(message, 4, sink);
+        Utils.writeBigEndLong(message, 12, parent);
+        Utils.writeBigEndShort(message, 20, Math.min(etx, Constants.MAX_ETX));
+        return message;
+    }
+
+    public long getSink() {
+        return sink;
+    }
+
+    public long getParent() {
+        return parent;
+    }
+
+    public int getEtx() {
+        return etx;
+    }
+
+    public int getHopCount() {
+        return hopCount;
+    }
+
+    public boolean isPull() {
+        return (options & Constants.OPTION_PULL) != 0;
+    }
+}
@@ -0,0 +1,493 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+package com.sun.spot.peripheral.radio.mhrp.ctp;
+
+import java.util.Enumeration;
+import java.util.Vector;
+
+import com.sun.spot.peripheral.ChannelBusyException;
+import com.sun.spot.peripheral.radio.ILowPan;
+import com.sun.spot.peripheral.radio.IProtocolManager;
+import com.sun.spot.peripheral.radio.LowPanHeaderInfo;
+import com.sun.spot.peripheral.radio.NeighborTypes;
+import com.sun.spot.peripheral.radio.RadioFactory;
+import com.sun.spot.peripheral.radio.mhrp.interfaces.IMHEventListener;
+import com.sun.spot.peripheral.radio.mhrp.lqrp.linkParams.NbrLinkInfo;
+import com.sun.spot.peripheral.radio.mhrp.lqrp.linkParams.NodeLifeAndLinkMonitor;
+import com.sun.spot.peripheral.radio.routing.RouteInfo;
+import com.sun.spot.peripheral.radio.routing.RouteTable;
+import com.sun.spot.peripheral.radio.routing.RoutingPolicyManager;
+import com.sun.spot.peripheral.radio.routing.interfaces.IRouteChangeListener;
+import com.sun.spot.peripheral.radio.routing.interfaces.IRouteChangeSource;
+import com.sun.spot.peripheral.radio.routing.interfaces.IRoutingManager;
+import com.sun.spot.peripheral.radio.routing.interfaces.RouteEventClient;
+import com.sun.spot.resources.Resources;
+import com.sun.spot.service.BasicService;
+import com.sun.spot.service.IService;
+import com.sun.spot.util.Debug;
+import com.sun.spot.util.IEEEAddress;
+import com.sun.spot.util.LongHashtable;
+import com.sun.spot.util.Utils;
+
+/**
+ * A proactive routing manager for many-to-one traffic, in the style of the
+ * TinyOS Collection Tree Protocol.<br><br>
+ *
+ * Every sink is the root of a tree. Nodes broadcast beacons advertising their
+ * parent and their path ETX to each sink, paced by a Trickle timer, and pick as
+ * parent the neighbor with the lowest path ETX through it. The ETX of a link is
+ * derived from the link quality measured by the {@link NodeLifeAndLinkMonitor}.
+ * Routes toward a sink are therefore known before the first packet is sent, and
+ * no route requests are flooded. Sinks need no configuration on the other nodes:
+ * a node becomes a sink by setting the spot.mesh.ctp.sink property or calling
+ * {@link #setSink(boolean)}, and the others learn about it from the beacons.<br><br>
+ *
+ * A node can only route to sinks and to its direct neighbors, so the sinks
+ * should answer over the same hop the data came from. To use this manager, call
+ * <code>LowPan.getInstance().setRoutingManager(CTPManager.getInstance())</code>
+ * on every node.
+ */
+public class CTPManager extends BasicService implements IRoutingManager, IRouteChangeSource, IProtocolManager {
+
+    private String name = "CTPManager";
+    private static CTPManager instance;
+    private long ourAddress;
+    private ILowPan lp;
+    private int state = IService.STOPPED;
+    private boolean sink = Utils.isOptionSelected("spot.mesh.ctp.sink", false);
+    private final LongHashtable trees = new LongHashtable(Constants.MAX_SINKS);
+    private final Vector changeListeners = new Vector();
+    private final Vector pendingBeacons = new Vector();
+    private final NodeLifeAndLinkMonitor linkMonitor;
+    private final NeighborTypes neighborTypes = NeighborTypes.getInstance();
+    private BeaconSender beaconSender;
+
+    /**
+     * constructs a new CTPManager
+     */
+    private CTPManager() {
+        linkMonitor = NodeLifeAndLinkMonitor.getInstance();
+    }
+
+    /**
+     * @return CTPManager instance of this singleton
+     */
+    public static synchronized CTPManager getInstance() {
+        if (instance == null) {
+            instance = (CTPManager) Resources.lookup(CTPManager.class);
+            if (instance == null) {
+                instance = new CTPManager();
+                instance.addTag("service=" + instance.getServiceName());
+                Resources.add(instance);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * initializes this routing manager
+     *
+     * @param ourAddress address used by this LowPan layer
+     * @param lowPan LowPan layer that is our route client
+     */
+    public synchronized void initialize(long ourAddress, ILowPan lowPan) {
+        this.ourAddress = ourAddress;
+        this.lp = lowPan;
+        linkMonitor.initialize(ourAddress);
+    }
+
+    long getOurAddress() {
+        return ourAddress;
+    }
+
+    /**
+     * Make this node the root of a collection tree, or stop being one.
+     *
+     * @param enable true if this node is a sink
+     */
+    public synchronized void setSink(boolean enable) {
+        sink = enable;
+        if (state == IService.RUNNING) {
+            if (enable) {
+                addTree(ourAddress).start();
+            } else {
+                removeTree(ourAddress);
+            }
+        }
+    }
+
+    public boolean isSink() {
+        return sink;
+    }
+
+    /**
+     * @return the addresses of the sinks we know of
+     */
+    public long[] getSinks() {
+        return trees.keys();
+    }
+
+    /**
+     * @param sink the root of the tree
+     * @return our path ETX to the sink in tenths, or MAX_ETX if we have no route
+     */
+    public int getPathEtx(long sink) {
+        CollectionTree tree = (CollectionTree) trees.get(sink);
+        return tree == null ? Constants.MAX_ETX : tree.getPathEtx();
+    }
+
+    /**
+     * Answer the route to a sink, or to a direct neighbor.
+     *
+     * @param address destination for which this method returns a route info
+     * @return routeInfo, with an invalid next hop if there is no route
+     */
+    public RouteInfo getRouteInfo(long address) {
+        CollectionTree tree = (CollectionTree) trees.get(address);
+        if (tree != null) {
+            return tree.getRouteInfo();
+        }
+        if (linkMonitor.getNbrLinkInfoWithAddress(address) != null) {
+            return new RouteInfo(address, address, 1);
+        }
+        return new RouteInfo(address, Constants.INVALID_NEXT_HOP, 0);
+    }
+
+    /**
+     * Answer the route we already have at once; routes are never discovered on
+     * demand. If we know the sink but have no parent yet, ask our neighbors to
+     * beacon.
+     *
+     * @return always returns true
+     */
+    public boolean findRoute(long address, RouteEventClient eventClient, Object uniqueKey) {
+        RouteInfo info = getRouteInfo(address);
+        if (info.nextHop == Constants.INVALID_NEXT_HOP) {
+            CollectionTree tree = (CollectionTree) trees.get(address);
+            if (tree != null) {
+                tree.pull();
+            }
+        }
+        eventClient.routeFound(info, uniqueKey);
+        return true;
+    }
+
+    /**
+     * This method returns a snapshot of the routing table
+     */
+    public RouteTable getRoutingTable() {
+        RouteTable rt = new RouteTable();
+        Enumeration en = trees.elements();
+        while (en.hasMoreElements()) {
+            RouteInfo info = ((CollectionTree) en.nextElement()).getRouteInfo();
+            if (info.nextHop != Constants.INVALID_NEXT_HOP) {
+                rt.addEntry(info);
+            }
+        }
+        return rt;
+    }
+
+    /**
+     * The mesh layer could not deliver a packet; penalize the parent that was
+     * used and choose again.
+     *
+     * @return always returns true
+     */
+    public boolean invalidateRoute(long originator, long destination) {
+        CollectionTree tree = (CollectionTree) trees.get(destination);
+        if (tree != null) {
+            tree.parentFailed();
+        }
+        return true;
+    }
+
+    /**
+     * CTP sends no route requests or replies, so there are no events to report.
+     * @deprecated use addEventListener()
+     */
+    public void registerEventListener(IMHEventListener listener) {
+    }
+
+    /**
+     * @deprecated use removeEventListener()
+     */
+    public void deregisterEventListener(IMHEventListener listener) {
+    }
+
+    /**
+     * CTP sends no route requests or replies, so there are no events to report.
+     */
+    public void addEventListener(IMHEventListener listener) {
+    }
+
+    public void removeEventListener(IMHEventListener listener) {
+    }
+
+    /**
+     * Registers a listener that is notified whenever the route to a sink changes
+     *
+     * @param listener object that is notified when the routing table changes
+     */
+    public void addRouteChangeListener(IRouteChangeListener listener) {
+        changeListeners.addElement(listener);
+    }
+
+    /**
+     * Remove the specified listener that was registered for routing table changes
+     *
+     * @param listener object that is notified when the routing table changes
+     */
+    public void removeRouteChangeListener(IRouteChangeListener listener) {
+        changeListeners.removeElement(listener);
+    }
+
+    void routeChanged(long sink) {
+        for (int i = 0; i < changeListeners.size(); i++) {
+            ((IRouteChangeListener) changeListeners.elementAt(i)).routeChanged(sink);
+        }
+    }
+
+    /**
+     * Answer the ETX of the link to a neighbor in tenths, estimated as the
+     * inverse of the normalized link quality measured by the link monitor.
+     *
+     * @param address the neighbor
+     * @return the link ETX
+     */
+    int getLinkEtx(long address) {
+        int lq = linkMonitor.getCurrNormLQFixedForAddress(address);   // Q16.16
+        if (lq <= 0) {
+            return Constants.MAX_ETX;
+        }
+        long etx = ((long) Constants.ETX_ONE << 16) / lq;
+        return etx > Constants.MAX_ETX ? Constants.MAX_ETX : (int) etx;
+    }
+
+    /**
+     * @param address the neighbor
+     * @return the time the link monitor last heard any frame from the neighbor, or 0
+     */
+    long getLastHeard(long address) {
+        NbrLinkInfo info = linkMonitor.getNbrLinkInfoWithAddress(address);
+        return info == null ? 0 : info.getNbrLastHeard();
+    }
+
+    /**
+     * Called when a beacon for a tree is due; the beacon is sent on our own thread.
+     */
+    void sendBeacon(CollectionTree tree) {
+        synchronized (pendingBeacons) {
+            if (!pendingBeacons.contains(tree)) {
+                pendingBeacons.addElement(tree);
+                pendingBeacons.notify();
+            }
+        }
+    }
+
+    /**
+     * Called by LowPan for every CTP message received.
+     */
+    public void processIncomingData(byte[] payload, LowPanHeaderInfo headerInfo) {
+        if (payload.length < Beacon.LENGTH || payload[0] != Constants.BEACON_TYPE) {
+            return;
+        }
+        long from = headerInfo.sourceAddress;
+        neighborTypes.markSpot(from);   // only SPOTs speak CTP
+        Beacon beacon = new Beacon(payload);
+        if (beacon.getSink() == Constants.ANY_SINK) {
+            if (beacon.isPull()) {
+                Enumeration en = trees.elements();
+                while (en.hasMoreElements()) {
+                    ((CollectionTree) en.nextElement()).pull();
+                }
+            }
+            return;
+        }
+        CollectionTree tree;
+        synchronized (this) {
+            if (state != IService.RUNNING) {
+                return;
+            }
+            tree = (CollectionTree) trees.get(beacon.getSink());
+            if (tree == null) {
+                if (beacon.getSink() == ourAddress || trees.size() >= Constants.MAX_SINKS) {
+                    return;     // we are no longer a sink, or know too many
+                }
+                Debug.print("[CTP] found sink " + IEEEAddress.toDottedHex(beacon.getSink()));
+                tree = addTree(beacon.getSink());
+                tree.start();
+            }
+        }
+        tree.beaconReceived(from, beacon);
+    }
+
+    private CollectionTree addTree(long sinkAddress) {
+        CollectionTree tree = (CollectionTree) trees.get(sinkAddress);
+        if (tree == null) {
+            tree = new CollectionTree(sinkAddress, this);
+            trees.put(sinkAddress, tree);
+        }
+        return tree;
+    }
+
+    private void removeTree(long sinkAddress) {
+        CollectionTree tree = (CollectionTree) trees.remove(sinkAddress);
+        if (tree != null) {
+            tree.stop();
+            routeChanged(sinkAddress);
+        }
+    }
+
+    /**
+     * Start the service, and return whether successful.
+     *
+     * @return true if the service was successfully started
+     */
+    public synchronized boolean start() {
+        Debug.print("[" + name + "]" + "Starting");
+        if (state != IService.RUNNING) {
+            lp.registerProtocol(Constants.CTP_PROTOCOL_NUMBER, this);
+            linkMonitor.setPassiveMonitoring(true);
+            beaconSender = new BeaconSender();
+            RadioFactory.setAsDaemonThread(beaconSender);
+            beaconSender.start();
+            state = IService.RUNNING;
+            if (sink) {
+                addTree(ourAddress).start();
+            } else {
+                // ask our neighbors for their routes rather than wait for their timers
+                synchronized (pendingBeacons) {
+                    beaconSender.pullAll = true;
+                    pendingBeacons.notify();
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stop the service, and return whether successful.
+     * Forgets all routes and stops beaconing.
+     *
+     * @return true if the service was successfully stopped
+     */
+    public synchronized boolean stop() {
+        if (state != IService.STOPPED) {
+            long[] sinks = trees.keys();
+            for (int i = 0; i < sinks.length; i++) {
+                removeTree(sinks[i]);
+            }
+            if (beaconSender != null) {
+                beaconSender.stopThread();
+                beaconSender = null;
+            }
+            linkMonitor.setPassiveMonitoring(false);
+            lp.deregisterProtocol(Constants.CTP_PROTOCOL_NUMBER);
+            state = IService.STOPPED;
+        }
+        return true;
+    }
+
+    public boolean resume() {
+        return start();
+    }
+
+    public boolean pause() {
+        return stop();
+    }
+
+    public boolean isRunning() {
+        return (state == IService.RUNNING);
+    }
+
+    public int getStatus() {
+        return state;
+    }
+
+    public String getServiceName() {
+        return name;
+    }
+
+    public void setServiceName(String who) {
+        name = who;
+    }
+
+    public boolean getEnabled() {
+        return false;
+    }
+
+    public void setEnabled(boolean enable) {
+    }
+
+    /**
+     * Returns the "Network Diameter" of this mesh network
+     *
+     * @return the maximum number of hops across this network
+     */
+    public int getMaximumHops() {
+        return Constants.NET_DIAMETER;
+    }
+
+    /**
+     * Broadcasts the beacons that are due, so that the timer wheel and the
+     * receiving thread do not wait for the radio.
+     */
+    private class BeaconSender extends Thread {
+
+        private boolean keepRunning = true;
+        boolean pullAll = false;
+
+        BeaconSender() {
+            super("CTP Beacon Sender");
+        }
+
+        public void run() {
+            while (keepRunning) {
+                Beacon beacon = null;
+                synchronized (pendingBeacons) {
+                    if (pullAll) {
+                        pullAll = false;
+                        beacon = new Beacon(Constants.ANY_SINK, Constants.INVALID_NEXT_HOP, Constants.MAX_ETX, 0, true);
+                    } else if (!pendingBeacons.isEmpty()) {
+                        CollectionTree tree = (CollectionTree) pendingBeacons.firstElement();
+                        pendingBeacons.removeElementAt(0);
+                        beacon = tree.makeBeacon();
+                    } else {
+                        try {
+                            pendingBeacons.wait();
+                        } catch (InterruptedException e) {
+                            // ignore & continue
+                        }
+                    }
+                }
+                if (beacon != null && (beacon.isPull() || !RoutingPolicyManager.getInstance().isEndNode())) {
+                    byte[] buffer = beacon.writeMessage();
+                    try {
+                        lp.sendBroadcast(Constants.CTP_PROTOCOL_NUMBER, buffer, 0, buffer.length, 1);
+                    } catch (ChannelBusyException e) {
+                        // the next beacon will do
+                    }
+                }
+            }
+        }
+
+        void stopThread() {
+            keepRunning = false;
+            interrupt();
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+package com.sun.spot.peripheral.radio.mhrp.ctp;
+
+import com.sun.spot.peripheral.radio.routing.RouteInfo;
+import com.sun.spot.util.LongHashtable;
+
+/**
+ * The route of this node toward one sink, and the neighbors that could serve
+ * as its parent.<br><br>
+ *
+ * Each neighbor advertises its path ETX to the sink in its beacons. The parent
+ * is the neighbor with the lowest advertised ETX plus the ETX of the link to
+ * it. A neighbor that uses us as its parent is never chosen, and the current
+ * parent is only replaced for a gain of PARENT_SWITCH_THRESHOLD, so that the
+ * tree does not flap between nearly equal routes.<br><br>
+ *
+ * Trickle suppresses the beacons of a stable neighbor, so a candidate counts as
+ * heard whenever the link monitor heard any frame from it, and the current
+ * parent is never given up for silence alone, only when its link fails. The
+ * route is chosen again on every tick of the trickle timer as well, so that
+ * changes in link quality are acted on without waiting for a beacon.
+ */
+class CollectionTree {
+
+    private static class Candidate {
+        int advertisedEtx;
+        int hopCount;
+        long parent;
+        long lastHeard;
+        int penalty;        // for failed transmissions through the candidate
+    }
+
+    private final long sink;
+    private final CTPManager manager;
+    private final boolean root;
+    private final LongHashtable candidates = new LongHashtable(Constants.MAX_NEIGHBORS);
+    private final TrickleTimer trickle;
+    private final RouteInfo noRoute;
+    private long parent = Constants.INVALID_NEXT_HOP;
+    private int pathEtx = Constants.MAX_ETX;
+    private int hopCount = 0;
+    private RouteInfo routeInfo;
+
+    CollectionTree(long sink, CTPManager manager) {
+        this.sink = sink;
+        this.manager = manager;
+        root = sink == manager.getOurAddress();
+        noRoute = new RouteInfo(sink, Constants.INVALID_NEXT_HOP, 0);
+        routeInfo = noRoute;
+        if (root) {
+            pathEtx = 0;
+        }
+        trickle = new TrickleTimer(this);
+    }
+
+    long getSink() {
+        return sink;
+    }
+
+    /**
+     * @return the route to the sink; its nextHop is INVALID_NEXT_HOP if we have none
+     */
+    synchronized RouteInfo getRouteInfo() {
+        return routeInfo;
+    }
+
+    synchronized int getPathEtx() {
+        return pathEtx;
+    }
+
+    void start() {
+        trickle.reset();
+    }
+
+    void stop() {
+        trickle.stop();
+    }
+
+    /**
+     * Beacon soon, because a neighbor needs a route or ours changed.
+     */
+    void pull() {
+        trickle.reset();
+    }
+
+    /**
+     * Process a beacon a neighbor sent for this sink.
+     *
+     * @param from the neighbor that sent the beacon
+     * @param beacon the beacon
+     */
+    void beaconReceived(long from, Beacon beacon) {
+        boolean consistent;
+        boolean fromParent;
+        synchronized (this) {
+            Candidate c = (Candidate) candidates.get(from);
+            if (c == null) {
+                if (candidates.size() >= Constants.MAX_NEIGHBORS) {
+                    removeWorstCandidate();
+                }
+                c = new Candidate();
+                candidates.put(from, c);
+            } else {
+                c.penalty /= 2;     // it is still around
+            }
+            c.advertisedEtx = beacon.getEtx();
+            c.hopCount = beacon.getHopCount();
+            c.parent = beacon.getParent();
+            c.lastHeard = System.currentTimeMillis();
+            int oldEtx = pathEtx;
+            updateRoute();
+            consistent = !beacon.isPull() && Math.abs(pathEtx - oldEtx) < Constants.ETX_CHANGE_THRESHOLD &&
+                    Math.abs(beacon.getEtx() - pathEtx) < Constants.ETX_CHANGE_THRESHOLD;
+            fromParent = from == parent;
+        }
+        if (consistent) {
+            trickle.heardConsistent();
+        } else if (beacon.isPull() || fromParent) {
+            trickle.reset();
+        }
+    }
+
+    /**
+     * The mesh layer could not reach our parent, so make it less attractive
+     * and look for a better one.
+     */
+    void parentFailed() {
+        synchronized (this) {
+            Candidate c = (Candidate) candidates.get(parent);
+            if (c != null) {
+                c.penalty += Constants.FAILED_LINK_PENALTY;
+            }
+            updateRoute();
+        }
+    }
+
+    /**
+     * Called by the trickle timer on every tick, before it beacons.
+     */
+    synchronized void trickleTicked() {
+        updateRoute();
+    }
+
+    /**
+     * Called by the trickle timer when it is time to beacon.
+     */
+    void trickleFired() {
+        manager.sendBeacon(this);
+    }
+
+    synchronized Beacon makeBeacon() {
+        return new Beacon(sink, parent, pathEtx, hopCount, !root && parent == Constants.INVALID_NEXT_HOP);
+    }
+
+    /*
+     * Choose the parent and compute our path ETX, and tell the manager if the
+     * route changed.
+     */
+    private void updateRoute() {
+        if (root) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long ourAddress = manager.getOurAddress();
+        long bestAddress = Constants.INVALID_NEXT_HOP;
+        Candidate best = null;
+        int bestEtx = Constants.MAX_ETX;
+        int currentEtx = Constants.MAX_ETX;
+        long[] addresses = candidates.keys();
+        for (int i = 0; i < addresses.length; i++) {
+            Candidate c = (Candidate) candidates.get(addresses[i]);
+            c.lastHeard = Math.max(c.lastHeard, manager.getLastHeard(addresses[i]));
+            if (addresses[i] != parent && c.lastHeard + Constants.NEIGHBOR_TIMEOUT < now) {
+                candidates.remove(addresses[i]);
+                continue;
+            }
+            if (c.parent == ourAddress || c.advertisedEtx >= Constants.MAX_ETX) {
+                continue;
+            }
+            int linkEtx = manager.getLinkEtx(addresses[i]) + c.penalty;
+            if (linkEtx > Constants.MAX_LINK_ETX) {
+                continue;
+            }
+            int etx = c.advertisedEtx + linkEtx;
+            if (addresses[i] == parent) {
+                currentEtx = etx;
+            }
+            if (etx < bestEtx) {
+                bestEtx = etx;
+                best = c;
+                bestAddress = addresses[i];
+            }
+        }
+        if (currentEtx < Constants.MAX_ETX && bestEtx + Constants.PARENT_SWITCH_THRESHOLD > currentEtx) {
+            // keep the current parent
+            bestAddress = parent;
+            bestEtx = currentEtx;
+            best = (Candidate) candidates.get(parent);
+        }
+        boolean changed = bestAddress != parent;
+        boolean etxChanged = Math.abs(bestEtx - pathEtx) >= Constants.ETX_CHANGE_THRESHOLD;
+        parent = bestAddress;
+        pathEtx = bestEtx;
+        if (best == null) {
+            hopCount = 0;
+            routeInfo = noRoute;
+        } else if (changed || best.hopCount + 1 != hopCount) {
+            hopCount = best.hopCount + 1;
+            routeInfo = new RouteInfo(sink, parent, hopCount);
+        }
+        if (changed) {
+            manager.routeChanged(sink);
+        }
+        if (changed || etxChanged) {
+            trickle.reset();
+        }
+    }
+
+    private void removeWorstCandidate() {
+        long[] addresses = candidates.keys();
+        long worst = Constants.INVALID_NEXT_HOP;
+        int worstEtx = -1;
+        for (int i = 0; i < addresses.length; i++) {
+            Candidate c = (Candidate) candidates.get(addresses[i]);
+            if (addresses[i] != parent && c.advertisedEtx + c.penalty > worstEtx) {
+                worstEtx = c.advertisedEtx + c.penalty;
+                worst = addresses[i];
+            }
+        }
+        candidates.remove(worst);
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+package com.sun.spot.peripheral.radio.mhrp.ctp;
+
+/**
+ * Constants of the collection tree protocol.
+ */
+public class Constants {
+  /*
+   * General constants
+   *
+   * All times given in milliseconds
+   */
+    public static final int NET_DIAMETER = 15;
+    public static final byte CTP_PROTOCOL_NUMBER = 111;
+    public static final long INVALID_NEXT_HOP = -1;
+    public static final long ANY_SINK = 0xFFFF;     // in a pull beacon sent before any sink is known
+    public static final int MAX_SINKS = 4;
+    public static final int MAX_NEIGHBORS = 16;     // candidate parents kept per sink
+
+  /*
+   * Route metric constants
+   *
+   * ETX values are kept in tenths, so a perfect link costs 10
+   */
+    public static final int ETX_ONE = 10;
+    public static final int MAX_ETX = 0xffff;       // no route
+    public static final int MAX_LINK_ETX = 100;     // links worse than this are not used
+    public static final int PARENT_SWITCH_THRESHOLD = 15; // only switch parent for a 1.5 ETX gain
+    public static final int FAILED_LINK_PENALTY = 20;   // added to a parent the mesh could not reach
+    public static final int ETX_CHANGE_THRESHOLD = 10;  // a change that makes us beacon at once
+
+  /*
+   * Trickle constants
+   */
+    public static final long TRICKLE_MIN_INTERVAL = 128;
+    public static final long TRICKLE_MAX_INTERVAL = 128 * 1024;    // about 2 minutes
+    public static final int TRICKLE_REDUNDANCY = 1; // consistent beacons that suppress ours
+    public static final long NEIGHBOR_TIMEOUT = 3 * TRICKLE_MAX_INTERVAL;
+
+  /*
+   * Message type constants
+   */
+    public static final byte BEACON_TYPE = 0x51;
+    public static final byte OPTION_PULL = 0x01;     // please beacon, we have no route
+}
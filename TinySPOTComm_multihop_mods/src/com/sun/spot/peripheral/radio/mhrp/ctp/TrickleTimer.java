@@ -0,0 +1,95 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+package com.sun.spot.peripheral.radio.mhrp.ctp;
+
+import com.sun.spot.service.TimerWheelTask;
+import java.util.Random;
+
+/**
+ * A Trickle timer (RFC 6206) deciding when a {@link CollectionTree} beacons.
+ * <br><br>
+ * Each interval the timer fires once at a random time in its second half, and
+ * the tree beacons unless it has already heard enough consistent beacons from
+ * its neighbors. The interval doubles up to TRICKLE_MAX_INTERVAL while the tree
+ * is stable, and is reset to TRICKLE_MIN_INTERVAL whenever the tree changes, so
+ * a stable network beacons rarely but repairs itself quickly.
+ */
+class TrickleTimer extends TimerWheelTask {
+
+    private static final Random random = new Random();
+
+    private final CollectionTree tree;
+    private long interval = Constants.TRICKLE_MIN_INTERVAL;
+    private long remaining;         // from the firing time to the end of the interval
+    private boolean beforeFiring;
+    private int counter;            // consistent beacons heard this interval
+
+    TrickleTimer(CollectionTree tree) {
+        this.tree = tree;
+    }
+
+    /**
+     * Start again with the shortest interval, unless already there.
+     */
+    synchronized void reset() {
+        if (interval > Constants.TRICKLE_MIN_INTERVAL || !isScheduled()) {
+            interval = Constants.TRICKLE_MIN_INTERVAL;
+            startInterval();
+        }
+    }
+
+    /**
+     * Count a beacon from a neighbor that agrees with ours.
+     */
+    synchronized void heardConsistent() {
+        counter++;
+    }
+
+    synchronized void stop() {
+        cancel();
+    }
+
+    /**
+     * Called by the timer wheel.
+     */
+    public void run() {
+        boolean fire;
+        synchronized (this) {
+            fire = beforeFiring && counter < Constants.TRICKLE_REDUNDANCY;
+            if (beforeFiring) {
+                beforeFiring = false;
+                schedule(remaining);
+            } else {
+                interval = Math.min(2 * interval, Constants.TRICKLE_MAX_INTERVAL);
+                startInterval();
+            }
+        }
+        tree.trickleTicked();
+        if (fire) {
+            tree.trickleFired();
+        }
+    }
+
+    private void startInterval() {
+        long half = interval / 2;
+        long delay = half + random.nextInt((int) half);
+        remaining = interval - delay;
+        counter = 0;
+        beforeFiring = true;
+        schedule(delay);
+    }
+}
@@ -43,6 +43,8 @@ import com.sun.spot.peripheral.radio.mhrp.lqrp.routing.RoutingTable;
 import com.sun.spot.peripheral.radio.mhrp.interfaces.IMHEventListener;
 import com.sun.spot.peripheral.radio.routing.RouteTable;
 import com.sun.spot.peripheral.radio.routing.RoutingPolicyManager;
+import com.sun.spot.peripheral.radio.routing.interfaces.IRouteChangeListener;
+import com.sun.spot.peripheral.radio.routing.interfaces.IRouteChangeSource;
 import com.sun.spot.peripheral.radio.routing.interfaces.IRoutingManager;
 import com.sun.spot.peripheral.radio.routing.interfaces.RouteEventClient;
 import com.sun.spot.resources.Resources;
@@ -56,7 +58,7 @@ import java.util.Enumeration;
  * @author Allen Ajit George, modification by Pradip De and Pete St. Pierre
  * @version 0.1
  */
-public class LQRPManager extends BasicService implements IRoutingManager {
+public class LQRPManager extends BasicService implements IRoutingManager, IRouteChangeSource {
 
     private String name = "LQRPManager";
     private Sender sender;
@@ -204,6 +206,21 @@ public class LQRPManager extends BasicService implements IRoutingManager {
         this.mhRouteListeners.removeElement(listener);
     }
 
+    /**
+     * Registers a listener that is notified whenever a route is added,
+     * replaced or removed
+     */
+    public void addRouteChangeListener(IRouteChangeListener listener) {
+        routingTable.addRouteChangeListener(listener);
+    }
+
+    /**
+     * Remove the specified listener that was registered for routing table changes
+     */
+    public void removeRouteChangeListener(IRouteChangeListener listener) {
+        routingTable.removeRouteChangeListener(listener);
+    }
+
     // These two routines handle the deprecated calls - for now
     /**
      * @deprecated
@@ -31,6 +31,7 @@ import com.sun.spot.peripheral.radio.ILowPan;
 import com.sun.spot.peripheral.radio.IProtocolManager;
 import com.sun.spot.peripheral.radio.LowPan;
 import com.sun.spot.peripheral.radio.LowPanHeaderInfo;
+import com.sun.spot.peripheral.radio.NeighborTypes;
 import com.sun.spot.peripheral.radio.routing.RouteInfo;
 import com.sun.spot.peripheral.radio.mhrp.lqrp.messages.LQRPMessage;
 import com.sun.spot.peripheral.radio.mhrp.lqrp.messages.RERR;
@@ -71,6 +72,7 @@ public class Receiver extends Thread implements IProtocolManager {
     private final long ourAddress;
     
     private NodeLifeAndLinkMonitor linkMonitor = NodeLifeAndLinkMonitor.getInstance();
+    private NeighborTypes neighborTypes = NeighborTypes.getInstance();
     
     /**
      * constructs a new receiver thread.
@@ -395,6 +397,7 @@ public class Receiver extends Thread implements IProtocolManager {
      * @param headerInfo
      */
     public void processIncomingData(byte[] payload, LowPanHeaderInfo headerInfo) {
+        neighborTypes.markSpot(headerInfo.sourceAddress);   // only SPOTs speak LQRP
         byte LQRPMessageType = payload[0];
         switch (LQRPMessageType) {
             case Constants.RREQ_TYPE:
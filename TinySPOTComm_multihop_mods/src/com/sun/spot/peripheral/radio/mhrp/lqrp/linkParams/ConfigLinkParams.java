@@ -29,6 +29,8 @@
 
 package com.sun.spot.peripheral.radio.mhrp.lqrp.linkParams;
 
+import com.sun.spot.util.Utils;
+
 public class ConfigLinkParams {
     
     public static final long TIME_WINDOW = 300000; // was 5000;  //Time in milliseconds
@@ -42,4 +44,11 @@ public class ConfigLinkParams {
     public static final double THRESH_LOW_LQI = 0.50; // was 0.02; //Flag a link if quality below this value
     public static final double LOW_LQI_PENALTY_FACTOR = 0.8;//Factor to penalize a link if LQ < Low Threshold
     public static final double MAX_BATT_VOLT = 4500; //millivolts
+    public static final int MAX_NEIGHBORS = 64; //Least recently heard neighbor is evicted beyond this
+
+    /* Compute link costs and node lifetime in Q16.16 fixed point, see FixedPoint */
+    public static final boolean FIXED_POINT = Utils.isOptionSelected("spot.lqrp.fixed.point", false);
+    public static final int GAMMA_FIXED = FixedPoint.fromDouble(GAMMA);
+    public static final int SIGMA_FIXED = FixedPoint.fromDouble(SIGMA);
+    public static final int THRESH_LOW_LQI_FIXED = FixedPoint.fromDouble(THRESH_LOW_LQI);
 }
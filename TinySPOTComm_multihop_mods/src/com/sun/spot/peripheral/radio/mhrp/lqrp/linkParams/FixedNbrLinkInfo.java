@@ -0,0 +1,113 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+
+package com.sun.spot.peripheral.radio.mhrp.lqrp.linkParams;
+
+/**
+ * A {@link NbrLinkInfo} that keeps the link quality in Q16.16 fixed point, used
+ * when {@link ConfigLinkParams#FIXED_POINT} is selected. It follows the same
+ * model; the double accessors convert, so they are best left to code that sends
+ * or logs the values.
+ */
+public class FixedNbrLinkInfo extends NbrLinkInfo {
+
+    private static final int INITIAL_LQ = FixedPoint.fromDouble(0.93);
+    private static final int BAD_ROUTE_LQ = FixedPoint.fromDouble(0.4);
+    private static final int LQ_CHANGE_THRESHOLD = FixedPoint.fromDouble(0.05);
+
+    private int currNormalizedLQ = INITIAL_LQ;
+    private int nbrLQ = -FixedPoint.ONE;
+    private int nbrOurLQ;
+    private int slotAvgLQ;       // average normalized LQ of the last slot, or 0 if nothing was heard
+
+    public FixedNbrLinkInfo(NodeLifeAndLinkMonitor linkM, long address) {
+        super(linkM, address);
+    }
+
+    public double getCurrentLinkCost() {
+        return FixedPoint.toDouble(getCurrentLinkCostFixed());
+    }
+
+    public int getCurrentLinkCostFixed() {
+        return (nbrLQ < 0) ? currNormalizedLQ : Math.min(currNormalizedLQ, nbrLQ);
+    }
+
+    public boolean lqrepMissed() {
+        boolean badRoute;
+        if (nbrLQ < 0) {
+            nbrLQ -= FixedPoint.ONE;
+            badRoute = nbrLQ < -3 * FixedPoint.ONE;
+        } else {
+            nbrLQ = (nbrLQ * 3) >> 2;
+            badRoute = nbrLQ < BAD_ROUTE_LQ;
+        }
+        nbrOurLQ = currNormalizedLQ;
+        return badRoute;
+    }
+
+    public boolean hasLQChanged() {
+        return Math.abs(currNormalizedLQ - nbrOurLQ) > LQ_CHANGE_THRESHOLD;
+    }
+
+    public void updateSlotAvgLQ() {
+        synchronized (this) {
+            long sum = getSumLQ();
+            long count = getNumOfPktsInSlot();
+            slotAvgLQ = (count != 0 && sum > 0) ? FixedPoint.fromRatio(sum, count * ConfigLinkParams.MAX_LQ) : 0;
+            setSumLQ(0);
+            setNumOfPktsInSlot(0);
+        }
+    }
+
+    public void calcTimeWeightedLQ() {
+        synchronized (this) {
+            // if we haven't heard anything then assume nothing has changed
+            if (slotAvgLQ > 0) {
+                currNormalizedLQ = FixedPoint.mul(ConfigLinkParams.GAMMA_FIXED, currNormalizedLQ)
+                        + FixedPoint.mul(FixedPoint.ONE - ConfigLinkParams.GAMMA_FIXED, slotAvgLQ);
+            }
+        }
+    }
+
+    public double getNbrLQ() {
+        return FixedPoint.toDouble(nbrLQ);
+    }
+
+    public void setNbrLQ(double cost) {
+        nbrLQ = FixedPoint.fromDouble(cost);
+    }
+
+    public double getOurNbrLQ() {
+        return FixedPoint.toDouble(nbrOurLQ);
+    }
+
+    public void setOurNbrLQ(double cost) {
+        nbrOurLQ = FixedPoint.fromDouble(cost);
+    }
+
+    public double getCurrNormalizedLQ() {
+        return FixedPoint.toDouble(currNormalizedLQ);
+    }
+
+    public void setCurrNormalizedLQ(double lq) {
+        currNormalizedLQ = FixedPoint.fromDouble(lq);
+    }
+
+    public void setInitialLQI(int lq) {
+        currNormalizedLQ = FixedPoint.fromRatio(lq, ConfigLinkParams.MAX_LQ);
+    }
+}
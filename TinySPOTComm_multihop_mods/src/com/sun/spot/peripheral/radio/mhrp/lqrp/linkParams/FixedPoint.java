@@ -0,0 +1,67 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+
+package com.sun.spot.peripheral.radio.mhrp.lqrp.linkParams;
+
+/**
+ * Q16.16 fixed point arithmetic for the link cost and node lifetime model. The
+ * processor of a SPOT has no floating point unit, so every double operation is a
+ * library call; with {@link ConfigLinkParams#FIXED_POINT} selected the model
+ * is computed with ints instead. A value v is represented by the int v * ONE.
+ */
+public final class FixedPoint {
+
+    public static final int FRACTION_BITS = 16;
+    public static final int ONE = 1 << FRACTION_BITS;
+
+    private FixedPoint() {
+    }
+
+    /**
+     * Convert a double, rounding to the nearest fixed point value. Meant for
+     * constants and for values that are sent as doubles.
+     */
+    public static int fromDouble(double v) {
+        return (int) (v * ONE + (v < 0 ? -0.5 : 0.5));
+    }
+
+    public static double toDouble(int f) {
+        return (double) f / ONE;
+    }
+
+    /**
+     * @return num / den as a fixed point value
+     */
+    public static int fromRatio(long num, long den) {
+        return (int) ((num << FRACTION_BITS) / den);
+    }
+
+    /**
+     * @return a * b
+     */
+    public static int mul(int a, int b) {
+        return (int) (((long) a * b) >> FRACTION_BITS);
+    }
+
+    /**
+     * @return a / b, or Integer.MAX_VALUE if that does not fit
+     */
+    public static int div(int a, int b) {
+        long q = ((long) a << FRACTION_BITS) / b;
+        return q > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) q;
+    }
+}
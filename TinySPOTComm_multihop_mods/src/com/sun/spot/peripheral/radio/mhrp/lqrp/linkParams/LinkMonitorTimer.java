@@ -0,0 +1,39 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+
+package com.sun.spot.peripheral.radio.mhrp.lqrp.linkParams;
+
+import com.sun.spot.service.TimerWheelTask;
+
+/**
+ * Runs the once per slot work of the {@link NodeLifeAndLinkMonitor} on the
+ * timer wheel's thread, off the path of received packets.
+ */
+class LinkMonitorTimer extends TimerWheelTask {
+
+    private final NodeLifeAndLinkMonitor monitor;
+
+    LinkMonitorTimer(NodeLifeAndLinkMonitor monitor) {
+        this.monitor = monitor;
+    }
+
+    public void run() {
+        if (monitor.slotExpired()) {
+            schedule(ConfigLinkParams.SLOT_SIZE);
+        }
+    }
+}
@@ -61,6 +61,9 @@ public class NbrLinkInfo {
     private NodeLifeAndLinkMonitor linkMonitor;
     
     private double currAvgLQ = 0;
+
+    private long slotEnd;          // when the current slot is closed
+    private boolean passive = false; // a foreign node that we only listen to
     
     /** Creates a new instance of NbrLinLinkMonitor linkM, long address) {
      * numOfSlots = (int)ConfigLinkParakInfo */
@@ -74,6 +77,7 @@ public class NbrLinkInfo {
 
         currNormalizedLQ = 0.93;   // Initialize to a typical value for links
         nbrAddress = address;
+        slotEnd = System.currentTimeMillis() + ConfigLinkParams.SLOT_SIZE;
     }
 
     /**
@@ -84,7 +88,75 @@ public class NbrLinkInfo {
     public double getCurrentLinkCost() {
         return (nbrLQ < 0) ? currNormalizedLQ : Math.min(currNormalizedLQ, nbrLQ);
     }
+
+    /**
+     * Return the current link cost as a Q16.16 value, see {@link FixedPoint}.
+     *
+     * @return current link cost
+     */
+    public int getCurrentLinkCostFixed() {
+        return FixedPoint.fromDouble(getCurrentLinkCost());
+    }
+
+    /**
+     * The neighbor has not answered our last LQREQ, so lower the link quality it
+     * reported and remember our own as the last one we told it.
+     *
+     * @return true if routes using this neighbor should be deactivated
+     */
+    public boolean lqrepMissed() {
+        boolean badRoute;
+        if (nbrLQ < 0) {
+            nbrLQ -= 1.0;
+            badRoute = nbrLQ < -3.0;    // 3 misses and deactivate the route
+        } else {
+            nbrLQ *= 3.0/4.0;           // reduce quality by 75%
+            badRoute = nbrLQ < 0.4;     // & deactivate route if below threshold (= 3 misses)
+        }
+        nbrOurLQ = currNormalizedLQ;
+        return badRoute;
+    }
+
+    /**
+     * @return true if our link quality has changed by more than 5% since we last told the neighbor
+     */
+    public boolean hasLQChanged() {
+        return Math.abs(currNormalizedLQ - nbrOurLQ) > 0.05;
+    }
     
+    /**
+     * Close the current slot if its time is up, folding its average LQ into the
+     * time weighted LQ. A slot in which nothing was heard leaves that unchanged,
+     * so however many slots have passed only the last one needs to be folded.
+     *
+     * @param now the current time
+     * @return true if a slot was closed
+     */
+    public synchronized boolean rollOver(long now) {
+        if (now < slotEnd) {
+            return false;
+        }
+        updateSlotAvgLQ();
+        calcTimeWeightedLQ();
+        slotEnd += ((now - slotEnd) / ConfigLinkParams.SLOT_SIZE + 1) * ConfigLinkParams.SLOT_SIZE;
+        return true;
+    }
+
+    /**
+     * Account for a packet received from this neighbor, closing the previous slot first if its time is up.
+     *
+     * @param lq link quality of the packet
+     * @param now the current time
+     * @return true if a slot was closed
+     */
+    public synchronized boolean packetReceived(int lq, long now) {
+        boolean rolledOver = rollOver(now);
+        sumLQ += lq;
+        numOfPktsRecvdInSlot++;
+        nbrLastHeard = now;
+        return rolledOver;
+    }
+
     public void updateSlotAvgLQ() {
         synchronized (this) {
             if (numOfPktsRecvdInSlot != 0) {
@@ -124,6 +196,17 @@ public class NbrLinkInfo {
         nbrLastHeard = when;
     }
     
+    /**
+     * @return true if the neighbor is a foreign node, whose link we measure but never probe
+     */
+    public boolean isPassive() {
+        return passive;
+    }
+
+    public void setPassive(boolean passive) {
+        this.passive = passive;
+    }
+
     public long getNbrLastLQREQ() {
         return nbrLastLPREQ;
     }
@@ -188,6 +271,13 @@ public class NbrLinkInfo {
     public void setCurrNormalizedLQ(double lq) {
         currNormalizedLQ = lq;
     }
+
+    /**
+     * Configure an initial link quality from the LQI of the first packet heard.
+     */
+    public void setInitialLQI(int lq) {
+        currNormalizedLQ = (double)lq / (double)ConfigLinkParams.MAX_LQ;
+    }
     
     
 }
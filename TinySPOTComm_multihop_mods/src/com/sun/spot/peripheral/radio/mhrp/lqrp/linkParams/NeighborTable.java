@@ -0,0 +1,133 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+
+package com.sun.spot.peripheral.radio.mhrp.lqrp.linkParams;
+
+import com.sun.spot.util.LongIntHashtable;
+
+/**
+ * The neighbors LQRP keeps link information for, held in an array of fixed
+ * capacity and found by address through an index, so neither a lookup nor a
+ * walk over the neighbors allocates. When a new neighbor is heard while the
+ * table is full, the neighbor heard from least recently is evicted.<br><br>
+ *
+ * To walk the neighbors, synchronize on the table and use {@link #size()} and
+ * {@link #getAt(int)}.
+ */
+public class NeighborTable {
+
+    private final NbrLinkInfo[] neighbors;
+    private final LongIntHashtable index;    // address -> position in neighbors
+    private int count = 0;
+    private int evicted = 0;
+
+    /**
+     * @param capacity the maximum number of neighbors
+     */
+    public NeighborTable(int capacity) {
+        neighbors = new NbrLinkInfo[capacity];
+        index = new LongIntHashtable(capacity);
+    }
+
+    /**
+     * @return the link information for a neighbor, or null if it is not in the table
+     */
+    public synchronized NbrLinkInfo get(long address) {
+        int i = index.get(address, -1);
+        return i < 0 ? null : neighbors[i];
+    }
+
+    /**
+     * Add the link information for a neighbor, replacing any it had, and evicting
+     * the neighbor heard from least recently if the table is full.
+     *
+     * @param info the link information to add
+     * @return the link information that was evicted, or null
+     */
+    public synchronized NbrLinkInfo put(NbrLinkInfo info) {
+        long address = info.getNbrAddress();
+        int i = index.get(address, -1);
+        if (i >= 0) {
+            neighbors[i] = info;
+            return null;
+        }
+        NbrLinkInfo victim = null;
+        if (count == neighbors.length) {
+            int oldest = 0;
+            for (int j = 1; j < count; j++) {
+                if (neighbors[j].getNbrLastHeard() < neighbors[oldest].getNbrLastHeard()) {
+                    oldest = j;
+                }
+            }
+            victim = neighbors[oldest];
+            removeAt(oldest);
+            evicted++;
+        }
+        neighbors[count] = info;
+        index.put(address, count);
+        count++;
+        return victim;
+    }
+
+    /**
+     * @return true if the neighbor was in the table
+     */
+    public synchronized boolean remove(long address) {
+        int i = index.get(address, -1);
+        if (i < 0) {
+            return false;
+        }
+        removeAt(i);
+        return true;
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    public synchronized boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * @param i the position of a neighbor, from 0 to size() - 1
+     * @return the link information at that position
+     */
+    public synchronized NbrLinkInfo getAt(int i) {
+        if (i >= count) {
+            throw new ArrayIndexOutOfBoundsException(i);
+        }
+        return neighbors[i];
+    }
+
+    /**
+     * @return the number of neighbors evicted to make room for new ones
+     */
+    public synchronized int getEvictedCount() {
+        return evicted;
+    }
+
+    private void removeAt(int i) {
+        index.remove(neighbors[i].getNbrAddress());
+        count--;
+        if (i != count) {
+            neighbors[i] = neighbors[count];
+            index.put(neighbors[i].getNbrAddress(), i);
+        }
+        neighbors[count] = null;
+    }
+}
@@ -28,6 +28,7 @@ package com.sun.spot.peripheral.radio.mhrp.lqrp.linkParams;
 import com.sun.spot.peripheral.radio.I802_15_4_MAC;
 import com.sun.spot.peripheral.radio.IPacketQualityListener;
 import com.sun.spot.peripheral.radio.IRadioPacketDispatcher;
+import com.sun.spot.peripheral.radio.NeighborTypes;
 import com.sun.spot.peripheral.radio.RadioFactory;
 import com.sun.spot.peripheral.radio.RadioPacketDispatcher;
 import com.sun.spot.peripheral.radio.mhrp.lqrp.Sender;
@@ -36,7 +37,6 @@ import com.sun.spot.peripheral.radio.mhrp.lqrp.routing.RoutingTable;
 import com.sun.spot.resources.Resource;
 import com.sun.spot.resources.Resources;
 import com.sun.spot.util.IEEEAddress;
-import java.util.Enumeration;
 import java.util.Hashtable;
 
 /**
@@ -45,14 +45,17 @@ import java.util.Hashtable;
  */
 public class NodeLifeAndLinkMonitor extends Resource implements IPacketQualityListener {
     
-    private long updateTime = 0;
     //private Vector neighborLinks;
-    private Hashtable neighborLinks;
+    private NeighborTable neighborLinks;
+    private final LinkMonitorTimer slotTimer = new LinkMonitorTimer(this);
+    private final NeighborTypes neighborTypes = NeighborTypes.getInstance();
     private static NodeLifeAndLinkMonitor instance;
     private NodeLifetime nodeLifetime;
     private long ourAddress;
     private long basestationAddress;
     private Sender sender;
+    private boolean passiveMonitoring = false;
+    private boolean listening = false;
     private boolean onHost;
     private boolean onSpot;
     private IRadioPacketDispatcher rpd;
@@ -60,11 +63,12 @@ public class NodeLifeAndLinkMonitor extends Resource implements IPacketQualityLi
 
     private RoutingTable routingTable = RoutingTable.getInstance();
 
+    private static final int TYPICAL_LQ_FIXED = FixedPoint.fromDouble(0.93);
+
 
     private NodeLifeAndLinkMonitor() {
-        neighborLinks = new Hashtable();
+        neighborLinks = new NeighborTable(ConfigLinkParams.MAX_NEIGHBORS);
         nodeLifetime = new NodeLifetime(this);
-        updateTime = System.currentTimeMillis() + ConfigLinkParams.SLOT_SIZE;
     }
     
     /**
@@ -98,52 +102,67 @@ public class NodeLifeAndLinkMonitor extends Resource implements IPacketQualityLi
 
     public void setSender(Sender sender) {
         this.sender = sender;
-        if (sender != null) {
-            rpd.addPacketQualityListener(this);
-        } else {
-            rpd.removePacketQualityListener(this);
+        updateListening();
+    }
+
+    /**
+     * Keep measuring the links to our neighbors while LQRP is not running, for
+     * routing managers that only use the link costs. LQREQs are only sent
+     * while LQRP runs.
+     *
+     * @param enable true to measure links without LQRP
+     */
+    public void setPassiveMonitoring(boolean enable) {
+        passiveMonitoring = enable;
+        updateListening();
+    }
+
+    private synchronized void updateListening() {
+        boolean listen = sender != null || passiveMonitoring;
+        if (listen != listening) {
+            listening = listen;
+            if (listen) {
+                rpd.addPacketQualityListener(this);
+                slotTimer.schedule(ConfigLinkParams.SLOT_SIZE);
+            } else {
+                rpd.removePacketQualityListener(this);
+                slotTimer.cancel();
+            }
         }
     }
     
     /**
      * Update LQI Sum for each packet received. Called by RadioPacketDispatcher.
-     *
+     * Only the sender's link is looked at; the slot of the other links is closed
+     * when they are next used, or by the once per slot check on the timer wheel.
+     * Foreign nodes, which cannot answer an LQREQ, are measured but not probed.
      */
     public void notifyPacket(long srcAddress, long dest, int rssi, int corr, int lq, int packetSize) {
-        // first check if past time to update info for all neighboring links
         long now = System.currentTimeMillis();
-        if (updateTime <= now) {
-            updateLinkInfo();
-            updateTime = System.currentTimeMillis() + ConfigLinkParams.SLOT_SIZE;
-        }
-        // now update link info for this packet
         if (srcAddress != ourAddress && srcAddress != basestationAddress) { // Received Packet
 //            System.out.println("[notifyPacket] received packet from " + IEEEAddress.toDottedHex(srcAddress) +
 //                    "  to " + IEEEAddress.toDottedHex(dest));
-            NbrLinkInfo nlInfo = getNbrLinkInfoWithAddress(srcAddress);
-            if (nlInfo == null) {
-                double lqI = (double)lq / (double)ConfigLinkParams.MAX_LQ;
-                nlInfo = addLinkWithAddress(srcAddress, lqI); //Configure an initial lqI with the value just seen
-                if (sender != null) {
+            NbrLinkInfo nlInfo = neighborLinks.get(srcAddress);
+            boolean foreign = neighborTypes.isForeign(srcAddress);
+            boolean probed = true;   // an LQREQ was sent for this packet
+            if (nlInfo == null || (nlInfo.isPassive() && !foreign)) {
+                if (nlInfo == null) {
+                    nlInfo = newLinkInfo(srcAddress);
+                    nlInfo.setInitialLQI(lq); //Configure an initial lqI with the value just seen
+                    nlInfo.setNbrLastHeard(now);
+                    forgetEvicted(neighborLinks.put(nlInfo));
+                }
+                nlInfo.setPassive(foreign);
+                if (sender != null && !foreign) {
                     // don't bother sending an LQREQ if on host and not talking to a free range SPOT
                     if (onSpot || (onHost && (rpd.getMAC(srcAddress) != socketMAC))) {
-                        sender.sendNewLQREQ(new LQREQ(ourAddress, srcAddress, lqI));
+                        sender.sendNewLQREQ(new LQREQ(ourAddress, srcAddress, nlInfo.getCurrNormalizedLQ()));
                     }
                 }
-            } else if (nlInfo.getNbrLastLQREP() >= 0 && nlInfo.getNbrLastLQREQ() > 0 &&
+            } else if (!foreign && nlInfo.getNbrLastLQREP() >= 0 && nlInfo.getNbrLastLQREQ() > 0 &&
                     nlInfo.getNbrLastLQREP() < nlInfo.getNbrLastLQREQ() &&
                     (nlInfo.getNbrLastLQREQ() + 500) < now) {
-                double nbrLQ = nlInfo.getNbrLQ();
-                boolean badRoute = false;
-                if (nbrLQ < 0) {
-                    nbrLQ -= 1.0;
-                    badRoute = nbrLQ < -3.0;    // 3 misses and deactivate the route
-                } else {
-                    nbrLQ *= 3.0/4.0;           // reduce quality by 75%
-                    badRoute = nbrLQ < 0.4;     // & deactivate route if below threshold (= 3 misses)
-                }
-                nlInfo.setNbrLQ(nbrLQ);     // hasn't replied to our last ping so decrease link quality
-                nlInfo.setOurNbrLQ(nlInfo.getCurrNormalizedLQ());
+                boolean badRoute = nlInfo.lqrepMissed(); // hasn't replied to our last ping so decrease link quality
                 nlInfo.setNbrLastLQREP(-1);
                 if (badRoute) {
                     routingTable.deactivateRoutesUsing(srcAddress);
@@ -153,10 +172,13 @@ public class NodeLifeAndLinkMonitor extends Resource implements IPacketQualityLi
                     sender.sendNewLQREQ(new LQREQ(ourAddress, srcAddress, nlInfo.getCurrNormalizedLQ()));
                 }
 //                System.out.println("[NodeLifeAndLinkMonitor] LQREP timeout with " + IEEEAddress.toDottedHex(srcAddress));
+            } else {
+                probed = false;
+            }
+            if (nlInfo.packetReceived(lq, now) && !probed) {
+                // the slot that ended may have changed our link quality
+                checkLinkChanged(nlInfo);
             }
-            nlInfo.incSumLQ(lq);
-            nlInfo.incNumOfPktsInSlot();
-            nlInfo.setNbrLastHeard(now);
             nodeLifetime.incBytesRecvdCount(packetSize);
         } else {// Sent Packet
             nodeLifetime.incBytesTransCount(packetSize);
@@ -168,54 +190,78 @@ public class NodeLifeAndLinkMonitor extends Resource implements IPacketQualityLi
     
     /* Add a new link for a neighbor with a given address */
     public NbrLinkInfo addLinkWithAddress(long address, double lq) {
-        Long addressKey = new Long(address);
-        NbrLinkInfo nbrLink = new NbrLinkInfo(this, address);
+        NbrLinkInfo nbrLink = newLinkInfo(address);
         nbrLink.setCurrNormalizedLQ(lq);
+        nbrLink.setNbrLastHeard(System.currentTimeMillis());
        // neighborLinks.addElement(nbrLink);
-        neighborLinks.put(addressKey, nbrLink);
+        forgetEvicted(neighborLinks.put(nbrLink));
         //System.out.println("Added Link with Address " + IEEEAddress.toDottedHex(address) + " with Link Quality " + lq);
         return nbrLink;
     }
     
+
+    private void forgetEvicted(NbrLinkInfo evicted) {
+        if (evicted != null) {
+            neighborTypes.remove(evicted.getNbrAddress());
+        }
+    }
+
+    private NbrLinkInfo newLinkInfo(long address) {
+        return ConfigLinkParams.FIXED_POINT ? new FixedNbrLinkInfo(this, address) : new NbrLinkInfo(this, address);
+    }
        
     public NbrLinkInfo getNbrLinkInfoWithAddress(long address) {
-        Long addressKey = new Long(address);
-        NbrLinkInfo returnLink = null;
-        if (neighborLinks.containsKey(addressKey)) {
-            returnLink = (NbrLinkInfo)neighborLinks.get(addressKey);
-        }
-        return returnLink;
+        return neighborLinks.get(address);
     }
     
        
     /* Remove a link for a neighbor with a given address */
     public void removeLinkWithAddress(long address) {
-        Long addressKey = new Long(address);
-        if (neighborLinks.containsKey(addressKey)) {
-            neighborLinks.remove(addressKey);
-        }
+        neighborLinks.remove(address);
+        neighborTypes.remove(address);
     }
     
     
     /* To be called by Routing Manager */
     public double getCurrNormLQForAddress(long address) {
-        Long addressKey = new Long(address);
-        NbrLinkInfo nbrLInfo = (NbrLinkInfo)neighborLinks.get(addressKey);
+        NbrLinkInfo nbrLInfo = neighborLinks.get(address);
         double normLQI = 0.93;   // A typical value for links that are non-existent since
                                  // we will receive the RREQ/RREP before notifyPacket() is called
         if (nbrLInfo != null) {
+            nbrLInfo.rollOver(System.currentTimeMillis());
             normLQI = nbrLInfo.getCurrentLinkCost();
         }
         return normLQI;
     }
+
+    /* As getCurrNormLQForAddress(), as a Q16.16 value */
+    public int getCurrNormLQFixedForAddress(long address) {
+        NbrLinkInfo nbrLInfo = neighborLinks.get(address);
+        if (nbrLInfo == null) {
+            return TYPICAL_LQ_FIXED;
+        }
+        nbrLInfo.rollOver(System.currentTimeMillis());
+        return nbrLInfo.getCurrentLinkCostFixed();
+    }
+
+    /**
+     * Calculate the cost of a link from its quality and our node lifetime in Q16.16,
+     * as RREQ and RREP do in double: 1 / (SIGMA * linkLQ + (1 - SIGMA) * lifetime)
+     *
+     * @param linkLQ the link quality as returned by getCurrNormLQFixedForAddress()
+     * @return the link cost
+     */
+    public int calcLinkCostFixed(int linkLQ) {
+        int weight = FixedPoint.mul(ConfigLinkParams.SIGMA_FIXED, linkLQ) +
+                FixedPoint.mul(FixedPoint.ONE - ConfigLinkParams.SIGMA_FIXED, nodeLifetime.getNormNodeLifetimeFixed());
+        return weight > 0 ? FixedPoint.div(FixedPoint.ONE, weight) : Integer.MAX_VALUE;
+    }
     
     
     /* !!! For Testing */
     public void setCurrNormLQForAddress(long address, double normLQ) {
-        NbrLinkInfo nbrLInfo;
-        Long addressKey = new Long(address);
-        if (neighborLinks.containsKey(addressKey)) {
-            nbrLInfo = (NbrLinkInfo)neighborLinks.get(addressKey);
+        NbrLinkInfo nbrLInfo = neighborLinks.get(address);
+        if (nbrLInfo != null) {
             nbrLInfo.setCurrNormalizedLQ(normLQ);
         }
         else {
@@ -226,8 +272,7 @@ public class NodeLifeAndLinkMonitor extends Resource implements IPacketQualityLi
     
     /* To be called by Receiver upon receiving an LQREP packet */
     public void setNbrLQ(long address, double cost) {
-        Long addressKey = new Long(address);
-        NbrLinkInfo nbrLInfo = (NbrLinkInfo)neighborLinks.get(addressKey);
+        NbrLinkInfo nbrLInfo = neighborLinks.get(address);
         if (nbrLInfo != null) {
             nbrLInfo.setNbrLQ(cost);
             nbrLInfo.setOurNbrLQ(nbrLInfo.getCurrNormalizedLQ());
@@ -235,41 +280,71 @@ public class NodeLifeAndLinkMonitor extends Resource implements IPacketQualityLi
         }
     }
 
-    /* Function executed at the end of each slot duration expiry */
-    private void updateLinkInfo() {
-        long prevWindow = System.currentTimeMillis() - ConfigLinkParams.TIME_WINDOW;
-        NbrLinkInfo nbrLInfo;
+    /*
+     * Called by the LinkMonitorTimer at the end of each slot duration, on the
+     * timer wheel's thread. Closes the slot of links that have not been used,
+     * and checks on neighbors that have gone quiet.
+     * @return true to be called again after the next slot
+     */
+    boolean slotExpired() {
+        if (!listening) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        long prevWindow = now - ConfigLinkParams.TIME_WINDOW;
         nodeLifetime.updateBytesProcInSlot();
         nodeLifetime.calcNodeEnergyBurnRate();
-        /* Update all the avgslot values for the links */
-        if (!neighborLinks.isEmpty()) {
-            Enumeration en = neighborLinks.elements();
-            while (en.hasMoreElements()) {
-                nbrLInfo = (NbrLinkInfo)en.nextElement();
-                nbrLInfo.updateSlotAvgLQ();
-                //Change nextIndex after writing into Slot and firstIndex if wraparound occurs
-                
-                nbrLInfo.calcTimeWeightedLQ();
-//                System.out.println(IEEEAddress.toDottedHex(nbrLInfo.getNbrAddress()) +
-//                        " cost = " + (1.0/nbrLInfo.getCurrNormalizedLQ()) +
-//                        "  lqi = " + nbrLInfo.getCurrNormalizedLQ());
+        synchronized (neighborLinks) {
+            for (int i = 0; i < neighborLinks.size(); i++) {
+                NbrLinkInfo nbrLInfo = neighborLinks.getAt(i);
+                boolean rolledOver = nbrLInfo.rollOver(now);
                 // if haven't heard from neighbor or neighbor's LQ has changed by >5% check on them
-                if (sender != null && nbrLInfo.getNbrLastLQREQ() > 0 &&
-                    ((nbrLInfo.getNbrLastHeard() < prevWindow &&
-                      nbrLInfo.getNbrLastHeard() > (prevWindow - ConfigLinkParams.SLOT_SIZE)) ||
-                     Math.abs(nbrLInfo.getCurrNormalizedLQ() - nbrLInfo.getOurNbrLQ()) > 0.05)) {
-                    sender.sendNewLQREQ(new LQREQ(ourAddress, nbrLInfo.getNbrAddress(), nbrLInfo.getCurrNormalizedLQ()));
+                if (nbrLInfo.getNbrLastHeard() < prevWindow &&
+                        nbrLInfo.getNbrLastHeard() > (prevWindow - ConfigLinkParams.SLOT_SIZE)) {
+                    if (nbrLInfo.getNbrLastLQREQ() > 0) {
+                        sendLQREQ(nbrLInfo);
+                    }
+                } else if (rolledOver) {
+                    checkLinkChanged(nbrLInfo);
                 }
             }
         }
+        return true;
+    }
 
-        //System.out.println("slotAvgLQ is  " + slotAvgLQ[endIndex] + "\n");
-        
+    /* if neighbor's LQ has changed by >5% check on them */
+    private void checkLinkChanged(NbrLinkInfo nbrLInfo) {
+        if (nbrLInfo.getNbrLastLQREQ() > 0 && nbrLInfo.hasLQChanged()) {
+            sendLQREQ(nbrLInfo);
+        }
+    }
+
+    private void sendLQREQ(NbrLinkInfo nbrLInfo) {
+        Sender s = sender;
+        if (s != null && !nbrLInfo.isPassive()) {
+            s.sendNewLQREQ(new LQREQ(ourAddress, nbrLInfo.getNbrAddress(), nbrLInfo.getCurrNormalizedLQ()));
+        }
     }
     
-    public Hashtable getNeighborLinks() {
+    public NeighborTable getNeighborTable() {
         return neighborLinks;
     }
+
+    /**
+     * @deprecated use {@link #getNeighborTable()}
+     * @return a snapshot of the neighbor table, NbrLinkInfos keyed by Long address
+     */
+    @Deprecated
+    public Hashtable getNeighborLinks() {
+        Hashtable snapshot = new Hashtable();
+        synchronized (neighborLinks) {
+            for (int i = 0; i < neighborLinks.size(); i++) {
+                NbrLinkInfo nbrLInfo = neighborLinks.getAt(i);
+                snapshot.put(new Long(nbrLInfo.getNbrAddress()), nbrLInfo);
+            }
+        }
+        return snapshot;
+    }
     
     public NodeLifetime getNodeLifetime() {
         return nodeLifetime;
@@ -58,6 +58,7 @@ public class NodeLifetime {
     private long bytesRecvdWindowSum;
     private double burnRate;
     private double currNormExpLifetime;
+    private int currNormExpLifetimeFixed;    // used instead of the doubles with ConfigLinkParams.FIXED_POINT
             
             
     NodeLifetime(NodeLifeAndLinkMonitor linkM) {
@@ -72,15 +73,16 @@ public class NodeLifetime {
         bytesRecvdWindowSum = 0;
         burnRate = 0;
         currNormExpLifetime = 1.0;
+        currNormExpLifetimeFixed = FixedPoint.ONE;
     }
     
     
-    public void incBytesTransCount(int bytes) {
+    public synchronized void incBytesTransCount(int bytes) {
         numOfBytesTransInSlot += bytes;
     }
     
     
-    public void incBytesRecvdCount(int bytes) {
+    public synchronized void incBytesRecvdCount(int bytes) {
         numOfBytesRecvdInSlot += bytes;
     }
     
@@ -155,6 +157,10 @@ public class NodeLifetime {
 
             bytesTransWindowSum = slotBytesTransCount[endIndex] + bytesTransWindowSum;
             bytesRecvdWindowSum = slotBytesRecvdCount[endIndex] + bytesRecvdWindowSum;
+            if (ConfigLinkParams.FIXED_POINT) {
+                calcNormExpLifetimeFixed();
+                return;
+            }
             burnRate = (calcTransEnergyForBytes(bytesTransWindowSum) +
                             calcRecvEnergyForBytes(bytesRecvdWindowSum)) /
                             ConfigLinkParams.TIME_WINDOW; //uJoules per sec
@@ -173,10 +179,36 @@ public class NodeLifetime {
         
     }
     
+    /*
+     * The same calculation in Q16.16: the energy used in the window, in nJ, is
+     * compared with the energy of receiving at the maximum data rate for the
+     * whole window.
+     */
+    private void calcNormExpLifetimeFixed() {
+        long energy = (long)ENERGY_PER_BIT_TX * bytesTransWindowSum * 8 +
+                (long)ENERGY_PER_BIT_RX * bytesRecvdWindowSum * 8;
+        long maxEnergy = ConfigLinkParams.TIME_WINDOW / 1000 * ConfigLinkParams.MAX_DATA_RATE * (long)ENERGY_PER_BIT_RX;
+        int remainingBattFrac = FixedPoint.ONE;
+        if (!RadioFactory.isRunningOnHost()) {
+            IPowerController powerController = Spot.getInstance().getPowerController();
+            remainingBattFrac = FixedPoint.fromRatio(powerController.getVbatt(), (long)ConfigLinkParams.MAX_BATT_VOLT);
+        }
+        int lifetime = FixedPoint.mul(remainingBattFrac, FixedPoint.ONE - FixedPoint.fromRatio(energy, maxEnergy));
+        synchronized (this) {
+            currNormExpLifetimeFixed = lifetime;
+        }
+    }
    
     public double getNormNodeLifetime() {
         synchronized (this) {
-           return currNormExpLifetime; 
+           return ConfigLinkParams.FIXED_POINT ? FixedPoint.toDouble(currNormExpLifetimeFixed) : currNormExpLifetime;
+        }
+    }
+
+    /* As getNormNodeLifetime(), as a Q16.16 value */
+    public int getNormNodeLifetimeFixed() {
+        synchronized (this) {
+           return ConfigLinkParams.FIXED_POINT ? currNormExpLifetimeFixed : FixedPoint.fromDouble(currNormExpLifetime);
         }
     }
 }
@@ -28,6 +28,7 @@ package com.sun.spot.peripheral.radio.mhrp.lqrp.messages;
 import com.sun.spot.peripheral.radio.mhrp.lqrp.LQRPManager;
 import com.sun.spot.peripheral.radio.mhrp.lqrp.Constants;
 import com.sun.spot.peripheral.radio.mhrp.lqrp.linkParams.ConfigLinkParams;
+import com.sun.spot.peripheral.radio.mhrp.lqrp.linkParams.FixedPoint;
 import com.sun.spot.peripheral.radio.mhrp.lqrp.linkParams.NodeLifeAndLinkMonitor;
 import com.sun.spot.util.Utils;
 
@@ -150,12 +151,20 @@ public class RREP extends LQRPMessage {
      */
     public double updateRouteCostToDest(long nextHop) {
         double cost;
-        double linkLQ = linkM.getCurrNormLQForAddress(nextHop);
-        if (linkLQ < ConfigLinkParams.THRESH_LOW_LQI) {
-            lowLQlinkCount++;
+        if (ConfigLinkParams.FIXED_POINT) {
+            int linkLQ = linkM.getCurrNormLQFixedForAddress(nextHop);
+            if (linkLQ < ConfigLinkParams.THRESH_LOW_LQI_FIXED) {
+                lowLQlinkCount++;
+            }
+            cost = FixedPoint.toDouble(linkM.calcLinkCostFixed(linkLQ));
+        } else {
+            double linkLQ = linkM.getCurrNormLQForAddress(nextHop);
+            if (linkLQ < ConfigLinkParams.THRESH_LOW_LQI) {
+                lowLQlinkCount++;
+            }
+            cost = 1.0/(ConfigLinkParams.SIGMA * linkLQ +
+                           (1.0 - ConfigLinkParams.SIGMA) * linkM.getNodeLifetime().getNormNodeLifetime());
         }
-        cost = 1.0/(ConfigLinkParams.SIGMA * linkLQ +
-                       (1.0 - ConfigLinkParams.SIGMA) * linkM.getNodeLifetime().getNormNodeLifetime());
         //System.out.println("UpdateRouteCostToDest : " + cost);
         routeCostToDest += cost;
         revLastHopCost = cost;
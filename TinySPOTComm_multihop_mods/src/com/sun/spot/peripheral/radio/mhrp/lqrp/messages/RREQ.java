@@ -27,6 +27,7 @@ package com.sun.spot.peripheral.radio.mhrp.lqrp.messages;
 import com.sun.spot.peripheral.radio.mhrp.lqrp.LQRPManager;
 import com.sun.spot.peripheral.radio.mhrp.lqrp.Constants;
 import com.sun.spot.peripheral.radio.mhrp.lqrp.linkParams.ConfigLinkParams;
+import com.sun.spot.peripheral.radio.mhrp.lqrp.linkParams.FixedPoint;
 import com.sun.spot.peripheral.radio.mhrp.lqrp.linkParams.NodeLifeAndLinkMonitor;
 import com.sun.spot.peripheral.radio.mhrp.lqrp.request.RequestTable;
 import com.sun.spot.peripheral.radio.mhrp.lqrp.routing.RoutingTable;
@@ -188,12 +189,20 @@ public class RREQ extends LQRPMessage {
      */
     public double updateRouteCost(long lastHop) {
         double cost;
-        double linkLQ = linkM.getCurrNormLQForAddress(lastHop);
-        if (linkLQ < ConfigLinkParams.THRESH_LOW_LQI) {
-            lowLQlinkCount++;
+        if (ConfigLinkParams.FIXED_POINT) {
+            int linkLQ = linkM.getCurrNormLQFixedForAddress(lastHop);
+            if (linkLQ < ConfigLinkParams.THRESH_LOW_LQI_FIXED) {
+                lowLQlinkCount++;
+            }
+            cost = FixedPoint.toDouble(linkM.calcLinkCostFixed(linkLQ));
+        } else {
+            double linkLQ = linkM.getCurrNormLQForAddress(lastHop);
+            if (linkLQ < ConfigLinkParams.THRESH_LOW_LQI) {
+                lowLQlinkCount++;
+            }
+            cost = 1.0/(ConfigLinkParams.SIGMA * linkLQ +
+                           (1 - ConfigLinkParams.SIGMA)*linkM.getNodeLifetime().getNormNodeLifetime());
         }
-        cost = 1.0/(ConfigLinkParams.SIGMA * linkLQ +
-                       (1 - ConfigLinkParams.SIGMA)*linkM.getNodeLifetime().getNormNodeLifetime());
         //System.out.println("Update Route Cost: Link Cost for " + IEEEAddress.toDottedHex(lastHop) + " is " + cost);
         routeCost += cost;
         return cost;
@@ -28,7 +28,6 @@ package com.sun.spot.peripheral.radio.mhrp.lqrp.request;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Vector;
-import com.sun.spot.peripheral.radio.RadioFactory;
 import com.sun.spot.peripheral.radio.routing.RouteInfo;
 import com.sun.spot.peripheral.radio.routing.SortedList;
 import com.sun.spot.peripheral.radio.mhrp.lqrp.Constants;
@@ -51,7 +50,6 @@ public class RequestTable extends Resource {
     private static final Object RREQlock = new Integer(0);
     private static int currentRREQID;
     private long ourAddress;
-    private Object cleanerMonitor;
     private static RequestTable instance;
     private RequestTableCleaner cleaner;
     
@@ -63,18 +61,18 @@ public class RequestTable extends Resource {
         timeoutList = new SortedList();
         table = new Hashtable();
         currentRREQID = rnd.nextInt(65535) + 1;  // start with a limited random seq number in [1,65535]
-        cleanerMonitor = new Object();
     }
 
     
     public void start() {
         cleaner = new RequestTableCleaner(this);
-        RadioFactory.setAsDaemonThread(cleaner);
-        cleaner.start();
+        if (needsCleaning()) {
+            cleaner.wakeUp();
+        }
     }
     
     public void stop() {
-        cleaner.stopThread();
+        cleaner.stop();
     }
     
 
@@ -341,23 +339,18 @@ public class RequestTable extends Resource {
     }
             
     private void notifyCleaner() {
-        synchronized (cleanerMonitor) {
-            cleanerMonitor.notifyAll();
+        RequestTableCleaner c = cleaner;
+        if (c != null) {
+            c.wakeUp();
         }
     }
     
-    void waitUntilTableNotEmpty() {
-        while (timeoutList.getFirstElement() == null) {
-            synchronized (cleanerMonitor) {
-                try {
-                    cleanerMonitor.wait();
-                } catch (InterruptedException e) {
-                    // ignore & continue
-                }
-            }
-            if (Thread.currentThread().getPriority() == Thread.MIN_PRIORITY) {
-                break;
-            }
+    /**
+     * @return true while the table holds a request
+     */
+    boolean needsCleaning() {
+        synchronized (table) {
+            return timeoutList.getFirstElement() != null;
         }
     }
     
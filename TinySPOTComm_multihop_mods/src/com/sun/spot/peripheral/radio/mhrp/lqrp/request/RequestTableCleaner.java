@@ -25,45 +25,46 @@
 package com.sun.spot.peripheral.radio.mhrp.lqrp.request;
 
 import com.sun.spot.peripheral.radio.mhrp.lqrp.Constants;
+import com.sun.spot.service.TimerWheelTask;
 
 /**
  * @author Allen Ajit George
  * @version 0.1
  */
-public class RequestTableCleaner extends Thread {
+public class RequestTableCleaner extends TimerWheelTask {
         
     private RequestTable requestTable;
     private boolean keepRunning = true;
     
     /**
-     * This thread is responsible for calling the clean table method() of the
+     * This task is responsible for calling the clean table method() of the
      * request table all Constants.REQUEST_TABLE_CLEANER_SLEEP_TIME miliseconds
-     * (in the current implementation this is 8000 milisecs
+     * while the table holds requests. It runs on the shared timer wheel
      */
     public RequestTableCleaner(RequestTable requestTable) {
-    	super("RequestTableCleaner");
         this.requestTable = requestTable;
     }
     
     public void run() {
-        while (keepRunning) {
-            try {
-            	requestTable.waitUntilTableNotEmpty();
-                if (keepRunning) {
-                    requestTable.cleanTable();
-                }
-                if (keepRunning) {
-                    Thread.sleep(Constants.REQUEST_TABLE_CLEANER_SLEEP_TIME);
-                }
-            } catch (InterruptedException e) {
-                // ignore & continue
+        if (keepRunning) {
+            requestTable.cleanTable();
+            if (keepRunning && requestTable.needsCleaning()) {
+                schedule(Constants.REQUEST_TABLE_CLEANER_SLEEP_TIME);
             }
         }
     }
     
-    public void stopThread() {
+    /**
+     * start cleaning the table, unless it is already being cleaned
+     */
+    public void wakeUp() {
+        if (keepRunning && !isScheduled()) {
+            schedule(Constants.REQUEST_TABLE_CLEANER_SLEEP_TIME);
+        }
+    }
+    
+    public void stop() {
         keepRunning = false;
-        this.setPriority(Thread.MIN_PRIORITY);
-        this.interrupt();
+        cancel();
     }
 }
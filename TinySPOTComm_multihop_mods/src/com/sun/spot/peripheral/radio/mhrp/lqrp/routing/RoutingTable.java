@@ -26,9 +26,9 @@
 package com.sun.spot.peripheral.radio.mhrp.lqrp.routing;
 
 import java.util.Enumeration;
-import java.util.Hashtable;
 import java.util.Vector;
 import com.sun.spot.peripheral.radio.routing.RouteInfo;
+import com.sun.spot.peripheral.radio.routing.interfaces.IRouteChangeListener;
 import com.sun.spot.peripheral.radio.mhrp.lqrp.Constants;
 import com.sun.spot.peripheral.radio.mhrp.lqrp.messages.RREP;
 import com.sun.spot.peripheral.radio.mhrp.lqrp.messages.RREQ;
@@ -36,6 +36,7 @@ import com.sun.spot.resources.Resource;
 import com.sun.spot.resources.Resources;
 import com.sun.spot.util.Debug;
 import com.sun.spot.util.IEEEAddress;
+import com.sun.spot.util.LongHashtable;
 
 /**
  * An object that represents a routing table for the mesh
@@ -44,7 +45,8 @@ import com.sun.spot.util.IEEEAddress;
  */
 public class RoutingTable extends Resource {
     
-    private final Hashtable table;
+    private final LongHashtable table;
+    private final Vector changeListeners = new Vector();
     private long ourAddress;
     private static RoutingTable instance;
     
@@ -52,7 +54,7 @@ public class RoutingTable extends Resource {
      * construct a new routing table
      */
     private RoutingTable() {
-        table = new Hashtable();
+        table = new LongHashtable();
     }
     
     public void start() {
@@ -85,7 +87,7 @@ public class RoutingTable extends Resource {
      */
     public RoutingEntry getEntry(long address) {
         synchronized (table) {
-            RoutingEntry entry = (RoutingEntry) table.get(new Long(address));
+            RoutingEntry entry = (RoutingEntry) table.get(address);
             if (entry != null) {
                 // check if entry has expired
                 long now = System.currentTimeMillis();
@@ -97,7 +99,8 @@ public class RoutingTable extends Resource {
                                 IEEEAddress.toDottedHex(entry.nextHopMACAddress) +
                                 " at " + now);
                     } else {
-                        table.remove(new Long(address));
+                        table.remove(address);
+                        notifyRouteChanged(address);
                         Debug.print("[LQRP] remove entry route to " +
                                 IEEEAddress.toDottedHex(address) + " through " +
                                 IEEEAddress.toDottedHex(entry.nextHopMACAddress) +
@@ -267,7 +270,8 @@ public class RoutingTable extends Resource {
                             // Copy the users from the old list to the new list
                             copyUserList(existingEntry.routeUsers, newEntry.routeUsers);
                         }
-                        table.put(newEntry.key, newEntry);
+                        table.put(newEntry.key.longValue(), newEntry);
+                        notifyRouteChanged(newEntry.key.longValue());
 //                        Debug.print("doTableAddition: added route for "
 //                                + IEEEAddress.toDottedHex(key.longValue())
 //                                + " through "
@@ -290,10 +294,12 @@ public class RoutingTable extends Resource {
                         // Copy the users from the old list to the new list
                         copyUserList(existingEntry.routeUsers, newEntry.routeUsers);
                     }
-                    table.put(newEntry.key, newEntry);
+                    table.put(newEntry.key.longValue(), newEntry);
+                    notifyRouteChanged(newEntry.key.longValue());
                 }
             } else {
-                table.put(newEntry.key, newEntry);
+                table.put(newEntry.key.longValue(), newEntry);
+                notifyRouteChanged(newEntry.key.longValue());
 //                Debug.print("doTableAddition: new entry added route for "
 //                        + IEEEAddress.toDottedHex(key.longValue()) + " through "
 //                        + IEEEAddress.toDottedHex(newEntry.nextHopMACAddress)
@@ -348,11 +354,10 @@ public class RoutingTable extends Resource {
      * @param destination destination address of route entry
      */
     public void deactivateRoute(long originator, long destination) {
-        Long wantedAddress = new Long(destination);
-        
         RoutingEntry entry;
-        entry = (RoutingEntry) table.remove(wantedAddress);
+        entry = (RoutingEntry) table.remove(destination);
         if (entry != null) {
+            notifyRouteChanged(destination);
             Debug.print("[LQRP] deactivatingRoute (remove entry): " + IEEEAddress.toDottedHex(entry.key.longValue()) +
                         " through " + IEEEAddress.toDottedHex(entry.nextHopMACAddress) +
                         " user " + IEEEAddress.toDottedHex(originator) +
@@ -382,7 +387,8 @@ public class RoutingTable extends Resource {
                 if (entry.nextHopMACAddress == nextHop) {
                     Debug.print("[LQRP] deactivatingRoute: " + IEEEAddress.toDottedHex(entry.key.longValue()) +
                             " through " + IEEEAddress.toDottedHex(entry.nextHopMACAddress));
-                    table.remove(entry.key);
+                    table.remove(entry.key.longValue());
+                    notifyRouteChanged(entry.key.longValue());
                 }
             }
         }
@@ -397,10 +403,9 @@ public class RoutingTable extends Resource {
      */
     public Vector getAllEntries(){
         Vector v = new Vector();
-        Enumeration en = table.keys();
-        while (en.hasMoreElements()) {
-            Long addr = (Long) en.nextElement();
-            RoutingEntry re = getEntry(addr.longValue());   // flush expired routes
+        long[] addrs = table.keys();
+        for (int i = 0; i < addrs.length; i++) {
+            RoutingEntry re = getEntry(addrs[i]);   // flush expired routes
             if (re != null) {
                 v.addElement(re);
             }
@@ -422,6 +427,28 @@ public class RoutingTable extends Resource {
         }
         
     }
+    /**
+     * Registers a listener that is notified whenever a route is added, replaced or removed
+     * @param listener the listener to add
+     */
+    public void addRouteChangeListener(IRouteChangeListener listener) {
+        changeListeners.addElement(listener);
+    }
+
+    /**
+     * Remove a listener that was registered for routing table changes
+     * @param listener the listener to remove
+     */
+    public void removeRouteChangeListener(IRouteChangeListener listener) {
+        changeListeners.removeElement(listener);
+    }
+
+    private void notifyRouteChanged(long destination) {
+        for (int i = 0; i < changeListeners.size(); i++) {
+            ((IRouteChangeListener) changeListeners.elementAt(i)).routeChanged(destination);
+        }
+    }
+
     /**
      * sets our IEEE Address
      * @param ourAddress our IEEE Address as a long
@@ -0,0 +1,39 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+
+package com.sun.spot.peripheral.radio.proxy;
+
+import com.sun.spot.interisolate.NumberReplyEnvelope;
+import com.sun.spot.interisolate.ReplyEnvelope;
+import com.sun.spot.peripheral.radio.ConnectionID;
+import com.sun.spot.peripheral.radio.IRadioProtocolManager;
+
+/**
+ * @deprecated No longer needed: all Isolates now use a global radio resource.
+ */
+class GetDroppedPacketCountCommand extends RadioRequestEnvelope {
+	private ConnectionID cid;
+	
+	public GetDroppedPacketCountCommand(ConnectionID cid) {
+		this.cid = cid;
+	}
+
+	public ReplyEnvelope execute(IRadioProtocolManager radioProtocolManager) {
+		int result = radioProtocolManager.getDroppedPacketCount(cid);
+		return new NumberReplyEnvelope(getUid(), result);
+	}
+}
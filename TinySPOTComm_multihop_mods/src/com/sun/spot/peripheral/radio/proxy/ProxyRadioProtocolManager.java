@@ -104,4 +104,15 @@ public class ProxyRadioProtocolManager implements IRadioProtocolManager {
 		resultEnvelope.checkForRuntimeException();
 		return ((BooleanReplyEnvelope)resultEnvelope).getBooleanContents();
 	}
+
+	public void setReceiveQueueLimit(ConnectionID cid, int capacity, int overflowPolicy, long blockTimeout) {
+		ReplyEnvelope resultEnvelope = requestSender.send(new SetReceiveQueueLimitCommand(cid, capacity, overflowPolicy, blockTimeout));
+		resultEnvelope.checkForRuntimeException();
+	}
+
+	public int getDroppedPacketCount(ConnectionID cid) {
+		ReplyEnvelope resultEnvelope = requestSender.send(new GetDroppedPacketCountCommand(cid));
+		resultEnvelope.checkForRuntimeException();
+		return ((NumberReplyEnvelope)resultEnvelope).getIntContents();
+	}
 }
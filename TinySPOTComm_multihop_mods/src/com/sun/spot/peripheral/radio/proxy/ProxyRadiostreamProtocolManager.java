@@ -62,6 +62,10 @@ public class ProxyRadiostreamProtocolManager extends ProxyRadioProtocolManager i
 		}
 	}
 
+	public void setCongestionControl(ConnectionID outConnectionId, boolean enabled) {
+		throw new IllegalStateException("Congestion control cannot be configured between isolates");
+	}
+
 	public ConnectionID addServerConnection(byte portNo) {
 		ReplyEnvelope resultEnvelope = requestSender.send(new AddServerConnectionCommand(portNo));
 		resultEnvelope.checkForRuntimeException();
@@ -19,6 +19,8 @@ package com.sun.spot.peripheral.radio.proxy;
 import com.sun.spot.interisolate.ReplyEnvelope;
 import com.sun.spot.peripheral.radio.ConnectionID;
 import com.sun.spot.peripheral.radio.ITinyOSRadioProtocolManager;
+import com.sun.spot.peripheral.radio.IRetryPolicy;
+import com.sun.spot.peripheral.radio.IncomingData;
 
 /**
  * @author Daniel van den Akker
@@ -54,4 +56,47 @@ public class ProxyTinyOSRadioProtocolManager extends ProxyRadioProtocolManager i
 		return (ConnectionID) resultEnvelope.getContents();
 	}
 
+	public int receivePackets(ConnectionID cid, IncomingData[] into, int max, long timeout)
+	{
+		// there is no bulk command, so fetch the packets one at a time
+		if (max > into.length)
+		{
+			max = into.length;
+		}
+		int n = 0;
+		if (max > 0)
+		{
+			IncomingData first = timeout < 0 ? receivePacket(cid) : receivePacket(cid, timeout);
+			if (first != null)
+			{
+				into[n++] = first;
+				while (n < max && packetsAvailable(cid))
+				{
+					IncomingData next = receivePacket(cid, 0);
+					if (next == null)
+					{
+						break;
+					}
+					into[n++] = next;
+				}
+			}
+		}
+		return n;
+	}
+
+	public void setDirectReceive(ConnectionID cid, boolean direct)
+	{
+		// packets are always copied when they are passed between isolates
+	}
+
+	public void setRetryPolicy(ConnectionID cid, IRetryPolicy policy)
+	{
+		throw new IllegalStateException("Retry policies cannot be passed between isolates");
+	}
+
+	public void setFragmentation(ConnectionID cid, int maxPayloadLength)
+	{
+		throw new IllegalStateException("Fragmentation cannot be configured between isolates");
+	}
+
 }
@@ -0,0 +1,45 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+
+package com.sun.spot.peripheral.radio.proxy;
+
+import com.sun.spot.interisolate.ReplyEnvelope;
+import com.sun.spot.interisolate.VoidReplyEnvelope;
+import com.sun.spot.peripheral.radio.ConnectionID;
+import com.sun.spot.peripheral.radio.IRadioProtocolManager;
+
+/**
+ * @deprecated No longer needed: all Isolates now use a global radio resource.
+ */
+class SetReceiveQueueLimitCommand extends RadioRequestEnvelope {
+	private ConnectionID cid;
+	private int capacity;
+	private int overflowPolicy;
+	private long blockTimeout;
+	
+	public SetReceiveQueueLimitCommand(ConnectionID cid, int capacity, int overflowPolicy, long blockTimeout) {
+		this.cid = cid;
+		this.capacity = capacity;
+		this.overflowPolicy = overflowPolicy;
+		this.blockTimeout = blockTimeout;
+	}
+
+	public ReplyEnvelope execute(IRadioProtocolManager radioProtocolManager) {
+		radioProtocolManager.setReceiveQueueLimit(cid, capacity, overflowPolicy, blockTimeout);
+		return new VoidReplyEnvelope(getUid());
+	}
+}
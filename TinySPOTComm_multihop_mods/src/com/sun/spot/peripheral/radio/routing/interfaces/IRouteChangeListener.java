@@ -0,0 +1,34 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+package com.sun.spot.peripheral.radio.routing.interfaces;
+
+/**
+ * Interface implemented by classes that keep routes obtained from a routing
+ * manager, such as the next hop cache of LowPan, and so need to know when the
+ * routing manager's table changes.
+ */
+public interface IRouteChangeListener {
+    /**
+     * Called by the routing manager whenever the route to a destination is
+     * added, replaced or removed. May be called on any thread, possibly while
+     * the routing table is locked, so it must return quickly and must not call
+     * back into the routing manager.
+     *
+     * @param destination the final destination of the route that changed
+     */
+    public void routeChanged(long destination);
+}
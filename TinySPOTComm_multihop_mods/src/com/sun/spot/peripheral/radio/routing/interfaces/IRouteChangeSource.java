@@ -0,0 +1,40 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+package com.sun.spot.peripheral.radio.routing.interfaces;
+
+/**
+ * Optionally implemented by a routing manager that can report changes to its
+ * routing table. Users of routes, such as the next hop cache of LowPan, check
+ * for this interface and otherwise fall back to asking for their routes again
+ * from time to time.
+ */
+public interface IRouteChangeSource {
+    /**
+     * Registers a listener that is notified whenever a route is added,
+     * replaced or removed
+     *
+     * @param listener object that is notified when the routing table changes
+     */
+    public void addRouteChangeListener(IRouteChangeListener listener);
+
+    /**
+     * Remove the specified listener that was registered for routing table changes
+     *
+     * @param listener object that is notified when the routing table changes
+     */
+    public void removeRouteChangeListener(IRouteChangeListener listener);
+}
@@ -29,13 +29,16 @@ import com.sun.spot.peripheral.radio.ILowPan;
 import com.sun.spot.peripheral.radio.mhrp.interfaces.IMHEventListener;
 import com.sun.spot.peripheral.radio.routing.RouteInfo;
 import com.sun.spot.peripheral.radio.routing.RouteTable;
+import com.sun.spot.peripheral.radio.routing.interfaces.IRouteChangeListener;
+import com.sun.spot.peripheral.radio.routing.interfaces.IRouteChangeSource;
 import com.sun.spot.peripheral.radio.routing.interfaces.IRoutingManager;
 import com.sun.spot.peripheral.radio.routing.interfaces.RouteEventClient;
 import com.sun.spot.resources.Resources;
 import com.sun.spot.service.BasicService;
 import com.sun.spot.service.IService;
+import com.sun.spot.util.LongHashtable;
+import com.sun.spot.util.LongIntHashtable;
 import java.util.Enumeration;
-import java.util.Hashtable;
 
 
 /**
@@ -54,14 +57,14 @@ import java.util.Hashtable;
 
 
 
-public class SingleHopManager extends BasicService implements IRoutingManager {
+public class SingleHopManager extends BasicService implements IRoutingManager, IRouteChangeSource {
     private int state;
     private String name = "SingleHopManager";
     private static SingleHopManager instance;
     private long ourAddress;
     private ILowPan lowpan;
-    private Hashtable routes;
-    private Hashtable invalidRoutes;
+    private LongHashtable routes;
+    private LongIntHashtable invalidRoutes;
     
     private static final int MAX_FAILURES = 3;
     /**
@@ -70,8 +73,8 @@ public class SingleHopManager extends BasicService implements IRoutingManager {
      * communications to nodes within a single radio hop away.
      */
     public SingleHopManager() {
-        routes = new Hashtable();
-        invalidRoutes = new Hashtable();
+        routes = new LongHashtable();
+        invalidRoutes = new LongIntHashtable();
         
     }
     /**
@@ -111,22 +114,20 @@ public class SingleHopManager extends BasicService implements IRoutingManager {
      * @return always returns success
      */
     public synchronized boolean findRoute(long address, RouteEventClient eventClient, Object uniqueKey) {
-        Integer fails = (Integer)invalidRoutes.get(new Long(address));
-        RouteInfo info = (RouteInfo)routes.get(new Long(address));
+        int fails = invalidRoutes.get(address, 0);
+        RouteInfo info = (RouteInfo)routes.get(address);
         
-        if (fails != null) {
-            if (fails.intValue() >= MAX_FAILURES) {
-//                System.out.println("Return an invalid route: fails=" + fails.toString());
-                info = new RouteInfo(address, -1, 0); // the answer is an invalid route
-                invalidRoutes.remove(new Long(address)); // reset count
-                eventClient.routeFound(info, uniqueKey);
-                return true;
-            }
+        if (fails >= MAX_FAILURES) {
+//            System.out.println("Return an invalid route: fails=" + fails);
+            info = new RouteInfo(address, -1, 0); // the answer is an invalid route
+            invalidRoutes.remove(address); // reset count
+            eventClient.routeFound(info, uniqueKey);
+            return true;
         }
         
         if (info == null)  {
             info = new RouteInfo(address, address, 1); // the answer is directly 1 hop away
-            routes.put(new Long(address), info);
+            routes.put(address, info);
         }
         eventClient.routeFound(info, uniqueKey);
         return true;
@@ -169,6 +170,25 @@ public class SingleHopManager extends BasicService implements IRoutingManager {
         // Routes don't change - so we ignore this
     }
 
+    /**
+     * Registers a listener that is notified whenever a route is added,
+     * replaced or removed
+     *
+     * @param listener object that is notified when the routing table changes
+     */
+    public void addRouteChangeListener(IRouteChangeListener listener) {
+        // The next hop is always the destination - so we ignore this
+    }
+
+    /**
+     * Remove the specified listener that was registered for routing table changes
+     *
+     * @param listener object that is notified when the routing table changes
+     */
+    public void removeRouteChangeListener(IRouteChangeListener listener) {
+        // The next hop is always the destination - so we ignore this
+    }
+
     /**
      * Nodes are always 1 hop away.  Mark a node unreachable if it isn't
      * @param originator node that requested the route
@@ -178,14 +198,8 @@ public class SingleHopManager extends BasicService implements IRoutingManager {
     public synchronized boolean invalidateRoute(long originator, long destination) {
         
 //      System.out.println("Mark route invalid");
-        Long key = new Long(destination);
-        routes.remove(key);
-        Integer val = (Integer)invalidRoutes.get(key);
-        if (val == null) {
-            invalidRoutes.put(key, new Integer(1));
-        } else {
-            invalidRoutes.put(key, new Integer(val.intValue()+1));
-        }
+        routes.remove(destination);
+        invalidRoutes.put(destination, invalidRoutes.get(destination, 0) + 1);
         
         // routes.remove(new Long(destination));
         return true;
@@ -209,10 +223,10 @@ public class SingleHopManager extends BasicService implements IRoutingManager {
      * @return returns a route info object where nexthop is the destination and is 1 hop away
      */
     public synchronized RouteInfo getRouteInfo(long address) {
-        RouteInfo info = (RouteInfo)routes.get(new Long(address));
+        RouteInfo info = (RouteInfo)routes.get(address);
         if (info == null)  {
             info = new RouteInfo(address, address, 1); // the answer is directly 1 hop away
-            routes.put(new Long(address), info);
+            routes.put(address, info);
         }
         return info;
     }
@@ -52,11 +52,17 @@ public class Protocol extends ConnectionBase {
 		super ();
 	}
 
-	public Connection open(String protocolName, String name, int mode, boolean timeouts) {
+	public Connection open(String protocolName, String name, int mode, boolean timeouts) throws IOException {
 		int portNoAsInt = 0; // Special value if no port requested
 		
 		//System.out.println("Connection.open called");
 		name = name.substring(2); // strip the two /s
+		String params = null;
+		int paramStart = name.indexOf('?');
+		if (paramStart >= 0) {
+			params = name.substring(paramStart);
+			name = name.substring(0, paramStart);
+		}
 		int split = name.indexOf(":");
 		
 		if (split >= 0 && split != (name.length()-1)) {
@@ -75,6 +81,14 @@ public class Protocol extends ConnectionBase {
 		String addr = name.substring(0, split);
 
 		conn = new RadiogramConnImpl(addr,portNo,isServer,timeouts);
+		if (params != null) {
+			try {
+				conn.setURLParameters(params);
+			} catch (RuntimeException e) {
+				conn.close();
+				throw e;
+			}
+		}
 		return conn;
 	}
 
@@ -38,6 +38,34 @@ public abstract class RadioConnectionBase extends ConnectionBase implements ITim
 	 * Default timeout in milliseconds
 	 */
 	public static final long DEFAULT_TIMEOUT = 10000;
+
+	/**
+	 * Receive queue capacity meaning that the queue is not limited
+	 */
+	public static final int UNLIMITED_QUEUE = 0;
+
+	/**
+	 * Overflow policy: discard a packet that arrives while the receive queue is full
+	 */
+	public static final int OVERFLOW_DROP_NEWEST = 0;
+
+	/**
+	 * Overflow policy: discard the oldest queued packet to make room for one that arrives
+	 * while the receive queue is full
+	 */
+	public static final int OVERFLOW_DROP_OLDEST = 1;
+
+	/**
+	 * Overflow policy: hold up the radio stack for up to the block timeout until a packet
+	 * is read from the full receive queue, then discard the new packet if there is still
+	 * no room. While it waits no other packets are received, so keep the timeout short.
+	 */
+	public static final int OVERFLOW_BLOCK = 2;
+
+	/**
+	 * Default block timeout in milliseconds for {@link #OVERFLOW_BLOCK}
+	 */
+	public static final long DEFAULT_BLOCK_TIMEOUT = 20;
 	
 	private long timeout;
 
@@ -64,4 +92,79 @@ public abstract class RadioConnectionBase extends ConnectionBase implements ITim
 		return timeout;
 	}
 
+	/**
+	 * Limit the number of received packets queued for this connection. By default the
+	 * queue is not limited, so a reader that falls behind makes it grow until memory
+	 * runs out. Connections that do not queue received packets throw an
+	 * IllegalStateException.
+	 *
+	 * @param capacity the maximum number of queued packets, or {@link #UNLIMITED_QUEUE}
+	 * @param overflowPolicy one of {@link #OVERFLOW_DROP_NEWEST}, {@link #OVERFLOW_DROP_OLDEST}
+	 * or {@link #OVERFLOW_BLOCK}
+	 * @param blockTimeout the maximum time in milliseconds to wait for room with {@link #OVERFLOW_BLOCK}
+	 */
+	public void setReceiveQueueLimit(int capacity, int overflowPolicy, long blockTimeout) {
+		throw new IllegalStateException("This connection does not queue received packets");
+	}
+
+	/**
+	 * @return the number of received packets discarded because the receive queue was full
+	 */
+	public int getDroppedPacketCount() {
+		return 0;
+	}
+
+	/**
+	 * Apply the parameters given at the end of the URL passed to Connector.open, for example
+	 * "?queue=64&amp;overflow=oldest". The parameters are:
+	 * <ul>
+	 * <li>queue - the receive queue capacity, 0 for no limit</li>
+	 * <li>overflow - the overflow policy: newest, oldest or block</li>
+	 * <li>blocktimeout - the block timeout in milliseconds</li>
+	 * </ul>
+	 *
+	 * @param params the parameters, starting with '?'
+	 * @see #setReceiveQueueLimit(int, int, long)
+	 */
+	public void setURLParameters(String params) {
+		if (params.length() == 0 || params.charAt(0) != '?') {
+			throw new IllegalArgumentException("Unrecognised URL parameters: " + params);
+		}
+		int capacity = UNLIMITED_QUEUE;
+		int overflowPolicy = OVERFLOW_DROP_NEWEST;
+		long blockTimeout = DEFAULT_BLOCK_TIMEOUT;
+		int start = 1;
+		while (start < params.length()) {
+			int end = params.indexOf('&', start);
+			if (end < 0) {
+				end = params.length();
+			}
+			int split = params.indexOf('=', start);
+			if (split < 0 || split > end) {
+				throw new IllegalArgumentException("Unrecognised URL parameter: " + params.substring(start, end));
+			}
+			String key = params.substring(start, split);
+			String value = params.substring(split + 1, end);
+			if (key.equalsIgnoreCase("queue")) {
+				capacity = Integer.parseInt(value);
+			} else if (key.equalsIgnoreCase("overflow")) {
+				if (value.equalsIgnoreCase("newest")) {
+					overflowPolicy = OVERFLOW_DROP_NEWEST;
+				} else if (value.equalsIgnoreCase("oldest")) {
+					overflowPolicy = OVERFLOW_DROP_OLDEST;
+				} else if (value.equalsIgnoreCase("block")) {
+					overflowPolicy = OVERFLOW_BLOCK;
+				} else {
+					throw new IllegalArgumentException("Unrecognised overflow policy: " + value);
+				}
+			} else if (key.equalsIgnoreCase("blocktimeout")) {
+				blockTimeout = Long.parseLong(value);
+			} else {
+				throw new IllegalArgumentException("Unrecognised URL parameter: " + key);
+			}
+			start = end + 1;
+		}
+		setReceiveQueueLimit(capacity, overflowPolicy, blockTimeout);
+	}
+
 }
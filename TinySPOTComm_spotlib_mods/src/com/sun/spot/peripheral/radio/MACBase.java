@@ -81,6 +81,7 @@ abstract class MACBase extends Resource implements I802_15_4_MAC, IProprietaryMA
     protected long extendedAddress;
     protected boolean rxOnWhenIdle;
     protected Queue dataQueue;
+    private final RadioPacketPool packetPool = RadioPacketPool.getInstance();
     private Random random;
     protected int channelAccessFailure = 0;
     private int rxError = 0;
@@ -260,6 +261,7 @@ abstract class MACBase extends Resource implements I802_15_4_MAC, IProprietaryMA
         }
 //		Utils.log("got dsn =" + internalRP.getDataSequenceNumber() + " " + System.currentTimeMillis());
         rp.copyFrom(internalRP);
+        packetPool.release(internalRP);
         if (showUse) {
             if (receiveLed == null) {
                 receiveLed = Spot.getInstance().getGreenLed();
@@ -278,7 +280,7 @@ abstract class MACBase extends Resource implements I802_15_4_MAC, IProprietaryMA
     public synchronized void mlmeReset(boolean resetAttribs) {
         // empty queues
         while (!dataQueue.isEmpty()) {
-            dataQueue.get();
+            packetPool.release((RadioPacket) dataQueue.get());
         }
         if (resetAttribs) {
             resetAttributes();
@@ -458,8 +460,8 @@ abstract class MACBase extends Resource implements I802_15_4_MAC, IProprietaryMA
      *
      * The ReceiveThread class loops around reading packets from the physical layer
      * and queuing them for despatch to our clients. It copies their contents into
-     * RadioPackets supplied by our clients and manages a pool locally so that we
-     * minimise our memory allocations.
+     * RadioPackets supplied by our clients and returns its own packets to the
+     * RadioPacketPool so that we minimise our memory allocations.
      */
     private class ReceiveThread extends Thread {
 
@@ -477,7 +479,8 @@ abstract class MACBase extends Resource implements I802_15_4_MAC, IProprietaryMA
         
         private void receiveAll() {  // make sure any changes get mirrored in receiveWithFilter()
             while (true) {
-                RadioPacket recvPacket = RadioPacket.getDataPacket();
+                RadioPacket recvPacket = packetPool.acquireDataPacket(RadioPacket.ADDR_64);
+                boolean queued = false;
                 try {
                     dataIndication(recvPacket);
                     try {
@@ -492,6 +495,7 @@ abstract class MACBase extends Resource implements I802_15_4_MAC, IProprietaryMA
 //				Utils.log("rx dsn =" + recvPacket.getDataSequenceNumber() + " " + System.currentTimeMillis() + " " + Thread.currentThread().getPriority());
                             if (recvPacket.getDestinationAddress() == extendedAddress || isRxQueueUnderLowerLimit()) {
                                 rxDataQueue().put(recvPacket);
+                                queued = true;
                             }
                             if (isRxQueueOverUpperLimit()) {
                                 disableRx();
@@ -526,6 +530,9 @@ abstract class MACBase extends Resource implements I802_15_4_MAC, IProprietaryMA
                     System.err.println("RX thread error: " + e.getMessage());
                     rxError++;
                 }
+                if (!queued) {
+                    packetPool.release(recvPacket);
+                }
             }
         }
 
@@ -542,7 +549,8 @@ abstract class MACBase extends Resource implements I802_15_4_MAC, IProprietaryMA
          */
         private void receiveWithFilter() {
             while (true) {
-                RadioPacket recvPacket = RadioPacket.getDataPacket();
+                RadioPacket recvPacket = packetPool.acquireDataPacket(RadioPacket.ADDR_64);
+                boolean queued = false;
                 try {
                     dataIndication(recvPacket);
                     try {
@@ -565,9 +573,11 @@ abstract class MACBase extends Resource implements I802_15_4_MAC, IProprietaryMA
                                     }
                                     if (!(filterWhitelist ^ match)) {
                                         rxDataQueue().put(recvPacket);
+                                        queued = true;
                                     }
                                 } else {
                                     rxDataQueue().put(recvPacket);
+                                    queued = true;
                                 }
                             }
                             if (isRxQueueOverUpperLimit()) {
@@ -604,6 +614,9 @@ abstract class MACBase extends Resource implements I802_15_4_MAC, IProprietaryMA
                     System.err.println("RX thread error: " + e.getMessage());
                     rxError++;
                 }
+                if (!queued) {
+                    packetPool.release(recvPacket);
+                }
             }
         }
     }
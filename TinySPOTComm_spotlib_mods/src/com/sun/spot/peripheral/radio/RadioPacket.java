@@ -66,7 +66,8 @@ import com.sun.spot.util.Utils;
  * reference below.<br><br>
  * 
  * To obtain RadioPackets, call one of {@link #getAckPacket()}, {@link #getBroadcastPacket()}, 
- * {@link #getDataPacket()}.
+ * {@link #getDataPacket()}. Code on the packet paths of the radio stack
+ * borrows packets from a {@link RadioPacketPool} instead.
  * 
  * Once a packet has been received from the physical radio, clients - such as the MAC layer -
  * should call {@link #decodeFrameControl()} to decode the MAC header. Until this is done,
@@ -151,7 +152,13 @@ public class RadioPacket {
 	int rssi;
 	int corr;
 	long timestamp;
-	
+
+	// true while the packet sits in a RadioPacketPool
+	boolean pooled;
+
+	// number of extra holders added by RadioPacketPool.retain that have not yet released it
+	int retained;
+
 	/**
 	 * Answer a radio packet preformatted for sending data.
 	 * 
@@ -223,7 +230,7 @@ public class RadioPacket {
 		this.buffer = new byte[BUFFER_SIZE];
 	}
 
-        private void initAsData(int address_mode) {
+        void initAsData(int address_mode) {
 	    //Added for TinySPOTComm project : allow 16-bit addressed data-frames
 	    if ((address_mode & ADDR_64) == ADDR_64)
 		setFrameControl(FRAME_TYPE_DATA | ACK_REQUEST | INTRA_PAN | DST_ADDR_64 | SRC_ADDR_64);
@@ -303,7 +310,7 @@ public class RadioPacket {
 	}
         
 ////////////////////////////////////////////////////////Modification//////////////////////////////////////////////////////////////////////////////
-        private void initAsBroadcast(int address_mode) {
+        void initAsBroadcast(int address_mode) {
 	    //Added for TinySPOTComm project : allow broadcast packets with 16-bit source addresses
 	    if ((address_mode & ADDR_64) == ADDR_64)
 		setFrameControl(FRAME_TYPE_DATA | INTRA_PAN | DST_ADDR_16 | SRC_ADDR_64);
@@ -624,6 +631,7 @@ public class RadioPacket {
 		this.timestamp = otherRP.timestamp;
 		this.destinationPanOffset = otherRP.destinationPanOffset;
 		this.destinationAddressOffset = otherRP.destinationAddressOffset;
+		this.sourcePanOffset = otherRP.sourcePanOffset;
 		this.sourceAddressOffset = otherRP.sourceAddressOffset;
 		this.payloadOffset = otherRP.payloadOffset;
 		for (int i=0; i<=otherRP.getLength(); i++) {
@@ -700,6 +708,16 @@ public class RadioPacket {
 		return ((getFrameControl() & FRAME_TYPE) == FRAME_TYPE_DATA);
 	}
 
+	/**
+	 * Answer whether the source address of this packet is a 16 bit address. The SPOT
+	 * stack only sends such packets for the tinyos: protocol, so a received packet with
+	 * a 16 bit source usually comes from a foreign node.
+	 * @return -- boolean
+	 */
+	public boolean isSourceAddress16() {
+		return ((getFrameControl() & SRC_ADDR_BITS) == SRC_ADDR_16);
+	}
+
 	/**
 	 * Check whether this packet wants an acknowledgement
 	 * 
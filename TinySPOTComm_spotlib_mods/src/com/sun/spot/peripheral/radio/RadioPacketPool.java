@@ -0,0 +1,194 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+package com.sun.spot.peripheral.radio;
+
+/**
+ * A bounded pool of {@link RadioPacket}s, used by the radio stack so that sending
+ * and receiving frames does not create garbage.<br><br>
+ *
+ * Ownership is explicit: whoever acquires a packet owns it and must either
+ * release it or hand it over to a party that documents it will release it. A
+ * method that is passed a packet does not keep a reference to it after it
+ * returns; if it needs the contents later it copies them into a packet of its own.
+ * Releasing a packet twice throws an IllegalStateException.<br><br>
+ *
+ * A party that wants to keep reading a packet it was passed, instead of copying
+ * it, calls {@link #retain(RadioPacket)} before the call returns and becomes an
+ * additional holder. Each holder releases the packet once, and the packet only
+ * goes back to the pool when the last holder has released it. Holders must not
+ * modify a packet they share.<br><br>
+ *
+ * When the pool is empty a new packet is created, and when it is full a released
+ * packet is left to the garbage collector, so the pool never holds more than its
+ * capacity.
+ */
+public class RadioPacketPool {
+
+	/**
+	 * The number of free packets kept by the shared pool.
+	 */
+	public static final int DEFAULT_CAPACITY = 32;
+
+	private static RadioPacketPool theInstance;
+
+	private final RadioPacket[] free;
+	private int freeCount = 0;
+	private int created = 0;
+	private int reused = 0;
+	private int discarded = 0;
+
+	/**
+	 * @return the pool shared by the layers of the radio stack
+	 */
+	public static synchronized RadioPacketPool getInstance() {
+		if (theInstance == null) {
+			theInstance = new RadioPacketPool(DEFAULT_CAPACITY);
+		}
+		return theInstance;
+	}
+
+	/**
+	 * @param capacity the maximum number of free packets to keep
+	 */
+	public RadioPacketPool(int capacity) {
+		free = new RadioPacket[capacity];
+	}
+
+	/**
+	 * Answer a packet preformatted for sending data, as {@link RadioPacket#getDataPacket(int)}.
+	 *
+	 * @param addressMode one of RadioPacket.ADDR_16 or RadioPacket.ADDR_64
+	 * @return the packet, owned by the caller
+	 */
+	public RadioPacket acquireDataPacket(int addressMode) {
+		RadioPacket rp = take();
+		if (rp == null) {
+			return RadioPacket.getDataPacket(addressMode);
+		}
+		rp.initAsData(addressMode);
+		return rp;
+	}
+
+	/**
+	 * Answer a packet preformatted for broadcasting, as {@link RadioPacket#getBroadcastPacket(int)}.
+	 *
+	 * @param addressMode one of RadioPacket.ADDR_16 or RadioPacket.ADDR_64
+	 * @return the packet, owned by the caller
+	 */
+	public RadioPacket acquireBroadcastPacket(int addressMode) {
+		RadioPacket rp = take();
+		if (rp == null) {
+			return RadioPacket.getBroadcastPacket(addressMode);
+		}
+		rp.initAsBroadcast(addressMode);
+		return rp;
+	}
+
+	/**
+	 * Answer a packet holding a copy of another packet.
+	 *
+	 * @param original the packet to copy
+	 * @return the copy, owned by the caller
+	 */
+	public RadioPacket acquireCopy(RadioPacket original) {
+		RadioPacket rp = take();
+		if (rp == null) {
+			rp = RadioPacket.getDataPacket();
+		}
+		rp.copyFrom(original);
+		return rp;
+	}
+
+	/**
+	 * Add the caller as a holder of a packet it was passed, so that the packet is
+	 * not reused until the caller has also released it.
+	 *
+	 * @param rp the packet to retain
+	 */
+	public synchronized void retain(RadioPacket rp) {
+		if (rp.pooled) {
+			throw new IllegalStateException("RadioPacket retained after release");
+		}
+		rp.retained++;
+	}
+
+	/**
+	 * Give a packet back to the pool. The caller must not use it afterwards. If
+	 * other holders have retained the packet it stays in use until they have
+	 * released it too.
+	 *
+	 * @param rp the packet to release, may be null
+	 */
+	public synchronized void release(RadioPacket rp) {
+		if (rp == null) {
+			return;
+		}
+		if (rp.pooled) {
+			throw new IllegalStateException("RadioPacket released twice");
+		}
+		if (rp.retained > 0) {
+			rp.retained--;
+			return;
+		}
+		if (freeCount < free.length) {
+			rp.pooled = true;
+			free[freeCount++] = rp;
+		} else {
+			discarded++;
+		}
+	}
+
+	/**
+	 * @return the number of packets the pool had to create
+	 */
+	public int getCreated() {
+		return created;
+	}
+
+	/**
+	 * @return the number of times a free packet was handed out again
+	 */
+	public int getReused() {
+		return reused;
+	}
+
+	/**
+	 * @return the number of released packets dropped because the pool was full
+	 */
+	public int getDiscarded() {
+		return discarded;
+	}
+
+	/**
+	 * @return the number of packets currently free in the pool
+	 */
+	public synchronized int getFreeCount() {
+		return freeCount;
+	}
+
+	private synchronized RadioPacket take() {
+		if (freeCount == 0) {
+			created++;
+			return null;
+		}
+		reused++;
+		RadioPacket rp = free[--freeCount];
+		free[freeCount] = null;
+		rp.pooled = false;
+		return rp;
+	}
+}
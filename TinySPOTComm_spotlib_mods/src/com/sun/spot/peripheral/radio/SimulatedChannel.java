@@ -0,0 +1,514 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+package com.sun.spot.peripheral.radio;
+
+import java.util.Hashtable;
+import java.util.Random;
+import java.util.Vector;
+
+import be.ac.ua.pats.tinyspotcomm.IEEEAddressHash;
+
+/**
+ * A discrete-event model of a shared 802.15.4 channel. It allows many
+ * {@link SimulatedPHY}/{@link SimulatedMAC} pairs to run inside a single host
+ * VM so that the radio stack can be exercised without real hardware.<br><br>
+ *
+ * The channel keeps a virtual clock (in microseconds) which is advanced by a
+ * scheduler thread from one pending event to the next. Frames occupy the channel
+ * for their real 250 kbit/s airtime; two frames that overlap in virtual time are
+ * both corrupted at every node that can hear both senders. Each directed link has
+ * a configurable loss percentage, RSSI and correlation value, from which the
+ * receiving {@link RadioPacket} gets its RSSI, CORR and LQI.<br><br>
+ *
+ * Given the same seed and the same order of requests a run is reproducible.
+ * Threads that block in the simulated radios (CSMA backoffs, transmissions, ACK
+ * waits) are woken on virtual time. A thread counts as running from the moment
+ * it enters a {@link SimulatedMAC} send, or is woken, until it blocks on the
+ * virtual clock again or leaves the MAC, and the clock only moves on while no
+ * thread is running, so backoffs and ACK timeouts take their full virtual time
+ * however long the host takes to run the code in between. A driver that makes
+ * several requests in a row can hold the clock between them by calling
+ * {@link #enter()} and {@link #leave()} itself. Threads that sleep in real
+ * time, and the time upper layers take to react to a received frame, are not
+ * accounted for by the virtual clock.<br><br>
+ *
+ * <code>LowPan</code> and <code>RadioPacketDispatcher</code> are singletons, so one VM
+ * runs the complete radio stack for at most one simulated node; any other nodes
+ * on the channel have to be driven through their {@link SimulatedMAC} directly.
+ */
+public class SimulatedChannel {
+
+	static final int SYMBOL_MICROS = 16;
+	/**
+	 * Length of one CSMA-CA unit backoff period (20 symbols)
+	 */
+	public static final int BACKOFF_PERIOD_MICROS = 20 * SYMBOL_MICROS;
+	static final int CCA_MICROS = 8 * SYMBOL_MICROS;
+	static final int TURNAROUND_MICROS = 12 * SYMBOL_MICROS;
+	private static final int BYTE_MICROS = 2 * SYMBOL_MICROS;
+	private static final int PHY_HEADER_BYTES = 6; // preamble, SFD and length byte
+	private static final int FCS_BYTES = 2;
+
+	private static final int WAKEUP = 0;     // a parked thread may be due
+	private static final int TX_START = 1;
+	private static final int TX_END = 2;
+
+	private static final IEEEAddressHash hasher = IEEEAddressHash.getInstance();
+
+	private final int maxNodes;
+	private final Vector nodes = new Vector();
+	private final int[][] lossPercent;
+	private final int[][] rssi;
+	private final int[][] corr;
+	private final Random random;
+
+	private final Vector events = new Vector();      // pending events, sorted by time
+	private final Vector onAir = new Vector();       // transmissions currently on the channel
+	private final Vector parked = new Vector();      // Waiters blocked on the virtual clock
+	private final Hashtable entered = new Hashtable(); // Thread -> Integer nesting depth of enter()
+	private int runningThreads;                      // threads in the simulation that are not parked
+	private long now;
+	private Thread scheduler;
+	private boolean running;
+
+	private int framesSent;
+	private int framesDelivered;
+	private int framesLost;
+	private int collisions;
+
+	/**
+	 * Create a channel with perfect links between all nodes.
+	 *
+	 * @param maxNodes the maximum number of radios that will be attached
+	 * @param seed the seed for backoffs and link losses
+	 */
+	public SimulatedChannel(int maxNodes, long seed) {
+		this.maxNodes = maxNodes;
+		lossPercent = new int[maxNodes][maxNodes];
+		rssi = new int[maxNodes][maxNodes];
+		corr = new int[maxNodes][maxNodes];
+		random = new Random(seed);
+		setAllLinks(0, 60, 110);
+	}
+
+	/**
+	 * Attach a new radio to the channel.
+	 *
+	 * @param address the 64 bit IEEE address of the new node
+	 * @return the physical layer of the new node
+	 */
+	public synchronized SimulatedPHY addNode(long address) {
+		if (nodes.size() == maxNodes) {
+			throw new IllegalStateException("Channel already has " + maxNodes + " nodes");
+		}
+		SimulatedPHY phy = new SimulatedPHY(this, nodes.size(), address);
+		nodes.addElement(phy);
+		return phy;
+	}
+
+	/**
+	 * Configure the directed link between two nodes.
+	 *
+	 * @param from index of the sending node
+	 * @param to index of the receiving node
+	 * @param loss percentage of frames lost on this link (100 means the nodes cannot hear each other)
+	 * @param linkRssi RSSI reported for frames received over this link (-60..60)
+	 * @param linkCorr correlation value reported for frames received over this link (50..110)
+	 */
+	public synchronized void setLink(int from, int to, int loss, int linkRssi, int linkCorr) {
+		lossPercent[from][to] = loss;
+		rssi[from][to] = linkRssi;
+		corr[from][to] = linkCorr;
+	}
+
+	/**
+	 * Configure every directed link between two nodes with the same parameters.
+	 *
+	 * @param loss percentage of frames lost on every link
+	 * @param linkRssi RSSI reported for every link
+	 * @param linkCorr correlation value reported for every link
+	 */
+	public synchronized void setAllLinks(int loss, int linkRssi, int linkCorr) {
+		for (int i = 0; i < maxNodes; i++) {
+			for (int j = 0; j < maxNodes; j++) {
+				setLink(i, j, loss, linkRssi, linkCorr);
+			}
+		}
+	}
+
+	/**
+	 * Start the scheduler that advances the virtual clock.
+	 */
+	public synchronized void start() {
+		if (scheduler == null) {
+			running = true;
+			scheduler = new Thread("SimulatedChannel scheduler") {
+				public void run() {
+					runEvents();
+				}
+			};
+			scheduler.start();
+		}
+	}
+
+	/**
+	 * Stop the scheduler. Threads blocked on virtual time are released.
+	 */
+	public synchronized void stop() {
+		running = false;
+		scheduler = null;
+		while (!parked.isEmpty()) {
+			release((Waiter) parked.elementAt(0));
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Count the calling thread as running, so that the clock waits for it
+	 * whenever it is not blocked in a simulated radio. Calls may be nested and
+	 * every enter() must be followed by a {@link #leave()}.
+	 */
+	public synchronized void enter() {
+		Thread thread = Thread.currentThread();
+		Integer depth = (Integer) entered.get(thread);
+		if (depth == null) {
+			runningThreads++;
+			entered.put(thread, new Integer(1));
+		} else {
+			entered.put(thread, new Integer(depth.intValue() + 1));
+		}
+	}
+
+	/**
+	 * Undo a call to {@link #enter()}. The clock no longer waits for the
+	 * calling thread once the outermost enter() has been left.
+	 */
+	public synchronized void leave() {
+		Thread thread = Thread.currentThread();
+		Integer depth = (Integer) entered.get(thread);
+		if (depth == null) {
+			throw new IllegalStateException("leave() without enter() on " + thread);
+		}
+		if (depth.intValue() == 1) {
+			entered.remove(thread);
+			runningThreads--;
+			notifyAll();
+		} else {
+			entered.put(thread, new Integer(depth.intValue() - 1));
+		}
+	}
+
+	/**
+	 * @return the current virtual time in microseconds
+	 */
+	public synchronized long getTimeMicros() {
+		return now;
+	}
+
+	/**
+	 * @return the number of frames (including ACKs) put on the channel
+	 */
+	public synchronized int getFramesSent() {
+		return framesSent;
+	}
+
+	/**
+	 * @return the number of frame receptions passed up to a PHY
+	 */
+	public synchronized int getFramesDelivered() {
+		return framesDelivered;
+	}
+
+	/**
+	 * @return the number of frame receptions lost to link loss or collisions
+	 */
+	public synchronized int getFramesLost() {
+		return framesLost;
+	}
+
+	/**
+	 * @return the number of pairs of frames that overlapped on the channel
+	 */
+	public synchronized int getCollisions() {
+		return collisions;
+	}
+
+	/**
+	 * Answer the airtime of a frame including the PHY header and FCS.
+	 *
+	 * @param rp the frame
+	 * @return airtime in microseconds
+	 */
+	public static int airtimeMicros(RadioPacket rp) {
+		return (PHY_HEADER_BYTES + rp.getLength() + FCS_BYTES) * BYTE_MICROS;
+	}
+
+	/**
+	 * Block the calling thread for a period of virtual time. Like the other
+	 * blocking methods, only to be called between {@link #enter()} and {@link #leave()}.
+	 *
+	 * @param micros the period to sleep
+	 */
+	synchronized void sleep(long micros) {
+		waitUntil(now + micros);
+	}
+
+	/**
+	 * Answer whether a node currently senses the channel as clear. A frame only
+	 * becomes audible after the instant its transmission starts, so the answer
+	 * does not depend on the order in which simultaneous threads run.
+	 */
+	synchronized boolean isClear(SimulatedPHY node) {
+		for (int i = 0; i < onAir.size(); i++) {
+			Transmission tx = (Transmission) onAir.elementAt(i);
+			if (tx.sender == node || (tx.start < now && canHear(tx.sender.index, node.index))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Put a frame on the channel and block until it has been sent.
+	 *
+	 * @return the virtual time at which transmission ended
+	 */
+	synchronized long transmit(SimulatedPHY sender, RadioPacket rp) {
+		Transmission tx = startTransmission(sender, rp);
+		waitUntil(tx.end);
+		return tx.end;
+	}
+
+	/**
+	 * Block until the ACK the node is waiting for has been received or the time has elapsed.
+	 *
+	 * @return true if the ACK was received
+	 */
+	synchronized boolean awaitAck(SimulatedPHY node, long micros) {
+		if (!node.ackReceived) {
+			park(new Waiter(now + micros, node));
+		}
+		return node.ackReceived;
+	}
+
+	private void waitUntil(long time) {
+		if (time > now) {
+			park(new Waiter(time, null));
+		}
+	}
+
+	/*
+	 * Block until the scheduler releases the waiter. The scheduler counts the
+	 * thread as running again when it releases it, so that it cannot move the
+	 * clock on before the thread has had its turn.
+	 */
+	private void park(Waiter w) {
+		if (!running) {
+			return;
+		}
+		parked.addElement(w);
+		schedule(new Event(w.time, WAKEUP, null));
+		runningThreads--;
+		notifyAll();
+		while (!w.released) {
+			waitForClock();
+		}
+	}
+
+	private void release(Waiter w) {
+		parked.removeElement(w);
+		w.released = true;
+		runningThreads++;
+	}
+
+	/*
+	 * Release the waiters that are due, or whose ACK has arrived.
+	 */
+	private void releaseDue() {
+		for (int i = parked.size() - 1; i >= 0; i--) {
+			Waiter w = (Waiter) parked.elementAt(i);
+			if (w.time <= now || (w.ackNode != null && w.ackNode.ackReceived)) {
+				release(w);
+			}
+		}
+	}
+
+	private void waitForClock() {
+		try {
+			wait();
+		} catch (InterruptedException e) {
+			// just recheck the clock
+		}
+	}
+
+	private boolean canHear(int from, int to) {
+		return from != to && lossPercent[from][to] < 100;
+	}
+
+	private Transmission startTransmission(SimulatedPHY sender, RadioPacket rp) {
+		RadioPacket copy = RadioPacket.getDataPacket();
+		copy.copyFrom(rp);
+		Transmission tx = new Transmission(sender, copy, now, now + airtimeMicros(rp), maxNodes);
+		for (int i = 0; i < onAir.size(); i++) {
+			Transmission other = (Transmission) onAir.elementAt(i);
+			collisions++;
+			// a radio cannot receive while it transmits
+			other.corrupted[sender.index] = true;
+			tx.corrupted[other.sender.index] = true;
+			for (int k = 0; k < nodes.size(); k++) {
+				if (canHear(sender.index, k) && canHear(other.sender.index, k)) {
+					tx.corrupted[k] = true;
+					other.corrupted[k] = true;
+				}
+			}
+		}
+		onAir.addElement(tx);
+		framesSent++;
+		schedule(new Event(tx.end, TX_END, tx));
+		return tx;
+	}
+
+	private void endTransmission(Transmission tx) {
+		onAir.removeElement(tx);
+		RadioPacket rp = tx.packet;
+		boolean isData = rp.isData();
+		long destination = isData ? rp.getDestinationAddress() : 0;
+		for (int k = 0; k < nodes.size(); k++) {
+			SimulatedPHY receiver = (SimulatedPHY) nodes.elementAt(k);
+			if (!canHear(tx.sender.index, k) || !receiver.isListeningOn(tx.sender.getCurrentChannel())) {
+				continue;
+			}
+			if (isData && destination != 0xFFFF && !isAddressedTo(destination, receiver.getAddress())) {
+				continue; // address recognition filters it out
+			}
+			if (tx.corrupted[k] || random.nextInt(100) < lossPercent[tx.sender.index][k]) {
+				framesLost++;
+				continue;
+			}
+			if (isData) {
+				RadioPacket received = RadioPacket.getDataPacket();
+				received.copyFrom(rp);
+				received.rssi = rssi[tx.sender.index][k];
+				received.corr = corr[tx.sender.index][k];
+				received.timestamp = now / 1000;
+				receiver.deliver(received);
+				framesDelivered++;
+				if (rp.ackRequest() && destination != 0xFFFF) {
+					// auto ACK, sent without CCA after the rx/tx turnaround
+					RadioPacket ack = RadioPacket.getAckPacket();
+					ack.setDSN(rp.getDataSequenceNumber());
+					schedule(new Event(now + TURNAROUND_MICROS, TX_START, new Transmission(receiver, ack, 0, 0, 0)));
+				}
+			} else if (rp.isAck() && receiver.isAwaitingAck(rp.getDataSequenceNumber())) {
+				receiver.ackReceived = true;
+				framesDelivered++;
+			}
+		}
+	}
+
+	private boolean isAddressedTo(long destination, long address) {
+		return destination == address || destination == hasher.To64Bit(hasher.To16Bit(address));
+	}
+
+	private void schedule(Event ev) {
+		int i = events.size();
+		while (i > 0 && ((Event) events.elementAt(i - 1)).isAfter(ev)) {
+			i--;
+		}
+		events.insertElementAt(ev, i);
+		notifyAll();
+	}
+
+	private synchronized void runEvents() {
+		while (running) {
+			if (runningThreads > 0 || events.isEmpty()) {
+				waitForClock();
+				continue;
+			}
+			Event ev = (Event) events.elementAt(0);
+			events.removeElementAt(0);
+			if (ev.time > now) {
+				now = ev.time;
+			}
+			switch (ev.type) {
+			case TX_START:
+				startTransmission(ev.tx.sender, ev.tx.packet);
+				break;
+			case TX_END:
+				endTransmission(ev.tx);
+				break;
+			default:
+				break;
+			}
+			// run everything that happens at this instant before any thread does
+			if (events.isEmpty() || ((Event) events.elementAt(0)).time > now) {
+				releaseDue();
+				notifyAll();
+			}
+		}
+	}
+
+	private static class Waiter {
+		final long time;
+		final SimulatedPHY ackNode;     // the node waiting for an ACK, or null
+		boolean released;
+
+		Waiter(long time, SimulatedPHY ackNode) {
+			this.time = time;
+			this.ackNode = ackNode;
+		}
+	}
+
+	private static class Event {
+		final long time;
+		final int type;
+		final Transmission tx;
+
+		Event(long time, int type, Transmission tx) {
+			this.time = time;
+			this.type = type;
+			this.tx = tx;
+		}
+
+		/*
+		 * Order events by time, and simultaneous transmissions by sender, so that
+		 * link losses are drawn in the same order in every run.
+		 */
+		boolean isAfter(Event other) {
+			if (time != other.time) {
+				return time > other.time;
+			}
+			return tx != null && other.tx != null && tx.sender.index > other.tx.sender.index;
+		}
+	}
+
+	private static class Transmission {
+		final SimulatedPHY sender;
+		final RadioPacket packet;
+		final long start;
+		final long end;
+		final boolean[] corrupted;
+
+		Transmission(SimulatedPHY sender, RadioPacket packet, long start, long end, int nodeCount) {
+			this.sender = sender;
+			this.packet = packet;
+			this.start = start;
+			this.end = end;
+			this.corrupted = new boolean[nodeCount];
+		}
+	}
+}
@@ -0,0 +1,253 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+package com.sun.spot.peripheral.radio;
+
+import java.util.Random;
+
+import com.sun.spot.resources.Resource;
+
+/**
+ * Implements {@link com.sun.spot.peripheral.radio.I802_15_4_MAC} for a
+ * {@link SimulatedPHY}. Follows the unslotted CSMA-CA and retransmission rules of
+ * the standard, with all backoffs and ACK waits taken in the virtual time of the
+ * {@link SimulatedChannel}. Unlike {@link MACLayer} it does not depend on the
+ * Squawk VM, so it can be handed to a RadioPacketDispatcher running on a host.
+ */
+public class SimulatedMAC extends Resource implements I802_15_4_MAC, IProprietaryMAC {
+
+	static final int A_MAX_FRAME_RETRIES = 3;
+	static final int A_MAX_BE = 5;
+	static final int MAC_MIN_BE = 3;
+	static final int MAC_MAX_CSMA_BACKOFFS = 4;
+	private static final int MAC_ACK_WAIT_DURATION_MICROS = 54 * SimulatedChannel.SYMBOL_MICROS;
+
+	private final SimulatedPHY physical;
+	private final SimulatedChannel channel;
+	private final Object sendMonitor = new Object();
+	private final Random random;
+	private long extendedAddress;
+	private boolean rxOnWhenIdle;
+	private byte macDSN;
+
+	private int channelAccessFailure = 0;
+	private int noAck = 0;
+	private int rxError = 0;
+
+	/**
+	 * Create a MAC layer for a simulated radio.
+	 *
+	 * @param phy the simulated physical layer to drive
+	 */
+	public SimulatedMAC(SimulatedPHY phy) {
+		physical = phy;
+		channel = phy.getChannel();
+		extendedAddress = phy.getAddress();
+		random = new Random(extendedAddress);
+		macDSN = (byte) (random.nextInt() & 0xFF);
+	}
+
+	/*
+	 * @see com.sun.spot.peripheral.radio.I802_15_4_MAC#mcpsDataRequest(com.sun.spot.peripheral.radio.RadioPacket)
+	 */
+	public int mcpsDataRequest(RadioPacket rp) {
+		synchronized (sendMonitor) {
+			channel.enter();
+			try {
+				byte myDSN = macDSN++;
+				rp.setDSN(myDSN);
+				int result = NO_ACK;
+				for (int i = 0; i <= A_MAX_FRAME_RETRIES; i++) {
+					if (rp.ackRequest()) {
+						physical.expectAck(myDSN);
+					}
+					if (!sendIfChannelClear(rp)) {
+						result = CHANNEL_ACCESS_FAILURE;
+						break;
+					}
+					if (!rp.ackRequest() || channel.awaitAck(physical, MAC_ACK_WAIT_DURATION_MICROS)) {
+						result = SUCCESS;
+						break;
+					}
+					noAck++;
+				}
+				conditionallyDisableRx();
+				return result;
+			} finally {
+				channel.leave();
+			}
+		}
+	}
+
+	/*
+	 * @see com.sun.spot.peripheral.radio.I802_15_4_MAC#mcpsDataIndication(com.sun.spot.peripheral.radio.RadioPacket)
+	 */
+	public void mcpsDataIndication(RadioPacket rp) {
+		while (true) {
+			physical.pdDataIndication(rp);
+			try {
+				rp.decodeFrameControl();
+				return;
+			} catch (IllegalStateException badlyFormattedPacketException) {
+				rxError++;
+			}
+		}
+	}
+
+	/*
+	 * @see com.sun.spot.peripheral.radio.I802_15_4_MAC#mlmeStart(short, int)
+	 */
+	public void mlmeStart(short panId, int radioChannel) throws MAC_InvalidParameterException {
+		physical.plmeSet(I802_15_4_PHY.PHY_CURRENT_CHANNEL, radioChannel);
+		if (rxOnWhenIdle) {
+			physical.plmeSetTrxState(I802_15_4_PHY.RX_ON);
+		}
+	}
+
+	/*
+	 * @see com.sun.spot.peripheral.radio.I802_15_4_MAC#mlmeReset(boolean)
+	 */
+	public synchronized void mlmeReset(boolean resetAttribs) {
+		physical.plmeSetTrxState(I802_15_4_PHY.TRX_OFF);
+		physical.resetRx();
+		if (resetAttribs) {
+			macDSN = (byte) (random.nextInt() & 0xFF);
+			rxOnWhenIdle = false;
+		}
+	}
+
+	/*
+	 * @see com.sun.spot.peripheral.radio.I802_15_4_MAC#mlmeGet(int)
+	 */
+	public long mlmeGet(int attribute) throws MAC_InvalidParameterException {
+		switch (attribute) {
+			case A_EXTENDED_ADDRESS:
+				return extendedAddress;
+			case MAC_RX_ON_WHEN_IDLE:
+				return rxOnWhenIdle ? TRUE : FALSE;
+			default:
+				throw new MAC_InvalidParameterException();
+		}
+	}
+
+	/*
+	 * @see com.sun.spot.peripheral.radio.I802_15_4_MAC#mlmeSet(int, long)
+	 */
+	public void mlmeSet(int attribute, long value) throws MAC_InvalidParameterException {
+		switch (attribute) {
+			case MAC_RX_ON_WHEN_IDLE:
+				rxOnWhenIdle = value == TRUE;
+				physical.plmeSetTrxState(rxOnWhenIdle ? I802_15_4_PHY.RX_ON : I802_15_4_PHY.TRX_OFF);
+				break;
+			default:
+				throw new MAC_InvalidParameterException();
+		}
+	}
+
+	/*
+	 * The receiver stays on until it is explicitly disabled: the duration is
+	 * not timed in the simulation.
+	 *
+	 * @see com.sun.spot.peripheral.radio.I802_15_4_MAC#mlmeRxEnable(int)
+	 */
+	public void mlmeRxEnable(int rxOnDuration) {
+		if (rxOnDuration > 0xFFFFFF) {
+			throw new MAC_InvalidParameterException("mlmeRxEnable: duration of " + rxOnDuration + " too large");
+		}
+		if (!rxOnWhenIdle) {
+			physical.plmeSetTrxState(rxOnDuration == 0 ? I802_15_4_PHY.TRX_OFF : I802_15_4_PHY.RX_ON);
+		}
+	}
+
+	private boolean sendIfChannelClear(RadioPacket rp) {
+		int numberOfBackoffs = 0;
+		int backoffExponent = MAC_MIN_BE;
+		do {
+			int periods;
+			synchronized (channel) {
+				periods = random.nextInt(1 << backoffExponent);
+			}
+			channel.sleep(periods * SimulatedChannel.BACKOFF_PERIOD_MICROS);
+			if (physical.dataRequest(rp) == I802_15_4_PHY.SUCCESS) {
+				return true;
+			}
+			channelAccessFailure++;
+			numberOfBackoffs++;
+			backoffExponent = Math.min(backoffExponent + 1, A_MAX_BE);
+		} while (numberOfBackoffs <= MAC_MAX_CSMA_BACKOFFS);
+		return false;
+	}
+
+	private void conditionallyDisableRx() {
+		if (!rxOnWhenIdle) {
+			physical.plmeSetTrxState(I802_15_4_PHY.TRX_OFF);
+		}
+	}
+
+	public int getNullPacketAfterAckWait() {
+		return 0;
+	}
+
+	public int getChannelAccessFailure() {
+		return channelAccessFailure;
+	}
+
+	public int getNoAck() {
+		return noAck;
+	}
+
+	public int getWrongAck() {
+		return 0;
+	}
+
+	public int getRxError() {
+		return rxError;
+	}
+
+	public void resetErrorCounters() {
+		channelAccessFailure = 0;
+		noAck = 0;
+		rxError = 0;
+	}
+
+	public void setPLMEChannel(int radioChannel) {
+		physical.plmeSet(I802_15_4_PHY.PHY_CURRENT_CHANNEL, radioChannel);
+	}
+
+	public void setPLMETransmitPower(int power) {
+		physical.plmeSet(I802_15_4_PHY.PHY_TRANSMIT_POWER, power & 0x3F);
+	}
+
+	public int getPLMETransmitPower() {
+		return physical.plmeGet(I802_15_4_PHY.PHY_TRANSMIT_POWER) << 26 >> 26;
+	}
+
+	public void setMaxReceiveQueueLength(int maxPackets) {
+		physical.setMaxReceiveQueueLength(maxPackets);
+	}
+
+	public void setReceiveQueueLengthToDropBroadcastPackets(int maxPackets) {
+		// broadcasts are never dropped ahead of unicasts in the simulation
+	}
+
+	public int getMaxReceiveQueueLength() {
+		return physical.getMaxReceiveQueueLength();
+	}
+
+	public int getReceiveQueueLengthToDropBroadcastPackets() {
+		return physical.getMaxReceiveQueueLength();
+	}
+}
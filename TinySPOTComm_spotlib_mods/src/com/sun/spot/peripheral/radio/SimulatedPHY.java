@@ -0,0 +1,211 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+package com.sun.spot.peripheral.radio;
+
+import com.sun.spot.resources.Resource;
+import com.sun.spot.util.Queue;
+
+/**
+ * Implements {@link com.sun.spot.peripheral.radio.I802_15_4_PHY} on top of a
+ * {@link SimulatedChannel}. Instances are created by {@link SimulatedChannel#addNode(long)}.
+ */
+public class SimulatedPHY extends Resource implements I802_15_4_PHY {
+
+	private final SimulatedChannel channel;
+	final int index;
+	private final long address;
+	private final Queue rxQueue = new Queue();
+	private int trxState = TRX_OFF;
+	private int currentChannel = 26;
+	private int transmitPower = 0;
+
+	// accessed with the channel lock held
+	private int awaitedAckDSN = -1;
+	boolean ackReceived;
+	private int maxReceiveQueueLength = MACBase.DEFAULT_MAX_RECEIVE_QUEUE_LENGTH;
+
+	SimulatedPHY(SimulatedChannel channel, int index, long address) {
+		this.channel = channel;
+		this.index = index;
+		this.address = address;
+	}
+
+	/**
+	 * @return the IEEE address this radio answers to
+	 */
+	public long getAddress() {
+		return address;
+	}
+
+	/**
+	 * @return the channel this radio is attached to
+	 */
+	public SimulatedChannel getChannel() {
+		return channel;
+	}
+
+	/*
+	 * @see com.sun.spot.peripheral.radio.I802_15_4_PHY#pdDataRequest(com.sun.spot.peripheral.radio.RadioPacket)
+	 */
+	public int pdDataRequest(RadioPacket rp) {
+		channel.enter();
+		try {
+			dataRequest(rp);
+		} finally {
+			channel.leave();
+		}
+		return SUCCESS; // as in CC2420, a CCA failure cannot be reported here
+	}
+
+	/**
+	 * Perform a CCA and, if the channel is clear, send the packet after the
+	 * rx/tx turnaround. Blocks in virtual time until the frame has been sent.
+	 * The caller must have entered the channel.
+	 *
+	 * @param rp the packet to send
+	 * @return SUCCESS | BUSY
+	 */
+	int dataRequest(RadioPacket rp) {
+		int oldState = trxState;
+		trxState = RX_ON;
+		channel.sleep(SimulatedChannel.CCA_MICROS);
+		if (!channel.isClear(this)) {
+			trxState = oldState;
+			return BUSY;
+		}
+		channel.sleep(SimulatedChannel.TURNAROUND_MICROS);
+		long endTime = channel.transmit(this, rp);
+		rp.timestamp = endTime / 1000;
+		// after a transmit, the CC2420 always enables the receiver
+		trxState = RX_ON;
+		return SUCCESS;
+	}
+
+	/*
+	 * @see com.sun.spot.peripheral.radio.I802_15_4_PHY#pdDataIndication(com.sun.spot.peripheral.radio.RadioPacket)
+	 */
+	public void pdDataIndication(RadioPacket rp) {
+		RadioPacket received = null;
+		while (received == null) {
+			received = (RadioPacket) rxQueue.get();
+		}
+		rp.copyFrom(received);
+	}
+
+	/*
+	 * @see com.sun.spot.peripheral.radio.I802_15_4_PHY#plmeCCARequest()
+	 */
+	public int plmeCCARequest() {
+		if (trxState == TRX_OFF) {
+			return TRX_OFF;
+		}
+		return channel.isClear(this) ? IDLE : BUSY;
+	}
+
+	/*
+	 * @see com.sun.spot.peripheral.radio.I802_15_4_PHY#plmeSet(int, int)
+	 */
+	public void plmeSet(int attribute, int value) {
+		if (attribute == PHY_CURRENT_CHANNEL) {
+			if (value < 11 || value > 26) {
+				throw new PHY_InvalidParameterException("Attribute " + attribute + " cannot be set to " + value);
+			}
+			currentChannel = value;
+		} else if (attribute == PHY_TRANSMIT_POWER) {
+			if ((value & ~0xff) != 0) {
+				throw new PHY_InvalidParameterException("Attribute " + attribute + " should be an 8 bit value, not " + value);
+			}
+			transmitPower = value & 0x3F;
+		} else {
+			throw new PHY_UnsupportedAttributeException(Integer.toString(attribute));
+		}
+	}
+
+	/*
+	 * @see com.sun.spot.peripheral.radio.I802_15_4_PHY#plmeGet(int)
+	 */
+	public int plmeGet(int attribute) {
+		if (attribute == PHY_CURRENT_CHANNEL) {
+			return currentChannel;
+		} else if (attribute == PHY_TRANSMIT_POWER) {
+			return transmitPower;
+		}
+		throw new PHY_UnsupportedAttributeException(Integer.toString(attribute));
+	}
+
+	/*
+	 * @see com.sun.spot.peripheral.radio.I802_15_4_PHY#plmeSetTrxState(int)
+	 */
+	public int plmeSetTrxState(int newState) {
+		if (newState == trxState) {
+			return newState; // signal that we were already in that state!
+		}
+		if (newState == TX_ON) {
+			throw new PHY_InvalidParameterException("Current implementation does not allow explicit TX_ON - just do mlmeDataRequest");
+		}
+		trxState = newState;
+		return SUCCESS;
+	}
+
+	/**
+	 * Drop any received packets that have not been collected yet.
+	 */
+	void resetRx() {
+		rxQueue.empty();
+	}
+
+	int getCurrentChannel() {
+		return currentChannel;
+	}
+
+	boolean isListeningOn(int radioChannel) {
+		return trxState == RX_ON && currentChannel == radioChannel;
+	}
+
+	void expectAck(int dsn) {
+		synchronized (channel) {
+			awaitedAckDSN = dsn & 0xFF;
+			ackReceived = false;
+		}
+	}
+
+	boolean isAwaitingAck(int dsn) {
+		return awaitedAckDSN == (dsn & 0xFF) && !ackReceived;
+	}
+
+	void setMaxReceiveQueueLength(int maxPackets) {
+		synchronized (channel) {
+			maxReceiveQueueLength = maxPackets;
+		}
+	}
+
+	int getMaxReceiveQueueLength() {
+		synchronized (channel) {
+			return maxReceiveQueueLength;
+		}
+	}
+
+	/*
+	 * Called by the channel, with its lock held. Frames that arrive while the
+	 * receive queue is full are dropped.
+	 */
+	void deliver(RadioPacket rp) {
+		if (rxQueue.size() < maxReceiveQueueLength) {
+			rxQueue.put(rp);
+		}
+	}
+}
@@ -0,0 +1,369 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+
+package com.sun.spot.service;
+
+import com.sun.spot.resources.Resource;
+import com.sun.spot.resources.Resources;
+import com.sun.spot.util.Utils;
+import com.sun.squawk.VM;
+
+/**
+ * TimerWheel runs {@link TimerWheelTask}s after a delay on a single shared thread.
+ * It is meant for the many short timeouts of the radio stack, such as retransmit
+ * timers and table expiry, which are mostly cancelled or rescheduled before they
+ * run. Please see {@link TaskManager} for tasks that run at a time of day.<br><br>
+ *
+ * The tasks are kept in a hierarchical timing wheel: four levels of 64 slots,
+ * where a slot of the first level covers one tick of TICK milliseconds and each
+ * slot of the next level covers all of the level below. Scheduling and cancelling
+ * a task take constant time and allocate nothing, as a task is linked directly
+ * into its slot. As time passes the slots of a higher level are spread out over
+ * the levels below, and tasks in the slot of the current tick are run. Delays
+ * beyond the range of the wheel, about 46 hours, are rounded up as far as
+ * the wheel reaches and then carried on.<br><br>
+ *
+ * The thread is only woken when a slot that holds tasks is due or a level has to
+ * be spread out, and waits without a timeout while no tasks are scheduled.
+ */
+public class TimerWheel extends Resource implements IService, Runnable {
+
+    /**
+     * The resolution of the wheel in milliseconds. Tasks run up to one tick late.
+     */
+    public static final int TICK = 10;
+
+    static final int UNSCHEDULED = -1;
+    static final int DUE = -2;
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_DELTA = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+    private static TimerWheel instance = null;
+
+    private final TimerWheelTask[] slots = new TimerWheelTask[LEVELS * SLOTS];
+    private TimerWheelTask dueHead = null;  // tasks waiting to be run, in order
+    private TimerWheelTask dueTail = null;
+    private int pending = 0;                // tasks in the slots
+    private final long baseTime = System.currentTimeMillis();
+    private long currentTick = 0;           // the next tick to process
+
+    private int status = STOPPED;
+    private Thread thread = null;
+
+    protected TimerWheel() {}
+
+    /**
+     * Get the singleton instance of TimerWheel.
+     *
+     * @return the TimerWheel instance
+     */
+    public static synchronized TimerWheel getInstance() {
+        if (instance == null) {
+            instance = (TimerWheel) Resources.lookup(TimerWheel.class);
+            if (instance == null) {
+                instance = new TimerWheel();
+                Resources.add(instance);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Run a task once after a delay, replacing any time it was already scheduled for.
+     *
+     * @param task the task to schedule
+     * @param delay time in milliseconds to wait before running the task
+     */
+    public synchronized void schedule(TimerWheelTask task, long delay) {
+        if (delay < 0) {
+            throw new IllegalArgumentException("Negative delay");
+        }
+        unlink(task);
+        long now = System.currentTimeMillis() - baseTime;
+        if (pending == 0) {
+            // nothing to process in between, so catch up with the clock at once
+            currentTick = Math.max(currentTick, now / TICK);
+        }
+        task.expiry = (now + delay + TICK - 1) / TICK;
+        insert(task);
+        if (!isRunning()) {
+            start();
+        } else {
+            notify();
+        }
+    }
+
+    /**
+     * Stop a task from being run, if it has not been run yet.
+     *
+     * @param task the task to cancel
+     * @return true if the task was scheduled
+     */
+    public synchronized boolean cancel(TimerWheelTask task) {
+        return unlink(task);
+    }
+
+    /**
+     * @param task the task to check
+     * @return true if the task is waiting to be run
+     */
+    public synchronized boolean isScheduled(TimerWheelTask task) {
+        return task.slot != UNSCHEDULED;
+    }
+
+    /**
+     * @return the number of tasks waiting to be run
+     */
+    public synchronized int getScheduledCount() {
+        int count = pending;
+        for (TimerWheelTask t = dueHead; t != null; t = t.next) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Internal method. Do not call explicitly.
+     */
+    public void run() {
+        status = RUNNING;
+        while (status == RUNNING) {
+            TimerWheelTask task = null;
+            synchronized (this) {
+                try {
+                    while (status == RUNNING) {
+                        advance();
+                        if (dueHead != null) {
+                            break;
+                        }
+                        if (pending == 0) {
+                            this.wait();
+                        } else {
+                            long delay = timeOfNextSlot() - (System.currentTimeMillis() - baseTime);
+                            if (delay > 0) {
+                                this.wait(delay);
+                            }
+                        }
+                    }
+                } catch (InterruptedException ex) {
+                    // ignore & continue
+                }
+                task = dueHead;
+                if (task != null) {
+                    unlink(task);
+                }
+            }
+            if (task != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    System.err.println("[TimerWheel] Exception in task: " + e);
+                }
+            }
+        }
+        status = STOPPED;
+    }
+
+    /*
+     * Put a task into the slot for its expiry, on the lowest level that reaches it.
+     */
+    private void insert(TimerWheelTask task) {
+        long delta = task.expiry - currentTick;
+        if (delta < 0) {
+            appendDue(task);
+            return;
+        }
+        long expiry = task.expiry;
+        if (delta > MAX_DELTA) {
+            expiry = currentTick + MAX_DELTA;   // inserted again when its slot is spread out
+            delta = MAX_DELTA;
+        }
+        int level = 0;
+        while (delta >= (1L << (SLOT_BITS * (level + 1)))) {
+            level++;
+        }
+        int index = level * SLOTS + (int) ((expiry >> (SLOT_BITS * level)) & SLOT_MASK);
+        task.slot = index;
+        task.prev = null;
+        task.next = slots[index];
+        if (task.next != null) {
+            task.next.prev = task;
+        }
+        slots[index] = task;
+        pending++;
+    }
+
+    private void appendDue(TimerWheelTask task) {
+        task.slot = DUE;
+        task.prev = dueTail;
+        task.next = null;
+        if (dueTail == null) {
+            dueHead = task;
+        } else {
+            dueTail.next = task;
+        }
+        dueTail = task;
+    }
+
+    private boolean unlink(TimerWheelTask task) {
+        if (task.slot == UNSCHEDULED) {
+            return false;
+        }
+        if (task.slot == DUE) {
+            if (task.prev == null) {
+                dueHead = task.next;
+            } else {
+                task.prev.next = task.next;
+            }
+            if (task.next == null) {
+                dueTail = task.prev;
+            } else {
+                task.next.prev = task.prev;
+            }
+        } else {
+            if (task.prev == null) {
+                slots[task.slot] = task.next;
+            } else {
+                task.prev.next = task.next;
+            }
+            if (task.next != null) {
+                task.next.prev = task.prev;
+            }
+            pending--;
+        }
+        task.prev = null;
+        task.next = null;
+        task.slot = UNSCHEDULED;
+        return true;
+    }
+
+    /*
+     * Process every tick up to the current time, moving tasks that are due to the
+     * due list.
+     */
+    private void advance() {
+        long now = (System.currentTimeMillis() - baseTime) / TICK;
+        while (currentTick <= now) {
+            if (pending == 0) {
+                currentTick = now + 1;
+                break;
+            }
+            int index = (int) (currentTick & SLOT_MASK);
+            if (index == 0) {
+                for (int level = 1; level < LEVELS; level++) {
+                    int i = (int) ((currentTick >> (SLOT_BITS * level)) & SLOT_MASK);
+                    spreadOut(level * SLOTS + i);
+                    if (i != 0) {
+                        break;
+                    }
+                }
+            }
+            TimerWheelTask task = slots[index];
+            while (task != null) {
+                TimerWheelTask next = task.next;
+                unlink(task);
+                appendDue(task);
+                task = next;
+            }
+            currentTick++;
+        }
+    }
+
+    private void spreadOut(int index) {
+        TimerWheelTask task = slots[index];
+        while (task != null) {
+            TimerWheelTask next = task.next;
+            unlink(task);
+            insert(task);
+            task = next;
+        }
+    }
+
+    /*
+     * The time, relative to baseTime, at which the next first level slot holding
+     * tasks is due, or at which the next level has to be spread out.
+     */
+    private long timeOfNextSlot() {
+        long boundary = (currentTick + SLOT_MASK) & ~SLOT_MASK;     // next tick that spreads out a level
+        long tick = currentTick;
+        while (tick < boundary && slots[(int) (tick & SLOT_MASK)] == null) {
+            tick++;
+        }
+        return tick * TICK;
+    }
+
+    // IService methods
+
+    public synchronized boolean start() {
+        if (!isRunning() && status != STARTING) {
+            Utils.log("[TimerWheel] Starting");
+            thread = new Thread(this, "Timer Wheel Service");
+            VM.setAsDaemonThread(thread);
+            status = STARTING;
+            thread.start();
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    public synchronized boolean stop() {
+        if (status == RUNNING) {
+            Utils.log("[TimerWheel] Stopping");
+            status = STOPPING;
+            thread.interrupt();
+            return true;
+        } else {
+            return status == STOPPED;
+        }
+    }
+
+    public boolean pause() {
+        return stop();
+    }
+
+    public boolean resume() {
+        return start();
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public boolean isRunning() {
+        return status == RUNNING;
+    }
+
+    public String getServiceName() {
+        return "Timer Wheel Service";
+    }
+
+    public void setServiceName(String who) {
+    }
+
+    public boolean getEnabled() {
+        return false;
+    }
+
+    public void setEnabled(boolean enable) {
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+
+package com.sun.spot.service;
+
+/**
+ * A piece of work to be run once by the {@link TimerWheel} after a delay. A task
+ * may be scheduled again, from its own run() method or elsewhere, as often as
+ * needed without creating a new one, and scheduling a task that is already
+ * scheduled moves it to the new time.<br><br>
+ *
+ * Tasks are run one after another on the timer wheel's thread, so run() should
+ * return quickly and hand anything lengthy to a thread of its own.
+ */
+public abstract class TimerWheelTask implements Runnable {
+
+    // maintained by the TimerWheel while it holds its lock
+    TimerWheelTask prev;
+    TimerWheelTask next;
+    int slot = TimerWheel.UNSCHEDULED;
+    long expiry;                            // in ticks of the wheel
+
+    /**
+     * Method called when the delay has passed. User must define it.
+     */
+    public abstract void run();
+
+    /**
+     * Run this task once after a delay, replacing any time it was already scheduled for.
+     *
+     * @param delay time in milliseconds to wait before running the task
+     */
+    public void schedule(long delay) {
+        TimerWheel.getInstance().schedule(this, delay);
+    }
+
+    /**
+     * Stop this task from being run, if it has not been run yet.
+     *
+     * @return true if the task was scheduled
+     */
+    public boolean cancel() {
+        return TimerWheel.getInstance().cancel(this);
+    }
+
+    /**
+     * @return true if the task is waiting to be run
+     */
+    public boolean isScheduled() {
+        return TimerWheel.getInstance().isScheduled(this);
+    }
+}
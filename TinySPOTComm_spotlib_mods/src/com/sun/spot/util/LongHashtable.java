@@ -0,0 +1,243 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+
+package com.sun.spot.util;
+
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+
+/**
+ * Implements a fully synchronised hashtable that maps primitive long keys, such
+ * as IEEE addresses, to Objects. Unlike java.util.Hashtable the keys are not
+ * boxed, so lookups do not allocate.<br><br>
+ *
+ * Entries are kept in open-addressed arrays using linear probing. Null values are
+ * not allowed. The enumeration returned by {@link #elements()} works on a snapshot,
+ * so the table may be changed while it is being enumerated.
+ */
+public class LongHashtable {
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private long[] keys;
+	private Object[] values;
+	private int count = 0;
+
+	/**
+	 * Create an empty table.
+	 */
+	public LongHashtable() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create an empty table able to hold the given number of entries without growing.
+	 *
+	 * @param initialCapacity the expected number of entries
+	 */
+	public LongHashtable(int initialCapacity) {
+		int capacity = DEFAULT_CAPACITY;
+		while (capacity < initialCapacity * 2) {
+			capacity <<= 1;
+		}
+		keys = new long[capacity];
+		values = new Object[capacity];
+	}
+
+	/**
+	 * Answer the number of entries in the receiver.
+	 *
+	 * @return -- the number of entries in the receiver.
+	 */
+	public synchronized int size() {
+		return count;
+	}
+
+	/**
+	 * Answer whether the receiver is empty.
+	 *
+	 * @return -- whether the receiver is empty.
+	 */
+	public synchronized boolean isEmpty() {
+		return count == 0;
+	}
+
+	/**
+	 * Answer the value stored under a key.
+	 *
+	 * @param key the key to look up
+	 * @return -- the value, or null if there is none
+	 */
+	public synchronized Object get(long key) {
+		return values[indexOf(key)];
+	}
+
+	/**
+	 * Answer whether a value is stored under a key.
+	 *
+	 * @param key the key to look up
+	 * @return -- true if there is a value for the key
+	 */
+	public synchronized boolean containsKey(long key) {
+		return values[indexOf(key)] != null;
+	}
+
+	/**
+	 * Store a value under a key, replacing any previous value.
+	 *
+	 * @param key the key
+	 * @param value the value, which must not be null
+	 * @return -- the previous value, or null if there was none
+	 */
+	public synchronized Object put(long key, Object value) {
+		if (value == null) {
+			throw new NullPointerException();
+		}
+		int i = indexOf(key);
+		Object old = values[i];
+		if (old == null) {
+			keys[i] = key;
+			count++;
+		}
+		values[i] = value;
+		if (count * 2 > values.length) {
+			rehash(values.length << 1);
+		}
+		return old;
+	}
+
+	/**
+	 * Remove the value stored under a key.
+	 *
+	 * @param key the key
+	 * @return -- the removed value, or null if there was none
+	 */
+	public synchronized Object remove(long key) {
+		int i = indexOf(key);
+		Object old = values[i];
+		if (old != null) {
+			values[i] = null;
+			count--;
+			closeGap(i);
+		}
+		return old;
+	}
+
+	/**
+	 * Remove all entries.
+	 */
+	public synchronized void clear() {
+		for (int i = 0; i < values.length; i++) {
+			values[i] = null;
+		}
+		count = 0;
+	}
+
+	/**
+	 * Answer the keys of the receiver.
+	 *
+	 * @return -- a new array holding all keys
+	 */
+	public synchronized long[] keys() {
+		long[] result = new long[count];
+		int n = 0;
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null) {
+				result[n++] = keys[i];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Answer an enumeration of a snapshot of the values of the receiver.
+	 *
+	 * @return -- the enumeration
+	 */
+	public synchronized Enumeration elements() {
+		final Object[] snapshot = new Object[count];
+		int n = 0;
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null) {
+				snapshot[n++] = values[i];
+			}
+		}
+		return new Enumeration() {
+			private int next = 0;
+
+			public boolean hasMoreElements() {
+				return next < snapshot.length;
+			}
+
+			public Object nextElement() {
+				if (next >= snapshot.length) {
+					throw new NoSuchElementException();
+				}
+				return snapshot[next++];
+			}
+		};
+	}
+
+	static int hash(long key) {
+		int h = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/*
+	 * Answer the slot holding the key, or the empty slot where it would go.
+	 */
+	private int indexOf(long key) {
+		int mask = values.length - 1;
+		int i = hash(key) & mask;
+		while (values[i] != null && keys[i] != key) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	/*
+	 * Move entries following a freed slot back so that every entry stays
+	 * reachable from its home slot without tombstones.
+	 */
+	private void closeGap(int gap) {
+		int mask = values.length - 1;
+		int i = (gap + 1) & mask;
+		while (values[i] != null) {
+			int home = hash(keys[i]) & mask;
+			if (((i - home) & mask) >= ((i - gap) & mask)) {
+				keys[gap] = keys[i];
+				values[gap] = values[i];
+				values[i] = null;
+				gap = i;
+			}
+			i = (i + 1) & mask;
+		}
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new long[capacity];
+		values = new Object[capacity];
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] != null) {
+				int j = indexOf(oldKeys[i]);
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+			}
+		}
+	}
+}
@@ -0,0 +1,203 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+
+package com.sun.spot.util;
+
+/**
+ * Implements a fully synchronised hashtable that maps primitive long keys to
+ * primitive int values, such as a sequence number per IEEE address. Neither keys
+ * nor values are boxed, so neither lookups nor updates allocate once the table
+ * has reached its working size.<br><br>
+ *
+ * Entries are kept in open-addressed arrays using linear probing.
+ *
+ * @see LongHashtable
+ */
+public class LongIntHashtable {
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private long[] keys;
+	private int[] values;
+	private boolean[] used;
+	private int count = 0;
+
+	/**
+	 * Create an empty table.
+	 */
+	public LongIntHashtable() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create an empty table able to hold the given number of entries without growing.
+	 *
+	 * @param initialCapacity the expected number of entries
+	 */
+	public LongIntHashtable(int initialCapacity) {
+		int capacity = DEFAULT_CAPACITY;
+		while (capacity < initialCapacity * 2) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	/**
+	 * Answer the number of entries in the receiver.
+	 *
+	 * @return -- the number of entries in the receiver.
+	 */
+	public synchronized int size() {
+		return count;
+	}
+
+	/**
+	 * Answer whether the receiver is empty.
+	 *
+	 * @return -- whether the receiver is empty.
+	 */
+	public synchronized boolean isEmpty() {
+		return count == 0;
+	}
+
+	/**
+	 * Answer the value stored under a key.
+	 *
+	 * @param key the key to look up
+	 * @param defaultValue the value to answer if there is no entry for the key
+	 * @return -- the value, or defaultValue if there is none
+	 */
+	public synchronized int get(long key, int defaultValue) {
+		int i = indexOf(key);
+		return used[i] ? values[i] : defaultValue;
+	}
+
+	/**
+	 * Answer whether a value is stored under a key.
+	 *
+	 * @param key the key to look up
+	 * @return -- true if there is a value for the key
+	 */
+	public synchronized boolean containsKey(long key) {
+		return used[indexOf(key)];
+	}
+
+	/**
+	 * Store a value under a key, replacing any previous value.
+	 *
+	 * @param key the key
+	 * @param value the value
+	 */
+	public synchronized void put(long key, int value) {
+		int i = indexOf(key);
+		if (!used[i]) {
+			used[i] = true;
+			keys[i] = key;
+			count++;
+		}
+		values[i] = value;
+		if (count * 2 > used.length) {
+			rehash(used.length << 1);
+		}
+	}
+
+	/**
+	 * Remove the value stored under a key.
+	 *
+	 * @param key the key
+	 * @return -- true if there was an entry for the key
+	 */
+	public synchronized boolean remove(long key) {
+		int i = indexOf(key);
+		if (!used[i]) {
+			return false;
+		}
+		used[i] = false;
+		count--;
+		// move entries following the freed slot back so they stay reachable
+		int mask = used.length - 1;
+		int gap = i;
+		i = (i + 1) & mask;
+		while (used[i]) {
+			int home = LongHashtable.hash(keys[i]) & mask;
+			if (((i - home) & mask) >= ((i - gap) & mask)) {
+				keys[gap] = keys[i];
+				values[gap] = values[i];
+				used[gap] = true;
+				used[i] = false;
+				gap = i;
+			}
+			i = (i + 1) & mask;
+		}
+		return true;
+	}
+
+	/**
+	 * Remove all entries.
+	 */
+	public synchronized void clear() {
+		for (int i = 0; i < used.length; i++) {
+			used[i] = false;
+		}
+		count = 0;
+	}
+
+	/**
+	 * Answer the keys of the receiver.
+	 *
+	 * @return -- a new array holding all keys
+	 */
+	public synchronized long[] keys() {
+		long[] result = new long[count];
+		int n = 0;
+		for (int i = 0; i < used.length; i++) {
+			if (used[i]) {
+				result[n++] = keys[i];
+			}
+		}
+		return result;
+	}
+
+	private int indexOf(long key) {
+		int mask = used.length - 1;
+		int i = LongHashtable.hash(key) & mask;
+		while (used[i] && keys[i] != key) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new int[capacity];
+		used = new boolean[capacity];
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		boolean[] oldUsed = used;
+		allocate(capacity);
+		for (int i = 0; i < oldUsed.length; i++) {
+			if (oldUsed[i]) {
+				int j = indexOf(oldKeys[i]);
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+				used[j] = true;
+			}
+		}
+	}
+}
@@ -0,0 +1,49 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+
+package com.sun.spot.util;
+
+/**
+ * A {@link SingleProducerQueue} that any number of threads may add elements to.
+ * Producers are serialised among themselves; the single consumer still takes
+ * elements without a lock.
+ */
+public class MultiProducerQueue extends SingleProducerQueue {
+	private final Object producerLock = new Object();
+
+	/**
+	 * Create a queue that holds at least capacity elements. The capacity is
+	 * rounded up to a power of two.
+	 *
+	 * @param capacity -- the minimum number of elements the queue can hold
+	 */
+	public MultiProducerQueue(int capacity) {
+		super(capacity);
+	}
+
+	/**
+	 * Add an element to the receiver unless it is full. May be called by any thread.
+	 *
+	 * @param o -- the Object to add
+	 * @return -- true if the element was added, false if the receiver is full
+	 */
+	public boolean offer(Object o) {
+		synchronized (producerLock) {
+			return super.offer(o);
+		}
+	}
+}
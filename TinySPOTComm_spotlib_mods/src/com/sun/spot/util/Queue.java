@@ -24,14 +24,46 @@
 
 package com.sun.spot.util;
 
-import java.util.Vector;
-
 /**
- * Implements a fully synchronised FIFO queue of Objects. 
+ * Implements a fully synchronised FIFO queue of Objects.<br><br>
+ *
+ * The elements are kept in a circular array, so adding and removing an element
+ * take constant time. A queue created with {@link #Queue()} grows as needed; one
+ * created with {@link #Queue(int)} holds at most the given number of elements.
+ *
+ * @see SingleProducerQueue
+ * @see MultiProducerQueue
  */
 public class Queue {
-	private Vector v = new Vector();
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private final Object lock = new Object();
+	private final boolean bounded;
+	private Object[] elements;
+	private int head = 0;
+	private int count = 0;
 	private boolean stopped = false;
+
+	/**
+	 * Create a queue that grows as elements are added.
+	 */
+	public Queue() {
+		elements = new Object[DEFAULT_CAPACITY];
+		bounded = false;
+	}
+
+	/**
+	 * Create a queue that holds at most capacity elements.
+	 *
+	 * @param capacity -- the maximum number of elements
+	 */
+	public Queue(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		elements = new Object[capacity];
+		bounded = true;
+	}
 	
 	/**
 	 * Answer whether the receiver is empty.
@@ -39,8 +71,8 @@ public class Queue {
 	 * @return - whether the receiver is empty.
 	 */
 	public boolean isEmpty() {
-		synchronized (v) {
-			return v.isEmpty();
+		synchronized (lock) {
+			return count == 0;
 		}		
 	}
 	
@@ -50,20 +82,50 @@ public class Queue {
 	 * @return -- the number of elements in the receiver.
 	 */
 	public int size() {
-		synchronized (v) {
-			return v.size();
+		synchronized (lock) {
+			return count;
 		}		
 	}
+
+	/**
+	 * Answer the maximum number of elements the receiver can hold.
+	 *
+	 * @return -- the capacity, or Integer.MAX_VALUE if the receiver grows as needed
+	 */
+	public int getCapacity() {
+		return bounded ? elements.length : Integer.MAX_VALUE;
+	}
 	
 	/**
 	 * Add an element to the receiver.
 	 *  
 	 * @param o -- the Object to add
+	 * @throws IllegalStateException if the receiver is bounded and full
 	 */
 	public void put(Object o) {
-		synchronized (v) {
-			v.addElement(o);
-			v.notify();
+		if (!offer(o)) {
+			throw new IllegalStateException("Queue full");
+		}
+	}
+
+	/**
+	 * Add an element to the receiver unless it is bounded and full.
+	 *
+	 * @param o -- the Object to add
+	 * @return -- true if the element was added, false if the receiver is full
+	 */
+	public boolean offer(Object o) {
+		synchronized (lock) {
+			if (count == elements.length) {
+				if (bounded) {
+					return false;
+				}
+				grow();
+			}
+			elements[(head + count) % elements.length] = o;
+			count++;
+			lock.notify();
+			return true;
 		}
 	}
 
@@ -77,10 +139,10 @@ public class Queue {
 	 * @return -- either the first element from the receiver or null after a timeout or if queue is stopped.
 	 */
 	public Object get(long timeout) {
-		synchronized (v) {
-			if (timeout > 0 && v.isEmpty() && !stopped) {
+		synchronized (lock) {
+			if (timeout > 0 && count == 0 && !stopped) {
 				try {
-					v.wait(timeout);
+					lock.wait(timeout);
 				} catch (InterruptedException e) {
 					// it's important to catch this exception because we don't notifyAll in
 					// put(), so only one thread is unblocked and the thread must consume the
@@ -99,10 +161,10 @@ public class Queue {
 	 * @return -- the first element from the receiver, or null if queue is stopped
 	 */
 	public Object get() {
-		synchronized (v) {
-			while (v.isEmpty() && !stopped) {
+		synchronized (lock) {
+			while (count == 0 && !stopped) {
 				try {
-					v.wait();
+					lock.wait();
 				} catch (InterruptedException e) {
 					// it's important to catch this exception because we don't notifyAll in
 					// put(), so only one thread is unblocked and the thread must consume the
@@ -114,13 +176,49 @@ public class Queue {
 		}		
 	}
 	
+	/**
+	 * Move up to max elements from the receiver into an array, taking the lock once.
+	 * If the receiver is empty, block until either an element becomes available, or
+	 * for timeout milliseconds, or the queue is stopped.
+	 *
+	 * @param into -- the array to fill from index 0
+	 * @param max -- the maximum number of elements to move
+	 * @param timeout -- number of milliseconds to wait, 0 not to wait or a negative value to wait indefinitely
+	 * @return -- the number of elements moved, 0 after a timeout or if the queue is stopped
+	 */
+	public int drainTo(Object[] into, int max, long timeout) {
+		if (max > into.length) {
+			max = into.length;
+		}
+		synchronized (lock) {
+			if (timeout != 0 && count == 0 && !stopped) {
+				try {
+					if (timeout < 0) {
+						while (count == 0 && !stopped) {
+							lock.wait();
+						}
+					} else {
+						lock.wait(timeout);
+					}
+				} catch (InterruptedException e) {
+					// see get()
+				}
+			}
+			int n = 0;
+			while (n < max && count > 0) {
+				into[n++] = pop();
+			}
+			return n;
+		}
+	}
+	
 	/**
 	 * Release all waiters
 	 */
 	public void stop() {
-		synchronized (v) {
+		synchronized (lock) {
 			stopped = true;
-			v.notifyAll();
+			lock.notifyAll();
 		}		
 	}
 	
@@ -128,17 +226,31 @@ public class Queue {
 	 * Drop the contents of the queue.
 	 */
 	public void empty() {
-		synchronized (v) {
-			v.removeAllElements();
+		synchronized (lock) {
+			while (count > 0) {
+				pop();
+			}
+			head = 0;
 		}		
 	}
 
 	private Object pop() {
 		Object result = null;
-		if (!v.isEmpty()) {
-			result = v.firstElement();
-			v.removeElementAt(0);
+		if (count > 0) {
+			result = elements[head];
+			elements[head] = null;
+			head = (head + 1) % elements.length;
+			count--;
 		}
 		return result;
 	}
+
+	private void grow() {
+		Object[] larger = new Object[elements.length * 2];
+		for (int i = 0; i < count; i++) {
+			larger[i] = elements[(head + i) % elements.length];
+		}
+		elements = larger;
+		head = 0;
+	}
 }
@@ -0,0 +1,204 @@
+/*
+ * This code is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * only, as published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License version 2 for more details (a copy is
+ * included in the LICENSE file that accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License
+ * version 2 along with this work; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA
+ */
+
+package com.sun.spot.util;
+
+/**
+ * Implements a bounded FIFO queue of Objects for exactly one producer thread and
+ * one consumer thread. It has the same put/get/stop semantics as {@link Queue},
+ * but adding and removing elements take no lock: the producer only advances the
+ * tail and the consumer only advances the head of a circular array. A lock is
+ * only taken when the consumer has to wait for an element.<br><br>
+ *
+ * {@link #put(Object)} and {@link #offer(Object)} may only be called by the
+ * producer, {@link #get()}, {@link #get(long)} and {@link #empty()} only by the
+ * consumer. Use a {@link MultiProducerQueue} if several threads add elements.
+ */
+public class SingleProducerQueue {
+	private final Object[] elements;
+	private final int mask;
+	private final Object lock = new Object();
+	private volatile int head = 0;		// next slot to read, only advanced by the consumer
+	private volatile int tail = 0;		// next slot to write, only advanced by the producer
+	private volatile boolean consumerWaiting = false;
+	private volatile boolean stopped = false;
+
+	/**
+	 * Create a queue that holds at least capacity elements. The capacity is
+	 * rounded up to a power of two.
+	 *
+	 * @param capacity -- the minimum number of elements the queue can hold
+	 */
+	public SingleProducerQueue(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		elements = new Object[size];
+		mask = size - 1;
+	}
+
+	/**
+	 * Answer whether the receiver is empty.
+	 *
+	 * @return - whether the receiver is empty.
+	 */
+	public boolean isEmpty() {
+		return head == tail;
+	}
+
+	/**
+	 * Answer the number of elements in the receiver. When called while the
+	 * other thread adds or removes elements the answer is only a snapshot, but
+	 * it always lies between 0 and the capacity.
+	 *
+	 * @return -- the number of elements in the receiver.
+	 */
+	public int size() {
+		// tail never falls behind head, so reading head first cannot give a negative size
+		int h = head;
+		int t = tail;
+		return Math.min(t - h, elements.length);
+	}
+
+	/**
+	 * Answer the maximum number of elements the receiver can hold.
+	 *
+	 * @return -- the capacity
+	 */
+	public int getCapacity() {
+		return elements.length;
+	}
+
+	/**
+	 * Add an element to the receiver.
+	 *
+	 * @param o -- the Object to add
+	 * @throws IllegalStateException if the receiver is full
+	 */
+	public void put(Object o) {
+		if (!offer(o)) {
+			throw new IllegalStateException("Queue full");
+		}
+	}
+
+	/**
+	 * Add an element to the receiver unless it is full.
+	 *
+	 * @param o -- the Object to add
+	 * @return -- true if the element was added, false if the receiver is full
+	 */
+	public boolean offer(Object o) {
+		int t = tail;
+		if (t - head == elements.length) {
+			return false;
+		}
+		elements[t & mask] = o;
+		tail = t + 1;
+		if (consumerWaiting) {
+			synchronized (lock) {
+				lock.notify();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Answer an element from the receiver. If the receiver is empty, block
+	 * until either an element becomes available, or for timeout milliseconds,
+	 * or the queue is stopped. In the event of timeout, return null.
+	 *
+	 * @param timeout -- number of milliseconds to wait
+	 * @return -- either the first element from the receiver or null after a timeout or if queue is stopped.
+	 */
+	public Object get(long timeout) {
+		if (timeout > 0 && head == tail && !stopped) {
+			await(timeout);
+		}
+		return pop();
+	}
+
+	/**
+	 * Answer an element from the receiver. If the receiver is empty, block
+	 * (possibly forever) until an element becomes available.
+	 * Note that if a waiting thread is interrupted it will return (probably null).
+	 *
+	 * @return -- the first element from the receiver, or null if queue is stopped
+	 */
+	public Object get() {
+		while (head == tail && !stopped) {
+			if (!await(0)) {
+				break;
+			}
+		}
+		return pop();
+	}
+
+	/**
+	 * Release the waiting consumer.
+	 */
+	public void stop() {
+		synchronized (lock) {
+			stopped = true;
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Drop the contents of the queue.
+	 */
+	public void empty() {
+		while (head != tail) {
+			pop();
+		}
+	}
+
+	/*
+	 * Wait until the producer signals a new element. The flag is set before the
+	 * queue is checked again, so the producer either sees it and notifies, or the
+	 * check sees the element. Answer false if the wait was interrupted.
+	 */
+	private boolean await(long timeout) {
+		synchronized (lock) {
+			consumerWaiting = true;
+			try {
+				if (head == tail && !stopped) {
+					lock.wait(timeout);
+				}
+			} catch (InterruptedException e) {
+				return false;
+			} finally {
+				consumerWaiting = false;
+			}
+		}
+		return true;
+	}
+
+	private Object pop() {
+		int h = head;
+		if (h == tail) {
+			return null;
+		}
+		Object result = elements[h & mask];
+		elements[h & mask] = null;
+		head = h + 1;
+		return result;
+	}
+}
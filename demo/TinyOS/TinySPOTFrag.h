@@ -0,0 +1,27 @@
+#ifndef TINYSPOTFRAG_H
+#define TINYSPOTFRAG_H
+
+// the largest datagram that can be reassembled, at most 2040
+#ifndef TINYSPOT_FRAG_MAX_DATAGRAM
+#define TINYSPOT_FRAG_MAX_DATAGRAM 256
+#endif
+
+enum
+{
+    // must match ITinyOSRadioProtocolManager.FRAGMENT_AM_TYPE
+    AM_TINYSPOT_FRAG = 0xF4,
+    TINYSPOT_FRAG_TIMEOUT = 10000,
+    TINYSPOT_FRAG_ATTEMPTS = 3
+};
+
+// precedes the data in every fragment; the offset is in units of 8 bytes
+typedef nx_struct
+{
+    nx_uint8_t port;
+    nx_uint8_t tag;
+    nx_uint16_t size;
+    nx_uint8_t offset;
+} tinyspot_frag_header_t;
+
+
+#endif
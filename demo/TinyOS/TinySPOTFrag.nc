@@ -0,0 +1,20 @@
+/**
+ * Sends and receives datagrams that are larger than a single packet as a
+ * series of fragments, compatible with 'tinyos://' connections on a SunSPOT
+ * for which fragmentation is enabled. The port is the AM type the datagram
+ * would have had as a single packet.
+ */
+interface TinySPOTFrag
+{
+    /**
+     * Send a datagram in fragments. The data must not be changed before sendDone.
+     */
+    command error_t send(am_addr_t addr, void* data, uint16_t len);
+
+    event void sendDone(void* data, error_t error);
+
+    /**
+     * A datagram has been reassembled. The data may only be read during the event.
+     */
+    event void receive(am_addr_t source, void* data, uint16_t len);
+}
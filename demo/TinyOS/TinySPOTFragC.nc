@@ -0,0 +1,22 @@
+#include "TinySPOTFrag.h"
+
+configuration TinySPOTFragC
+{
+    provides interface TinySPOTFrag[uint8_t port];
+}
+implementation
+{
+    components TinySPOTFragP;
+    components new AMSenderC(AM_TINYSPOT_FRAG);
+    components new AMReceiverC(AM_TINYSPOT_FRAG);
+    components new TimerMilliC();
+    
+    TinySPOTFrag = TinySPOTFragP;
+    
+    TinySPOTFragP.AMSend -> AMSenderC.AMSend;
+    TinySPOTFragP.Packet -> AMSenderC.Packet;
+    TinySPOTFragP.AMPacket -> AMSenderC.AMPacket;
+    TinySPOTFragP.PacketAcknowledgements -> AMSenderC.Acks;
+    TinySPOTFragP.FragmentReceive -> AMReceiverC;
+    TinySPOTFragP.Timer -> TimerMilliC;
+}
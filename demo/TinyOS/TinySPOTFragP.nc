@@ -0,0 +1,159 @@
+#include "TinySPOTFrag.h"
+
+module TinySPOTFragP
+{
+    provides interface TinySPOTFrag[uint8_t port];
+    
+    uses interface AMSend;
+    uses interface Packet;
+    uses interface AMPacket;
+    uses interface PacketAcknowledgements;
+    uses interface Receive as FragmentReceive;
+    uses interface Timer<TMilli>;
+}
+implementation
+{
+    enum
+    {
+        // all fragments but the last carry a multiple of 8 bytes
+        FRAGMENT_DATA = (TOSH_DATA_LENGTH - sizeof(tinyspot_frag_header_t)) & ~7
+    };
+    
+    // the datagram being reassembled, one at a time
+    uint8_t rxBuffer[TINYSPOT_FRAG_MAX_DATAGRAM];
+    uint8_t rxReceived[(TINYSPOT_FRAG_MAX_DATAGRAM + 63) / 64]; // one bit per 8-byte block
+    uint16_t rxMissing = 0; // blocks still missing, 0 when idle
+    am_addr_t rxSource;
+    uint8_t rxPort;
+    uint8_t rxTag;
+    uint16_t rxSize;
+    
+    // the datagram being sent, one at a time
+    message_t txMsg;
+    uint8_t* txData;
+    uint16_t txSize;
+    uint16_t txOffset;
+    am_addr_t txDest;
+    uint8_t txPort;
+    uint8_t txTag = 0;
+    uint8_t txAttempts;
+    bool txBusy = FALSE;
+    
+    void finishSend(error_t error)
+    {
+        txBusy = FALSE;
+        signal TinySPOTFrag.sendDone[txPort](txData, error);
+    }
+    
+    task void sendFragment()
+    {
+        tinyspot_frag_header_t* hdr = (tinyspot_frag_header_t*)(call Packet.getPayload(&txMsg, TOSH_DATA_LENGTH));
+        uint16_t n = txSize - txOffset;
+        if (n > FRAGMENT_DATA)
+            n = FRAGMENT_DATA;
+        hdr->port = txPort;
+        hdr->tag = txTag;
+        hdr->size = txSize;
+        hdr->offset = txOffset >> 3;
+        memcpy((uint8_t*)hdr + sizeof(tinyspot_frag_header_t), txData + txOffset, n);
+        call PacketAcknowledgements.requestAck(&txMsg);
+        if (call AMSend.send(txDest, &txMsg, sizeof(tinyspot_frag_header_t) + n) != SUCCESS)
+            finishSend(FAIL);
+    }
+    
+    command error_t TinySPOTFrag.send[uint8_t port](am_addr_t addr, void* data, uint16_t len)
+    {
+        if (txBusy)
+            return EBUSY;
+        if (len == 0 || len > 2040 || FRAGMENT_DATA == 0)
+            return EINVAL;
+        txBusy = TRUE;
+        txData = (uint8_t*)data;
+        txSize = len;
+        txOffset = 0;
+        txDest = addr;
+        txPort = port;
+        txTag++;
+        txAttempts = 1;
+        post sendFragment();
+        return SUCCESS;
+    }
+    
+    event void AMSend.sendDone(message_t* msg, error_t error)
+    {
+        if (msg != &txMsg)
+            return;
+        if (error != SUCCESS)
+        {
+            finishSend(error);
+            return;
+        }
+        if (txDest != AM_BROADCAST_ADDR && !call PacketAcknowledgements.wasAcked(msg))
+        {
+            if (txAttempts++ < TINYSPOT_FRAG_ATTEMPTS)
+                post sendFragment();
+            else
+                finishSend(ENOACK);
+            return;
+        }
+        txOffset += FRAGMENT_DATA;
+        txAttempts = 1;
+        if (txOffset >= txSize)
+            finishSend(SUCCESS);
+        else
+            post sendFragment();
+    }
+    
+    event message_t* FragmentReceive.receive(message_t* msg, void* payload, uint8_t len)
+    {
+        tinyspot_frag_header_t* hdr = (tinyspot_frag_header_t*)payload;
+        uint8_t* data = (uint8_t*)payload + sizeof(tinyspot_frag_header_t);
+        uint16_t size, start, end, block, endBlock;
+        if (len <= sizeof(tinyspot_frag_header_t))
+            return msg;
+        len -= sizeof(tinyspot_frag_header_t);
+        size = hdr->size;
+        start = (uint16_t)hdr->offset << 3;
+        end = start + len;
+        //only the last fragment may end part way through a block
+        if (size == 0 || size > TINYSPOT_FRAG_MAX_DATAGRAM || end > size || ((len & 7) != 0 && end != size))
+            return msg;
+        if (rxMissing == 0 || rxSource != call AMPacket.source(msg) || rxPort != hdr->port || rxTag != hdr->tag || rxSize != size)
+        {
+            //a new datagram replaces the one being reassembled
+            rxSource = call AMPacket.source(msg);
+            rxPort = hdr->port;
+            rxTag = hdr->tag;
+            rxSize = size;
+            rxMissing = (size + 7) >> 3;
+            memset(rxReceived, 0, sizeof(rxReceived));
+            call Timer.startOneShot(TINYSPOT_FRAG_TIMEOUT);
+        }
+        endBlock = (end + 7) >> 3;
+        for (block = start >> 3; block < endBlock; block++)
+        {
+            //a fragment sent again because its ack was lost
+            if (rxReceived[block >> 3] & (1 << (block & 7)))
+                return msg;
+        }
+        for (block = start >> 3; block < endBlock; block++)
+            rxReceived[block >> 3] |= 1 << (block & 7);
+        rxMissing -= endBlock - (start >> 3);
+        memcpy(rxBuffer + start, data, len);
+        if (rxMissing == 0)
+        {
+            call Timer.stop();
+            signal TinySPOTFrag.receive[rxPort](rxSource, rxBuffer, rxSize);
+        }
+        return msg;
+    }
+    
+    event void Timer.fired()
+    {
+        rxMissing = 0;
+    }
+    
+    default event void TinySPOTFrag.sendDone[uint8_t port](void* data, error_t error) {}
+    
+    default event void TinySPOTFrag.receive[uint8_t port](am_addr_t source, void* data, uint16_t len) {}
+}